@@ -0,0 +1,184 @@
+/*
+ * AdjacencyBenchmark.java
+ *
+ * Compares the sparse row storage in Lattice against the dense Edge[numNodes][numNodes]
+ * matrix it replaced: loading a file, and decode, countAllPaths and getLatticeDensity
+ * together. The matrix needs numNodes^2 references, so sizes stop at a few thousand nodes.
+ *
+ * Usage
+ *    java -jar benchmarks/target/benchmarks.jar AdjacencyBenchmark
+ *
+ */
+
+package lattice;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AdjacencyBenchmark {
+   @Param({"250", "1000", "4000"})
+   public int numNodes;
+
+   @Param({"4"})
+   public int edgesPerNode;
+
+   private String filename;
+   private DenseLattice dense;
+   private Lattice sparse;
+
+   @Setup(Level.Trial)
+   public void setUp() throws IOException {
+      File file = File.createTempFile("adjacency", ".lattice");
+      file.deleteOnExit();
+      filename = file.getPath();
+      new SyntheticLatticeGenerator(numNodes, edgesPerNode, 1000, 0.0, 42).write(filename);
+      dense = new DenseLattice(filename);
+      sparse = new Lattice(filename);
+      if (!dense.decode(1.0).getHypothesisString().equals(sparse.decode(1.0).getHypothesisString())) {
+         throw new IllegalStateException("dense and sparse decode disagree for " + numNodes + " nodes");
+      }
+   }
+
+   @Benchmark
+   public Object denseLoad() throws IOException {
+      return new DenseLattice(filename);
+   }
+
+   @Benchmark
+   public Object sparseLoad() {
+      return new Lattice(filename);
+   }
+
+   @Benchmark
+   public double denseOps() {
+      return dense.decode(1.0).getPathScore() + dense.countAllPaths().bitLength() + dense.getLatticeDensity();
+   }
+
+   @Benchmark
+   public double sparseOps() {
+      return sparse.decode(1.0).getPathScore() + sparse.countAllPaths().bitLength() + sparse.getLatticeDensity();
+   }
+
+   /*
+   *  The adjacency matrix layout Lattice used before it moved to sparse rows, kept here
+   *   only as the baseline for this comparison.
+   */
+   private static class DenseLattice {
+      private int startIdx, endIdx, numNodes;
+      private Edge[][] adjMatrix;
+      private double[] nodeTimes;
+
+      DenseLattice(String latticeFilename) throws FileNotFoundException {
+         try (Scanner input = new Scanner(new File(latticeFilename))) {
+            input.nextLine();
+            startIdx = Integer.parseInt(input.nextLine().split(" ")[1]);
+            endIdx = Integer.parseInt(input.nextLine().split(" ")[1]);
+            numNodes = Integer.parseInt(input.nextLine().split(" ")[1]);
+            input.nextLine();
+
+            nodeTimes = new double[numNodes];
+            adjMatrix = new Edge[numNodes][numNodes];
+            for (int i = 0; i < numNodes; i++) {
+               nodeTimes[i] = Double.parseDouble(input.nextLine().split(" ")[2]);
+            }
+            while (input.hasNextLine()) {
+               String[] line = input.nextLine().split(" ");
+               adjMatrix[Integer.parseInt(line[1])][Integer.parseInt(line[2])] = new Edge(line[3], Integer.parseInt(line[4]), Integer.parseInt(line[5]));
+            }
+         }
+      }
+
+      Hypothesis decode(double lmScale) {
+         double[] cost = new double[numNodes];
+         int[] parent = new int[numNodes];
+         int[] topSort = topologicalSort();
+         ArrayList<Integer> revOrder = new ArrayList<Integer>();
+         Hypothesis hypothesis = new Hypothesis();
+
+         Arrays.fill(cost, Double.POSITIVE_INFINITY);
+         Arrays.fill(parent, -1);
+         cost[startIdx] = 0;
+         for (int i = 0; i < topSort.length; i++) {
+            int node = topSort[i];
+            for (int n = 0; n < numNodes; n++) {
+               Edge edge = adjMatrix[n][node];
+               if (edge != null && edge.getLmScore() * lmScale + edge.getAmScore() + cost[n] < cost[node]) {
+                  cost[node] = edge.getLmScore() * lmScale + edge.getAmScore() + cost[n];
+                  parent[node] = n;
+               }
+            }
+         }
+         for (int node = endIdx; node != startIdx; node = parent[node]) {
+            revOrder.add(node);
+         }
+         for (int i = revOrder.size() - 1; i >= 0; i--) {
+            Edge edge = adjMatrix[parent[revOrder.get(i)]][revOrder.get(i)];
+            hypothesis.addWord(edge.getLabel(), edge.getLmScore() * lmScale + edge.getAmScore());
+         }
+         return hypothesis;
+      }
+
+      int[] topologicalSort() {
+         int[] order = new int[numNodes];
+         int[] inDegrees = new int[numNodes];
+         int head = 0, tail = 0;
+
+         for (int col = 0; col < numNodes; col++) {
+            for (int row = 0; row < numNodes; row++) {
+               if (adjMatrix[row][col] != null) {
+                  inDegrees[col]++;
+               }
+            }
+            if (inDegrees[col] == 0) {
+               order[tail++] = col;
+            }
+         }
+         while (head < tail) {
+            int node = order[head++];
+            for (int i = 0; i < numNodes; i++) {
+               if (adjMatrix[node][i] != null && --inDegrees[i] == 0) {
+                  order[tail++] = i;
+               }
+            }
+         }
+         return order;
+      }
+
+      BigInteger countAllPaths() {
+         BigInteger[] childPaths = new BigInteger[numNodes];
+         int[] topSort = topologicalSort();
+
+         Arrays.fill(childPaths, BigInteger.ZERO);
+         childPaths[endIdx] = BigInteger.ONE;
+         for (int i = topSort.length - 1; i >= 0; i--) {
+            for (int j = 0; j < numNodes; j++) {
+               if (adjMatrix[topSort[i]][j] != null) {
+                  childPaths[topSort[i]] = childPaths[topSort[i]].add(childPaths[j]);
+               }
+            }
+         }
+         return childPaths[startIdx];
+      }
+
+      double getLatticeDensity() {
+         int wordCount = 0;
+         for (int i = 0; i < numNodes; i++) {
+            for (int j = 0; j < numNodes; j++) {
+               if (adjMatrix[i][j] != null && !adjMatrix[i][j].getLabel().equals("-silence-")) {
+                  wordCount++;
+               }
+            }
+         }
+         return wordCount / (nodeTimes[endIdx] - nodeTimes[startIdx]);
+      }
+   }
+}
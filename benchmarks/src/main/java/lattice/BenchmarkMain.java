@@ -0,0 +1,39 @@
+/*
+ * BenchmarkMain.java
+ *
+ * Entry point of the benchmark jar. Takes the usual JMH command line and always adds the
+ * GC profiler, so every result comes with its allocation rate (gc.alloc.rate and
+ * gc.alloc.rate.norm, bytes per operation) next to the throughput.
+ *
+ * Usage
+ *    java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regexp ...]
+ *
+ */
+
+package lattice;
+
+import java.io.IOException;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkMain {
+   public static void main(String[] args) throws RunnerException, IOException {
+      CommandLineOptions commandLine = null;
+      try {
+         commandLine = new CommandLineOptions(args);
+      }
+      catch (CommandLineOptionException e) {
+         System.err.println("Error: " + e.getMessage());
+         System.exit(2);
+      }
+      if (commandLine.shouldHelp() || commandLine.shouldList()) {
+         org.openjdk.jmh.Main.main(args);
+         return;
+      }
+      new Runner(new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class).build()).run();
+   }
+}
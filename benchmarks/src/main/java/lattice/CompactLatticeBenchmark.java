@@ -0,0 +1,79 @@
+/*
+ * CompactLatticeBenchmark.java
+ *
+ * The cursor-based traversals of CompactLattice against the same operations on the
+ * Lattice's arrays, on synthetic lattices. countAllPaths goes to BigIntegers on these
+ * lattices past a few dozen nodes, so the sizes stop at 100,000 as in PathCountBenchmark.
+ * The bytes per edge of both layouts are printed by java lattice.CompactLattice.
+ *
+ * Usage
+ *    java -jar benchmarks/target/benchmarks.jar CompactLatticeBenchmark [-p numNodes=1000]
+ *
+ */
+
+package lattice;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CompactLatticeBenchmark {
+   private static final double LM_SCALE = 10.0;
+
+   @Param({"1000", "100000"})
+   public int numNodes;
+
+   @Param({"3"})
+   public int branchingFactor;
+
+   private Lattice lattice;
+   private CompactLattice compact;
+
+   @Setup(Level.Trial)
+   public void setUp() {
+      lattice = new SyntheticLatticeGenerator(numNodes, branchingFactor, 1000, 0.1, 42).generate();
+      compact = lattice.compact();
+      lattice.getTopologicalOrder();
+   }
+
+   @Benchmark
+   public Hypothesis decode() {
+      return lattice.decode(LM_SCALE);
+   }
+
+   @Benchmark
+   public Hypothesis compactDecode() {
+      return compact.decode(LM_SCALE);
+   }
+
+   @Benchmark
+   public BigInteger countAllPaths() {
+      return lattice.countAllPaths();
+   }
+
+   @Benchmark
+   public BigInteger compactCountAllPaths() {
+      return compact.countAllPaths();
+   }
+
+   @Benchmark
+   public double getLatticeDensity() {
+      return lattice.getLatticeDensity();
+   }
+
+   @Benchmark
+   public double compactGetLatticeDensity() {
+      return compact.getLatticeDensity();
+   }
+
+   @Benchmark
+   public CompactLattice build() {
+      return new CompactLattice(lattice);
+   }
+}
@@ -0,0 +1,120 @@
+/*
+ * LatticeBenchmark.java
+ *
+ * Throughput of the public Lattice operations on synthetic lattices from 10 to 1,000,000
+ * nodes. The lattice is generated once per trial; operations that build a cached index on
+ * first use (word time index, keyword index) are measured warm. topologicalSort times the
+ * uncached sort, not the copy of the cached order the public method returns.
+ *
+ * countAllPaths has a benchmark of its own with smaller sizes, see PathCountBenchmark,
+ * and so do the text writers, see WriterBenchmark.
+ *
+ * Usage
+ *    java -jar benchmarks/target/benchmarks.jar LatticeBenchmark [-p numNodes=1000]
+ *
+ */
+
+package lattice;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LatticeBenchmark {
+   private static final double LM_SCALE = 10.0;
+   private static final double[] LM_SCALES = { 1, 2, 4, 6, 8, 10, 12, 14, 16, 18, 20 };
+
+   @Param({"10", "1000", "100000", "1000000"})
+   public int numNodes;
+
+   @Param({"3"})
+   public int branchingFactor;
+
+   @Param({"1000"})
+   public int vocabularySize;
+
+   @Param({"0.1"})
+   public double silenceRatio;
+
+   private String filename;
+   private Lattice lattice;
+   private double midTime;
+
+   @Setup(Level.Trial)
+   public void setUp() throws IOException {
+      SyntheticLatticeGenerator generator = new SyntheticLatticeGenerator(numNodes, branchingFactor, vocabularySize, silenceRatio, 42);
+      File file = File.createTempFile("bench", ".lattice");
+      file.deleteOnExit();
+      filename = file.getPath();
+      generator.write(filename);
+      lattice = generator.generate();
+      midTime = lattice.getNodeTime(numNodes / 2);
+   }
+
+   @Benchmark
+   public Lattice parse() throws IOException {
+      return new LatticeParser().parse(filename);
+   }
+
+   // The sort itself; topologicalSort() would only copy the order cached on the lattice
+   @Benchmark
+   public int[] topologicalSort() {
+      return lattice.computeTopologicalOrder();
+   }
+
+   @Benchmark
+   public Hypothesis decode() {
+      return lattice.decode(LM_SCALE);
+   }
+
+   @Benchmark
+   public Hypothesis[] decodeScales() {
+      return lattice.decode(LM_SCALES);
+   }
+
+   @Benchmark
+   public Hypothesis nBest() {
+      Hypothesis last = null;
+      for (Iterator<Hypothesis> paths = lattice.nBest(LM_SCALE, 10); paths.hasNext(); ) {
+         last = paths.next();
+      }
+      return last;
+   }
+
+   @Benchmark
+   public double getLatticeDensity() {
+      return lattice.getLatticeDensity();
+   }
+
+   @Benchmark
+   public LatticeStats computeStats() {
+      return lattice.computeStats(LM_SCALE);
+   }
+
+   @Benchmark
+   public LatticePosteriors computePosteriors() {
+      return lattice.computePosteriors(LM_SCALE);
+   }
+
+   @Benchmark
+   public Object uniqueWordsAtTime() {
+      return lattice.uniqueWordsAtTime(midTime);
+   }
+
+   @Benchmark
+   public double[] getSortedHits() {
+      return lattice.getSortedHits("-silence-");
+   }
+
+   @Benchmark
+   public Lattice prune() {
+      return lattice.prune(LM_SCALE, 100);
+   }
+}
@@ -0,0 +1,66 @@
+/*
+ * ParallelDecodeBenchmark.java
+ *
+ * Scaling of ParallelDecoder with the number of threads, against the sequential decode
+ * on the same lattice. The lattices have columns of width nodes (see
+ * SyntheticLatticeGenerator), so each topological level is width nodes wide; a width of
+ * 1 is the plain chain, where the parallel decoder can only lose. The pool of the
+ * decoder is made per trial with exactly threads workers, so the results compare core
+ * counts on one machine; thread counts above its cores measure only the overhead.
+ *
+ * Usage
+ *    java -jar benchmarks/target/benchmarks.jar ParallelDecodeBenchmark [-p threads=1,4]
+ *
+ */
+
+package lattice;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParallelDecodeBenchmark {
+   private static final double LM_SCALE = 10.0;
+
+   @Param({"1000000", "4000000"})
+   public int numNodes;
+
+   @Param({"1", "4096"})
+   public int width;
+
+   @Param({"1", "2", "4", "8"})
+   public int threads;
+
+   private Lattice lattice;
+   private ForkJoinPool pool;
+   private ParallelDecoder decoder;
+
+   @Setup(Level.Trial)
+   public void setUp() {
+      lattice = new SyntheticLatticeGenerator(numNodes, 3, 1000, 0.1, 42, width).generate();
+      pool = new ForkJoinPool(threads);
+      decoder = new ParallelDecoder(pool);
+      decoder.decode(lattice, LM_SCALE);          // Builds the cached levels
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      pool.shutdown();
+   }
+
+   @Benchmark
+   public Hypothesis parallelDecode() {
+      return decoder.decode(lattice, LM_SCALE);
+   }
+
+   @Benchmark
+   public Hypothesis sequentialDecode() {
+      return lattice.decodeSequential(LM_SCALE);
+   }
+}
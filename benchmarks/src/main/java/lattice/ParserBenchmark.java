@@ -0,0 +1,112 @@
+/*
+ * ParserBenchmark.java
+ *
+ * Lattice loading: LatticeParser against the Scanner/split/parseInt reader that Lattice
+ * used before it, and against mapping the same lattice in the binary format. The score
+ * is files per second; each benchmark also reports inputMB, the megabytes per second of
+ * the file it reads (the text file for scanner and latticeParser, the binary file for
+ * binaryLattice).
+ *
+ * Usage
+ *    java -jar benchmarks/target/benchmarks.jar ParserBenchmark
+ *
+ */
+
+package lattice;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParserBenchmark {
+   @Param({"2000", "100000"})
+   public int numNodes;
+
+   private String textFilename, binaryFilename;
+   private double textMB, binaryMB;
+   private LatticeParser parser;
+
+   // Megabytes read, reported by JMH as a rate next to the score
+   @State(Scope.Thread)
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   public static class Input {
+      public double inputMB;
+
+      @Setup(Level.Iteration)
+      public void reset() {
+         inputMB = 0;
+      }
+   }
+
+   @Setup(Level.Trial)
+   public void setUp() throws IOException {
+      File text = File.createTempFile("parser", ".lattice");
+      File binary = File.createTempFile("parser", ".latb");
+      text.deleteOnExit();
+      binary.deleteOnExit();
+      textFilename = text.getPath();
+      binaryFilename = binary.getPath();
+      new SyntheticLatticeGenerator(numNodes, 4, 1000, 0.1, numNodes).write(textFilename);
+      BinaryLattice.write(new Lattice(textFilename), binaryFilename);
+      parser = new LatticeParser();
+      textMB = text.length() / 1e6;
+      binaryMB = binary.length() / 1e6;
+   }
+
+   @Benchmark
+   public Lattice scanner(Input input) throws IOException {
+      input.inputMB += textMB;
+      return readWithScanner(textFilename);
+   }
+
+   @Benchmark
+   public Lattice latticeParser(Input input) throws IOException {
+      input.inputMB += textMB;
+      return parser.parse(textFilename);
+   }
+
+   @Benchmark
+   public Lattice binaryLattice(Input input) throws IOException {
+      input.inputMB += binaryMB;
+      return BinaryLattice.map(binaryFilename).toLattice();
+   }
+
+   // The reader Lattice(String) used before LatticeParser.
+   private static Lattice readWithScanner(String latticeFilename) throws FileNotFoundException {
+      try (Scanner input = new Scanner(new File(latticeFilename))) {
+         String utteranceID = input.nextLine().split(" ")[1];
+         int startIdx = Integer.parseInt(input.nextLine().split(" ")[1]);
+         int endIdx = Integer.parseInt(input.nextLine().split(" ")[1]);
+         int numNodes = Integer.parseInt(input.nextLine().split(" ")[1]);
+         int numEdges = Integer.parseInt(input.nextLine().split(" ")[1]);
+         double[] nodeTimes = new double[numNodes];
+         int[] sources = new int[numEdges];
+         int[] targets = new int[numEdges];
+         int[] words = new int[numEdges];
+         int[] amScores = new int[numEdges];
+         int[] lmScores = new int[numEdges];
+         int count = 0;
+
+         for (int i = 0; i < numNodes; i++) {
+            nodeTimes[i] = Double.parseDouble(input.nextLine().split(" ")[2]);
+         }
+         while (input.hasNextLine()) {
+            String[] line = input.nextLine().split(" ");
+            sources[count] = Integer.parseInt(line[1]);
+            targets[count] = Integer.parseInt(line[2]);
+            words[count] = Vocabulary.getId(line[3]);
+            amScores[count] = Integer.parseInt(line[4]);
+            lmScores[count] = Integer.parseInt(line[5]);
+            count++;
+         }
+         return new Lattice(utteranceID, startIdx, endIdx, numEdges, nodeTimes, sources, targets, words, amScores, lmScores, count);
+      }
+   }
+}
@@ -0,0 +1,44 @@
+/*
+ * PathCountBenchmark.java
+ *
+ * countAllPaths on synthetic lattices. With every node branching, the path count has
+ * about numNodes * log10(branchingFactor) digits once it leaves the long range, and every
+ * BigInteger addition costs that much, so the sizes here stop at 100,000 nodes. The small
+ * sizes exercise the overflow-checked long path.
+ *
+ * Usage
+ *    java -jar benchmarks/target/benchmarks.jar PathCountBenchmark
+ *
+ */
+
+package lattice;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PathCountBenchmark {
+   @Param({"10", "30", "1000", "100000"})
+   public int numNodes;
+
+   @Param({"3"})
+   public int branchingFactor;
+
+   private Lattice lattice;
+
+   @Setup(Level.Trial)
+   public void setUp() {
+      lattice = new SyntheticLatticeGenerator(numNodes, branchingFactor, 1000, 0.1, 42).generate();
+   }
+
+   @Benchmark
+   public BigInteger countAllPaths() {
+      return lattice.countAllPaths();
+   }
+}
@@ -0,0 +1,65 @@
+/*
+ * WriterBenchmark.java
+ *
+ * The text outputs of a lattice: toString, saveAsFile and writeAsDot, which all stream
+ * through a LatticeWriter, and the LatticeWriter alone into a Writer that discards its
+ * output, which is the formatting cost without the file system.
+ *
+ * Usage
+ *    java -jar benchmarks/target/benchmarks.jar WriterBenchmark
+ *
+ */
+
+package lattice;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WriterBenchmark {
+   @Param({"10", "1000", "100000", "1000000"})
+   public int numNodes;
+
+   private Lattice lattice;
+   private LatticeWriter nullWriter;
+   private String latticeFilename, dotFilename;
+
+   @Setup(Level.Trial)
+   public void setUp() throws IOException {
+      lattice = new SyntheticLatticeGenerator(numNodes, 3, 1000, 0.1, 42).generate();
+      File latticeFile = File.createTempFile("writer", ".lattice");
+      File dotFile = File.createTempFile("writer", ".dot");
+      latticeFile.deleteOnExit();
+      dotFile.deleteOnExit();
+      latticeFilename = latticeFile.getPath();
+      dotFilename = dotFile.getPath();
+      nullWriter = new LatticeWriter(Writer.nullWriter());
+   }
+
+   @Benchmark
+   public String toText() {
+      return lattice.toString();
+   }
+
+   @Benchmark
+   public void saveAsFile() {
+      lattice.saveAsFile(latticeFilename);
+   }
+
+   @Benchmark
+   public void writeToNullWriter() throws IOException {
+      nullWriter.writeLattice(lattice);
+      nullWriter.flush();
+   }
+
+   @Benchmark
+   public void writeAsDot() {
+      lattice.writeAsDot(dotFilename);
+   }
+}
@@ -0,0 +1,147 @@
+/*
+ * AsyncOutputWriter.java
+ *
+ * A background thread that runs output jobs, such as writing a lattice and its dot
+ * file, so that the thread which decoded the lattice can go on to the next one while
+ * the files are written.
+ *
+ * Jobs wait in a bounded queue and run one at a time in submission order. submit()
+ * blocks while the queue is full, which keeps the number of decoded lattices waiting
+ * for the disk, and the memory they hold, bounded. A job may throw IOException. close()
+ * waits for every job to finish and rethrows, as an IOException, the first failure of
+ * any of them; jobs submitted after a failure are dropped, and submit() after close()
+ * throws IllegalStateException. A job should therefore report failure by throwing, as
+ * writeLatticeFile does, not by exiting as saveAsFile does.
+ *
+ * Usage
+ *    try (AsyncOutputWriter output = new AsyncOutputWriter(8)) {
+ *       output.submit(() -> {
+ *          try (Writer file = new OutputStreamWriter(new FileOutputStream(filename))) {
+ *             LatticeWriter writer = new LatticeWriter(file);
+ *             writer.writeLattice(lattice);
+ *             writer.flush();
+ *          }
+ *       });
+ *    }
+ */
+
+package lattice;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class AsyncOutputWriter implements AutoCloseable {
+   private static final Job END = () -> { };
+
+   private final BlockingQueue<Job> queue;
+   private final Thread thread;
+   private final ReadWriteLock closing = new ReentrantReadWriteLock();   // Submitters share it, close() excludes them
+   private volatile Throwable failure;
+   private final AtomicLong blockedNanos = new AtomicLong();   // Time submitters spent waiting for room
+   private boolean closed;
+
+   // One piece of output
+   public interface Job {
+      void run() throws IOException;
+   }
+
+   public AsyncOutputWriter(int capacity) {
+      if (capacity < 1) {
+         throw new IllegalArgumentException("capacity must be at least 1");
+      }
+      this.queue = new ArrayBlockingQueue<Job>(capacity);
+      this.thread = new Thread(this::run, "lattice-output");
+      this.thread.setDaemon(true);
+      this.thread.start();
+   }
+
+   private void run() {
+      while (true) {
+         Job job;
+         try {
+            job = queue.take();
+         }
+         catch (InterruptedException e) {
+            return;
+         }
+         if (job == END) {
+            return;
+         }
+         try {
+            job.run();
+         }
+         catch (Throwable t) {
+            if (failure == null) {
+               failure = t;
+            }
+         }
+      }
+   }
+
+   /*
+   *  Queues job, waiting for room if the queue is full. Safe to call from several
+   *   threads. Throws IllegalStateException once close() has been called, as the job
+   *   would never run.
+   */
+   public void submit(Job job) {
+      closing.readLock().lock();
+      try {
+         if (closed) {
+            throw new IllegalStateException("output writer is closed");
+         }
+         if (failure != null) {
+            return;                          // Stop writing after a failure, close() reports it
+         }
+         if (!queue.offer(job)) {
+            long start = System.nanoTime();
+            try {
+               queue.put(job);
+            }
+            catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               throw new IllegalStateException(e);
+            }
+            blockedNanos.addAndGet(System.nanoTime() - start);
+         }
+      }
+      finally {
+         closing.readLock().unlock();
+      }
+   }
+
+   // Total time submit() callers waited for a full queue, in nanoseconds
+   public long getBlockedNanos() {
+      return this.blockedNanos.get();
+   }
+
+   /*
+   *  Waits for the queued jobs to finish and stops the thread.
+   */
+   public synchronized void close() throws IOException {
+      closing.writeLock().lock();            // Waits for submit() calls under way to queue their jobs
+      try {
+         if (closed) {
+            return;
+         }
+         closed = true;
+      }
+      finally {
+         closing.writeLock().unlock();
+      }
+      try {
+         queue.put(END);
+         thread.join();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("interrupted while waiting for output", e);
+      }
+      if (failure != null) {
+         throw new IOException("output failed: " + failure, failure);
+      }
+   }
+}
@@ -0,0 +1,317 @@
+/*
+ * BinaryLattice.java
+ *
+ * Versioned binary lattice format, memory-mapped for loading. The arrays are exposed as
+ * views over the mapped file, nothing is copied until toLattice() is called, which also
+ * checks that the offsets, edge targets and label numbers stay inside the lattice.
+ *
+ * Layout (big-endian, every section starts on an 8 byte boundary):
+ *
+ *   header       int magic "LATB", int version, int numNodes, int numEdges (as in the
+ *                text header), int edgeCount, int startIdx, int endIdx, int numLabels
+ *   id           int length, UTF-8 bytes of the utterance ID
+ *   nodeTimes    double[numNodes]
+ *   outOffsets   int[numNodes + 1], edges sorted by source as in Lattice
+ *   edgeTargets  int[edgeCount]
+ *   edgeLabels   int[edgeCount], indices into the label table
+ *   amScores     int[edgeCount]
+ *   lmScores     int[edgeCount]
+ *   labels       int[numLabels + 1] byte offsets, then the UTF-8 bytes of all labels
+ *
+ * Usage
+ *    java lattice.BinaryLattice latticeFilename binaryFilename
+ *
+ *   Converts a text lattice to the binary format, then loads the result back and checks
+ *   that it prints the same as the input.
+ */
+
+package lattice;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+public class BinaryLattice {
+   public static final int MAGIC = 0x4c415442;   // "LATB"
+   public static final int VERSION = 1;
+   private static final int HEADER_BYTES = 32;
+
+   private final String filename;
+   private final String utteranceID;
+   private final int numNodes, numEdges, edgeCount, startIdx, endIdx, numLabels;
+   private final DoubleBuffer nodeTimes;
+   private final IntBuffer outOffsets, edgeTargets, edgeLabels, amScores, lmScores;
+   private final IntBuffer labelOffsets;
+   private final ByteBuffer labelBytes;
+
+   public static void main(String[] args) throws IOException {
+      if (args.length != 2) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      Lattice lattice = new Lattice(args[0]);
+      write(lattice, args[1]);
+      if (!map(args[1]).toLattice().toString().equals(lattice.toString())) {
+         System.err.println("Error: " + args[1] + " does not read back as " + args[0]);
+         System.exit(1);
+      }
+      System.out.println(String.format("%s: %d nodes, %d edges, %d -> %d bytes", lattice.getUtteranceID(),
+            lattice.getNumNodes(), lattice.getEdgeCount(), new File(args[0]).length(), new File(args[1]).length()));
+   }
+
+   /*
+   *  Maps the file and checks its header, the sections become views into the mapping.
+   */
+   public static BinaryLattice map(String filename) throws IOException {
+      try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+         return new BinaryLattice(filename, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+   }
+
+   /*
+   *  A binary lattice that starts at index 0 of buffer, such as a record of a CorpusStore
+   *   segment. name stands in for the filename in error messages.
+   */
+   public static BinaryLattice wrap(ByteBuffer buffer, String name) throws IOException {
+      return new BinaryLattice(name, buffer);
+   }
+
+   private BinaryLattice(String filename, ByteBuffer buffer) throws IOException {
+      this.filename = filename;
+      try {
+         if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(filename + " is not a binary lattice file");
+         }
+         if (buffer.getInt(4) != VERSION) {
+            throw new IOException(filename + " has binary lattice version " + buffer.getInt(4) + ", expected " + VERSION);
+         }
+         numNodes = buffer.getInt(8);
+         numEdges = buffer.getInt(12);
+         edgeCount = buffer.getInt(16);
+         startIdx = buffer.getInt(20);
+         endIdx = buffer.getInt(24);
+         numLabels = buffer.getInt(28);
+
+         int pos = HEADER_BYTES;
+         byte[] id = new byte[buffer.getInt(pos)];
+         buffer.get(pos + 4, id);
+         utteranceID = new String(id, StandardCharsets.UTF_8);
+         pos = align(pos + 4 + id.length);
+
+         nodeTimes = section(buffer, pos, 8 * numNodes).asDoubleBuffer();
+         pos = align(pos + 8 * numNodes);
+         outOffsets = section(buffer, pos, 4 * (numNodes + 1)).asIntBuffer();
+         pos = align(pos + 4 * (numNodes + 1));
+         edgeTargets = section(buffer, pos, 4 * edgeCount).asIntBuffer();
+         pos = align(pos + 4 * edgeCount);
+         edgeLabels = section(buffer, pos, 4 * edgeCount).asIntBuffer();
+         pos = align(pos + 4 * edgeCount);
+         amScores = section(buffer, pos, 4 * edgeCount).asIntBuffer();
+         pos = align(pos + 4 * edgeCount);
+         lmScores = section(buffer, pos, 4 * edgeCount).asIntBuffer();
+         pos = align(pos + 4 * edgeCount);
+         labelOffsets = section(buffer, pos, 4 * (numLabels + 1)).asIntBuffer();
+         pos += 4 * (numLabels + 1);
+         labelBytes = section(buffer, pos, labelOffsets.get(numLabels));
+      }
+      catch (IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+         throw new IOException(filename + " is truncated or corrupt");
+      }
+   }
+
+   private static ByteBuffer section(ByteBuffer buffer, int offset, int length) {
+      return buffer.slice(offset, length);
+   }
+
+   private static int align(int pos) {
+      return (pos + 7) & ~7;
+   }
+
+   /*
+   *  Writes the lattice in the binary format. Labels are numbered in order of first use.
+   */
+   public static void write(Lattice lattice, String filename) throws IOException {
+      ByteBuffer buffer = encode(lattice);
+      try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+         while (buffer.hasRemaining()) {
+            channel.write(buffer);
+         }
+      }
+   }
+
+   /*
+   *  The bytes write() puts in a file, ready to be read from position 0.
+   */
+   public static ByteBuffer encode(Lattice lattice) {
+      int[] words = lattice.getEdgeWords();
+      int edgeCount = lattice.getEdgeCount();
+      int numNodes = lattice.getNumNodes();
+      WordSlots labels = new WordSlots(Math.min(edgeCount, 1024));   // Vocabulary id to label id
+      int[] edgeLabelIds = new int[edgeCount];
+      ByteArrayOutputStream labelText = new ByteArrayOutputStream();
+      int[] labelOffsets = new int[edgeCount + 1];
+
+      for (int e = 0; e < edgeCount; e++) {
+         int numLabels = labels.size();
+         edgeLabelIds[e] = labels.add(words[e]);
+         if (edgeLabelIds[e] == numLabels) {
+            labelText.writeBytes(Vocabulary.getWord(words[e]).getBytes(StandardCharsets.UTF_8));
+            labelOffsets[numLabels + 1] = labelText.size();
+         }
+      }
+      int numLabels = labels.size();
+
+      byte[] id = lattice.getUtteranceID().getBytes(StandardCharsets.UTF_8);
+      int size = align(HEADER_BYTES + 4 + id.length);
+      size = align(size + 8 * numNodes);
+      size = align(size + 4 * (numNodes + 1));
+      size = size + 4 * align(4 * edgeCount);
+      size = size + 4 * (numLabels + 1) + labelText.size();
+
+      ByteBuffer buffer = ByteBuffer.allocate(size);
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(numNodes).putInt(lattice.getNumEdges()).putInt(edgeCount)
+            .putInt(lattice.getStartIdx()).putInt(lattice.getEndIdx()).putInt(numLabels);
+      buffer.putInt(id.length).put(id);
+      buffer.position(align(buffer.position()));
+      buffer.asDoubleBuffer().put(lattice.getNodeTimes());
+      buffer.position(align(buffer.position() + 8 * numNodes));
+      putInts(buffer, lattice.getOutOffsets(), numNodes + 1);
+      putInts(buffer, lattice.getEdgeTargets(), edgeCount);
+      putInts(buffer, edgeLabelIds, edgeCount);
+      putInts(buffer, lattice.getEdgeAmScores(), edgeCount);
+      putInts(buffer, lattice.getEdgeLmScores(), edgeCount);
+      buffer.asIntBuffer().put(labelOffsets, 0, numLabels + 1);
+      buffer.position(buffer.position() + 4 * (numLabels + 1));
+      buffer.put(labelText.toByteArray());
+      buffer.flip();
+      return buffer;
+   }
+
+   private static void putInts(ByteBuffer buffer, int[] values, int count) {
+      buffer.asIntBuffer().put(values, 0, count);
+      buffer.position(align(buffer.position() + 4 * count));
+   }
+
+   /*
+   *  Copies the mapped arrays into a Lattice. Throws IOException if they do not make
+   *   one: offsets that decrease or leave the edges, or start and end nodes, edge
+   *   targets or label numbers out of range.
+   */
+   public Lattice toLattice() throws IOException {
+      if (startIdx < 0 || startIdx >= numNodes || endIdx < 0 || endIdx >= numNodes
+          || outOffsets.get(0) != 0 || outOffsets.get(numNodes) != edgeCount) {
+         throw corrupt();
+      }
+      double[] times = new double[numNodes];
+      int[] sources = new int[edgeCount];
+      int[] targets = new int[edgeCount];
+      int[] words = new int[edgeCount];
+      int[] am = new int[edgeCount];
+      int[] lm = new int[edgeCount];
+      int[] labelTable = new int[numLabels];
+
+      nodeTimes.get(0, times);
+      edgeTargets.get(0, targets);
+      amScores.get(0, am);
+      lmScores.get(0, lm);
+      try {
+         for (int l = 0; l < numLabels; l++) {
+            labelTable[l] = Vocabulary.getId(getLabel(l));
+         }
+      }
+      catch (IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+         throw corrupt();
+      }
+      for (int node = 0; node < numNodes; node++) {
+         int from = outOffsets.get(node), to = outOffsets.get(node + 1);
+         if (to < from || to > edgeCount) {
+            throw corrupt();
+         }
+         for (int e = from; e < to; e++) {
+            sources[e] = node;
+         }
+      }
+      for (int e = 0; e < edgeCount; e++) {
+         int label = edgeLabels.get(e);
+         if (label < 0 || label >= numLabels) {
+            throw corrupt();
+         }
+         words[e] = labelTable[label];
+      }
+      try {
+         return new Lattice(utteranceID, startIdx, endIdx, numEdges, times, sources, targets, words, am, lm, edgeCount);
+      }
+      catch (IllegalArgumentException e) {
+         throw new IOException(filename + " is corrupt: " + e.getMessage());     // An edge target outside the lattice
+      }
+   }
+
+   private IOException corrupt() {
+      return new IOException(filename + " is truncated or corrupt");
+   }
+
+   public String getUtteranceID() {
+      return this.utteranceID;
+   }
+
+   public int getNumNodes() {
+      return this.numNodes;
+   }
+
+   public int getNumEdges() {
+      return this.numEdges;
+   }
+
+   public int getEdgeCount() {
+      return this.edgeCount;
+   }
+
+   public int getStartIdx() {
+      return this.startIdx;
+   }
+
+   public int getEndIdx() {
+      return this.endIdx;
+   }
+
+   public int getNumLabels() {
+      return this.numLabels;
+   }
+
+   // The views below read straight from the mapped file. Use absolute get(index) calls,
+   // or duplicate() before changing a view's position.
+   public DoubleBuffer getNodeTimes() {
+      return this.nodeTimes;
+   }
+
+   public IntBuffer getOutOffsets() {
+      return this.outOffsets;
+   }
+
+   public IntBuffer getEdgeTargets() {
+      return this.edgeTargets;
+   }
+
+   public IntBuffer getEdgeLabelIds() {
+      return this.edgeLabels;
+   }
+
+   public IntBuffer getAmScores() {
+      return this.amScores;
+   }
+
+   public IntBuffer getLmScores() {
+      return this.lmScores;
+   }
+
+   public String getLabel(int labelId) {
+      int start = labelOffsets.get(labelId);
+      byte[] bytes = new byte[labelOffsets.get(labelId + 1) - start];
+      labelBytes.get(start, bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+}
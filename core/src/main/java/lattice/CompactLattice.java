@@ -0,0 +1,474 @@
+/*
+ * CompactLattice.java
+ *
+ * A read-only lattice in a few bytes per edge, for holding whole corpora in memory.
+ *
+ * The edges are those of the Lattice's rows, sorted by source and then destination,
+ * and stored as one byte stream with a byte offset per node. An edge is
+ *
+ *   destination   varint: for the first edge of a row the distance from the source,
+ *                 zigzag encoded as it may be negative, after that the distance from
+ *                 the previous destination of the row
+ *   word          varint Vocabulary id
+ *   amScore       amScore - min amScore of the lattice, in amBytes bytes, little endian
+ *   lmScore       lmScore - min lmScore of the lattice, in lmBytes bytes, little endian
+ *
+ * where amBytes and lmBytes are the fewest bytes that hold the range of the lattice's
+ * scores, 0 if they are all the same. Typical lattices, whose edges lead a few nodes on
+ * and whose scores span less than 65536, take 4 to 7 bytes per edge instead of the 24 of
+ * the Lattice's arrays. There is no reverse index: a node's incoming edges cannot be
+ * listed, only its outgoing ones, through an EdgeCursor that decodes them in place.
+ *
+ * decode, countAllPaths and getLatticeDensity run over cursors. decode relaxes each
+ * node's outgoing edges in topological order instead of reading incoming edges, and
+ * settles equal costs by the lowest source and then the first edge of that source, the
+ * choice Lattice.decode makes, so it returns the same hypothesis. When every edge leads
+ * to a higher node number, which the usual lattice numbering gives, node order is the
+ * topological order and none is stored; otherwise one is computed on first use.
+ *
+ * Usage
+ *    java lattice.CompactLattice lmScale latticeFilename ...
+ *
+ *   Prints for every lattice the bytes per edge of both layouts, and checks decode,
+ *   countAllPaths and getLatticeDensity against the Lattice's.
+ */
+
+package lattice;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+public class CompactLattice {
+   private final String utteranceID;
+   private final int startIdx, endIdx;
+   private final int numNodes, numEdges;
+   private final int declaredEdges;         // numEdges of the header, kept for toLattice
+   private final double[] nodeTimes;
+   private final int[] rowOffsets;          // numNodes + 1 byte offsets into data
+   private final byte[] data;
+   private final int amMin, lmMin;
+   private final int amBytes, lmBytes;
+   private final boolean ascending;         // Every edge leads to a higher node number
+   private volatile int[] topologicalOrder; // Only built if not ascending
+
+   public static void main(String[] args) {
+      if (args.length < 2) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      double lmScale = Double.parseDouble(args[0]);
+      long compactBytes = 0, arrayBytes = 0, edges = 0;
+      for (int i = 1; i < args.length; i++) {
+         Lattice lattice = new Lattice(args[i]);
+         CompactLattice compact = new CompactLattice(lattice);
+         Hypothesis expected = lattice.decode(lmScale), actual = compact.decode(lmScale);
+         boolean same = expected.getHypothesisString().equals(actual.getHypothesisString())
+                        && expected.getPathScore() == actual.getPathScore()
+                        && lattice.countAllPaths().equals(compact.countAllPaths())
+                        && Double.compare(lattice.getLatticeDensity(), compact.getLatticeDensity()) == 0;
+         System.out.println(String.format("%s: %d edges, %.2f bytes per edge compact (%.2f of them edge stream), %.2f as arrays, %s",
+               lattice.getUtteranceID(), lattice.getEdgeCount(), bytesPerEdge(compact.getByteSize(), lattice.getEdgeCount()),
+               bytesPerEdge(compact.getEdgeStreamBytes(), lattice.getEdgeCount()), bytesPerEdge(arrayBytes(lattice), lattice.getEdgeCount()),
+               same ? "same results" : "DIFFERENT RESULTS"));
+         compactBytes += compact.getByteSize();
+         arrayBytes += arrayBytes(lattice);
+         edges += lattice.getEdgeCount();
+      }
+      System.out.println(String.format("Total: %d edges, %.2f bytes per edge compact, %.2f as arrays",
+            edges, bytesPerEdge(compactBytes, edges), bytesPerEdge(arrayBytes, edges)));
+   }
+
+   private static double bytesPerEdge(long bytes, long edges) {
+      return edges == 0 ? 0.0 : (double) bytes / edges;
+   }
+
+   /*
+   *  Bytes of the arrays of a Lattice: five ints per edge in the rows and one in the
+   *   reverse index, two offsets, a time and a topological position per node.
+   */
+   public static long arrayBytes(Lattice lattice) {
+      return 24L * lattice.getEdgeCount() + 20L * lattice.getNumNodes() + 8;
+   }
+
+   public CompactLattice(Lattice lattice) {
+      this.utteranceID = lattice.getUtteranceID();
+      this.startIdx = lattice.getStartIdx();
+      this.endIdx = lattice.getEndIdx();
+      this.numNodes = lattice.getNumNodes();
+      this.numEdges = lattice.getEdgeCount();
+      this.declaredEdges = lattice.getNumEdges();
+      this.nodeTimes = lattice.getNodeTimes().clone();
+
+      int[] outOffsets = lattice.getOutOffsets();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      int[] edgeWords = lattice.getEdgeWords();
+      int[] edgeAmScores = lattice.getEdgeAmScores();
+      int[] edgeLmScores = lattice.getEdgeLmScores();
+      int amLow = 0, amHigh = 0, lmLow = 0, lmHigh = 0;
+      boolean increasing = true;
+      for (int e = 0; e < numEdges; e++) {
+         amLow = e == 0 ? edgeAmScores[e] : Math.min(amLow, edgeAmScores[e]);
+         amHigh = e == 0 ? edgeAmScores[e] : Math.max(amHigh, edgeAmScores[e]);
+         lmLow = e == 0 ? edgeLmScores[e] : Math.min(lmLow, edgeLmScores[e]);
+         lmHigh = e == 0 ? edgeLmScores[e] : Math.max(lmHigh, edgeLmScores[e]);
+      }
+      this.amMin = amLow;
+      this.lmMin = lmLow;
+      this.amBytes = widthOf((long) amHigh - amLow);
+      this.lmBytes = widthOf((long) lmHigh - lmLow);
+
+      this.rowOffsets = new int[numNodes + 1];
+      byte[] out = new byte[Math.max(16, numEdges * 4)];
+      int length = 0;
+      for (int node = 0; node < numNodes; node++) {
+         rowOffsets[node] = length;
+         int previous = node;
+         for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+            if (length + 10 + 5 + 8 > out.length) {
+               out = Arrays.copyOf(out, Math.max(out.length * 2, length + 32));
+            }
+            int target = edgeTargets[e];
+            if (target <= node) {
+               increasing = false;
+            }
+            long delta = e == outOffsets[node] ? zigzag((long) target - node) : (long) target - previous;
+            length = putVarint(out, length, delta);
+            length = putVarint(out, length, edgeWords[e] & 0xffffffffL);
+            length = putFixed(out, length, (long) edgeAmScores[e] - amLow, amBytes);
+            length = putFixed(out, length, (long) edgeLmScores[e] - lmLow, lmBytes);
+            previous = target;
+         }
+      }
+      rowOffsets[numNodes] = length;
+      this.data = Arrays.copyOf(out, length);
+      this.ascending = increasing;
+   }
+
+   // Fewest bytes, 0 to 4, that hold values 0 .. range
+   private static int widthOf(long range) {
+      int bytes = 0;
+      while (range > 0) {
+         range >>>= 8;
+         bytes++;
+      }
+      return bytes;
+   }
+
+   private static long zigzag(long value) {
+      return (value << 1) ^ (value >> 63);
+   }
+
+   private static int putVarint(byte[] out, int pos, long value) {
+      while ((value & ~0x7fL) != 0) {
+         out[pos++] = (byte) ((value & 0x7f) | 0x80);
+         value >>>= 7;
+      }
+      out[pos++] = (byte) value;
+      return pos;
+   }
+
+   private static int putFixed(byte[] out, int pos, long value, int bytes) {
+      for (int b = 0; b < bytes; b++) {
+         out[pos++] = (byte) (value >>> (8 * b));
+      }
+      return pos;
+   }
+
+   /*
+   *  Reads the outgoing edges of one node at a time, decoding them from the byte
+   *   stream as it goes. One cursor can be moved to any number of nodes in turn;
+   *   it is not thread safe, but a lattice can have any number of cursors.
+   */
+   public final class EdgeCursor {
+      private int pos, end;
+      private int source, index;
+      private int target, word, amScore, lmScore;
+
+      // Positions the cursor before the first outgoing edge of node
+      public EdgeCursor moveTo(int node) {
+         pos = rowOffsets[node];
+         end = rowOffsets[node + 1];
+         source = node;
+         index = -1;
+         return this;
+      }
+
+      // Advances to the next edge, false once the row is done
+      public boolean next() {
+         if (pos == end) {
+            return false;
+         }
+         long delta = readVarint();
+         target = index < 0 ? (int) (source + ((delta >>> 1) ^ -(delta & 1))) : target + (int) delta;
+         word = (int) readVarint();
+         amScore = amMin + (int) readFixed(amBytes);
+         lmScore = lmMin + (int) readFixed(lmBytes);
+         index++;
+         return true;
+      }
+
+      private long readVarint() {
+         long value = 0;
+         int shift = 0;
+         byte b;
+         do {
+            b = data[pos++];
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+         } while (b < 0);
+         return value;
+      }
+
+      private long readFixed(int bytes) {
+         long value = 0;
+         for (int b = 0; b < bytes; b++) {
+            value |= (long) (data[pos++] & 0xff) << (8 * b);
+         }
+         return value;
+      }
+
+      public int getSource() {
+         return source;
+      }
+
+      // Position of the current edge in its row, 0 for the first
+      public int getIndex() {
+         return index;
+      }
+
+      public int getTarget() {
+         return target;
+      }
+
+      public int getWordId() {
+         return word;
+      }
+
+      public int getAmScore() {
+         return amScore;
+      }
+
+      public int getLmScore() {
+         return lmScore;
+      }
+   }
+
+   public EdgeCursor cursor() {
+      return new EdgeCursor();
+   }
+
+   public String getUtteranceID() {
+      return this.utteranceID;
+   }
+
+   public int getNumNodes() {
+      return this.numNodes;
+   }
+
+   public int getEdgeCount() {
+      return this.numEdges;
+   }
+
+   public int getStartIdx() {
+      return this.startIdx;
+   }
+
+   public int getEndIdx() {
+      return this.endIdx;
+   }
+
+   public double getNodeTime(int node) {
+      return this.nodeTimes[node];
+   }
+
+   public int getOutDegree(int node) {
+      int count = 0;
+      for (EdgeCursor edges = cursor().moveTo(node); edges.next(); ) {
+         count++;
+      }
+      return count;
+   }
+
+   // Bytes of the encoded edges alone
+   public long getEdgeStreamBytes() {
+      return data.length;
+   }
+
+   // Bytes held by the lattice, stream, offsets and times, without the object headers
+   public long getByteSize() {
+      int[] order = topologicalOrder;
+      return data.length + 4L * rowOffsets.length + 8L * nodeTimes.length + (order == null ? 0 : 4L * order.length);
+   }
+
+   /*
+   *  Node order is topological when every edge leads to a higher node. Otherwise
+   *   Kahn's algorithm over the cursors, as in Lattice, cached after the first call.
+   *   Nodes on a cycle are left out.
+   */
+   private int[] getTopologicalOrder() {
+      if (ascending) {
+         return null;
+      }
+      if (topologicalOrder == null) {
+         int[] inDegrees = new int[numNodes];
+         int[] order = new int[numNodes];
+         int head = 0, tail = 0;
+         EdgeCursor edges = cursor();
+         for (int node = 0; node < numNodes; node++) {
+            for (edges.moveTo(node); edges.next(); ) {
+               inDegrees[edges.getTarget()]++;
+            }
+         }
+         for (int node = 0; node < numNodes; node++) {
+            if (inDegrees[node] == 0) {
+               order[tail++] = node;
+            }
+         }
+         while (head < tail) {
+            for (edges.moveTo(order[head++]); edges.next(); ) {
+               if (--inDegrees[edges.getTarget()] == 0) {
+                  order[tail++] = edges.getTarget();
+               }
+            }
+         }
+         topologicalOrder = Arrays.copyOf(order, tail);
+      }
+      return topologicalOrder;
+   }
+
+   /*
+   *  The hypothesis Lattice.decode(lmScale) returns. Nodes are taken in topological
+   *   order and push their cost along their outgoing edges. A destination takes a new
+   *   score if it is lower, or equal and from a lower source, which picks the same
+   *   edge as Lattice.decode's scan of incoming edges sorted by source; edges of one
+   *   source come in row order, so the first of them is kept on ties.
+   */
+   public Hypothesis decode(double lmScale) {
+      double[] cost = new double[numNodes];
+      int[] parentSource = new int[numNodes];
+      int[] parentIndex = new int[numNodes];     // Position of the parent edge in its source's row
+      int[] order = getTopologicalOrder();
+      int count = order == null ? numNodes : order.length;
+      EdgeCursor edges = cursor();
+      double score;
+
+      Arrays.fill(cost, Double.POSITIVE_INFINITY);
+      Arrays.fill(parentSource, -1);
+      cost[startIdx] = 0;
+
+      for (int i = 0; i < count; i++) {
+         int node = order == null ? i : order[i];
+         for (edges.moveTo(node); edges.next(); ) {
+            int target = edges.getTarget();
+            score = ((edges.getLmScore() * lmScale) + edges.getAmScore()) + cost[node];
+            if (score < cost[target] || (score == cost[target] && parentSource[target] > node)) {
+               cost[target] = score;
+               parentSource[target] = node;
+               parentIndex[target] = edges.getIndex();
+            }
+         }
+      }
+
+      int[] revSources = new int[16], revIndices = new int[16];
+      int pathLength = 0;
+      int node = endIdx;
+      while (node != startIdx) {
+         if (pathLength == revSources.length) {
+            revSources = Arrays.copyOf(revSources, pathLength * 2);
+            revIndices = Arrays.copyOf(revIndices, pathLength * 2);
+         }
+         revSources[pathLength] = parentSource[node];
+         revIndices[pathLength++] = parentIndex[node];
+         node = parentSource[node];
+      }
+
+      Hypothesis hypothesis = new Hypothesis();
+      for (int i = pathLength - 1; i >= 0; i--) {
+         edges.moveTo(revSources[i]);
+         do {
+            edges.next();
+         } while (edges.getIndex() < revIndices[i]);
+         hypothesis.addWord(edges.getWordId(), (edges.getLmScore() * lmScale) + edges.getAmScore());
+      }
+      return hypothesis;
+   }
+
+   /*
+   *  The value of Lattice.countAllPaths: paths to the end node summed backwards over
+   *   the topological order, in longs, again with BigIntegers if a sum overflows.
+   */
+   public BigInteger countAllPaths() {
+      long[] childPaths = new long[numNodes];
+      int[] order = getTopologicalOrder();
+      int count = order == null ? numNodes : order.length;
+      EdgeCursor edges = cursor();
+
+      childPaths[endIdx] = 1;
+      try {
+         for (int i = count - 1; i >= 0; i--) {
+            int node = order == null ? i : order[i];
+            for (edges.moveTo(node); edges.next(); ) {
+               childPaths[node] = Math.addExact(childPaths[node], childPaths[edges.getTarget()]);
+            }
+         }
+      }
+      catch (ArithmeticException e) {
+         return countAllPathsExact();
+      }
+      return BigInteger.valueOf(childPaths[startIdx]);
+   }
+
+   private BigInteger countAllPathsExact() {
+      BigInteger[] childPaths = new BigInteger[numNodes];
+      int[] order = getTopologicalOrder();
+      int count = order == null ? numNodes : order.length;
+      EdgeCursor edges = cursor();
+
+      Arrays.fill(childPaths, BigInteger.ZERO);
+      childPaths[endIdx] = BigInteger.ONE;
+      for (int i = count - 1; i >= 0; i--) {
+         int node = order == null ? i : order[i];
+         for (edges.moveTo(node); edges.next(); ) {
+            childPaths[node] = childPaths[node].add(childPaths[edges.getTarget()]);
+         }
+      }
+      return childPaths[startIdx];
+   }
+
+   // The value of Lattice.getLatticeDensity
+   public double getLatticeDensity() {
+      double totalTime = nodeTimes[endIdx] - nodeTimes[startIdx];
+      int wordCount = 0;
+      EdgeCursor edges = cursor();
+
+      for (int node = 0; node < numNodes; node++) {
+         for (edges.moveTo(node); edges.next(); ) {
+            if (!Vocabulary.isSilence(edges.getWordId())) {
+               wordCount++;
+            }
+         }
+      }
+      return (wordCount / totalTime);
+   }
+
+   /*
+   *  The lattice with its arrays back, edges in the same order.
+   */
+   public Lattice toLattice() {
+      int[] sources = new int[numEdges], targets = new int[numEdges], words = new int[numEdges];
+      int[] amScores = new int[numEdges], lmScores = new int[numEdges];
+      int e = 0;
+      EdgeCursor edges = cursor();
+      for (int node = 0; node < numNodes; node++) {
+         for (edges.moveTo(node); edges.next(); e++) {
+            sources[e] = node;
+            targets[e] = edges.getTarget();
+            words[e] = edges.getWordId();
+            amScores[e] = edges.getAmScore();
+            lmScores[e] = edges.getLmScore();
+         }
+      }
+      return new Lattice(utteranceID, startIdx, endIdx, declaredEdges, nodeTimes.clone(), sources, targets, words, amScores, lmScores, numEdges);
+   }
+}
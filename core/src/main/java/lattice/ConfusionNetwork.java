@@ -0,0 +1,356 @@
+/*
+ * ConfusionNetwork.java
+ *
+ * The words of a lattice clustered into a sequence of time slots, each holding the
+ * competing words at that point with their posterior probabilities, and the consensus
+ * hypothesis that takes the most probable entry of every slot.
+ *
+ * Slots come from a pivot, the best path of decode: each of its edges is one slot,
+ * covering the times of its two nodes, so the slots tile the utterance in order. Every
+ * other edge joins the slot it overlaps longest in time. The slots it overlaps are found
+ * by binary search over the slot boundaries and compared one by one, so an edge costs
+ * O(log slots) plus the few slots it spans, and the whole network O(E log E) with the
+ * posteriors (LatticePosteriors) and the sorting of each slot, instead of the quadratic
+ * pairwise merging of edge clusters. An edge of no duration joins the slot around its
+ * time, and ties in overlap go to the earlier slot.
+ *
+ * Within a slot the posteriors of edges with the same word are summed. -silence- is not
+ * a word here: its mass, and that of paths with no word in the slot, is the slot's
+ * deletion entry, 1 minus the sum of its words, shown as -silence-. A path can put
+ * several edges into one slot, so the words of a slot can sum to more than 1; the slot
+ * is then divided by that sum, which leaves no deletion entry. Either way the entries of
+ * a slot sum to 1 before those of less than MIN_POSTERIOR are dropped. Entries of a slot
+ * are sorted by posterior, highest first, and printed with POSTERIOR_PATTERN.
+ *
+ * The consensus hypothesis adds, for every slot whose best entry is a word, that word
+ * with the score -ln(posterior), so its path score is the sum of those costs.
+ *
+ * Usage
+ *    java lattice.ConfusionNetwork lmScale posteriorScale latticeFilename [dotFilename]
+ *
+ *   Prints the best path, the consensus hypothesis and the slots, and writes the network
+ *   as a dot graph if dotFilename is given.
+ */
+
+package lattice;
+
+import java.io.*;
+import java.util.Arrays;
+
+public class ConfusionNetwork {
+   public static final double MIN_POSTERIOR = 1e-3;
+   public static final String POSTERIOR_PATTERN = "0.000";     // DecimalFormat of toString and the dot labels
+
+   private final String utteranceID;
+   private final double[] slotTimes;         // numSlots + 1 boundaries, slot s is slotTimes[s] .. slotTimes[s + 1]
+   private final int[] slotOffsets;          // numSlots + 1 starts into the entry arrays
+   private final int[] entryWords;           // Vocabulary ids, -silence- for the deletion entry
+   private final double[] entryPosteriors;
+   private final int numSlots;
+
+   public static void main(String[] args) {
+      if (args.length != 3 && args.length != 4) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      double lmScale = Double.parseDouble(args[0]);
+      Lattice lattice = new Lattice(args[2]);
+      long start = System.nanoTime();
+      ConfusionNetwork network = new ConfusionNetwork(lattice, lmScale, Double.parseDouble(args[1]));
+      double millis = (System.nanoTime() - start) / 1e6;
+
+      System.out.println("Best path: " + lattice.decode(lmScale).getHypothesisString());
+      System.out.println("Consensus: " + network.getConsensus().getHypothesisString());
+      System.out.print(network);
+      System.err.println(String.format("%d edges, %d slots in %.3f ms", lattice.getEdgeCount(), network.getNumSlots(), millis));
+      if (args.length == 4) {
+         network.writeAsDot(args[3]);
+      }
+   }
+
+   public ConfusionNetwork(Lattice lattice, double lmScale) {
+      this(lattice, lmScale, 1.0);
+   }
+
+   /*
+   *  posteriorScale is that of LatticePosteriors.
+   */
+   public ConfusionNetwork(Lattice lattice, double lmScale, double posteriorScale) {
+      this.utteranceID = lattice.getUtteranceID();
+      int[] edgeSources = lattice.getEdgeSources();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      int[] edgeWords = lattice.getEdgeWords();
+      double[] nodeTimes = lattice.getNodeTimes();
+      int edgeCount = lattice.getEdgeCount();
+
+      // The pivot, the best path's edges in order
+      int[] parentEdge = lattice.bestParentEdges(lmScale);
+      int[] pivot = new int[16];
+      int pivotLength = 0;
+      for (int node = lattice.getEndIdx(); node != lattice.getStartIdx() && parentEdge[node] >= 0; node = edgeSources[parentEdge[node]]) {
+         if (pivotLength == pivot.length) {
+            pivot = Arrays.copyOf(pivot, pivotLength * 2);
+         }
+         pivot[pivotLength++] = parentEdge[node];
+      }
+      if (lattice.getEndIdx() != lattice.getStartIdx() && parentEdge[lattice.getEndIdx()] < 0) {
+         pivotLength = 0;                                         // The end cannot be reached
+      }
+      this.numSlots = pivotLength;
+      this.slotTimes = new double[numSlots + 1];
+      int[] edgeSlots = new int[edgeCount];
+      Arrays.fill(edgeSlots, -1);
+      for (int s = 0; s < numSlots; s++) {
+         int edge = pivot[numSlots - 1 - s];
+         slotTimes[s] = nodeTimes[edgeSources[edge]];
+         slotTimes[s + 1] = nodeTimes[edgeTargets[edge]];
+         edgeSlots[edge] = s;
+      }
+
+      // Sum the posteriors of each (slot, word), silence aside
+      PosteriorTable table = new PosteriorTable();
+      double[] wordMass = new double[numSlots];
+      if (numSlots > 0) {
+         double[] posteriors = new LatticePosteriors(lattice, lmScale, posteriorScale).getEdgePosteriors();
+         for (int e = 0; e < edgeCount; e++) {
+            if (posteriors[e] <= 0 || Vocabulary.isSilence(edgeWords[e])) {
+               continue;
+            }
+            int slot = edgeSlots[e] >= 0 ? edgeSlots[e] : slotOf(nodeTimes[edgeSources[e]], nodeTimes[edgeTargets[e]]);
+            table.add(slot, edgeWords[e], posteriors[e]);
+            wordMass[slot] += posteriors[e];
+         }
+      }
+
+      // Each slot divided by its total, 1 unless its words sum to more
+      double[] slotMass = new double[numSlots];
+      for (int s = 0; s < numSlots; s++) {
+         slotMass[s] = Math.max(1, wordMass[s]);
+      }
+      for (int i = 0; i < table.size; i++) {
+         table.sums[i] /= slotMass[table.slotOf(i)];
+      }
+
+      // Entries of each slot, words above MIN_POSTERIOR and the deletion, by posterior
+      this.slotOffsets = new int[numSlots + 1];
+      for (int i = 0; i < table.size; i++) {
+         if (table.sums[i] >= MIN_POSTERIOR) {
+            slotOffsets[table.slotOf(i) + 1]++;
+         }
+      }
+      for (int s = 0; s < numSlots; s++) {
+         if (1 - wordMass[s] / slotMass[s] >= MIN_POSTERIOR) {
+            slotOffsets[s + 1]++;
+         }
+      }
+      for (int s = 0; s < numSlots; s++) {
+         slotOffsets[s + 1] += slotOffsets[s];
+      }
+      int numEntries = slotOffsets[numSlots];
+      this.entryWords = new int[numEntries];
+      this.entryPosteriors = new double[numEntries];
+      int[] fill = Arrays.copyOf(slotOffsets, Math.max(numSlots, 1));
+      for (int i = 0; i < table.size; i++) {
+         if (table.sums[i] >= MIN_POSTERIOR) {
+            int k = fill[table.slotOf(i)]++;
+            entryWords[k] = table.wordOf(i);
+            entryPosteriors[k] = table.sums[i];
+         }
+      }
+      for (int s = 0; s < numSlots; s++) {
+         if (1 - wordMass[s] / slotMass[s] >= MIN_POSTERIOR) {
+            int k = fill[s]++;
+            entryWords[k] = Vocabulary.SILENCE;
+            entryPosteriors[k] = 1 - wordMass[s] / slotMass[s];
+         }
+         sortSlot(slotOffsets[s], slotOffsets[s + 1]);
+      }
+   }
+
+   /*
+   *  The slot an edge from time start to time end overlaps longest. Slots before the
+   *   first one ending after start cannot overlap, nor can those from the first one
+   *   starting at or after end, both found by binary search.
+   */
+   private int slotOf(double start, double end) {
+      int first = firstSlotEndingAfter(start);
+      if (first == numSlots) {
+         return numSlots - 1;                                     // After the pivot
+      }
+      if (end <= start || end <= slotTimes[first]) {
+         return first;                                            // A point, or before the pivot
+      }
+      int best = first;
+      double bestOverlap = -1;
+      for (int s = first; s < numSlots && slotTimes[s] < end; s++) {
+         double overlap = Math.min(end, slotTimes[s + 1]) - Math.max(start, slotTimes[s]);
+         if (overlap > bestOverlap) {
+            bestOverlap = overlap;
+            best = s;
+         }
+      }
+      return best;
+   }
+
+   // Lowest slot s with slotTimes[s + 1] > time, numSlots if there is none
+   private int firstSlotEndingAfter(double time) {
+      int low = 0, high = numSlots;
+      while (low < high) {
+         int middle = (low + high) >>> 1;
+         if (slotTimes[middle + 1] > time) {
+            high = middle;
+         }
+         else {
+            low = middle + 1;
+         }
+      }
+      return low;
+   }
+
+   // Insertion sort of one slot's entries by posterior, highest first; slots are short
+   private void sortSlot(int from, int to) {
+      for (int i = from + 1; i < to; i++) {
+         int word = entryWords[i];
+         double posterior = entryPosteriors[i];
+         int j = i - 1;
+         while (j >= from && entryPosteriors[j] < posterior) {
+            entryWords[j + 1] = entryWords[j];
+            entryPosteriors[j + 1] = entryPosteriors[j];
+            j--;
+         }
+         entryWords[j + 1] = word;
+         entryPosteriors[j + 1] = posterior;
+      }
+   }
+
+   public String getUtteranceID() {
+      return this.utteranceID;
+   }
+
+   public int getNumSlots() {
+      return this.numSlots;
+   }
+
+   public double getSlotStartTime(int slot) {
+      return this.slotTimes[slot];
+   }
+
+   public double getSlotEndTime(int slot) {
+      return this.slotTimes[slot + 1];
+   }
+
+   public int getNumEntries(int slot) {
+      return slotOffsets[slot + 1] - slotOffsets[slot];
+   }
+
+   // Vocabulary id of an entry of a slot, entry 0 being the most probable
+   public int getEntryWordId(int slot, int entry) {
+      return entryWords[slotOffsets[slot] + entry];
+   }
+
+   public String getEntryWord(int slot, int entry) {
+      return Vocabulary.getWord(getEntryWordId(slot, entry));
+   }
+
+   public double getEntryPosterior(int slot, int entry) {
+      return entryPosteriors[slotOffsets[slot] + entry];
+   }
+
+   /*
+   *  The best entry of every slot, skipping slots where the deletion is best.
+   */
+   public Hypothesis getConsensus() {
+      Hypothesis hypothesis = new Hypothesis();
+      for (int s = 0; s < numSlots; s++) {
+         if (getNumEntries(s) > 0 && !Vocabulary.isSilence(getEntryWordId(s, 0))) {
+            hypothesis.addWord(getEntryWordId(s, 0), -Math.log(getEntryPosterior(s, 0)));
+         }
+      }
+      return hypothesis;
+   }
+
+   // One line per slot: its times and its entries as word:posterior
+   public String toString() {
+      StringBuilder text = new StringBuilder();
+      java.text.DecimalFormat timeFormat = new java.text.DecimalFormat("0.00");
+      java.text.DecimalFormat posteriorFormat = new java.text.DecimalFormat(POSTERIOR_PATTERN);
+      for (int s = 0; s < numSlots; s++) {
+         text.append("slot ").append(s).append(' ').append(timeFormat.format(getSlotStartTime(s))).append(' ')
+             .append(timeFormat.format(getSlotEndTime(s)));
+         for (int k = 0; k < getNumEntries(s); k++) {
+            text.append(' ').append(getEntryWord(s, k)).append(':').append(posteriorFormat.format(getEntryPosterior(s, k)));
+         }
+         text.append('\n');
+      }
+      return text.toString();
+   }
+
+   /*
+   *  Writes the network as a dot graph, see LatticeWriter.writeDot.
+   */
+   public void writeAsDot(String dotFilename) {
+      try (Writer file = new OutputStreamWriter(new FileOutputStream(dotFilename))) {
+         LatticeWriter writer = new LatticeWriter(file);
+         writer.writeDot(this);
+         writer.flush();
+      } catch (IOException e) {
+         System.err.println("Error: Unable to write to file " + dotFilename);
+         System.exit(1);
+      }
+   }
+
+   /*
+   *  Posterior sums by (slot, word), open addressing over a long key and a double sum,
+   *   entries kept in insertion order.
+   */
+   private static class PosteriorTable {
+      long[] keys = new long[64];
+      double[] sums = new double[64];
+      int[] index = new int[128];              // Slot of the hash table -> entry + 1, 0 if empty
+      int size;
+
+      void add(int slot, int word, double posterior) {
+         long key = ((long) slot << 32) | (word & 0xffffffffL);
+         int mask = index.length - 1;
+         int h = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+         while (index[h] != 0) {
+            if (keys[index[h] - 1] == key) {
+               sums[index[h] - 1] += posterior;
+               return;
+            }
+            h = (h + 1) & mask;
+         }
+         if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            sums = Arrays.copyOf(sums, size * 2);
+         }
+         keys[size] = key;
+         sums[size] = posterior;
+         index[h] = ++size;
+         if (size * 2 > index.length) {
+            rehash();
+         }
+      }
+
+      private void rehash() {
+         index = new int[index.length * 2];
+         int mask = index.length - 1;
+         for (int i = 0; i < size; i++) {
+            int h = (int) ((keys[i] * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while (index[h] != 0) {
+               h = (h + 1) & mask;
+            }
+            index[h] = i + 1;
+         }
+      }
+
+      int slotOf(int i) {
+         return (int) (keys[i] >>> 32);
+      }
+
+      int wordOf(int i) {
+         return (int) keys[i];
+      }
+   }
+}
@@ -0,0 +1,547 @@
+/*
+ * CorpusStore.java
+ *
+ * Many lattices, with their reference text, packed into a few large segment files and
+ * found by utterance ID through a memory-mapped index, instead of one small file each.
+ *
+ * A store is a directory:
+ *
+ *   segment-NNNNN.dat   int magic "LCSG", int version, long reserved, then records, each
+ *                       starting on an 8 byte boundary:
+ *                          int latticeBytes, int referenceBytes, the UTF-8 reference,
+ *                          padding to 8 bytes, the lattice in the BinaryLattice format
+ *   index.dat           int magic "LCIX", int version, int numRecords, int numSegments,
+ *                       then numRecords entries sorted by the UTF-8 bytes of their ID:
+ *                          int idOffset, int idLength, int segment, int recordBytes,
+ *                          long recordOffset
+ *                       then int[numRecords], the entries in storage order (segment,
+ *                       then offset), then the ID bytes.
+ *
+ * Segments and the index are mapped read-only, so the index lives off the heap and a
+ * lookup is a binary search over the mapped entries, comparing ID bytes in place.
+ * Record numbers, used by scans and by Driver, count records in storage order, which
+ * is the order they were appended in.
+ *
+ * Appending adds records to the end of the last segment, or to a new one once it would
+ * pass the segment size (at most 1 GB, so every offset inside a segment is an int),
+ * and then writes a new index next to the old one and renames it over it. Readers that
+ * opened the store before keep seeing the old records. An ID that is appended again
+ * replaces the earlier record. Records written by an appender that is never closed are
+ * not in the index and are ignored.
+ *
+ * A store is safe to read from any number of threads.
+ *
+ * Usage
+ *    java lattice.CorpusStore append corpusDir latticeListFilename
+ *    java lattice.CorpusStore get corpusDir utteranceID
+ *    java lattice.CorpusStore scan corpusDir numThreads [-metrics]
+ *
+ *   append reads the lattice and ref files of a list in the Driver format into the store,
+ *   creating it if needed. get prints one lattice in the text format and its reference.
+ *   scan decodes every record at lmScale 10 on numThreads threads and reports the rate;
+ *   with -metrics it also prints LatticeMetrics' summary of the read and decode times.
+ */
+
+package lattice;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CorpusStore {
+   public static final int SEGMENT_MAGIC = 0x4c435347;   // "LCSG"
+   public static final int INDEX_MAGIC = 0x4c434958;     // "LCIX"
+   public static final int VERSION = 1;
+   public static final long MAX_SEGMENT_BYTES = 1L << 30;
+   public static final String INDEX_FILENAME = "index.dat";
+
+   private static final int SEGMENT_HEADER_BYTES = 16;
+   private static final int INDEX_HEADER_BYTES = 16;
+   private static final int ENTRY_BYTES = 24;
+   private static final int SCAN_CHUNK = 64;              // Records a scan thread takes at a time
+
+   private final String directory;
+   private final int numRecords;
+   private final ByteBuffer index;
+   private final int entriesStart, storageOrderStart, idsStart;
+   private final ByteBuffer[] segments;
+
+   public static void main(String[] args) throws IOException {
+      if (args.length != 3 && !(args.length == 4 && args[0].equals("scan") && args[3].equals("-metrics"))) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      long start = System.nanoTime();
+      if (args[0].equals("append")) {
+         int count = 0;
+         try (Appender appender = append(args[1]); Scanner list = new Scanner(new File(args[2]))) {
+            while (list.hasNext()) {
+               String latticeFilename = list.next();
+               String refFilename = list.next();
+               String reference;
+               try (Scanner ref = new Scanner(new File(refFilename), "UTF-8")) {
+                  reference = ref.hasNext() ? ref.nextLine() : "";
+               }
+               appender.add(new LatticeParser().parse(latticeFilename), reference);
+               count++;
+            }
+         }
+         System.out.println(String.format("Appended %d lattices to %s (%.1f ms)", count, args[1], (System.nanoTime() - start) / 1e6));
+      }
+      else if (args[0].equals("get")) {
+         CorpusStore store = open(args[1]);
+         int record = store.find(args[2]);
+         if (record < 0) {
+            System.err.println("Error: No utterance " + args[2] + " in " + args[1]);
+            System.exit(1);
+         }
+         System.out.print(store.getLattice(record));
+         System.out.println("\nReference: " + store.getReference(record));
+      }
+      else if (args[0].equals("scan")) {
+         CorpusStore store = open(args[1]);
+         LatticeMetrics metrics = new LatticeMetrics(args.length == 4);
+         AtomicLong edges = new AtomicLong();
+         store.scan(Integer.parseInt(args[2]), metrics, (record, lattice, reference) -> {
+            lattice.decode(10);
+            edges.addAndGet(lattice.getEdgeCount());
+         });
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.println(String.format("Decoded %d lattices, %d edges in %.3f s (%.1f lattices/s)",
+               store.size(), edges.get(), seconds, store.size() / seconds));
+         if (metrics.isEnabled()) {
+            metrics.printSummary(System.err);
+         }
+      }
+      else {
+         System.err.println("Error: Unknown command " + args[0]);
+         System.exit(2);
+      }
+   }
+
+   /*
+   *  Maps the index and every segment of the store in directory.
+   */
+   public static CorpusStore open(String directory) throws IOException {
+      return new CorpusStore(directory);
+   }
+
+   /*
+   *  An appender to the store in directory, which is created if it does not exist.
+   */
+   public static Appender append(String directory) throws IOException {
+      return new Appender(directory, MAX_SEGMENT_BYTES);
+   }
+
+   // Whether directory holds a store, for callers that accept either a store or a list
+   public static boolean isStore(String directory) {
+      return new File(directory, INDEX_FILENAME).isFile();
+   }
+
+   private CorpusStore(String directory) throws IOException {
+      this.directory = directory;
+      this.index = mapFile(Paths.get(directory, INDEX_FILENAME));
+      try {
+         if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+            throw new IOException(directory + " has no corpus store index of version " + VERSION);
+         }
+         this.numRecords = index.getInt(8);
+         int numSegments = index.getInt(12);
+         this.entriesStart = INDEX_HEADER_BYTES;
+         this.storageOrderStart = entriesStart + ENTRY_BYTES * numRecords;
+         this.idsStart = storageOrderStart + 4 * numRecords;
+         this.segments = new ByteBuffer[numSegments];
+         for (int s = 0; s < numSegments; s++) {
+            segments[s] = mapFile(segmentPath(directory, s));
+            if (segments[s].getInt(0) != SEGMENT_MAGIC || segments[s].getInt(4) != VERSION) {
+               throw new IOException(segmentPath(directory, s) + " is not a corpus store segment of version " + VERSION);
+            }
+         }
+      }
+      catch (IndexOutOfBoundsException e) {
+         throw new IOException(directory + " has a truncated index or segment");
+      }
+   }
+
+   private static ByteBuffer mapFile(Path path) throws IOException {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+         return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+   }
+
+   private static Path segmentPath(String directory, int segment) {
+      return Paths.get(directory, String.format("segment-%05d.dat", segment));
+   }
+
+   public String getDirectory() {
+      return this.directory;
+   }
+
+   // Number of records
+   public int size() {
+      return this.numRecords;
+   }
+
+   // Position of the record in the ID-sorted entries
+   private int entryOf(int record) {
+      if (record < 0 || record >= numRecords) {
+         throw new IndexOutOfBoundsException("record " + record + " of " + numRecords);
+      }
+      return index.getInt(storageOrderStart + 4 * record);
+   }
+
+   private int entryAddress(int entry) {
+      return entriesStart + ENTRY_BYTES * entry;
+   }
+
+   public String getUtteranceID(int record) {
+      int address = entryAddress(entryOf(record));
+      byte[] id = new byte[index.getInt(address + 4)];
+      index.get(idsStart + index.getInt(address), id);
+      return new String(id, StandardCharsets.UTF_8);
+   }
+
+   /*
+   *  Record number of the utterance, or -1. A binary search over the sorted entries,
+   *   comparing the UTF-8 bytes of the ID with the mapped ID bytes.
+   */
+   public int find(String utteranceID) {
+      byte[] key = utteranceID.getBytes(StandardCharsets.UTF_8);
+      int low = 0, high = numRecords - 1;
+      while (low <= high) {
+         int middle = (low + high) >>> 1;
+         int address = entryAddress(middle);
+         int cmp = compareId(index.getInt(address), index.getInt(address + 4), key);
+         if (cmp < 0) {
+            low = middle + 1;
+         }
+         else if (cmp > 0) {
+            high = middle - 1;
+         }
+         else {
+            return recordOf(middle);
+         }
+      }
+      return -1;
+   }
+
+   // Compares the stored ID at idOffset with key, bytes unsigned, as the entries are sorted
+   private int compareId(int idOffset, int idLength, byte[] key) {
+      int n = Math.min(idLength, key.length);
+      for (int i = 0; i < n; i++) {
+         int cmp = Integer.compare(index.get(idsStart + idOffset + i) & 0xff, key[i] & 0xff);
+         if (cmp != 0) {
+            return cmp;
+         }
+      }
+      return Integer.compare(idLength, key.length);
+   }
+
+   // Record number of an entry: the entries are sorted by ID and each record's position
+   // in storage order follows from where its data is, so search the storage order for it
+   private int recordOf(int entry) {
+      int address = entryAddress(entry);
+      int segment = index.getInt(address + 8);
+      long offset = index.getLong(address + 16);
+      int low = 0, high = numRecords - 1;
+      while (low <= high) {
+         int middle = (low + high) >>> 1;
+         int other = entryAddress(index.getInt(storageOrderStart + 4 * middle));
+         int cmp = segment != index.getInt(other + 8) ? Integer.compare(segment, index.getInt(other + 8))
+                                                      : Long.compare(offset, index.getLong(other + 16));
+         if (cmp < 0) {
+            high = middle - 1;
+         }
+         else if (cmp > 0) {
+            low = middle + 1;
+         }
+         else {
+            return middle;
+         }
+      }
+      throw new IllegalStateException("corrupt corpus store index in " + directory);
+   }
+
+   // The record's bytes, as a view into its segment
+   private ByteBuffer recordBuffer(int record) {
+      int address = entryAddress(entryOf(record));
+      return segments[index.getInt(address + 8)].slice((int) index.getLong(address + 16), index.getInt(address + 12));
+   }
+
+   // Bytes the record takes in its segment
+   public int getRecordBytes(int record) {
+      return index.getInt(entryAddress(entryOf(record)) + 12);
+   }
+
+   public Lattice getLattice(int record) throws IOException {
+      ByteBuffer buffer = recordBuffer(record);
+      int latticeBytes = buffer.getInt(0);
+      int latticeStart = align(8 + buffer.getInt(4));
+      return BinaryLattice.wrap(buffer.slice(latticeStart, latticeBytes), directory + " record " + record).toLattice();
+   }
+
+   public String getReference(int record) {
+      ByteBuffer buffer = recordBuffer(record);
+      byte[] reference = new byte[buffer.getInt(4)];
+      buffer.get(8, reference);
+      return new String(reference, StandardCharsets.UTF_8);
+   }
+
+   // Lattice of the utterance, or null if the store does not have it
+   public Lattice getLattice(String utteranceID) throws IOException {
+      int record = find(utteranceID);
+      return record < 0 ? null : getLattice(record);
+   }
+
+   // Reference of the utterance, or null if the store does not have it
+   public String getReference(String utteranceID) {
+      int record = find(utteranceID);
+      return record < 0 ? null : getReference(record);
+   }
+
+   // Called by scan for every record, from several threads at once
+   public interface RecordVisitor {
+      void visit(int record, Lattice lattice, String reference) throws Exception;
+   }
+
+   /*
+   *  Reads every record on numThreads threads and hands it to visitor. Threads take
+   *   runs of consecutive records in storage order, so each reads its part of a segment
+   *   front to back. The first exception from the visitor or a record stops the scan
+   *   and is rethrown, as an IOException if it is not one.
+   */
+   public void scan(int numThreads, RecordVisitor visitor) throws IOException {
+      scan(numThreads, new LatticeMetrics(false), visitor);
+   }
+
+   /*
+   *  As scan above, with every record on a recorder from metrics: reading it counts as
+   *   the parse phase and whatever the visitor does with it as the decode phase.
+   */
+   public void scan(int numThreads, LatticeMetrics metrics, RecordVisitor visitor) throws IOException {
+      AtomicInteger next = new AtomicInteger();
+      ExecutorService threads = Executors.newFixedThreadPool(numThreads);
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for (int t = 0; t < numThreads; t++) {
+         results.add(threads.submit(() -> {
+            for (int first = next.getAndAdd(SCAN_CHUNK); first < numRecords; first = next.getAndAdd(SCAN_CHUNK)) {
+               for (int record = first; record < Math.min(first + SCAN_CHUNK, numRecords); record++) {
+                  LatticeMetrics.Recorder recorder = metrics.begin();
+                  long start = recorder.start();
+                  Lattice lattice = getLattice(record);
+                  recorder.stop(LatticeMetrics.Phase.PARSE, start);
+                  recorder.add(LatticeMetrics.Counter.BYTES_READ, getRecordBytes(record));
+                  recorder.add(LatticeMetrics.Counter.NODES, lattice.getNumNodes());
+                  recorder.add(LatticeMetrics.Counter.EDGES, lattice.getEdgeCount());
+                  start = recorder.start();
+                  visitor.visit(record, lattice, getReference(record));
+                  recorder.stop(LatticeMetrics.Phase.DECODE, start);
+                  recorder.end(lattice.getUtteranceID());
+               }
+            }
+            return null;
+         }));
+      }
+      threads.shutdown();
+      try {
+         for (Future<Void> result : results) {
+            result.get();
+         }
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("scan interrupted", e);
+      }
+      catch (ExecutionException e) {
+         next.set(numRecords);
+         threads.shutdownNow();
+         if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+         }
+         throw new IOException(e.getCause());
+      }
+   }
+
+   private static int align(int pos) {
+      return (pos + 7) & ~7;
+   }
+
+   private static long align(long pos) {
+      return (pos + 7) & ~7L;
+   }
+
+   /*
+   *  Adds lattices to a store. Records go straight to the segment files; the index is
+   *   rewritten, with the old and the new entries, by close(). Not thread safe.
+   */
+   public static class Appender implements Closeable {
+      private final String directory;
+      private final long maxSegmentBytes;
+      private int segment;                    // Segment being written
+      private FileChannel channel;
+      private long position;
+
+      // Entries of the existing index and of the new records, in storage order
+      private final ArrayList<byte[]> ids = new ArrayList<byte[]>();
+      private int[] segmentOf = new int[256], bytesOf = new int[256];
+      private long[] offsetOf = new long[256];
+      private boolean closed;
+
+      Appender(String directory, long maxSegmentBytes) throws IOException {
+         this.directory = directory;
+         this.maxSegmentBytes = maxSegmentBytes;
+         Files.createDirectories(Paths.get(directory));
+         if (isStore(directory)) {
+            CorpusStore store = open(directory);
+            for (int record = 0; record < store.size(); record++) {
+               int address = store.entryAddress(store.entryOf(record));
+               addEntry(store.getUtteranceID(record).getBytes(StandardCharsets.UTF_8), store.index.getInt(address + 8),
+                        store.index.getLong(address + 16), store.index.getInt(address + 12));
+            }
+            this.segment = Math.max(0, store.segments.length - 1);
+         }
+         openSegment(segment);
+      }
+
+      private void openSegment(int s) throws IOException {
+         if (channel != null) {
+            channel.close();
+         }
+         segment = s;
+         channel = FileChannel.open(segmentPath(directory, s), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+         position = channel.size();
+         if (position == 0) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+            header.putInt(SEGMENT_MAGIC).putInt(VERSION).putLong(0).flip();
+            writeFully(header, 0);
+            position = SEGMENT_HEADER_BYTES;
+         }
+         position = align(position);
+      }
+
+      private void writeFully(ByteBuffer buffer, long at) throws IOException {
+         while (buffer.hasRemaining()) {
+            at += channel.write(buffer, at);
+         }
+      }
+
+      private void addEntry(byte[] id, int s, long offset, int bytes) {
+         int n = ids.size();
+         if (n == segmentOf.length) {
+            segmentOf = Arrays.copyOf(segmentOf, n * 2);
+            bytesOf = Arrays.copyOf(bytesOf, n * 2);
+            offsetOf = Arrays.copyOf(offsetOf, n * 2);
+         }
+         ids.add(id);
+         segmentOf[n] = s;
+         offsetOf[n] = offset;
+         bytesOf[n] = bytes;
+      }
+
+      /*
+      *  Writes one record at the end of the current segment, starting a new segment if
+      *   it would pass the size limit.
+      */
+      public void add(Lattice lattice, String reference) throws IOException {
+         ByteBuffer latticeBytes = BinaryLattice.encode(lattice);
+         byte[] referenceBytes = reference.getBytes(StandardCharsets.UTF_8);
+         int latticeStart = align(8 + referenceBytes.length);
+         long recordBytes = latticeStart + (long) latticeBytes.remaining();
+         if (recordBytes > maxSegmentBytes - SEGMENT_HEADER_BYTES) {
+            throw new IOException(lattice.getUtteranceID() + " is too large for a corpus store segment");
+         }
+         if (position + recordBytes > maxSegmentBytes) {
+            openSegment(segment + 1);
+         }
+
+         ByteBuffer header = ByteBuffer.allocate(latticeStart);
+         header.putInt(latticeBytes.remaining()).putInt(referenceBytes.length).put(referenceBytes).position(latticeStart);
+         header.flip();
+         writeFully(header, position);
+         writeFully(latticeBytes, position + latticeStart);
+         addEntry(lattice.getUtteranceID().getBytes(StandardCharsets.UTF_8), segment, position, (int) recordBytes);
+         position = align(position + recordBytes);
+      }
+
+      /*
+      *  Writes the index for every record, the latest one of each ID, to a temporary
+      *   file that then replaces the old index.
+      */
+      public void close() throws IOException {
+         if (closed) {
+            return;
+         }
+         closed = true;
+         channel.force(false);
+         channel.close();
+
+         // Sort by ID; of equal IDs only the last appended, which sorts last, is kept
+         int n = ids.size();
+         Integer[] byId = new Integer[n];
+         for (int i = 0; i < n; i++) {
+            byId[i] = i;
+         }
+         Arrays.sort(byId, (a, b) -> {
+            int cmp = Arrays.compareUnsigned(ids.get(a), ids.get(b));
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+         });
+         int kept = 0;
+         for (int i = 0; i < n; i++) {
+            if (i + 1 < n && Arrays.equals(ids.get(byId[i]), ids.get(byId[i + 1]))) {
+               continue;
+            }
+            byId[kept++] = byId[i];
+         }
+
+         // Entries are in storage order already, so the storage order of the kept ones
+         // is their entry numbers sorted by appended position
+         int[] entryOfAppended = new int[n];
+         Arrays.fill(entryOfAppended, -1);
+         long idBytes = 0;
+         for (int e = 0; e < kept; e++) {
+            entryOfAppended[byId[e]] = e;
+            idBytes += ids.get(byId[e]).length;
+         }
+         long size = INDEX_HEADER_BYTES + (long) (ENTRY_BYTES + 4) * kept + idBytes;
+         if (size > Integer.MAX_VALUE) {
+            throw new IOException("corpus store index of " + directory + " would pass 2 GB");
+         }
+
+         ByteBuffer out = ByteBuffer.allocate((int) size);
+         out.putInt(INDEX_MAGIC).putInt(VERSION).putInt(kept).putInt(segment + 1);
+         int idOffset = 0;
+         for (int e = 0; e < kept; e++) {
+            int i = byId[e];
+            out.putInt(idOffset).putInt(ids.get(i).length).putInt(segmentOf[i]).putInt(bytesOf[i]).putLong(offsetOf[i]);
+            idOffset += ids.get(i).length;
+         }
+         for (int i = 0; i < n; i++) {
+            if (entryOfAppended[i] >= 0) {
+               out.putInt(entryOfAppended[i]);
+            }
+         }
+         for (int e = 0; e < kept; e++) {
+            out.put(ids.get(byId[e]));
+         }
+         out.flip();
+
+         Path temporary = Paths.get(directory, INDEX_FILENAME + ".tmp");
+         try (FileChannel indexChannel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+               indexChannel.write(out);
+            }
+            indexChannel.force(true);
+         }
+         Files.move(temporary, Paths.get(directory, INDEX_FILENAME), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+      }
+   }
+}
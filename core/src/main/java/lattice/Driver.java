@@ -0,0 +1,443 @@
+/* 
+ * Usage 
+ *    java lattice.Driver [-workers numWorkers] [-keywordIndex file] [-prune beam] [-lm arpaFile] [-metrics] [-metricsJson file] [-asyncOutput] latticeListFilename lmScale outputDir
+ * 
+ *   latticeListFilename    a plaintext file with one line per lattice
+ *                          each line contains two strings, separated by a space
+ *                          the first string is the filename for a lattice file
+ *                          the second string is the filename for a ref file
+ *                          or a CorpusStore directory, whose records are read in
+ *                          the order they were appended
+ *
+ *   lmScale                a non-negative number that specifies how much to weight 
+ *                          the "language model" score, relative to the 
+ *                          "acoustic model" score
+ *
+ *   outputDir              a directory where output lattices and dot files will
+ *                          be written, one for each line in the lattice list
+ *
+ *   -workers numWorkers    number of lattices parsed and decoded at the same time
+ *                          (default 1). Results are still printed in list order,
+ *                          and at most two lattices per worker are in flight.
+ *
+ *   -keywordIndex file     build a KeywordIndex of every lattice, with edge posteriors
+ *                          at lmScale, while the lattices load and save it to file
+ *
+ *   -prune beam            prune each lattice as it loads, dropping edges whose best
+ *                          path costs more than beam above the best path at lmScale.
+ *                          Everything reported and written is for the pruned lattice.
+ *
+ *   -lm arpaFile           rescore each lattice with the n-gram model in arpaFile, after
+ *                          pruning and before anything else uses it. The model is loaded
+ *                          once and shared by all workers.
+ *
+ *   -metrics               time every phase of every lattice (parse, prune, rescore, sort, index,
+ *                          decode, writeDot, writeLattice), count nodes, edges and bytes
+ *                          read and written, and print a summary table to stderr at the end
+ *
+ *   -metricsJson file      as -metrics, and also write the summary to file as JSON
+ *
+ *   -asyncOutput           write the output lattices and dot files on a separate thread,
+ *                          so that workers go on decoding while the files are written.
+ *                          At most two lattices per worker wait to be written.
+ *
+ *   Each lattice also commits a lattice.Utterance event to Java Flight Recorder when
+ *   a recording enables it (java -XX:StartFlightRecording=...), with or without -metrics.
+ *
+*/
+
+package lattice;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+
+public class Driver {
+   public static void main(String[] args) {
+      int numWorkers = 1;
+      String keywordIndexFilename = null;
+      double pruneBeam = -1;
+      String lmFilename = null;
+      boolean metricsEnabled = false;
+      String metricsJsonFilename = null;
+      boolean asyncOutput = false;
+      int argIdx = 0;
+    
+      // Check and load arguments
+      while (argIdx < args.length && args[argIdx].startsWith("-") && args.length - argIdx > 3) {
+         if (args[argIdx].equals("-workers") && argIdx + 1 < args.length) {
+            numWorkers = Integer.parseInt(args[argIdx + 1]);
+            argIdx += 2;
+         }
+         else if (args[argIdx].equals("-keywordIndex") && argIdx + 1 < args.length) {
+            keywordIndexFilename = args[argIdx + 1];
+            argIdx += 2;
+         }
+         else if (args[argIdx].equals("-prune") && argIdx + 1 < args.length) {
+            pruneBeam = Double.parseDouble(args[argIdx + 1]);
+            argIdx += 2;
+         }
+         else if (args[argIdx].equals("-lm") && argIdx + 1 < args.length) {
+            lmFilename = args[argIdx + 1];
+            argIdx += 2;
+         }
+         else if (args[argIdx].equals("-metrics")) {
+            metricsEnabled = true;
+            argIdx++;
+         }
+         else if (args[argIdx].equals("-asyncOutput")) {
+            asyncOutput = true;
+            argIdx++;
+         }
+         else if (args[argIdx].equals("-metricsJson") && argIdx + 1 < args.length) {
+            metricsEnabled = true;
+            metricsJsonFilename = args[argIdx + 1];
+            argIdx += 2;
+         }
+         else {
+            System.err.println("Error: Unknown option " + args[argIdx]);
+            System.exit(2);
+         }
+      }
+      if(args.length - argIdx != 3 || numWorkers < 1) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+   
+      String latticeListFilename = args[argIdx];
+      double lmScale = Double.parseDouble(args[argIdx + 1]);
+      String outputDir = args[argIdx + 2];
+      double beam = pruneBeam;
+      LmRescorer rescorer = null;
+      if (lmFilename != null) {
+         try {
+            rescorer = new LmRescorer(NgramModel.load(lmFilename));
+         }
+         catch (java.io.IOException e) {
+            System.err.println("Error: Unable to load language model " + e.getMessage());
+            System.exit(1);
+         }
+      }
+      LmRescorer lmRescorer = rescorer;
+   
+      // Read through latticeListFilename, or the records of a corpus store
+      java.util.Scanner input = null;
+      CorpusStore corpus = null;
+      try {
+         if (CorpusStore.isStore(latticeListFilename)) {
+            corpus = CorpusStore.open(latticeListFilename);
+         }
+         else {
+            input = new java.util.Scanner(new java.io.File(latticeListFilename));
+         }
+      } 
+      catch( java.io.FileNotFoundException e ) {
+         System.err.println("Error: Unable to open file " + latticeListFilename);
+         System.exit(1);
+      }
+      catch (java.io.IOException e) {
+         System.err.println("Error: Unable to open corpus store " + e.getMessage());
+         System.exit(1);
+      }
+   
+      // Each lattice is handled by a worker, the main thread prints finished results
+      // in submission order and stops reading the list while the window is full.
+      ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+      ArrayDeque<Future<Result>> inFlight = new ArrayDeque<Future<Result>>();
+      int maxInFlight = 2 * numWorkers;
+      WerStats corpusErrors = new WerStats();
+      KeywordIndex keywordIndex = keywordIndexFilename == null ? null : new KeywordIndex();
+      LatticeMetrics metrics = new LatticeMetrics(metricsEnabled);
+      AsyncOutputWriter output = asyncOutput ? new AsyncOutputWriter(2 * numWorkers) : null;
+      long startTime = System.nanoTime();
+
+      int numFiles = 0;
+      while (corpus != null ? numFiles < corpus.size() : input.hasNext()) {
+         // Read next lattice file in latticeListFilename, or take the next record
+         Input next = corpus != null ? new Input(corpus, numFiles) : new Input(input.next(), input.next());
+         numFiles++;
+        
+         if (inFlight.size() == maxInFlight) {
+            finish(awaitResult(inFlight.removeFirst()), keywordIndex);
+         }
+         inFlight.addLast(workers.submit(() -> processLattice(next, lmScale, outputDir, beam, lmRescorer, corpusErrors, keywordIndex != null, metrics, output)));
+      }
+      while (!inFlight.isEmpty()) {
+         finish(awaitResult(inFlight.removeFirst()), keywordIndex);
+      }
+      workers.shutdown();
+      if (output != null) {
+         try {
+            output.close();
+         }
+         catch (java.io.IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+         }
+      }
+      System.out.println("\nOverall WER: " + corpusErrors);
+      if (keywordIndex != null) {
+         try {
+            keywordIndex.save(keywordIndexFilename);
+         }
+         catch (java.io.IOException e) {
+            System.err.println("Error: Unable to write to file " + keywordIndexFilename);
+            System.exit(1);
+         }
+      }
+      
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+      System.err.println(String.format("Decoded %d utterances in %.3f s (%.1f utterances/s, %d workers)",
+            numFiles, seconds, numFiles / seconds, numWorkers));
+      if (metrics.isEnabled()) {
+         metrics.printSummary(System.err);
+      }
+      if (metricsJsonFilename != null) {
+         try {
+            metrics.writeJson(metricsJsonFilename);
+         }
+         catch (java.io.IOException e) {
+            System.err.println("Error: Unable to write to file " + metricsJsonFilename);
+            System.exit(1);
+         }
+      }
+   }
+      
+   /*
+   *  Builds, decodes and writes one lattice, returning everything that should be
+   *   printed for it, and its keyword hits if indexHits is set, so that the caller can
+   *   keep the output and the index in list order. Its word errors are added to
+   *   corpusErrors.
+   *   A negative pruneBeam leaves the lattice as loaded, and so does a null rescorer.
+   *   Each phase is timed on a recorder from metrics, which costs nothing when neither
+   *   the metrics nor JFR are on. The output files are written by output if it is
+   *   not null, and before returning otherwise.
+   */
+   private static Result processLattice(Input input, double lmScale, String outputDir,
+                                        double pruneBeam, LmRescorer rescorer, WerStats corpusErrors,
+                                        boolean indexHits, LatticeMetrics metrics, AsyncOutputWriter output) {
+      StringBuilder out = new StringBuilder();
+      LatticeMetrics.Recorder recorder = metrics.begin();
+            
+      // Build the lattice
+      long start = recorder.start();
+      Lattice lattice = input.readLattice(recorder);
+      recorder.stop(LatticeMetrics.Phase.PARSE, start);
+      out.append("\nUtterance " + lattice.getUtteranceID() + "\n");
+      if (pruneBeam >= 0) {
+         start = recorder.start();
+         LatticePruner pruner = new LatticePruner(lattice, lmScale, pruneBeam);
+         lattice = pruner.getLattice();
+         recorder.stop(LatticeMetrics.Phase.PRUNE, start);
+         out.append("Pruned: " + pruner + "\n");
+      }
+      if (rescorer != null) {
+         start = recorder.start();
+         lattice = rescorer.rescore(lattice);
+         recorder.stop(LatticeMetrics.Phase.RESCORE, start);
+      }
+      recorder.add(LatticeMetrics.Counter.NODES, lattice.getNumNodes());
+      recorder.add(LatticeMetrics.Counter.EDGES, lattice.getEdgeCount());
+
+      // The order is cached on the lattice, timed here so that it is not charged to
+      // the first pass that needs it
+      if (recorder.isActive()) {
+         start = recorder.start();
+         lattice.getTopologicalOrder();
+         recorder.stop(LatticeMetrics.Phase.SORT, start);
+      }
+      
+      KeywordIndex.Hits hits = null;
+      if (indexHits) {
+         start = recorder.start();
+         hits = new KeywordIndex.Hits(lattice, lattice.computePosteriors(lmScale));
+         recorder.stop(LatticeMetrics.Phase.INDEX, start);
+      }
+      
+      // Reference text
+      String reference = input.readReference(recorder);
+      out.append("Reference: " + reference + "\n");
+            
+      // Decode, best hypothesis and various statistics, all from one traversal
+      start = recorder.start();
+      LatticeStats stats = lattice.computeStats(lmScale);
+      recorder.stop(LatticeMetrics.Phase.DECODE, start);
+      Hypothesis hypothesis = stats.getBestPath();
+      out.append("Hypothesis: " + hypothesis.getHypothesisString() + "\n");
+      WerStats errors = hypothesis.computeErrors(reference.trim().isEmpty() ? new java.util.ArrayList<String>() : java.util.Arrays.asList(reference.trim().split("\\s+")));
+      corpusErrors.add(errors);
+      out.append("WER: " + errors + "\n");
+      out.append("Number of unique paths: " + stats.getPathCount() + "\n");
+      out.append("Lattice density: " + new java.text.DecimalFormat("0.000").format(stats.getDensity()) + "\n");
+      //java.util.HashSet<String> words = lattice.uniqueWordsAtTime(0.5);
+      //printWordSet(words, outputDir + slash + lattice.getUtteranceID() + ".wordsAtTime");
+
+      out.append("Locations of -silence-: ");
+      for (double hit : stats.getSilenceTimes()) {
+         out.append(new java.text.DecimalFormat("0.00").format(hit) + " ");
+      }
+      out.append("\n");
+
+      // Write lattice to output dir in dot and lattice formats
+      String dotFilename = outputDir + "/" + lattice.getUtteranceID() + ".dot";
+      String latticeOutputFilename = outputDir + "/" + lattice.getUtteranceID() + ".lattice";
+
+      if(latticeOutputFilename.equals(input.latticeFilename)) {
+         System.out.println("Error: Output directory must not be the same as the input directory\n");
+         System.exit(5);
+      }
+      Lattice result = lattice;
+      if (output != null) {
+         output.submit(() -> writeOutput(result, dotFilename, latticeOutputFilename, recorder));
+      }
+      else {
+         try {
+            writeOutput(result, dotFilename, latticeOutputFilename, recorder);
+         }
+         catch (java.io.IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+         }
+      }
+      return new Result(out.toString(), hits);
+   }
+
+   // What processLattice hands back to the main thread
+   private static class Result {
+      final String text;
+      final KeywordIndex.Hits hits;
+
+      Result(String text, KeywordIndex.Hits hits) {
+         this.text = text;
+         this.hits = hits;
+      }
+   }
+
+   // Prints a finished lattice's results and adds its hits to the index, in list order
+   private static void finish(Result result, KeywordIndex keywordIndex) {
+      System.out.print(result.text);
+      if (result.hits != null) {
+         keywordIndex.add(result.hits);
+      }
+   }
+
+   /*
+   *  Writes the dot and lattice files of one lattice and closes its recorder, on
+   *   whichever thread does the output. A failure is thrown, for the output thread
+   *   to hand to AsyncOutputWriter.close().
+   */
+   private static void writeOutput(Lattice lattice, String dotFilename, String latticeOutputFilename,
+                                   LatticeMetrics.Recorder recorder) throws java.io.IOException {
+      long start = recorder.start();
+      lattice.writeDotFile(dotFilename);
+      recorder.stop(LatticeMetrics.Phase.WRITE_DOT, start);
+      recorder.addFileSize(LatticeMetrics.Counter.BYTES_WRITTEN, dotFilename);
+      start = recorder.start();
+      lattice.writeLatticeFile(latticeOutputFilename);
+      recorder.stop(LatticeMetrics.Phase.WRITE_LATTICE, start);
+      recorder.addFileSize(LatticeMetrics.Counter.BYTES_WRITTEN, latticeOutputFilename);
+      recorder.end(lattice.getUtteranceID());
+   }
+
+   /*
+   *  Where one lattice and its reference come from: a lattice file and a ref file, or
+   *   a record of a corpus store. Bytes read are counted on the recorder, for a record
+   *   as the bytes it takes in its segment.
+   */
+   private static class Input {
+      final String latticeFilename, refFilename;
+      final CorpusStore corpus;
+      final int record;
+
+      Input(String latticeFilename, String refFilename) {
+         this.latticeFilename = latticeFilename;
+         this.refFilename = refFilename;
+         this.corpus = null;
+         this.record = -1;
+      }
+
+      Input(CorpusStore corpus, int record) {
+         this.latticeFilename = null;
+         this.refFilename = null;
+         this.corpus = corpus;
+         this.record = record;
+      }
+
+      Lattice readLattice(LatticeMetrics.Recorder recorder) {
+         if (corpus == null) {
+            Lattice lattice = new Lattice(latticeFilename);
+            recorder.addFileSize(LatticeMetrics.Counter.BYTES_READ, latticeFilename);
+            return lattice;
+         }
+         try {
+            Lattice lattice = corpus.getLattice(record);
+            recorder.add(LatticeMetrics.Counter.BYTES_READ, corpus.getRecordBytes(record));
+            return lattice;
+         }
+         catch (java.io.IOException e) {
+            System.err.println("Error: Unable to read record " + record + " of " + corpus.getDirectory() + ": " + e.getMessage());
+            System.exit(1);
+            return null;
+         }
+      }
+
+      String readReference(LatticeMetrics.Recorder recorder) {
+         if (corpus == null) {
+            String reference = Driver.readReference(refFilename);
+            recorder.addFileSize(LatticeMetrics.Counter.BYTES_READ, refFilename);
+            return reference;
+         }
+         return corpus.getReference(record);
+      }
+   }
+
+   private static Result awaitResult(Future<Result> result) {
+      try {
+         return result.get();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException(e);
+      }
+      catch (ExecutionException e) {
+         System.err.println("Error: " + e.getCause());
+         System.exit(1);
+         return null;
+      }
+   }
+                
+
+   private static String readReference(String refFilename) {
+      java.util.Scanner refInput = null;
+        
+      try {
+         refInput = new java.util.Scanner(new java.io.File(refFilename));
+      } 
+      catch (java.io.FileNotFoundException e) {
+         System.out.println("Error: Unable to open file " + refFilename);
+         System.exit(1);
+      }
+        
+      try (java.util.Scanner ref = refInput) {
+         return ref.hasNext() ? ref.nextLine() : "";
+      }
+   }
+
+   private static void printWordSet(java.util.HashSet<String> words, String outFilename) {
+      if (words == null) {
+         return;
+      }	
+   
+      java.io.PrintStream output = null;
+      try {
+         output = new java.io.PrintStream(outFilename);
+      } 
+      catch (java.io.FileNotFoundException e) {
+         System.out.println("Error: Unable to open file " + outFilename + " for writing");
+         System.exit(1);
+      }
+        
+      for (String w : words) {
+         output.println(w);
+      }
+   }
+}
@@ -6,15 +6,22 @@
  *
  */
 
+package lattice;
+
 public class Edge {
-    private String label;          // The word associated with the edge
+    private int wordId;            // Vocabulary id of the word associated with the edge
     private int amScore, lmScore;  // The acoustic and language model scores
                                    // (A speech recognizer trades off scores of
                                    //  these two models to find the best path)
 
     // Edge
     public Edge(String label, int amScore, int lmScore) {
-        this.label = label;
+        this(Vocabulary.getId(label), amScore, lmScore);
+    }
+
+    // Edge - for a word already in the Vocabulary
+    public Edge(int wordId, int amScore, int lmScore) {
+        this.wordId = wordId;
         this.amScore = amScore;
         this.lmScore = lmScore;
         return;
@@ -22,13 +29,17 @@ public class Edge {
 
     // Edge - duplicates the content of another edge
     public Edge(Edge e) {
-        this.label = e.getLabel();
+        this.wordId = e.getWordId();
         this.amScore = e.getAmScore();
         this.lmScore = e.getLmScore();
     }
     
     public String getLabel() {
-        return this.label;
+        return Vocabulary.getWord(this.wordId);
+    }
+
+    public int getWordId() {
+        return this.wordId;
     }
 
     public int getLmScore() {
@@ -0,0 +1,102 @@
+/* 
+ * Hypothesis.java
+ *
+ * Path that represent a hypothesized utterance, obtained by searching a lattice
+ *
+ */
+
+package lattice;
+
+public class Hypothesis {
+    private double pathScore;                  // Cumulative path score
+    private int[] words;                       // Vocabulary ids of the words in the path
+    private int numWords;
+
+    public Hypothesis() {
+        words = new int[16];
+    }
+
+    // If word equals "-silence-" then
+    //   words is NOT modified: -silence- words are not included, but
+    //   combinedScore is added to the pathScore
+    // If word does not equal "-silence-" but DOES contain an underscore
+    //   word is split into individual words at the underscore(s)
+    //   each individual word is added, in sequence, to words
+    // If word is not "-silence-" and DOES NOT contain an underscore
+    //   word is added to the end of words, so that words is one longer
+    //   the combinedScore is added to the pathScore
+    public void addWord(String word, double combinedScore) {
+        addWord(Vocabulary.getId(word), combinedScore);
+    }
+
+    // Same as above for a Vocabulary id; the split is precomputed by the Vocabulary
+    public void addWord(int wordId, double combinedScore) {
+        int[] parts = Vocabulary.getParts(wordId);
+        pathScore += combinedScore;
+        if (numWords + parts.length > words.length) {
+            words = java.util.Arrays.copyOf(words, Math.max(words.length * 2, numWords + parts.length));
+        }
+        for(int i=0; i<parts.length; i++) {
+            words[numWords++] = parts[i];
+        }
+    }
+
+    public double getPathScore() {
+        return this.pathScore;
+    }
+
+    public int getNumWords() {
+        return this.numWords;
+    }
+
+    // Returns the Vocabulary ids of the words of this hypothesis, in order.
+    public int[] getWordIds() {
+        return java.util.Arrays.copyOf(words, numWords);
+    }
+
+    // Returns the words of this hypothesis, in order.
+    public java.util.List<String> getWords() {
+        java.util.List<String> result = new java.util.ArrayList<String>(numWords);
+        for( int i=0; i<numWords; i++ ) {
+            result.add(Vocabulary.getWord(words[i]));
+        }
+        return result;
+    }
+
+    // Returns the sentence constructed in this hypothesis.
+    public String getHypothesisString() {
+        StringBuilder result = new StringBuilder();
+        for( int i=0; i<numWords; i++ ) {
+            result.append(Vocabulary.getWord(words[i])).append(' ');
+        }    
+        return result.toString();
+    }
+
+    // Word error counts of this hypothesis against the given reference words.
+    public WerStats computeErrors(java.util.List<String> reference) {
+        WerStats stats = new WerStats();
+        WerScorer.forThread().score(words, numWords, reference, stats);
+        return stats;
+    }
+
+    // Word error counts against reference words given as Vocabulary ids, added to 'into'.
+    public void computeErrors(int[] reference, WerStats into) {
+        WerScorer.forThread().score(words, numWords, reference, reference.length, into);
+    }
+
+    // Word error rate against the first line of a reference file, read as Driver reads it.
+    public double computeWER(String referenceFilename) {
+        java.util.List<String> reference = new java.util.ArrayList<String>();
+        try (java.util.Scanner input = new java.util.Scanner(new java.io.File(referenceFilename))) {
+            String line = input.hasNext() ? input.nextLine().trim() : "";
+            if( !line.isEmpty() ) {
+                reference.addAll(java.util.Arrays.asList(line.split("\\s+")));
+            }
+        } catch( java.io.FileNotFoundException e ) {
+            System.out.println("Error: File " + referenceFilename + " not found");
+            System.exit(1);
+        }
+
+        return computeErrors(reference).getWER();
+    }
+}
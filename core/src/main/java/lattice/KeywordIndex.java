@@ -0,0 +1,366 @@
+/*
+ * KeywordIndex.java
+ *
+ * Inverted index from words to their occurrences in a corpus of lattices. Each posting is
+ * one edge: the utterance it belongs to (a number in order of addition), the edge index,
+ * the midpoint time of the edge and, when posteriors were supplied, the edge posterior.
+ * Postings live in primitive arrays per word and are kept sorted by utterance and time,
+ * so a query is a binary search plus a copy.
+ *
+ * The postings of one lattice are gathered first, into Hits, without the index's lock,
+ * so loader threads build them side by side; adding a Hits only appends to the word
+ * lists. The caller decides the utterance numbers by the order it adds them in, Driver
+ * adds them in list order so that the index does not depend on thread timing. An index
+ * can be saved to a compact binary file and loaded again without touching the lattices.
+ *
+ * Usage
+ *    java lattice.KeywordIndex indexFilename word [word ...]
+ *
+ *   Prints, for each word, the utterances it occurs in and its sorted hit times.
+ */
+
+package lattice;
+
+import java.io.*;
+import java.util.*;
+
+public class KeywordIndex {
+   private static final int MAGIC = 0x4b574958;   // "KWIX"
+   private static final int VERSION = 1;
+
+   private final ArrayList<String> utteranceIDs = new ArrayList<String>();
+   private Postings[] postings = new Postings[1024];      // Indexed by Vocabulary id
+   private int numWords;
+
+   public static void main(String[] args) throws IOException {
+      if (args.length < 2) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      KeywordIndex index = load(args[0]);
+      for (int w = 1; w < args.length; w++) {
+         System.out.println(args[w] + ":");
+         for (int u = 0; u < index.getNumUtterances(); u++) {
+            double[] hits = index.getSortedHits(args[w], u);
+            if (hits.length > 0) {
+               System.out.print("   " + index.getUtteranceID(u) + ": ");
+               for (int i = 0; i < hits.length; i++) {
+                  System.out.print(new java.text.DecimalFormat("0.00").format(hits[i]) + " ");
+               }
+               System.out.println();
+            }
+         }
+      }
+   }
+
+   /*
+   *  Occurrences of one word. Entries are appended in any utterance order and sorted
+   *   by (utterance, time) before the first query.
+   */
+   private static class Postings {
+      int size;
+      int[] utterances = new int[4];
+      int[] edges = new int[4];
+      double[] times = new double[4];
+      float[] posteriors = new float[4];
+      boolean sorted = true;
+
+      void add(int utterance, int edge, double time, float posterior) {
+         if (size == utterances.length) {
+            utterances = Arrays.copyOf(utterances, size * 2);
+            edges = Arrays.copyOf(edges, size * 2);
+            times = Arrays.copyOf(times, size * 2);
+            posteriors = Arrays.copyOf(posteriors, size * 2);
+         }
+         if (size > 0 && (utterance < utterances[size - 1] || (utterance == utterances[size - 1] && time < times[size - 1]))) {
+            sorted = false;
+         }
+         utterances[size] = utterance;
+         edges[size] = edge;
+         times[size] = time;
+         posteriors[size] = posterior;
+         size++;
+      }
+
+      void sort() {
+         if (sorted) {
+            return;
+         }
+         int[] order = new int[size];
+         double[] keys = new double[size];
+         for (int i = 0; i < size; i++) {
+            order[i] = i;
+            keys[i] = times[i];
+         }
+         WordTimeIndex.sortByKey(order, keys);           // By time, then stably by utterance
+         double[] byUtterance = new double[size];
+         for (int i = 0; i < size; i++) {
+            byUtterance[i] = utterances[i];
+         }
+         WordTimeIndex.sortByKey(order, byUtterance);
+
+         int[] newUtterances = new int[size], newEdges = new int[size];
+         double[] newTimes = new double[size];
+         float[] newPosteriors = new float[size];
+         for (int i = 0; i < size; i++) {
+            newUtterances[i] = utterances[order[i]];
+            newEdges[i] = edges[order[i]];
+            newTimes[i] = times[order[i]];
+            newPosteriors[i] = posteriors[order[i]];
+         }
+         utterances = newUtterances;
+         edges = newEdges;
+         times = newTimes;
+         posteriors = newPosteriors;
+         sorted = true;
+      }
+
+      // First position with utterance >= the given one
+      int lowerBound(int utterance) {
+         int lo = 0, hi = size;
+         while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (utterances[mid] < utterance) {
+               lo = mid + 1;
+            }
+            else {
+               hi = mid;
+            }
+         }
+         return lo;
+      }
+   }
+
+   /*
+   *  The edges of one lattice grouped by word, each word's sorted by midpoint time and
+   *   then edge index. Words are numbered in a WordSlots of the lattice's own words.
+   */
+   public static class Hits {
+      private final String utteranceID;
+      private final WordSlots words;
+      private final int[] offsets;             // Word slot -> first of its entries below
+      private final int[] edges;
+      private final double[] times;
+      private final float[] posteriors;
+
+      /*
+      *  edgePosteriors may be null, the hits then record NaN.
+      */
+      public Hits(Lattice lattice, LatticePosteriors edgePosteriors) {
+         int edgeCount = lattice.getEdgeCount();
+         int[] edgeSources = lattice.getEdgeSources();
+         int[] edgeTargets = lattice.getEdgeTargets();
+         int[] edgeWords = lattice.getEdgeWords();
+         double[] edgeTimes = new double[edgeCount];
+         int[] order = new int[edgeCount];
+         int[] slots = new int[edgeCount];
+
+         this.utteranceID = lattice.getUtteranceID();
+         this.words = new WordSlots(Math.min(edgeCount, 1024));
+         for (int e = 0; e < edgeCount; e++) {
+            edgeTimes[e] = (lattice.getNodeTime(edgeTargets[e]) + lattice.getNodeTime(edgeSources[e])) / 2;
+            slots[e] = words.add(edgeWords[e]);
+            order[e] = e;
+         }
+         WordTimeIndex.sortByKey(order, edgeTimes);        // By time, edge order among equal times
+
+         // Counting sort by word, which keeps each word's edges in time order
+         this.offsets = new int[words.size() + 1];
+         for (int e = 0; e < edgeCount; e++) {
+            offsets[slots[e] + 1]++;
+         }
+         for (int w = 0; w < words.size(); w++) {
+            offsets[w + 1] += offsets[w];
+         }
+         int[] fill = Arrays.copyOf(offsets, words.size());
+         this.edges = new int[edgeCount];
+         this.times = new double[edgeCount];
+         this.posteriors = new float[edgeCount];
+         for (int i = 0; i < edgeCount; i++) {
+            int e = order[i], k = fill[slots[e]]++;
+            edges[k] = e;
+            times[k] = edgeTimes[e];
+            posteriors[k] = edgePosteriors == null ? Float.NaN : (float) edgePosteriors.getEdgePosterior(e);
+         }
+      }
+
+      public String getUtteranceID() {
+         return this.utteranceID;
+      }
+
+      // Midpoint times of the word's edges, in ascending order
+      public double[] getSortedHits(String word) {
+         int wordId = Vocabulary.findId(word);
+         int slot = wordId < 0 ? -1 : words.find(wordId);
+         return slot < 0 ? new double[0] : Arrays.copyOfRange(times, offsets[slot], offsets[slot + 1]);
+      }
+   }
+
+   /*
+   *  Adds every edge of the lattice, returning the utterance number it was given.
+   *   posteriors may be null, the postings then record NaN.
+   */
+   public int add(Lattice lattice, LatticePosteriors posteriors) {
+      return add(new Hits(lattice, posteriors));
+   }
+
+   /*
+   *  Adds the hits of one lattice as the next utterance and returns its number. Hits
+   *   come sorted, so the word lists stay sorted while utterances are added in order.
+   */
+   public synchronized int add(Hits hits) {
+      int utterance = utteranceIDs.size();
+      utteranceIDs.add(hits.utteranceID);
+      for (int w = 0; w < hits.words.size(); w++) {
+         Postings list = postingsFor(hits.words.wordAt(w));
+         for (int k = hits.offsets[w]; k < hits.offsets[w + 1]; k++) {
+            list.add(utterance, hits.edges[k], hits.times[k], hits.posteriors[k]);
+         }
+      }
+      return utterance;
+   }
+
+   private Postings postingsFor(int wordId) {
+      if (wordId >= postings.length) {
+         postings = Arrays.copyOf(postings, Math.max(postings.length * 2, wordId + 1));
+      }
+      if (postings[wordId] == null) {
+         postings[wordId] = new Postings();
+         numWords++;
+      }
+      return postings[wordId];
+   }
+
+   private Postings find(String word) {
+      int wordId = Vocabulary.findId(word);
+      return wordId < 0 || wordId >= postings.length ? null : postings[wordId];
+   }
+
+   public synchronized int getNumUtterances() {
+      return utteranceIDs.size();
+   }
+
+   public synchronized String getUtteranceID(int utterance) {
+      return utteranceIDs.get(utterance);
+   }
+
+   public synchronized int getNumWords() {
+      return numWords;
+   }
+
+   // Occurrences of the word across the whole corpus
+   public synchronized int getCount(String word) {
+      Postings list = find(word);
+      return list == null ? 0 : list.size;
+   }
+
+   /*
+   *  Midpoint times of the word's edges in one utterance, in ascending order.
+   */
+   public synchronized double[] getSortedHits(String word, int utterance) {
+      Postings list = find(word);
+      if (list == null) {
+         return new double[0];
+      }
+      list.sort();
+      int from = list.lowerBound(utterance);
+      int to = list.lowerBound(utterance + 1);
+      return Arrays.copyOfRange(list.times, from, to);
+   }
+
+   /*
+   *  Edge indices and posteriors of the word's hits in one utterance, in the same order
+   *   as getSortedHits.
+   */
+   public synchronized int[] getHitEdges(String word, int utterance) {
+      Postings list = find(word);
+      if (list == null) {
+         return new int[0];
+      }
+      list.sort();
+      return Arrays.copyOfRange(list.edges, list.lowerBound(utterance), list.lowerBound(utterance + 1));
+   }
+
+   public synchronized float[] getHitPosteriors(String word, int utterance) {
+      Postings list = find(word);
+      if (list == null) {
+         return new float[0];
+      }
+      list.sort();
+      return Arrays.copyOfRange(list.posteriors, list.lowerBound(utterance), list.lowerBound(utterance + 1));
+   }
+
+   /*
+   *  File layout: magic, version, the utterance IDs, then per word its text, posting
+   *   count and the utterance, edge, time and posterior arrays. Postings are written sorted.
+   */
+   public synchronized void save(String filename) throws IOException {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16))) {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeInt(utteranceIDs.size());
+         for (String id : utteranceIDs) {
+            out.writeUTF(id);
+         }
+         out.writeInt(numWords);
+         for (int wordId = 0; wordId < postings.length; wordId++) {
+            Postings list = postings[wordId];
+            if (list == null) {
+               continue;
+            }
+            list.sort();
+            out.writeUTF(Vocabulary.getWord(wordId));
+            out.writeInt(list.size);
+            for (int i = 0; i < list.size; i++) {
+               out.writeInt(list.utterances[i]);
+            }
+            for (int i = 0; i < list.size; i++) {
+               out.writeInt(list.edges[i]);
+            }
+            for (int i = 0; i < list.size; i++) {
+               out.writeDouble(list.times[i]);
+            }
+            for (int i = 0; i < list.size; i++) {
+               out.writeFloat(list.posteriors[i]);
+            }
+         }
+      }
+   }
+
+   public static KeywordIndex load(String filename) throws IOException {
+      KeywordIndex index = new KeywordIndex();
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16))) {
+         if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException(filename + " is not a keyword index file of version " + VERSION);
+         }
+         int numUtterances = in.readInt();
+         for (int u = 0; u < numUtterances; u++) {
+            index.utteranceIDs.add(in.readUTF());
+         }
+         int numWords = in.readInt();
+         for (int w = 0; w < numWords; w++) {
+            Postings list = index.postingsFor(Vocabulary.getId(in.readUTF()));
+            int size = in.readInt();
+            list.size = size;
+            list.utterances = new int[size];
+            list.edges = new int[size];
+            list.times = new double[size];
+            list.posteriors = new float[size];
+            for (int i = 0; i < size; i++) {
+               list.utterances[i] = in.readInt();
+            }
+            for (int i = 0; i < size; i++) {
+               list.edges[i] = in.readInt();
+            }
+            for (int i = 0; i < size; i++) {
+               list.times[i] = in.readDouble();
+            }
+            for (int i = 0; i < size; i++) {
+               list.posteriors[i] = in.readFloat();
+            }
+         }
+      }
+      return index;
+   }
+}
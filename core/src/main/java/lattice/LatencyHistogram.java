@@ -0,0 +1,97 @@
+/*
+ * LatencyHistogram.java
+ *
+ * A fixed-size log-linear histogram of durations in nanoseconds. Each power of two is
+ * split into 8 buckets, so any recorded value lands in a bucket at most 12.5% wide and
+ * percentiles come back within that error. Recording is a couple of bit operations and
+ * an array increment, with no allocation. The exact minimum, maximum and total are kept
+ * alongside the buckets.
+ *
+ * Not thread safe; LatticeMetrics records into it under its own lock.
+ */
+
+package lattice;
+
+public class LatencyHistogram {
+   private static final int SUB_BUCKET_BITS = 3;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+   private final long[] counts = new long[64 * SUB_BUCKETS];
+   private long count, total;
+   private long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+
+   public void record(long nanos) {
+      if (nanos < 0) {
+         nanos = 0;
+      }
+      counts[bucketOf(nanos)]++;
+      count++;
+      total += nanos;
+      min = Math.min(min, nanos);
+      max = Math.max(max, nanos);
+   }
+
+   /*
+   *  Values below SUB_BUCKETS get a bucket each; above that the bucket is the position of
+   *   the highest set bit followed by the next SUB_BUCKET_BITS bits of the value.
+   */
+   private static int bucketOf(long value) {
+      if (value < SUB_BUCKETS) {
+         return (int) value;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+   }
+
+   // Smallest value that falls into bucket
+   private static long lowerBound(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+         return bucket;
+      }
+      int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      long mantissa = bucket % SUB_BUCKETS;
+      return (SUB_BUCKETS + mantissa) << (exponent - SUB_BUCKET_BITS);
+   }
+
+   public long getCount() {
+      return this.count;
+   }
+
+   public long getTotal() {
+      return this.total;
+   }
+
+   public long getMin() {
+      return count == 0 ? 0 : this.min;
+   }
+
+   public long getMax() {
+      return count == 0 ? 0 : this.max;
+   }
+
+   public double getMean() {
+      return count == 0 ? 0 : (double) total / count;
+   }
+
+   /*
+   *  The value at quantile q (0 to 1): the middle of the bucket holding the
+   *   ceil(q * count)-th smallest value, clamped to the exact minimum and maximum.
+   */
+   public long getPercentile(double q) {
+      if (count == 0) {
+         return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(q * count));
+      long seen = 0;
+      int bucket = 0;
+      while (seen + counts[bucket] < rank) {
+         seen += counts[bucket];
+         bucket++;
+      }
+      long low = lowerBound(bucket);
+      long high = bucket + 1 < counts.length ? lowerBound(bucket + 1) - 1 : Long.MAX_VALUE;
+      long middle = low + (high - low) / 2;
+      return Math.max(getMin(), Math.min(getMax(), middle));
+   }
+}
@@ -0,0 +1,703 @@
+/*	
+ * Lattice.java
+ *
+ * Directed acyclic graph that represents a large space of speech recognition hypotheses.
+ *
+ * Edges are kept in compressed sparse row (CSR) form: the outgoing edges of node i are
+ *  the edge indices outOffsets[i] .. outOffsets[i + 1] - 1, sorted by destination. Every
+ *  edge attribute lives in its own primitive array indexed by edge, words as Vocabulary
+ *  ids. A reverse index (inOffsets/inEdges) lists the incoming edges of each node, sorted
+ *  by source.
+ */
+
+package lattice;
+
+import java.util.*;
+import java.lang.*;
+import java.io.*;
+import java.math.BigInteger;
+
+public class Lattice {
+   private String utteranceID;      
+   private int startIdx, endIdx;	 
+   private int numNodes, numEdges;	  
+   private double[] nodeTimes;		 
+
+   private int[] outOffsets;        // numNodes + 1 entries, row starts into the edge arrays
+   private int[] edgeSources;       // Source node of each edge
+   private int[] edgeTargets;       // Destination node of each edge
+   private int[] edgeWords;         // Vocabulary id of the word on each edge
+   private int[] edgeAmScores;      // Acoustic model score of each edge
+   private int[] edgeLmScores;      // Language model score of each edge
+   private int[] inOffsets;         // numNodes + 1 entries, row starts into inEdges
+   private int[] inEdges;           // Edge indices grouped by destination
+   private volatile WordTimeIndex wordTimeIndex;   // Built on the first time query
+   private volatile KeywordIndex.Hits wordHits;    // Built on the first word query
+   private volatile int[] topologicalOrder;        // Built on the first traversal
+   private volatile ParallelDecoder.Levels topologicalLevels;   // Built on the first parallel decode
+
+   /*
+   *  Reads the header (ID, START, END, NUMNODES, NUMEDGES), the node times and the edges
+   *   through LatticeParser, which packs the edges into the sparse row arrays.
+   *
+   *  Exits with status 1 if the file cannot be opened or does not parse, the message
+   *   gives the line and column of the problem.
+   */
+   public Lattice(String latticeFilename) {
+      this(LatticeParser.load(latticeFilename));
+   }
+
+   // Takes over the arrays of an already built lattice.
+   private Lattice(Lattice other) {
+      this.utteranceID = other.utteranceID;
+      this.startIdx = other.startIdx;
+      this.endIdx = other.endIdx;
+      this.numNodes = other.numNodes;
+      this.numEdges = other.numEdges;
+      this.nodeTimes = other.nodeTimes;
+      this.outOffsets = other.outOffsets;
+      this.edgeSources = other.edgeSources;
+      this.edgeTargets = other.edgeTargets;
+      this.edgeWords = other.edgeWords;
+      this.edgeAmScores = other.edgeAmScores;
+      this.edgeLmScores = other.edgeLmScores;
+      this.inOffsets = other.inOffsets;
+      this.inEdges = other.inEdges;
+   }
+
+   /*
+   *  Builds a lattice directly from edge arrays, the first 'count' entries of each are used.
+   *   numEdges is kept as given so that the header written by toString() matches the input.
+   */
+   Lattice(String utteranceID, int startIdx, int endIdx, int numEdges, double[] nodeTimes,
+           int[] sources, int[] targets, int[] words, int[] amScores, int[] lmScores, int count) {
+      this.utteranceID = utteranceID;
+      this.startIdx = startIdx;
+      this.endIdx = endIdx;
+      this.numNodes = nodeTimes.length;
+      this.numEdges = numEdges;
+      this.nodeTimes = nodeTimes;
+      buildAdjacency(sources, targets, words, amScores, lmScores, count);
+   }
+
+   /*
+   *  Two stable counting sorts, first by destination and then by source, give the
+   *   edges in row-major order (the order a full adjacency matrix scan would visit them)
+   *   while duplicates keep their order from the file.
+   *
+   *  The reverse index is filled by walking the edges in that order, so every node's
+   *   incoming edges end up sorted by source.
+   */
+   private void buildAdjacency(int[] sources, int[] targets, int[] words, int[] amScores, int[] lmScores, int count) {
+      int[] byTarget = new int[count];
+      int[] order = new int[count];
+      int[] offsets = new int[this.numNodes + 1];
+
+      for (int e = 0; e < count; e++) {
+         if (sources[e] < 0 || sources[e] >= numNodes || targets[e] < 0 || targets[e] >= numNodes) {
+            throw new IllegalArgumentException("edge " + sources[e] + " -> " + targets[e] + " is outside the lattice");
+         }
+         offsets[targets[e] + 1]++;
+      }
+      for (int i = 0; i < numNodes; i++) {
+         offsets[i + 1] += offsets[i];
+      }
+      for (int e = 0; e < count; e++) {
+         byTarget[offsets[targets[e]]++] = e;
+      }
+
+      outOffsets = new int[this.numNodes + 1];
+      for (int e = 0; e < count; e++) {
+         outOffsets[sources[e] + 1]++;
+      }
+      for (int i = 0; i < numNodes; i++) {
+         outOffsets[i + 1] += outOffsets[i];
+      }
+      offsets = Arrays.copyOf(outOffsets, numNodes);
+      for (int k = 0; k < count; k++) {
+         order[offsets[sources[byTarget[k]]]++] = byTarget[k];
+      }
+
+      edgeSources = new int[count];
+      edgeTargets = new int[count];
+      edgeWords = new int[count];
+      edgeAmScores = new int[count];
+      edgeLmScores = new int[count];
+      for (int k = 0; k < count; k++) {
+         edgeSources[k] = sources[order[k]];
+         edgeTargets[k] = targets[order[k]];
+         edgeWords[k] = words[order[k]];
+         edgeAmScores[k] = amScores[order[k]];
+         edgeLmScores[k] = lmScores[order[k]];
+      }
+
+      inOffsets = new int[this.numNodes + 1];
+      inEdges = new int[count];
+      for (int e = 0; e < count; e++) {
+         inOffsets[edgeTargets[e] + 1]++;
+      }
+      for (int i = 0; i < numNodes; i++) {
+         inOffsets[i + 1] += inOffsets[i];
+      }
+      offsets = Arrays.copyOf(inOffsets, numNodes);
+      for (int e = 0; e < count; e++) {
+         inEdges[offsets[edgeTargets[e]]++] = e;
+      }
+   }
+   
+   public String getUtteranceID() {
+      return this.utteranceID;
+   }
+
+   public int getNumNodes() {
+      return this.numNodes;
+   }
+
+   public int getNumEdges() {
+      return this.numEdges;
+   }
+
+   public int getStartIdx() {
+      return this.startIdx;
+   }
+
+   public int getEndIdx() {
+      return this.endIdx;
+   }
+
+   public double getNodeTime(int node) {
+      return this.nodeTimes[node];
+   }
+
+   // Number of edges actually stored, which may differ from the numEdges header
+   public int getEdgeCount() {
+      return this.edgeTargets.length;
+   }
+
+   // Edges are numbered 0 .. getEdgeCount() - 1, in order of source and then destination
+   public int getEdgeSource(int edge) {
+      return this.edgeSources[edge];
+   }
+
+   public int getEdgeTarget(int edge) {
+      return this.edgeTargets[edge];
+   }
+
+   public Edge getEdge(int edge) {
+      return new Edge(edgeWords[edge], edgeAmScores[edge], edgeLmScores[edge]);
+   }
+
+   // The arrays below are shared, not copied. Callers in this package must not modify them.
+   double[] getNodeTimes() {
+      return this.nodeTimes;
+   }
+
+   int[] getOutOffsets() {
+      return this.outOffsets;
+   }
+
+   int[] getEdgeSources() {
+      return this.edgeSources;
+   }
+
+   int[] getEdgeTargets() {
+      return this.edgeTargets;
+   }
+
+   int[] getEdgeWords() {
+      return this.edgeWords;
+   }
+
+   int[] getEdgeAmScores() {
+      return this.edgeAmScores;
+   }
+
+   int[] getEdgeLmScores() {
+      return this.edgeLmScores;
+   }
+
+   int[] getInOffsets() {
+      return this.inOffsets;
+   }
+
+   int[] getInEdges() {
+      return this.inEdges;
+   }
+
+   /*
+   *  The lattice in its file format (ID -> START -> END -> NODES -> EDGES), then one line
+   *   per node with its time and one per edge in row order, see LatticeWriter.
+   *
+   *  Built in one StringBuilder sized from the node and edge counts.
+   */
+   public String toString() {  
+      StringBuilder text = new StringBuilder(64 + 16 * numNodes + 32 * edgeTargets.length);
+      try {
+         LatticeWriter writer = new LatticeWriter(text);
+         writer.writeLattice(this);
+         writer.flush();
+      }
+      catch (IOException e) {
+         throw new UncheckedIOException(e);              // A StringBuilder does not throw
+      }
+      return text.toString();
+   }
+   
+   /* A new Hypothesis object is returned	that contains the shortest path
+   *   (most probable path) from the startIdx to the endIdx
+   *
+   *  Initializes costs of all nodes to infinity and parents to -1.
+   *  Visits the nodes in topologically sorted order, checking every incoming edge for
+   *   the lowest cost of getting from startIdx to that node. Ties go to the lowest source.
+   *
+   *  Backtracks through endIdx and all parent edges until startIdx, this gives the reverse order of the path.
+   *
+   *  Adds the label of each edge in the path from last to first from the reverse order, giving the correct 
+   *   order of the shortest path through the lattice.
+   *
+   *  Lattices with at least ParallelDecoder.getThreshold() edges and wide enough
+   *   topological levels are decoded by a ParallelDecoder, which returns the same hypothesis.
+   */
+   public Hypothesis decode(double lmScale)	{   
+      if (decodesInParallel()) {
+         return ParallelDecoder.common().decode(this, lmScale);
+      }
+      return decodeSequential(lmScale);
+   }
+
+   // Whether decode, and computeStats's relaxation, go to ParallelDecoder.common()
+   boolean decodesInParallel() {
+      return getEdgeCount() >= ParallelDecoder.getThreshold() && ParallelDecoder.common().pays(this);
+   }
+
+   // decode on the calling thread, whatever the size of the lattice
+   Hypothesis decodeSequential(double lmScale) {
+      return backtrack(lmScale, bestParentEdges(lmScale));
+   }
+
+   // The parent edge of every node on its best path from startIdx, -1 if unreached
+   int[] bestParentEdges(double lmScale) {
+      double inf = java.lang.Double.POSITIVE_INFINITY;
+      double[] cost = new double[this.numNodes];
+      int[] parentEdge = new int[this.numNodes];
+      int[] topSort = this.getTopologicalOrder();
+      double score;
+      int node, edge;
+      
+      for (int i = 0; i < this.numNodes; i++) {
+         cost[i] = inf;
+         parentEdge[i] = -1;
+      }
+      
+      cost[this.startIdx] = 0;
+      
+      for (int i = 0; i < topSort.length; i++) {
+         node = topSort[i];
+         for (int k = inOffsets[node]; k < inOffsets[node + 1]; k++) {
+            edge = inEdges[k];
+            score = ((edgeLmScores[edge] * lmScale) + edgeAmScores[edge]) + cost[edgeSources[edge]];
+            if (score < cost[node]) {
+               cost[node] = score;
+               parentEdge[node] = edge;
+            }
+         }
+      }
+      
+      return parentEdge;
+   }
+
+   // The path of parent edges from endIdx back to startIdx, as a Hypothesis in forward order
+   Hypothesis backtrack(double lmScale, int[] parentEdge) {
+      Hypothesis hypothesis = new Hypothesis();
+      int[] revOrder = new int[this.numNodes];
+      int pathLength = 0;
+      int node = endIdx, edge;
+
+      while (node != startIdx) {
+         revOrder[pathLength++] = parentEdge[node];
+         node = edgeSources[parentEdge[node]];
+      }
+      
+      for (int i = pathLength - 1; i >= 0; i--) {
+         edge = revOrder[i];
+         hypothesis.addWord(edgeWords[edge], (edgeLmScores[edge] * lmScale) + edgeAmScores[edge]);
+      }
+   
+      return hypothesis;
+   }
+
+   /*
+   *  Decodes the lattice for several lmScale values in one traversal. Costs and parent
+   *   edges for all scales sit side by side (node * numScales + scale), so each edge is
+   *   read once and relaxed for every scale in a tight inner loop.
+   *
+   *  Element s of the result is exactly what decode(lmScales[s]) returns.
+   */
+   public Hypothesis[] decode(double[] lmScales) {
+      int numScales = lmScales.length;
+      double[] cost = new double[this.numNodes * numScales];
+      int[] parentEdge = new int[this.numNodes * numScales];
+      int[] topSort = this.getTopologicalOrder();
+      int[] revOrder = new int[this.numNodes];
+      Hypothesis[] hypotheses = new Hypothesis[numScales];
+      double score;
+      int node, edge, source, amScore, lmScore;
+
+      Arrays.fill(cost, java.lang.Double.POSITIVE_INFINITY);
+      Arrays.fill(parentEdge, -1);
+      for (int s = 0; s < numScales; s++) {
+         cost[this.startIdx * numScales + s] = 0;
+      }
+
+      for (int i = 0; i < topSort.length; i++) {
+         node = topSort[i];
+         for (int k = inOffsets[node]; k < inOffsets[node + 1]; k++) {
+            edge = inEdges[k];
+            source = edgeSources[edge] * numScales;
+            amScore = edgeAmScores[edge];
+            lmScore = edgeLmScores[edge];
+            for (int s = 0; s < numScales; s++) {
+               score = ((lmScore * lmScales[s]) + amScore) + cost[source + s];
+               if (score < cost[node * numScales + s]) {
+                  cost[node * numScales + s] = score;
+                  parentEdge[node * numScales + s] = edge;
+               }
+            }
+         }
+      }
+
+      for (int s = 0; s < numScales; s++) {
+         int pathLength = 0;
+         hypotheses[s] = new Hypothesis();
+         node = endIdx;
+         while (node != startIdx) {
+            revOrder[pathLength++] = parentEdge[node * numScales + s];
+            node = edgeSources[parentEdge[node * numScales + s]];
+         }
+         for (int i = pathLength - 1; i >= 0; i--) {
+            edge = revOrder[i];
+            hypotheses[s].addWord(edgeWords[edge], (edgeLmScores[edge] * lmScales[s]) + edgeAmScores[edge]);
+         }
+      }
+
+      return hypotheses;
+   }
+
+   /*
+   *  Returns the k best paths from startIdx to endIdx as Hypothesis objects, best first.
+   *   Paths are found lazily as the iterator is advanced, see NBestIterator.
+   */
+   public Iterator<Hypothesis> nBest(double lmScale, int k) {
+      return new NBestIterator(this, lmScale, k);
+   }
+
+   /*
+   *  Edge posteriors and word confidences for the given lmScale, see LatticePosteriors.
+   */
+   public LatticePosteriors computePosteriors(double lmScale) {
+      return new LatticePosteriors(this, lmScale);
+   }
+
+   /*
+   *  A copy without the edges whose best path costs more than beam above the best
+   *   path, and without the nodes that leaves unused, see LatticePruner.
+   */
+   public Lattice prune(double lmScale, double beam) {
+      return new LatticePruner(this, lmScale, beam).getLattice();
+   }
+
+   /*
+   *  A copy with one path per word sequence, carrying that sequence's best score at
+   *   lmScale, and redundant nodes merged, see LatticeDeterminizer. Returns the lattice
+   *   itself if determinization needs more than LatticeDeterminizer.DEFAULT_MAX_STATES states.
+   */
+   public Lattice determinize(double lmScale) {
+      return new LatticeDeterminizer(this, lmScale).getLattice();
+   }
+
+   /*
+   *  A copy scored by the n-gram model of rescorer, with nodes split by LM history
+   *   where the model needs it, see LmRescorer.
+   */
+   public Lattice rescore(LmRescorer rescorer) {
+      return rescorer.rescore(this);
+   }
+
+   /*
+   *  The lattice's posteriors clustered into time slots along the best path, see
+   *   ConfusionNetwork.
+   */
+   public ConfusionNetwork buildConfusionNetwork(double lmScale) {
+      return new ConfusionNetwork(this, lmScale);
+   }
+
+   /*
+   *  A read-only copy in a few bytes per edge, see CompactLattice.
+   */
+   public CompactLattice compact() {
+      return new CompactLattice(this);
+   }
+
+   /*
+   *  An editable copy that keeps decode(lmScale) and countAllPaths() up to date after
+   *   every edit, see LatticeEditor.
+   */
+   public LatticeEditor edit(double lmScale) {
+      return new LatticeEditor(this, lmScale);
+   }
+
+   /*
+   *  Statistics of one fused traversal, best path included, see LatticeStats.
+   */
+   public LatticeStats computeStats(double lmScale) {
+      return new LatticeStats(this, lmScale);
+   }
+
+   /*
+   *  Returns a copy of the cached topological order, computed on the first call.
+   */
+   public int[] topologicalSort() {
+      return getTopologicalOrder().clone();
+   }
+
+   // Shared, not copied, like the edge arrays.
+   int[] getTopologicalOrder() {
+      if (topologicalOrder == null) {
+         topologicalOrder = computeTopologicalOrder();
+      }
+      return topologicalOrder;
+   }
+
+   // The topological order grouped into levels for ParallelDecoder, built on first use
+   ParallelDecoder.Levels getTopologicalLevels() {
+      if (topologicalLevels == null) {
+         topologicalLevels = new ParallelDecoder.Levels(this);
+      }
+      return topologicalLevels;
+   }
+
+   /*
+   *  Add node to the queue zeroIn if in-degree equals 0.
+   *
+   *  Until zeroIn is empty, take the node at its head, adding it to the result
+   *   ("order") and decrementing all adjacent nodes. Nodes enter zeroIn in
+   *   ascending order at first and then in the order they are freed.
+   *
+   *  Not cached; package-private so LatticeBenchmark can time the sort itself.
+   */
+   int[] computeTopologicalOrder() {   
+      int[] order = new int[this.numNodes];
+      int[] inDegrees = new int[this.numNodes];   
+      int head = 0;
+      int tail = 0;
+      int node;
+                                             
+      for (int i = 0; i < this.numNodes; i++) {                  // In-degrees come straight from the reverse index.
+         inDegrees[i] = inOffsets[i + 1] - inOffsets[i];
+         if (inDegrees[i] == 0) {
+            order[tail++] = i;
+         }
+      }
+      
+      while (head < tail) {                                      // order doubles as the zeroIn queue.
+         node = order[head++];
+         for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+            if (--inDegrees[edgeTargets[e]] == 0) {              // Add the adjacent node to zeroIn if it now has an in-degree of 0.
+               order[tail++] = edgeTargets[e];
+            }
+         }         
+      }
+      
+      return order;
+   }
+   
+   /*
+   *  The total paths in the graph is the sum of all paths to 
+   *   the end from all children from the start node.
+   *
+   *  The total paths from all children to the end node is the 
+   *   sum of all their children to the end node, and so on. 
+   *
+   *  Counts in long arithmetic first and only redoes the count with BigInteger
+   *   if a sum overflows.
+   */
+   public java.math.BigInteger countAllPaths()	{      
+      long[] childPaths = new long[this.numNodes];
+      int[] topSort = this.getTopologicalOrder();
+      int node;
+
+      childPaths[this.endIdx] = 1;
+      try {
+         for (int i = topSort.length - 1; i >= 0; i--) {
+            node = topSort[i];
+            for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+               childPaths[node] = Math.addExact(childPaths[node], childPaths[edgeTargets[e]]);
+            }
+         }
+      }
+      catch (ArithmeticException e) {
+         return countAllPathsExact();
+      }
+
+      return BigInteger.valueOf(childPaths[startIdx]);
+   }
+
+   // Same count with arbitrary precision, for lattices with more than 2^63 - 1 paths.
+   BigInteger countAllPathsExact() {
+      BigInteger[] childPaths = new BigInteger[this.numNodes];
+      int[] topSort = this.getTopologicalOrder();
+      int node;
+      
+      for (int i = 0; i < this.numNodes; i++) {
+         childPaths[i] = BigInteger.ZERO;
+      }
+      childPaths[this.endIdx] = BigInteger.ONE;
+      
+      for (int i = topSort.length - 1; i >= 0; i--) {
+         node = topSort[i];
+         for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+            childPaths[node] = childPaths[node].add(childPaths[edgeTargets[e]]);
+         }   
+      }
+      
+      return childPaths[startIdx];
+   }
+
+   /* Returns the lattice density:
+   *	 (# of non -silence- words) / (# seconds from start to end index)
+   * 
+   *  Checks every edge for non -silence- words, keeping count along the way.
+   *
+   *  Then divides the count of non -silence- words by the time between the 
+   *   startIdx and endIdx.
+   */
+   public double getLatticeDensity() {
+      double totalTime = nodeTimes[endIdx] - nodeTimes[startIdx];
+      int wordCount = 0;
+      
+      for (int e = 0; e < edgeWords.length; e++) {
+         if (!Vocabulary.isSilence(edgeWords[e])) {
+            wordCount++;
+         }
+      }
+      
+      return (wordCount / totalTime);
+   }
+
+   /*
+   *  Given the dot format, writes, to the given file, the header 
+   *   followed by every edge's source node, destination node, and label.
+   *
+   *  Streams through a LatticeWriter, which does the buffering.
+   */
+   public void writeAsDot(String dotFilename) {   
+      try {
+         writeDotFile(dotFilename);
+      } catch (IOException e) {
+         System.err.println("Error: " + e.getMessage());
+         System.exit(1); 
+      }
+      
+   }
+
+   // writeAsDot for callers that handle the failure themselves
+   void writeDotFile(String dotFilename) throws IOException {
+      try (Writer file = new OutputStreamWriter(new FileOutputStream(dotFilename))) {
+         LatticeWriter writer = new LatticeWriter(file);
+         writer.writeDot(this);
+         writer.flush();
+      } catch (IOException e) {
+         throw new IOException("Unable to write to file " + dotFilename, e);
+      }
+   }
+
+   /*
+   *  Writes the lattice, in the original format of this.toString(), to the
+   *   given file, streamed through a LatticeWriter without building the String.
+   */
+   public void saveAsFile(String latticeOutputFilename) {   
+      try {
+         writeLatticeFile(latticeOutputFilename);
+      } catch (IOException e) {
+         System.err.println("Error: " + e.getMessage());
+         System.exit(1); 
+      } 
+        
+   }
+
+   // saveAsFile for callers that handle the failure themselves
+   void writeLatticeFile(String latticeOutputFilename) throws IOException {
+      try (Writer file = new OutputStreamWriter(new FileOutputStream(latticeOutputFilename))) {
+         LatticeWriter writer = new LatticeWriter(file);
+         writer.writeLattice(this);
+         writer.flush();
+      } catch (IOException e) {
+         throw new IOException("Unable to write to file " + latticeOutputFilename, e);
+      }
+   }
+
+   /*
+   *  Creates an empty HashSet in the case that no words are found for the time.
+   
+   *  Looks up every edge where the time parameter is between the source node
+   *   and the destination node, inclusive to both, in the word time index.
+   
+   *  Adds the edge's label to the HashSet, the index already returns each word only once.
+   */
+   public java.util.HashSet<String> uniqueWordsAtTime(double time) {    
+      WordTimeIndex index = getWordTimeIndex();
+      int[] wordIds = index.wordsAtTime(time);
+      HashSet<String> wordSet = new HashSet<String>(wordIds.length * 2);
+      
+      for (int i = 0; i < wordIds.length; i++) {
+         wordSet.add(index.getWord(wordIds[i]));
+      }   
+   
+      return wordSet;
+   }
+
+   /*
+   *  Batched form of uniqueWordsAtTime for times sorted in ascending order. Returns
+   *   word ids of getWordTimeIndex(), one array per query time.
+   */
+   public int[][] uniqueWordsAtTimes(double[] times) {
+      return getWordTimeIndex().wordsAtTimes(times);
+   }
+
+   public WordTimeIndex getWordTimeIndex() {
+      if (wordTimeIndex == null) {
+         wordTimeIndex = new WordTimeIndex(this);
+      }
+      return wordTimeIndex;
+   }
+
+   /*
+   *  Finds all times that a word appears: the midpoint between the two connecting
+   *   nodes of each of its edges, looked up in a keyword index of this lattice alone.
+   *
+   *  Returns the midpoints sorted in ascending order.
+   */
+   public double[] getSortedHits(String word) {
+      return getWordHits().getSortedHits(word);
+   }
+      
+   // This lattice's edges by word, without posteriors
+   public KeywordIndex.Hits getWordHits() {
+      if (wordHits == null) {
+         wordHits = new KeywordIndex.Hits(this, null);
+      }
+      return wordHits;
+   }
+
+   /*
+   *  Prints the sorted hit times of a word on one line.
+   */
+   public void printSortedHits(String word)	{
+      double[] sortedHits = getSortedHits(word);
+
+      for (int i = 0; i < sortedHits.length; i++) {
+         System.out.print(new java.text.DecimalFormat("0.00").format(sortedHits[i]) + " ");
+      }  
+      System.out.println();
+   }
+}
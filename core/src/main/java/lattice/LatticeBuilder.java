@@ -0,0 +1,284 @@
+/*
+ * LatticeBuilder.java
+ *
+ * Builds a lattice from nodes and edges that arrive one at a time, as a recognizer
+ * produces them, and keeps the Viterbi search of decode up to date while it grows.
+ *
+ * Every node holds its best cost from the start node and the edge that achieves it.
+ * A new edge is relaxed once against the current cost of its source. Only when it
+ * lowers the cost of a node that already has outgoing edges is the improvement pushed
+ * further along them, so edges that arrive in time order (destination not yet expanded)
+ * cost O(1) amortized. Ties between equal costs go to the lowest source and then to the
+ * edge that arrived first, the same choice decode makes, so the final result is exactly
+ * decode(lmScale) on the finished lattice.
+ *
+ * Edges must keep the graph acyclic. A builder is not thread-safe.
+ *
+ * Usage
+ *    java lattice.LatticeBuilder latticeFilename lmScale
+ *
+ *   Replays the lattice's edges in order of their end time, printing the best partial
+ *   hypothesis each time the frontier moves, and checks the final result against decode.
+ */
+
+package lattice;
+
+import java.util.Arrays;
+
+public class LatticeBuilder {
+   private final String utteranceID;
+   private final int startIdx;
+   private final double lmScale;
+
+   // Nodes, numbered in order of arrival
+   private double[] nodeTimes = new double[64];
+   private double[] cost = new double[64];         // Best cost from the start node so far
+   private int[] parentEdge = new int[64];         // Edge into the node on that best path
+   private int[] firstOut = new int[64];           // Head of the node's outgoing edge list
+   private int numNodes;
+
+   // Edges, numbered in order of arrival
+   private int[] sources = new int[256];
+   private int[] targets = new int[256];
+   private int[] words = new int[256];
+   private int[] amScores = new int[256];
+   private int[] lmScores = new int[256];
+   private int[] nextOut = new int[256];           // Next edge with the same source
+   private int numEdges;
+
+   private int frontier = -1;                      // Latest reached node, cheapest on ties
+   private int[] pending = new int[16];            // Nodes whose out-edges need relaxing
+
+   public static void main(String[] args) {
+      if (args.length != 2) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      Lattice lattice = new Lattice(args[0]);
+      double lmScale = Double.parseDouble(args[1]);
+      LatticeBuilder builder = new LatticeBuilder(lattice.getUtteranceID(), lattice.getStartIdx(), lmScale);
+      int edgeCount = lattice.getEdgeCount();
+      int[] order = new int[edgeCount];
+      double[] endTimes = new double[edgeCount];
+
+      for (int node = 0; node < lattice.getNumNodes(); node++) {
+         builder.addNode(lattice.getNodeTime(node));
+      }
+      for (int e = 0; e < edgeCount; e++) {
+         order[e] = e;
+         endTimes[e] = lattice.getNodeTime(lattice.getEdgeTarget(e));
+      }
+      WordTimeIndex.sortByKey(order, endTimes);
+
+      long elapsed = 0;
+      int lastFrontier = -1;
+      for (int i = 0; i < edgeCount; i++) {
+         int e = order[i];
+         Edge edge = lattice.getEdge(e);
+         long start = System.nanoTime();
+         builder.addEdge(lattice.getEdgeSource(e), lattice.getEdgeTarget(e), edge.getWordId(),
+                         edge.getAmScore(), edge.getLmScore());
+         elapsed += System.nanoTime() - start;
+         if (builder.getFrontier() != lastFrontier) {
+            lastFrontier = builder.getFrontier();
+            System.out.println(new java.text.DecimalFormat("0.00").format(builder.getNodeTime(lastFrontier))
+                               + ": " + builder.currentBest().getHypothesisString());
+         }
+      }
+
+      Hypothesis streamed = builder.decode(lattice.getEndIdx());
+      Hypothesis full = lattice.decode(lmScale);
+      if (!streamed.getHypothesisString().equals(full.getHypothesisString()) || streamed.getPathScore() != full.getPathScore()) {
+         System.err.println("Error: streamed result differs from decode: " + full.getHypothesisString());
+         System.exit(1);
+      }
+      System.out.println("Final: " + streamed.getHypothesisString());
+      System.err.println(String.format("%d edges in %.3f ms, %.1f ns per edge", edgeCount,
+                                       elapsed / 1e6, edgeCount == 0 ? 0.0 : (double) elapsed / edgeCount));
+   }
+
+   /*
+   *  The start node may be added at any point, costs only start flowing once it exists.
+   */
+   public LatticeBuilder(String utteranceID, int startIdx, double lmScale) {
+      this.utteranceID = utteranceID;
+      this.startIdx = startIdx;
+      this.lmScale = lmScale;
+   }
+
+   // Adds the next node and returns its index.
+   public int addNode(double time) {
+      if (numNodes == nodeTimes.length) {
+         int capacity = numNodes * 2;
+         nodeTimes = Arrays.copyOf(nodeTimes, capacity);
+         cost = Arrays.copyOf(cost, capacity);
+         parentEdge = Arrays.copyOf(parentEdge, capacity);
+         firstOut = Arrays.copyOf(firstOut, capacity);
+      }
+      int node = numNodes++;
+      nodeTimes[node] = time;
+      cost[node] = Double.POSITIVE_INFINITY;
+      parentEdge[node] = -1;
+      firstOut[node] = -1;
+      if (node == startIdx) {
+         cost[node] = 0;
+         reached(node);
+      }
+      return node;
+   }
+
+   public int addEdge(int source, int target, String word, int amScore, int lmScore) {
+      return addEdge(source, target, Vocabulary.getId(word), amScore, lmScore);
+   }
+
+   /*
+   *  Adds an edge between two nodes that were already added and returns its index.
+   *   The edge is relaxed right away, and if it improves a node that already has
+   *   outgoing edges the new cost is carried forward through them.
+   */
+   public int addEdge(int source, int target, int wordId, int amScore, int lmScore) {
+      if (source < 0 || source >= numNodes || target < 0 || target >= numNodes) {
+         throw new IllegalArgumentException("edge " + source + " -> " + target + " is outside the lattice");
+      }
+      if (numEdges == sources.length) {
+         int capacity = numEdges * 2;
+         sources = Arrays.copyOf(sources, capacity);
+         targets = Arrays.copyOf(targets, capacity);
+         words = Arrays.copyOf(words, capacity);
+         amScores = Arrays.copyOf(amScores, capacity);
+         lmScores = Arrays.copyOf(lmScores, capacity);
+         nextOut = Arrays.copyOf(nextOut, capacity);
+      }
+      int edge = numEdges++;
+      sources[edge] = source;
+      targets[edge] = target;
+      words[edge] = wordId;
+      amScores[edge] = amScore;
+      lmScores[edge] = lmScore;
+      nextOut[edge] = firstOut[source];
+      firstOut[source] = edge;
+
+      if (relax(edge)) {
+         int numPending = 0;
+         pending[numPending++] = target;
+         while (numPending > 0) {
+            int node = pending[--numPending];
+            for (int e = firstOut[node]; e >= 0; e = nextOut[e]) {
+               if (relax(e) && firstOut[targets[e]] >= 0) {
+                  if (numPending == pending.length) {
+                     pending = Arrays.copyOf(pending, numPending * 2);
+                  }
+                  pending[numPending++] = targets[e];
+               }
+            }
+         }
+      }
+      return edge;
+   }
+
+   /*
+   *  Offers the edge to its destination, with the arithmetic of decode so that costs
+   *   come out bit for bit the same. Returns true if the destination's cost went down.
+   */
+   private boolean relax(int edge) {
+      int target = targets[edge];
+      double score = ((lmScores[edge] * lmScale) + amScores[edge]) + cost[sources[edge]];
+      if (score < cost[target]) {
+         cost[target] = score;
+         parentEdge[target] = edge;
+         reached(target);
+         return true;
+      }
+      int parent = parentEdge[target];
+      if (score == cost[target] && parent >= 0
+          && (sources[edge] < sources[parent] || (sources[edge] == sources[parent] && edge < parent))) {
+         parentEdge[target] = edge;
+      }
+      return false;
+   }
+
+   private void reached(int node) {
+      if (frontier < 0 || nodeTimes[node] > nodeTimes[frontier]
+          || (nodeTimes[node] == nodeTimes[frontier] && cost[node] < cost[frontier])) {
+         frontier = node;
+      }
+   }
+
+   public String getUtteranceID() {
+      return this.utteranceID;
+   }
+
+   public int getNumNodes() {
+      return this.numNodes;
+   }
+
+   public int getEdgeCount() {
+      return this.numEdges;
+   }
+
+   public double getNodeTime(int node) {
+      return this.nodeTimes[node];
+   }
+
+   // Best cost from the start node so far, infinity while the node is unreached
+   public double getCost(int node) {
+      return this.cost[node];
+   }
+
+   // The reached node with the latest time, -1 before the start node is added
+   public int getFrontier() {
+      return this.frontier;
+   }
+
+   // Best partial hypothesis up to the frontier node
+   public Hypothesis currentBest() {
+      if (frontier < 0) {
+         return new Hypothesis();
+      }
+      return bestTo(frontier);
+   }
+
+   /*
+   *  Backtracks from the node through the parent edges, then adds their words in path
+   *   order, the same as decode. Costs O(path length).
+   */
+   public Hypothesis bestTo(int node) {
+      if (node < 0 || node >= numNodes || cost[node] == Double.POSITIVE_INFINITY) {
+         throw new IllegalStateException("node " + node + " has not been reached from the start node");
+      }
+      Hypothesis hypothesis = new Hypothesis();
+      int[] revOrder = new int[16];
+      int pathLength = 0;
+
+      while (node != startIdx) {
+         if (pathLength == revOrder.length) {
+            revOrder = Arrays.copyOf(revOrder, pathLength * 2);
+         }
+         revOrder[pathLength++] = parentEdge[node];
+         node = sources[parentEdge[node]];
+      }
+      for (int i = pathLength - 1; i >= 0; i--) {
+         int edge = revOrder[i];
+         hypothesis.addWord(words[edge], (lmScores[edge] * lmScale) + amScores[edge]);
+      }
+      return hypothesis;
+   }
+
+   // Equal to toLattice(endIdx).decode(lmScale), without building the lattice.
+   public Hypothesis decode(int endIdx) {
+      return bestTo(endIdx);
+   }
+
+   /*
+   *  The lattice built so far, with edges in arrival order. The builder can keep
+   *   growing afterwards, the lattice does not share its arrays.
+   */
+   public Lattice toLattice(int endIdx) {
+      if (endIdx < 0 || endIdx >= numNodes || startIdx >= numNodes) {
+         throw new IllegalStateException("start and end must be nodes of the lattice");
+      }
+      return new Lattice(utteranceID, startIdx, endIdx, numEdges, Arrays.copyOf(nodeTimes, numNodes),
+                         sources, targets, words, amScores, lmScores, numEdges);
+   }
+}
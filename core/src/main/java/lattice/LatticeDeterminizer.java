@@ -0,0 +1,529 @@
+/*
+ * LatticeDeterminizer.java
+ *
+ * Determinizes a lattice over its words and then minimizes it, so that each word sequence
+ * is left with a single path carrying the best score any of its original paths had.
+ *
+ * Weights are (amScore, lmScore) pairs. Of two pairs the one with the lower combined cost
+ * lmScore * lmScale + amScore wins (ties go to the lower lmScore, then amScore), and pairs
+ * add component by component, so every weight in the result is still a pair of integers
+ * and decode reads the result like any other lattice. The result is only equivalent to the
+ * input for the lmScale it was built with.
+ *
+ * Determinization is the weighted subset construction: a state of the result is a set of
+ * input nodes, each with the residual weight by which its best path in falls behind the
+ * best one. Arcs into the end node are split off onto their own edge into a single end
+ * node, since a Lattice has no final weights; a word sequence then still has exactly one
+ * path. Word-level minimization follows, merging in reverse topological order every pair
+ * of nodes whose outgoing (word, amScore, lmScore, target) lists are equal.
+ *
+ * Nodes of the result take the time of their best input node. Input nodes that cannot
+ * be reached from the start node or cannot reach the end node are dropped first.
+ *
+ * The number of subset states can grow exponentially, so construction stops at a state
+ * limit; the lattice is then returned unchanged and isComplete() is false.
+ *
+ * Usage
+ *    java lattice.LatticeDeterminizer [-maxStates N] [-synthetic numNodes] lmScale [latticeFilename ...]
+ *
+ *   Prints the reduction in nodes, edges and paths for every lattice file and for a random
+ *   lattice of about numNodes nodes with many alignments of each word sequence
+ *   (-synthetic may be repeated).
+ */
+
+package lattice;
+
+import java.math.BigInteger;
+import java.util.*;
+
+public class LatticeDeterminizer {
+   public static final int DEFAULT_MAX_STATES = 100000;
+
+   private final Lattice original;
+   private final Lattice result;
+   private final double lmScale;
+   private final boolean complete;
+   private int determinizedNodes, determinizedEdges;
+
+   // Subset states: member nodes, sorted, with the am and lm parts of their residual weight
+   private final HashMap<Subset, Integer> stateIds = new HashMap<Subset, Integer>();
+   private final ArrayList<Subset> states = new ArrayList<Subset>();
+
+   // The determinized lattice as it is built
+   private double[] nodeTimes = new double[64];
+   private int numNodes;
+   private int[] sources = new int[256], targets = new int[256], words = new int[256];
+   private int[] amScores = new int[256], lmScores = new int[256];
+   private int numEdges;
+
+   public static void main(String[] args) {
+      int maxStates = DEFAULT_MAX_STATES;
+      ArrayList<Integer> syntheticSizes = new ArrayList<Integer>();
+      int argIdx = 0;
+
+      while (argIdx + 1 < args.length && args[argIdx].startsWith("-")) {
+         if (args[argIdx].equals("-maxStates")) {
+            maxStates = Integer.parseInt(args[argIdx + 1]);
+         }
+         else if (args[argIdx].equals("-synthetic")) {
+            syntheticSizes.add(Integer.parseInt(args[argIdx + 1]));
+         }
+         else {
+            System.err.println("Error: Unknown option " + args[argIdx]);
+            System.exit(2);
+         }
+         argIdx += 2;
+      }
+      if (argIdx >= args.length) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      double lmScale = Double.parseDouble(args[argIdx]);
+      for (int i = argIdx + 1; i < args.length; i++) {
+         report(args[i], new Lattice(args[i]), lmScale, maxStates);
+      }
+      for (int i = 0; i < syntheticSizes.size(); i++) {
+         int size = syntheticSizes.get(i);
+         report("synthetic " + size, syntheticLattice(size, 50, i), lmScale, maxStates);
+      }
+   }
+
+   private static void report(String name, Lattice lattice, double lmScale, int maxStates) {
+      long start = System.nanoTime();
+      LatticeDeterminizer determinizer = new LatticeDeterminizer(lattice, lmScale, maxStates);
+      double millis = (System.nanoTime() - start) / 1e6;
+      Lattice result = determinizer.getLattice();
+
+      if (!determinizer.isComplete()) {
+         System.out.println(String.format("%s: stopped at %d states, lattice left unchanged (%.1f ms)", name, maxStates, millis));
+         return;
+      }
+      System.out.println(String.format("%s: nodes %d -> %d, edges %d -> %d, paths %s -> %s (%.1f ms)", name,
+            lattice.getNumNodes(), result.getNumNodes(), lattice.getEdgeCount(), result.getEdgeCount(),
+            formatCount(lattice.countAllPaths()), formatCount(result.countAllPaths()), millis));
+   }
+
+   // Counts past 15 digits as d.ddde<exponent>
+   private static String formatCount(BigInteger count) {
+      String digits = count.toString();
+      if (digits.length() <= 15) {
+         return digits;
+      }
+      return digits.charAt(0) + "." + digits.substring(1, 4) + "e" + (digits.length() - 1);
+   }
+
+   /*
+   *  Random lattice with the redundancy of recognizer output: every word position has
+   *   three competing words, and each word is aligned twice, ending at one of two nearby
+   *   boundary nodes, from both boundary nodes of the position before. The acoustic score
+   *   of an alignment is the word's score plus a cost for its end boundary.
+   */
+   private static Lattice syntheticLattice(int numNodes, int vocabularySize, long seed) {
+      Random random = new Random(seed);
+      int positions = Math.max(1, (numNodes - 2) / 2);
+      int endIdx = 2 * positions + 1;
+      double[] times = new double[endIdx + 1];
+      int[] jitter = new int[endIdx + 1];
+      int capacity = 3 * 4 * (positions + 1);
+      int[] sources = new int[capacity], targets = new int[capacity], words = new int[capacity];
+      int[] amScores = new int[capacity], lmScores = new int[capacity];
+      int count = 0;
+
+      for (int node = 1; node <= endIdx; node++) {
+         times[node] = (node + 1) / 2 * 0.1 + (node % 2 == 0 ? 0.01 : 0);
+         jitter[node] = node == endIdx ? 0 : random.nextInt(20);
+      }
+      for (int p = 1; p <= positions + 1; p++) {
+         int fromFirst = p == 1 ? 0 : 2 * p - 3, fromLast = p == 1 ? 0 : 2 * p - 2;
+         int toFirst = p > positions ? endIdx : 2 * p - 1, toLast = p > positions ? endIdx : 2 * p;
+         for (int a = 0; a < 3; a++) {
+            int word = Vocabulary.getId("w" + random.nextInt(vocabularySize));
+            int amScore = random.nextInt(500), lmScore = random.nextInt(50);
+            for (int from = fromFirst; from <= fromLast; from++) {
+               for (int to = toFirst; to <= toLast; to++) {
+                  sources[count] = from;
+                  targets[count] = to;
+                  words[count] = word;
+                  amScores[count] = amScore + jitter[to];
+                  lmScores[count] = lmScore;
+                  count++;
+               }
+            }
+         }
+      }
+      return new Lattice("synthetic", 0, endIdx, count, times, sources, targets, words, amScores, lmScores, count);
+   }
+
+   public LatticeDeterminizer(Lattice lattice, double lmScale) {
+      this(lattice, lmScale, DEFAULT_MAX_STATES);
+   }
+
+   public LatticeDeterminizer(Lattice lattice, double lmScale, int maxStates) {
+      this.original = lattice;
+      this.lmScale = lmScale;
+      if (lattice.getStartIdx() == lattice.getEndIdx() || !determinize(maxStates)) {
+         this.complete = lattice.getStartIdx() == lattice.getEndIdx();
+         this.result = lattice;
+         return;
+      }
+      Lattice determinized = new Lattice(lattice.getUtteranceID(), 0, 1, numEdges, Arrays.copyOf(nodeTimes, numNodes),
+                                         sources, targets, words, amScores, lmScores, numEdges);
+      this.determinizedNodes = determinized.getNumNodes();
+      this.determinizedEdges = determinized.getEdgeCount();
+      this.complete = true;
+      this.result = minimize(determinized);
+   }
+
+   /*
+   *  A set of input nodes with residual weights, packed as node, am, lm triples in node
+   *   order. Equal sets with equal residuals are the same state.
+   */
+   private static final class Subset {
+      final int[] members;
+      final int hash;
+
+      Subset(int[] members) {
+         this.members = members;
+         this.hash = Arrays.hashCode(members);
+      }
+
+      public int hashCode() {
+         return hash;
+      }
+
+      public boolean equals(Object other) {
+         return other instanceof Subset && Arrays.equals(members, ((Subset) other).members);
+      }
+   }
+
+   private double cost(int amScore, int lmScore) {
+      return (lmScore * lmScale) + amScore;
+   }
+
+   // True if weight (am1, lm1) beats (am2, lm2)
+   private boolean better(int am1, int lm1, int am2, int lm2) {
+      double c1 = cost(am1, lm1), c2 = cost(am2, lm2);
+      return c1 < c2 || (c1 == c2 && (lm1 < lm2 || (lm1 == lm2 && am1 < am2)));
+   }
+
+   /*
+   *  Subset construction from the start node, states in order of discovery. Node 0 of
+   *   the result is the start state and node 1 the end node. Returns false once more
+   *   than maxStates states exist.
+   */
+   private boolean determinize(int maxStates) {
+      Lattice lattice = original;
+      int endIdx = lattice.getEndIdx();
+      int[] outOffsets = lattice.getOutOffsets();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      int[] edgeWords = lattice.getEdgeWords();
+      int[] edgeAmScores = lattice.getEdgeAmScores();
+      int[] edgeLmScores = lattice.getEdgeLmScores();
+      boolean[] live = liveNodes(lattice);
+
+      // Arcs leaving the current state, gathered from all its members
+      int[] arcWords = new int[16], arcTargets = new int[16], arcAm = new int[16], arcLm = new int[16];
+      double[] wordKeys = new double[16], targetKeys = new double[16];
+
+      getState(new int[] { lattice.getStartIdx(), 0, 0 });
+      addNode(lattice.getNodeTime(endIdx));
+
+      for (int s = 0; s < states.size(); s++) {
+         int[] members = states.get(s).members;
+         int source = s == 0 ? 0 : s + 1;         // Node 1 is the end node
+         int numArcs = 0;
+
+         for (int m = 0; m < members.length; m += 3) {
+            int node = members[m];
+            for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+               if (!live[edgeTargets[e]]) {
+                  continue;
+               }
+               if (numArcs == arcWords.length) {
+                  arcWords = Arrays.copyOf(arcWords, numArcs * 2);
+                  arcTargets = Arrays.copyOf(arcTargets, numArcs * 2);
+                  arcAm = Arrays.copyOf(arcAm, numArcs * 2);
+                  arcLm = Arrays.copyOf(arcLm, numArcs * 2);
+                  wordKeys = Arrays.copyOf(wordKeys, numArcs * 2);
+                  targetKeys = Arrays.copyOf(targetKeys, numArcs * 2);
+               }
+               arcWords[numArcs] = edgeWords[e];
+               arcTargets[numArcs] = edgeTargets[e];
+               arcAm[numArcs] = members[m + 1] + edgeAmScores[e];
+               arcLm[numArcs] = members[m + 2] + edgeLmScores[e];
+               wordKeys[numArcs] = edgeWords[e];
+               targetKeys[numArcs] = edgeTargets[e];
+               numArcs++;
+            }
+         }
+
+         // Group by word, and by target within a word
+         int[] order = new int[numArcs];
+         for (int a = 0; a < numArcs; a++) {
+            order[a] = a;
+         }
+         WordTimeIndex.sortByKey(order, targetKeys);
+         WordTimeIndex.sortByKey(order, wordKeys);
+
+         for (int from = 0; from < numArcs; ) {
+            int word = arcWords[order[from]];
+            int to = from;
+            while (to < numArcs && arcWords[order[to]] == word) {
+               to++;
+            }
+
+            // Best arc into each target, the end node's goes on an edge of its own
+            int[] next = new int[3 * (to - from)];
+            int size = 0, bestAm = 0, bestLm = 0;
+            boolean any = false;
+            for (int a = from; a < to; a++) {
+               int arc = order[a];
+               if (size > 0 && next[size - 3] == arcTargets[arc]) {
+                  if (better(arcAm[arc], arcLm[arc], next[size - 2], next[size - 1])) {
+                     next[size - 2] = arcAm[arc];
+                     next[size - 1] = arcLm[arc];
+                  }
+                  continue;
+               }
+               next[size++] = arcTargets[arc];
+               next[size++] = arcAm[arc];
+               next[size++] = arcLm[arc];
+            }
+            int endMember = -1;
+            for (int m = 0; m < size; m += 3) {
+               if (next[m] == endIdx) {
+                  endMember = m;
+               }
+               else if (!any || better(next[m + 1], next[m + 2], bestAm, bestLm)) {
+                  bestAm = next[m + 1];
+                  bestLm = next[m + 2];
+                  any = true;
+               }
+            }
+            if (endMember >= 0) {
+               addEdge(source, 1, word, next[endMember + 1], next[endMember + 2]);
+               System.arraycopy(next, endMember + 3, next, endMember, size - endMember - 3);
+               size -= 3;
+            }
+            if (any) {
+               int[] subset = Arrays.copyOf(next, size);
+               for (int m = 0; m < size; m += 3) {
+                  subset[m + 1] -= bestAm;
+                  subset[m + 2] -= bestLm;
+               }
+               int state = getState(subset);
+               if (states.size() > maxStates) {
+                  return false;
+               }
+               addEdge(source, state == 0 ? 0 : state + 1, word, bestAm, bestLm);
+            }
+            from = to;
+         }
+      }
+      return true;
+   }
+
+   // Nodes on some path from the start node to the end node
+   private static boolean[] liveNodes(Lattice lattice) {
+      int[] topSort = lattice.getTopologicalOrder();
+      int[] outOffsets = lattice.getOutOffsets();
+      int[] inOffsets = lattice.getInOffsets();
+      int[] inEdges = lattice.getInEdges();
+      int[] edgeSources = lattice.getEdgeSources();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      boolean[] reached = new boolean[lattice.getNumNodes()];
+      boolean[] live = new boolean[lattice.getNumNodes()];
+
+      reached[lattice.getStartIdx()] = true;
+      for (int i = 0; i < topSort.length; i++) {
+         int node = topSort[i];
+         for (int k = inOffsets[node]; k < inOffsets[node + 1]; k++) {
+            reached[node] |= reached[edgeSources[inEdges[k]]];
+         }
+      }
+      live[lattice.getEndIdx()] = true;
+      for (int i = topSort.length - 1; i >= 0; i--) {
+         int node = topSort[i];
+         for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+            live[node] |= live[edgeTargets[e]];
+         }
+      }
+      for (int n = 0; n < live.length; n++) {
+         live[n] &= reached[n];
+      }
+      return live;
+   }
+
+   // State id of the subset, creating the state and its node if it is new
+   private int getState(int[] members) {
+      Subset subset = new Subset(members);
+      Integer id = stateIds.get(subset);
+      if (id != null) {
+         return id;
+      }
+      int state = states.size();
+      stateIds.put(subset, state);
+      states.add(subset);
+
+      // The member with no residual lies on the best path into the state
+      int best = 0;
+      while (members[best + 1] != 0 || members[best + 2] != 0) {
+         best += 3;
+      }
+      addNode(original.getNodeTime(members[best]));
+      return state;
+   }
+
+   private void addNode(double time) {
+      if (numNodes == nodeTimes.length) {
+         nodeTimes = Arrays.copyOf(nodeTimes, numNodes * 2);
+      }
+      nodeTimes[numNodes++] = time;
+   }
+
+   private void addEdge(int source, int target, int word, int amScore, int lmScore) {
+      if (numEdges == sources.length) {
+         sources = Arrays.copyOf(sources, numEdges * 2);
+         targets = Arrays.copyOf(targets, numEdges * 2);
+         words = Arrays.copyOf(words, numEdges * 2);
+         amScores = Arrays.copyOf(amScores, numEdges * 2);
+         lmScores = Arrays.copyOf(lmScores, numEdges * 2);
+      }
+      sources[numEdges] = source;
+      targets[numEdges] = target;
+      words[numEdges] = word;
+      amScores[numEdges] = amScore;
+      lmScores[numEdges] = lmScore;
+      numEdges++;
+   }
+
+   /*
+   *  Gives every node a class in reverse topological order: nodes whose outgoing edges,
+   *   with targets replaced by their classes, are equal share a class. Each class keeps
+   *   the edges and time of its lowest numbered node, and classes are numbered in that
+   *   node's order, so the start node stays first.
+   */
+   private static Lattice minimize(Lattice lattice) {
+      int numNodes = lattice.getNumNodes();
+      int[] topSort = lattice.getTopologicalOrder();
+      int[] outOffsets = lattice.getOutOffsets();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      int[] edgeWords = lattice.getEdgeWords();
+      int[] edgeAmScores = lattice.getEdgeAmScores();
+      int[] edgeLmScores = lattice.getEdgeLmScores();
+      HashMap<Subset, Integer> signatures = new HashMap<Subset, Integer>();
+      int[] nodeClass = new int[numNodes];
+      int[] representative = new int[numNodes];
+      double[] classKeys = new double[lattice.getEdgeCount()];
+      double[] wordKeys = new double[lattice.getEdgeCount()];
+      int numClasses = 0;
+
+      for (int i = topSort.length - 1; i >= 0; i--) {
+         int node = topSort[i];
+         int degree = outOffsets[node + 1] - outOffsets[node];
+         int[] order = new int[degree];
+         for (int k = 0; k < degree; k++) {
+            int e = outOffsets[node] + k;
+            order[k] = e;
+            classKeys[e] = nodeClass[edgeTargets[e]];
+            wordKeys[e] = edgeWords[e];
+         }
+         WordTimeIndex.sortByKey(order, classKeys);
+         WordTimeIndex.sortByKey(order, wordKeys);
+
+         int[] signature = new int[4 * degree + (node == lattice.getEndIdx() ? 1 : 0)];
+         for (int k = 0; k < degree; k++) {
+            int e = order[k];
+            signature[4 * k] = edgeWords[e];
+            signature[4 * k + 1] = edgeAmScores[e];
+            signature[4 * k + 2] = edgeLmScores[e];
+            signature[4 * k + 3] = nodeClass[edgeTargets[e]];
+         }
+         if (node == lattice.getEndIdx()) {
+            signature[4 * degree] = -1;                  // The end node never merges
+         }
+         Subset key = new Subset(signature);
+         Integer existing = signatures.get(key);
+         if (existing == null) {
+            existing = numClasses;
+            representative[numClasses++] = node;
+            signatures.put(key, existing);
+         }
+         else if (node < representative[existing]) {
+            representative[existing] = node;
+         }
+         nodeClass[node] = existing;
+      }
+
+      // Number the classes in the order of their representatives
+      int[] newIndex = new int[numClasses];
+      boolean[] isRepresentative = new boolean[numNodes];
+      for (int c = 0; c < numClasses; c++) {
+         isRepresentative[representative[c]] = true;
+      }
+      double[] times = new double[numClasses];
+      int next = 0;
+      int[] classIndex = new int[numNodes];
+      for (int node = 0; node < numNodes; node++) {
+         if (isRepresentative[node]) {
+            times[next] = lattice.getNodeTime(node);
+            classIndex[node] = next++;
+         }
+      }
+      for (int c = 0; c < numClasses; c++) {
+         newIndex[c] = classIndex[representative[c]];
+      }
+
+      int count = 0;
+      int[] sources = new int[lattice.getEdgeCount()], targets = new int[lattice.getEdgeCount()];
+      int[] words = new int[lattice.getEdgeCount()];
+      int[] amScores = new int[lattice.getEdgeCount()], lmScores = new int[lattice.getEdgeCount()];
+      for (int node = 0; node < numNodes; node++) {
+         if (!isRepresentative[node]) {
+            continue;
+         }
+         for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+            sources[count] = newIndex[nodeClass[node]];
+            targets[count] = newIndex[nodeClass[edgeTargets[e]]];
+            words[count] = edgeWords[e];
+            amScores[count] = edgeAmScores[e];
+            lmScores[count] = edgeLmScores[e];
+            count++;
+         }
+      }
+      return new Lattice(lattice.getUtteranceID(), newIndex[nodeClass[lattice.getStartIdx()]],
+                         newIndex[nodeClass[lattice.getEndIdx()]], count, times, sources, targets, words,
+                         amScores, lmScores, count);
+   }
+
+   // The determinized and minimized lattice, or the input if the state limit was hit
+   public Lattice getLattice() {
+      return this.result;
+   }
+
+   public boolean isComplete() {
+      return this.complete;
+   }
+
+   // Size of the determinized lattice before minimization
+   public int getDeterminizedNodes() {
+      return this.determinizedNodes;
+   }
+
+   public int getDeterminizedEdges() {
+      return this.determinizedEdges;
+   }
+
+   public int getRemovedNodes() {
+      return original.getNumNodes() - result.getNumNodes();
+   }
+
+   public int getRemovedEdges() {
+      return original.getEdgeCount() - result.getEdgeCount();
+   }
+
+   public BigInteger getRemovedPaths() {
+      return original.countAllPaths().subtract(result.countAllPaths());
+   }
+}
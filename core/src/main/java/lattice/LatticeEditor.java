@@ -0,0 +1,610 @@
+/*
+ * LatticeEditor.java
+ *
+ * A lattice that can be edited, adding and removing nodes' edges, changing scores and
+ * words, while the Viterbi costs and parent edges of decode and the path counts of
+ * countAllPaths stay up to date for every node.
+ *
+ * Each node keeps its incoming and outgoing edges in growable lists, the incoming ones
+ * sorted by source and then by edge number, the order in which decode meets them. The
+ * topological order is kept as a position per node and is repaired after each new edge
+ * with the Pearce-Kelly algorithm: when the edge runs backwards in the order, only the
+ * nodes between its ends that reach or are reached from it are searched and their
+ * positions permuted among themselves; an edge that would close a cycle is refused.
+ *
+ * An edit recomputes the destination node of the changed edge from its incoming edges,
+ * exactly as decode does, and only if its cost or path count changed go its successors
+ * on a heap ordered by topological position, to be recomputed in turn. So an edit costs
+ * time in proportion to the nodes whose values actually change and their edges, and the
+ * results are always those of toLattice().decode(lmScale) and toLattice().countAllPaths(),
+ * ties included. Path counts are kept in longs; once the count of a node overflows,
+ * getPathCount recounts the whole lattice with BigIntegers.
+ *
+ * Edge numbers are those of the lattice the editor was made from, followed by the added
+ * edges; a removed edge's number is not reused. An editor is not thread-safe.
+ *
+ * Usage
+ *    java lattice.LatticeEditor latticeFilename lmScale numEdits
+ *
+ *   Makes numEdits random edits (new edges, removed edges, new scores), checks the
+ *   best path and path count after each one against a full decode, and prints the
+ *   average time of an edit and the average number of nodes it recomputed.
+ */
+
+package lattice;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+public class LatticeEditor {
+   private static final long OVERFLOW = -1;       // Path count of a node past the long range
+
+   private final String utteranceID;
+   private final int startIdx, endIdx;
+   private final double lmScale;
+
+   // Nodes
+   private double[] nodeTimes;
+   private double[] cost;                         // Best cost from the start node
+   private int[] parentEdge;                      // Edge into the node on that best path
+   private long[] paths;                          // Number of paths from the start node
+   private int[][] inLists, outLists;             // Edge numbers, in lists sorted by source
+   private int[] inCounts, outCounts;
+   private int[] position;                        // Index of each node in the topological order
+   private int[] order;                           // Nodes in topological order
+   private int numNodes;
+
+   // Edges
+   private int[] sources, targets, words, amScores, lmScores;
+   private boolean[] removed;
+   private int numEdges, numLiveEdges;
+
+   // Scratch space of the repairs
+   private int[] heap = new int[16];
+   private int heapSize;
+   private boolean[] queued;
+   private int[] visited;                         // Search number that last visited each node
+   private int search;
+   private int[] stack = new int[16];
+   private int lastRepairSize;
+
+   public static void main(String[] args) {
+      if (args.length != 3) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      Lattice lattice = new Lattice(args[0]);
+      double lmScale = Double.parseDouble(args[1]);
+      int numEdits = Integer.parseInt(args[2]);
+      LatticeEditor editor = new LatticeEditor(lattice, lmScale);
+      Random random = new Random(42);
+      long elapsed = 0, recomputed = 0;
+      int refused = 0;
+
+      for (int i = 0; i < numEdits; i++) {
+         int edge = random.nextInt(editor.numEdges);
+         long start = System.nanoTime();
+         try {
+            if (editor.removed[edge] || random.nextInt(3) == 0) {
+               int a = random.nextInt(editor.numNodes), b = random.nextInt(editor.numNodes);
+               editor.addEdge(a, b, lattice.getEdge(random.nextInt(lattice.getEdgeCount())).getWordId(),
+                              random.nextInt(500), random.nextInt(50));
+            }
+            else if (random.nextBoolean() && editor.numLiveEdges > 1) {
+               editor.removeEdge(edge);
+            }
+            else {
+               editor.setAmScore(edge, random.nextInt(500));
+            }
+         }
+         catch (IllegalArgumentException e) {
+            refused++;                            // Would have closed a cycle
+         }
+         elapsed += System.nanoTime() - start;
+         recomputed += editor.getLastRepairSize();
+
+         Lattice edited = editor.toLattice();
+         Hypothesis best = editor.decode();
+         BigInteger count = editor.getPathCount();
+         boolean reachable = editor.getCost(editor.endIdx) < Double.POSITIVE_INFINITY;
+         Hypothesis full = reachable ? edited.decode(lmScale) : null;
+         if ((best == null) != (full == null) || (best != null && (!best.getHypothesisString().equals(full.getHypothesisString())
+             || best.getPathScore() != full.getPathScore())) || !count.equals(edited.countAllPaths())) {
+            System.err.println("Error: edit " + i + " disagrees with a full decode of the edited lattice");
+            System.exit(1);
+         }
+      }
+
+      Hypothesis best = editor.decode();
+      System.out.println("Final: " + (best == null ? "end node not reached" : best.getHypothesisString()));
+      System.out.println("Paths: " + editor.getPathCount());
+      System.err.println(String.format("%d edits (%d refused) in %.3f ms, %.1f us and %.1f recomputed nodes per edit",
+            numEdits, refused, elapsed / 1e6, numEdits == 0 ? 0.0 : elapsed / 1e3 / numEdits,
+            numEdits == 0 ? 0.0 : (double) recomputed / numEdits));
+   }
+
+   /*
+   *  Copies the lattice and runs decode and the path count over it once. The lattice
+   *   must be acyclic.
+   */
+   public LatticeEditor(Lattice lattice, double lmScale) {
+      int[] topSort = lattice.getTopologicalOrder();
+      if (topSort.length < lattice.getNumNodes()) {
+         throw new IllegalArgumentException("lattice " + lattice.getUtteranceID() + " has a cycle");
+      }
+      this.utteranceID = lattice.getUtteranceID();
+      this.startIdx = lattice.getStartIdx();
+      this.endIdx = lattice.getEndIdx();
+      this.lmScale = lmScale;
+
+      int capacity = Math.max(16, lattice.getNumNodes());
+      numNodes = lattice.getNumNodes();
+      nodeTimes = Arrays.copyOf(lattice.getNodeTimes(), capacity);
+      cost = new double[capacity];
+      parentEdge = new int[capacity];
+      paths = new long[capacity];
+      inLists = new int[capacity][];
+      outLists = new int[capacity][];
+      inCounts = new int[capacity];
+      outCounts = new int[capacity];
+      position = new int[capacity];
+      order = Arrays.copyOf(topSort, capacity);
+      queued = new boolean[capacity];
+      visited = new int[capacity];
+
+      int edgeCapacity = Math.max(16, lattice.getEdgeCount());
+      numEdges = numLiveEdges = lattice.getEdgeCount();
+      sources = Arrays.copyOf(lattice.getEdgeSources(), edgeCapacity);
+      targets = Arrays.copyOf(lattice.getEdgeTargets(), edgeCapacity);
+      words = Arrays.copyOf(lattice.getEdgeWords(), edgeCapacity);
+      amScores = Arrays.copyOf(lattice.getEdgeAmScores(), edgeCapacity);
+      lmScores = Arrays.copyOf(lattice.getEdgeLmScores(), edgeCapacity);
+      removed = new boolean[edgeCapacity];
+
+      // The lattice's rows and reverse index are already in the order the lists keep
+      int[] outOffsets = lattice.getOutOffsets();
+      int[] inOffsets = lattice.getInOffsets();
+      int[] inEdges = lattice.getInEdges();
+      for (int node = 0; node < numNodes; node++) {
+         outCounts[node] = outOffsets[node + 1] - outOffsets[node];
+         outLists[node] = new int[Math.max(2, outCounts[node])];
+         for (int k = 0; k < outCounts[node]; k++) {
+            outLists[node][k] = outOffsets[node] + k;
+         }
+         inCounts[node] = inOffsets[node + 1] - inOffsets[node];
+         inLists[node] = Arrays.copyOf(Arrays.copyOfRange(inEdges, inOffsets[node], inOffsets[node + 1]),
+                                       Math.max(2, inCounts[node]));
+      }
+      for (int i = 0; i < numNodes; i++) {
+         position[order[i]] = i;
+         recompute(order[i]);
+      }
+   }
+
+   public String getUtteranceID() {
+      return this.utteranceID;
+   }
+
+   public int getNumNodes() {
+      return this.numNodes;
+   }
+
+   // Edges not removed
+   public int getEdgeCount() {
+      return this.numLiveEdges;
+   }
+
+   public double getLmScale() {
+      return this.lmScale;
+   }
+
+   // Best cost from the start node, infinity if the node cannot be reached
+   public double getCost(int node) {
+      checkNode(node);
+      return this.cost[node];
+   }
+
+   // Last edge of the best path to the node, -1 for the start node and unreached nodes
+   public int getParentEdge(int node) {
+      checkNode(node);
+      return this.parentEdge[node];
+   }
+
+   // Nodes recomputed by the last edit, a measure of its cost
+   public int getLastRepairSize() {
+      return this.lastRepairSize;
+   }
+
+   // The current topological order, a copy
+   public int[] topologicalSort() {
+      return Arrays.copyOf(order, numNodes);
+   }
+
+   /*
+   *  The value of toLattice().countAllPaths(). Recounts the lattice if some node has
+   *   more paths than a long holds.
+   */
+   public BigInteger getPathCount() {
+      if (paths[endIdx] != OVERFLOW) {
+         return BigInteger.valueOf(paths[endIdx]);
+      }
+      return toLattice().countAllPaths();
+   }
+
+   /*
+   *  The hypothesis toLattice().decode(lmScale) returns, by backtracking the parent
+   *   edges. Null if the end node cannot be reached.
+   */
+   public Hypothesis decode() {
+      if (cost[endIdx] == Double.POSITIVE_INFINITY && endIdx != startIdx) {
+         return null;
+      }
+      Hypothesis hypothesis = new Hypothesis();
+      int[] revOrder = new int[16];
+      int pathLength = 0;
+      int node = endIdx;
+
+      while (node != startIdx) {
+         if (pathLength == revOrder.length) {
+            revOrder = Arrays.copyOf(revOrder, pathLength * 2);
+         }
+         revOrder[pathLength++] = parentEdge[node];
+         node = sources[parentEdge[node]];
+      }
+      for (int i = pathLength - 1; i >= 0; i--) {
+         int edge = revOrder[i];
+         hypothesis.addWord(words[edge], (lmScores[edge] * lmScale) + amScores[edge]);
+      }
+      return hypothesis;
+   }
+
+   /*
+   *  The edited lattice, with the remaining edges in order of their numbers. The
+   *   editor can be edited further, the lattice does not share its arrays.
+   */
+   public Lattice toLattice() {
+      int[] s = new int[numLiveEdges], t = new int[numLiveEdges], w = new int[numLiveEdges];
+      int[] am = new int[numLiveEdges], lm = new int[numLiveEdges];
+      int k = 0;
+      for (int e = 0; e < numEdges; e++) {
+         if (!removed[e]) {
+            s[k] = sources[e];
+            t[k] = targets[e];
+            w[k] = words[e];
+            am[k] = amScores[e];
+            lm[k] = lmScores[e];
+            k++;
+         }
+      }
+      return new Lattice(utteranceID, startIdx, endIdx, numLiveEdges, Arrays.copyOf(nodeTimes, numNodes), s, t, w, am, lm, numLiveEdges);
+   }
+
+   /*
+   *  Adds a node without edges, last in the topological order, and returns its index.
+   */
+   public int addNode(double time) {
+      if (numNodes == nodeTimes.length) {
+         int capacity = numNodes * 2;
+         nodeTimes = Arrays.copyOf(nodeTimes, capacity);
+         cost = Arrays.copyOf(cost, capacity);
+         parentEdge = Arrays.copyOf(parentEdge, capacity);
+         paths = Arrays.copyOf(paths, capacity);
+         inLists = Arrays.copyOf(inLists, capacity);
+         outLists = Arrays.copyOf(outLists, capacity);
+         inCounts = Arrays.copyOf(inCounts, capacity);
+         outCounts = Arrays.copyOf(outCounts, capacity);
+         position = Arrays.copyOf(position, capacity);
+         order = Arrays.copyOf(order, capacity);
+         queued = Arrays.copyOf(queued, capacity);
+         visited = Arrays.copyOf(visited, capacity);
+      }
+      int node = numNodes++;
+      nodeTimes[node] = time;
+      cost[node] = Double.POSITIVE_INFINITY;
+      parentEdge[node] = -1;
+      paths[node] = 0;
+      inLists[node] = new int[2];
+      outLists[node] = new int[2];
+      position[node] = node;
+      order[node] = node;
+      lastRepairSize = 0;
+      return node;
+   }
+
+   public int addEdge(int source, int target, String word, int amScore, int lmScore) {
+      return addEdge(source, target, Vocabulary.getId(word), amScore, lmScore);
+   }
+
+   /*
+   *  Adds an edge and returns its number. Throws IllegalArgumentException, leaving the
+   *   editor as it was, if the edge would close a cycle.
+   */
+   public int addEdge(int source, int target, int wordId, int amScore, int lmScore) {
+      checkNode(source);
+      checkNode(target);
+      if (source == target) {
+         throw new IllegalArgumentException("edge " + source + " -> " + target + " would close a cycle in " + utteranceID);
+      }
+      if (position[source] > position[target]) {
+         reorder(source, target);
+      }
+
+      if (numEdges == sources.length) {
+         int capacity = numEdges * 2;
+         sources = Arrays.copyOf(sources, capacity);
+         targets = Arrays.copyOf(targets, capacity);
+         words = Arrays.copyOf(words, capacity);
+         amScores = Arrays.copyOf(amScores, capacity);
+         lmScores = Arrays.copyOf(lmScores, capacity);
+         removed = Arrays.copyOf(removed, capacity);
+      }
+      int edge = numEdges++;
+      numLiveEdges++;
+      sources[edge] = source;
+      targets[edge] = target;
+      words[edge] = wordId;
+      amScores[edge] = amScore;
+      lmScores[edge] = lmScore;
+
+      // A new edge has the highest number, so it goes after every edge from its source
+      outLists[source] = insert(outLists[source], outCounts[source]++, edge, target, targets);
+      inLists[target] = insert(inLists[target], inCounts[target]++, edge, source, sources);
+      repair(target);
+      return edge;
+   }
+
+   /*
+   *  Puts edge into list, sorted by key[e] and then by e, after the last entry whose key
+   *   is not above its own. Returns the list, grown if it was full.
+   */
+   private static int[] insert(int[] list, int count, int edge, int keyValue, int[] key) {
+      if (count == list.length) {
+         list = Arrays.copyOf(list, count * 2);
+      }
+      int i = count;
+      while (i > 0 && key[list[i - 1]] > keyValue) {
+         list[i] = list[i - 1];
+         i--;
+      }
+      list[i] = edge;
+      return list;
+   }
+
+   private static void delete(int[] list, int count, int edge) {
+      int i = 0;
+      while (list[i] != edge) {
+         i++;
+      }
+      System.arraycopy(list, i + 1, list, i, count - i - 1);
+   }
+
+   public void removeEdge(int edge) {
+      checkEdge(edge);
+      removed[edge] = true;
+      numLiveEdges--;
+      delete(outLists[sources[edge]], outCounts[sources[edge]]--, edge);
+      delete(inLists[targets[edge]], inCounts[targets[edge]]--, edge);
+      repair(targets[edge]);
+   }
+
+   public void setAmScore(int edge, int amScore) {
+      checkEdge(edge);
+      amScores[edge] = amScore;
+      repair(targets[edge]);
+   }
+
+   public void setLmScore(int edge, int lmScore) {
+      checkEdge(edge);
+      lmScores[edge] = lmScore;
+      repair(targets[edge]);
+   }
+
+   // Changes the word only, scores and so best paths stay as they are
+   public void setWord(int edge, String word) {
+      checkEdge(edge);
+      words[edge] = Vocabulary.getId(word);
+      lastRepairSize = 0;
+   }
+
+   public Edge getEdge(int edge) {
+      checkEdge(edge);
+      return new Edge(words[edge], amScores[edge], lmScores[edge]);
+   }
+
+   public int getEdgeSource(int edge) {
+      checkEdge(edge);
+      return sources[edge];
+   }
+
+   public int getEdgeTarget(int edge) {
+      checkEdge(edge);
+      return targets[edge];
+   }
+
+   private void checkNode(int node) {
+      if (node < 0 || node >= numNodes) {
+         throw new IllegalArgumentException("no node " + node + " in " + utteranceID);
+      }
+   }
+
+   private void checkEdge(int edge) {
+      if (edge < 0 || edge >= numEdges || removed[edge]) {
+         throw new IllegalArgumentException("no edge " + edge + " in " + utteranceID);
+      }
+   }
+
+   /*
+   *  Pearce-Kelly: makes room for an edge source -> target that runs backwards in the
+   *   topological order. Searches forward from target through the nodes placed before
+   *   source, and back from source through the nodes placed after target. If the
+   *   forward search meets source the edge would close a cycle. Otherwise the nodes
+   *   found take over the same positions, those that lead to source first.
+   */
+   private void reorder(int source, int target) {
+      int lower = position[target], upper = position[source];
+      search++;
+      int forward = collect(target, upper, true, 0);
+      if (forward < 0) {
+         throw new IllegalArgumentException("edge " + source + " -> " + target + " would close a cycle in " + utteranceID);
+      }
+      int backward = collect(source, lower, false, forward);
+      int count = forward + backward;
+
+      // stack[0 .. forward) came forward from target, stack[forward .. count) back from source
+      int[] found = Arrays.copyOf(stack, count);
+      Integer[] forwardNodes = new Integer[forward], backwardNodes = new Integer[backward];
+      int[] slots = new int[count];
+      for (int i = 0; i < forward; i++) {
+         forwardNodes[i] = found[i];
+      }
+      for (int i = 0; i < backward; i++) {
+         backwardNodes[i] = found[forward + i];
+      }
+      for (int i = 0; i < count; i++) {
+         slots[i] = position[found[i]];
+      }
+      Arrays.sort(forwardNodes, (a, b) -> Integer.compare(position[a], position[b]));
+      Arrays.sort(backwardNodes, (a, b) -> Integer.compare(position[a], position[b]));
+      Arrays.sort(slots);
+      for (int i = 0; i < backward; i++) {
+         position[backwardNodes[i]] = slots[i];
+         order[slots[i]] = backwardNodes[i];
+      }
+      for (int i = 0; i < forward; i++) {
+         position[forwardNodes[i]] = slots[backward + i];
+         order[slots[backward + i]] = forwardNodes[i];
+      }
+   }
+
+   /*
+   *  Depth first from node, forward through out-edges to nodes placed before bound or
+   *   back through in-edges to nodes placed after it. The nodes found are appended to
+   *   stack from index base, and their number is returned, or -1 if a forward search
+   *   reaches a node at bound itself, which is the source of the new edge.
+   */
+   private int collect(int node, int bound, boolean forwards, int base) {
+      int found = base, next = base;
+      visited[node] = search;
+      push(found++, node);
+      while (next < found) {
+         int current = stack[next++];
+         int[] list = forwards ? outLists[current] : inLists[current];
+         int degree = forwards ? outCounts[current] : inCounts[current];
+         for (int k = 0; k < degree; k++) {
+            int other = forwards ? targets[list[k]] : sources[list[k]];
+            if (forwards && position[other] == bound) {
+               return -1;
+            }
+            if (visited[other] != search && (forwards ? position[other] < bound : position[other] > bound)) {
+               visited[other] = search;
+               push(found++, other);
+            }
+         }
+      }
+      return found - base;
+   }
+
+   private void push(int index, int node) {
+      if (index == stack.length) {
+         stack = Arrays.copyOf(stack, index * 2);
+      }
+      stack[index] = node;
+   }
+
+   /*
+   *  Recomputes node, and then every node whose incoming values changed, in topological
+   *   order from a heap keyed by position, so each is recomputed at most once.
+   */
+   private void repair(int node) {
+      lastRepairSize = 0;
+      enqueue(node);
+      while (heapSize > 0) {
+         int current = dequeue();
+         lastRepairSize++;
+         if (recompute(current)) {
+            for (int k = 0; k < outCounts[current]; k++) {
+               enqueue(targets[outLists[current][k]]);
+            }
+         }
+      }
+   }
+
+   /*
+   *  The relaxation of decode over the node's incoming edges, and the sum of the path
+   *   counts of their sources. Returns whether the cost or path count changed.
+   */
+   private boolean recompute(int node) {
+      double best = node == startIdx ? 0 : Double.POSITIVE_INFINITY;
+      int parent = -1;
+      long count = node == startIdx ? 1 : 0;
+      int[] list = inLists[node];
+      double score;
+
+      for (int k = 0; k < inCounts[node]; k++) {
+         int edge = list[k];
+         int source = sources[edge];
+         score = ((lmScores[edge] * lmScale) + amScores[edge]) + cost[source];
+         if (score < best) {
+            best = score;
+            parent = edge;
+         }
+         if (count != OVERFLOW) {
+            if (paths[source] == OVERFLOW) {
+               count = OVERFLOW;
+            }
+            else {
+               try {
+                  count = Math.addExact(count, paths[source]);
+               }
+               catch (ArithmeticException e) {
+                  count = OVERFLOW;
+               }
+            }
+         }
+      }
+
+      boolean changed = Double.compare(best, cost[node]) != 0 || count != paths[node];
+      cost[node] = best;
+      parentEdge[node] = parent;
+      paths[node] = count;
+      return changed;
+   }
+
+   private void enqueue(int node) {
+      if (queued[node]) {
+         return;
+      }
+      queued[node] = true;
+      if (heapSize == heap.length) {
+         heap = Arrays.copyOf(heap, heapSize * 2);
+      }
+      int i = heapSize++;
+      while (i > 0 && position[heap[(i - 1) / 2]] > position[node]) {
+         heap[i] = heap[(i - 1) / 2];
+         i = (i - 1) / 2;
+      }
+      heap[i] = node;
+   }
+
+   private int dequeue() {
+      int top = heap[0];
+      int last = heap[--heapSize];
+      int i = 0;
+      while (2 * i + 1 < heapSize) {
+         int child = 2 * i + 1;
+         if (child + 1 < heapSize && position[heap[child + 1]] < position[heap[child]]) {
+            child++;
+         }
+         if (position[heap[child]] >= position[last]) {
+            break;
+         }
+         heap[i] = heap[child];
+         i = child;
+      }
+      heap[i] = last;
+      queued[top] = false;
+      return top;
+   }
+}
@@ -0,0 +1,35 @@
+/*
+ * LatticeFormatException.java
+ *
+ * Thrown when a lattice file does not follow the expected text format. Carries the
+ * 1-based line and column where parsing stopped.
+ *
+ */
+
+package lattice;
+
+public class LatticeFormatException extends java.io.IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String filename;
+    private final int line, column;
+
+    public LatticeFormatException(String filename, int line, int column, String message) {
+        super(filename + ":" + line + ":" + column + ": " + message);
+        this.filename = filename;
+        this.line = line;
+        this.column = column;
+    }
+
+    public String getFilename() {
+        return this.filename;
+    }
+
+    public int getLine() {
+        return this.line;
+    }
+
+    public int getColumn() {
+        return this.column;
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * LatticeMetrics.java
+ *
+ * Where the time of a decoding run goes. Each utterance gets a Recorder that times the
+ * phases it goes through (parse, prune, LM rescoring, topological sort, keyword indexing, the
+ * fused decode/path count/density pass, and the two writers) and counts its nodes, edges
+ * and the bytes read and written. Driver times all of them, LatticeServer the parse and
+ * decode of each request, and CorpusStore.scan the read of each record. When the
+ * utterance is done its numbers go into one latency histogram per phase and the run's
+ * counters, and a lattice.Utterance event is committed to Java Flight Recorder.
+ *
+ * The histograms are only kept when the metrics are enabled, and the JFR event only when
+ * a recording has it enabled, e.g.
+ *    java -XX:StartFlightRecording=filename=run.jfr -cp core/target/classes lattice.Driver ...
+ * With neither, begin() allocates nothing and hands out a shared Recorder whose methods
+ * return at their first check, so the instrumented code pays one branch per phase and
+ * reads no clocks.
+ *
+ * Usage
+ *    LatticeMetrics metrics = new LatticeMetrics(true);
+ *    LatticeMetrics.Recorder recorder = metrics.begin();
+ *    long start = recorder.start();
+ *    Lattice lattice = new Lattice(filename);
+ *    recorder.stop(LatticeMetrics.Phase.PARSE, start);
+ *    ...
+ *    recorder.end(lattice.getUtteranceID());
+ *    metrics.printSummary(System.err);
+ */
+
+package lattice;
+
+import java.io.*;
+import jdk.jfr.*;
+
+public class LatticeMetrics {
+   public enum Phase {
+      PARSE("parse"), PRUNE("prune"), RESCORE("rescore"), SORT("sort"), INDEX("index"), DECODE("decode"),
+      WRITE_DOT("writeDot"), WRITE_LATTICE("writeLattice");
+
+      private final String label;
+
+      Phase(String label) {
+         this.label = label;
+      }
+
+      public String getLabel() {
+         return this.label;
+      }
+   }
+
+   public enum Counter {
+      UTTERANCES("utterances"), NODES("nodes"), EDGES("edges"), BYTES_READ("bytesRead"), BYTES_WRITTEN("bytesWritten");
+
+      private final String label;
+
+      Counter(String label) {
+         this.label = label;
+      }
+
+      public String getLabel() {
+         return this.label;
+      }
+   }
+
+   private static final Phase[] PHASES = Phase.values();
+   private static final Counter[] COUNTERS = Counter.values();
+   private static final Recorder INACTIVE = new Recorder(null, null);
+   private static final EventType UTTERANCE_EVENT = EventType.getEventType(UtteranceEvent.class);
+
+   private final boolean enabled;
+   private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+   private final long[] counters = new long[COUNTERS.length];
+   private final long startTime = System.nanoTime();
+
+   public LatticeMetrics(boolean enabled) {
+      this.enabled = enabled;
+      for (int p = 0; p < PHASES.length; p++) {
+         histograms[p] = new LatencyHistogram();
+      }
+   }
+
+   public boolean isEnabled() {
+      return this.enabled;
+   }
+
+   /*
+   *  Starts the numbers of one utterance. The recorder belongs to the calling thread
+   *   until its end().
+   */
+   public Recorder begin() {
+      if (!UTTERANCE_EVENT.isEnabled()) {
+         return enabled ? new Recorder(this, null) : INACTIVE;
+      }
+      UtteranceEvent event = new UtteranceEvent();
+      event.begin();
+      return new Recorder(enabled ? this : null, event);
+   }
+
+   private synchronized void merge(long[] phaseNanos, boolean[] phaseRun, long[] utteranceCounters) {
+      for (int p = 0; p < PHASES.length; p++) {
+         if (phaseRun[p]) {
+            histograms[p].record(phaseNanos[p]);
+         }
+      }
+      for (int c = 0; c < COUNTERS.length; c++) {
+         counters[c] += utteranceCounters[c];
+      }
+   }
+
+   public synchronized LatencyHistogram getHistogram(Phase phase) {
+      return histograms[phase.ordinal()];
+   }
+
+   public synchronized long getCounter(Counter counter) {
+      return counters[counter.ordinal()];
+   }
+
+   /*
+   *  One row per phase that ran, times in milliseconds, then the counters and the
+   *   read and write throughput over the wall time since the metrics were created.
+   */
+   public synchronized void printSummary(PrintStream out) {
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+      out.println(String.format("%-14s %8s %12s %10s %10s %10s %10s %10s",
+            "phase", "count", "total ms", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+      for (Phase phase : PHASES) {
+         LatencyHistogram histogram = histograms[phase.ordinal()];
+         if (histogram.getCount() == 0) {
+            continue;
+         }
+         out.println(String.format("%-14s %8d %12.3f %10.3f %10.3f %10.3f %10.3f %10.3f",
+               phase.getLabel(), histogram.getCount(), histogram.getTotal() / 1e6, histogram.getMean() / 1e6,
+               histogram.getPercentile(0.5) / 1e6, histogram.getPercentile(0.9) / 1e6,
+               histogram.getPercentile(0.99) / 1e6, histogram.getMax() / 1e6));
+      }
+      StringBuilder line = new StringBuilder();
+      for (Counter counter : COUNTERS) {
+         line.append(line.length() == 0 ? "" : ", ").append(counter.getLabel()).append(' ').append(counters[counter.ordinal()]);
+      }
+      out.println(line);
+      out.println(String.format("read %.2f MB/s, wrote %.2f MB/s over %.3f s",
+            counters[Counter.BYTES_READ.ordinal()] / 1e6 / seconds,
+            counters[Counter.BYTES_WRITTEN.ordinal()] / 1e6 / seconds, seconds));
+   }
+
+   /*
+   *  The same numbers as printSummary, in nanoseconds and bytes, as one JSON object:
+   *   {"wallNanos": n, "counters": {"nodes": n, ...},
+   *    "phases": {"parse": {"count": n, "totalNanos": n, "minNanos": n, "meanNanos": x,
+   *               "p50Nanos": n, "p90Nanos": n, "p99Nanos": n, "maxNanos": n}, ...}}
+   */
+   public synchronized void writeJson(String filename) throws IOException {
+      try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filename)))) {
+         out.println("{");
+         out.println("  \"wallNanos\": " + (System.nanoTime() - startTime) + ",");
+         out.print("  \"counters\": {");
+         for (int c = 0; c < COUNTERS.length; c++) {
+            out.print((c == 0 ? "" : ", ") + "\"" + COUNTERS[c].getLabel() + "\": " + counters[c]);
+         }
+         out.println("},");
+         out.println("  \"phases\": {");
+         boolean first = true;
+         for (Phase phase : PHASES) {
+            LatencyHistogram histogram = histograms[phase.ordinal()];
+            if (histogram.getCount() == 0) {
+               continue;
+            }
+            out.print((first ? "" : ",\n") + "    \"" + phase.getLabel() + "\": {"
+                        + "\"count\": " + histogram.getCount()
+                        + ", \"totalNanos\": " + histogram.getTotal()
+                        + ", \"minNanos\": " + histogram.getMin()
+                        + ", \"meanNanos\": " + String.format(java.util.Locale.ROOT, "%.1f", histogram.getMean())
+                        + ", \"p50Nanos\": " + histogram.getPercentile(0.5)
+                        + ", \"p90Nanos\": " + histogram.getPercentile(0.9)
+                        + ", \"p99Nanos\": " + histogram.getPercentile(0.99)
+                        + ", \"maxNanos\": " + histogram.getMax() + "}");
+            first = false;
+         }
+         out.println();
+         out.println("  }");
+         out.println("}");
+      }
+   }
+
+   /*
+   *  The numbers of one utterance, kept in plain arrays by the thread working on it and
+   *   merged into the run's metrics by end(). Calls on an inactive recorder do nothing,
+   *   and start() returns 0 without reading the clock.
+   */
+   public static class Recorder {
+      private final LatticeMetrics metrics;
+      private final UtteranceEvent event;
+      private final boolean active;
+      private final long[] phaseNanos;
+      private final boolean[] phaseRun;
+      private final long[] counters;
+
+      private Recorder(LatticeMetrics metrics, UtteranceEvent event) {
+         this.metrics = metrics;
+         this.event = event;
+         this.active = metrics != null || event != null;
+         this.phaseNanos = active ? new long[PHASES.length] : null;
+         this.phaseRun = active ? new boolean[PHASES.length] : null;
+         this.counters = active ? new long[COUNTERS.length] : null;
+      }
+
+      public boolean isActive() {
+         return this.active;
+      }
+
+      public long start() {
+         return active ? System.nanoTime() : 0;
+      }
+
+      public void stop(Phase phase, long start) {
+         if (active) {
+            phaseNanos[phase.ordinal()] += System.nanoTime() - start;
+            phaseRun[phase.ordinal()] = true;
+         }
+      }
+
+      public void add(Counter counter, long amount) {
+         if (active) {
+            counters[counter.ordinal()] += amount;
+         }
+      }
+
+      // Adds the size of a file just read or written to BYTES_READ or BYTES_WRITTEN
+      public void addFileSize(Counter counter, String filename) {
+         if (active) {
+            counters[counter.ordinal()] += new File(filename).length();
+         }
+      }
+
+      public void end(String utteranceID) {
+         if (!active) {
+            return;
+         }
+         counters[Counter.UTTERANCES.ordinal()]++;
+         if (metrics != null) {
+            metrics.merge(phaseNanos, phaseRun, counters);
+         }
+         if (event != null && event.shouldCommit()) {
+            event.utteranceID = utteranceID;
+            event.nodes = counters[Counter.NODES.ordinal()];
+            event.edges = counters[Counter.EDGES.ordinal()];
+            event.bytesRead = counters[Counter.BYTES_READ.ordinal()];
+            event.bytesWritten = counters[Counter.BYTES_WRITTEN.ordinal()];
+            event.parseTime = phaseNanos[Phase.PARSE.ordinal()];
+            event.pruneTime = phaseNanos[Phase.PRUNE.ordinal()];
+            event.rescoreTime = phaseNanos[Phase.RESCORE.ordinal()];
+            event.sortTime = phaseNanos[Phase.SORT.ordinal()];
+            event.indexTime = phaseNanos[Phase.INDEX.ordinal()];
+            event.decodeTime = phaseNanos[Phase.DECODE.ordinal()];
+            event.writeTime = phaseNanos[Phase.WRITE_DOT.ordinal()] + phaseNanos[Phase.WRITE_LATTICE.ordinal()];
+            event.commit();
+         }
+      }
+   }
+
+   @Name("lattice.Utterance")
+   @Label("Utterance")
+   @Category("Lattice")
+   @Description("One lattice parsed, decoded and written by Driver, LatticeServer or CorpusStore.scan")
+   @StackTrace(false)
+   static class UtteranceEvent extends Event {
+      @Label("Utterance ID")
+      String utteranceID;
+
+      @Label("Nodes")
+      long nodes;
+
+      @Label("Edges")
+      long edges;
+
+      @Label("Bytes Read")
+      @DataAmount
+      long bytesRead;
+
+      @Label("Bytes Written")
+      @DataAmount
+      long bytesWritten;
+
+      @Label("Parse Time")
+      @Timespan
+      long parseTime;
+
+      @Label("Prune Time")
+      @Timespan
+      long pruneTime;
+
+      @Label("Rescore Time")
+      @Timespan
+      long rescoreTime;
+
+      @Label("Sort Time")
+      @Timespan
+      long sortTime;
+
+      @Label("Index Time")
+      @Timespan
+      long indexTime;
+
+      @Label("Decode Time")
+      @Timespan
+      long decodeTime;
+
+      @Label("Write Time")
+      @Timespan
+      long writeTime;
+   }
+}
@@ -0,0 +1,475 @@
+/*
+ * LatticeParser.java
+ *
+ * Reads the text lattice format straight from a memory-mapped file, or from text already
+ * in memory. Numbers are decoded
+ * from the bytes in place and each distinct label is looked up in the Vocabulary only the
+ * first time this parser sees it, so a parser reused across a corpus allocates little more
+ * than the arrays of the lattices it returns.
+ *
+ * A parser keeps scratch state between files and is not thread-safe; use one per thread.
+ * Every new label becomes a Vocabulary word for the life of the process; a parser fed
+ * untrusted input can be given a vocabulary limit, past which a label the Vocabulary
+ * does not hold yet is an error instead.
+ */
+
+package lattice;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+public class LatticeParser {
+   private static final String[] HEADER_KEYS = { "id", "start", "end", "numNodes", "numEdges" };
+   private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+   };
+
+   // Current input
+   private ByteBuffer buffer;
+   private String filename;
+   private int pos, limit;
+   private int lineNumber, lineStart;
+
+   // Label table, open addressing over the label bytes, holding Vocabulary ids
+   private byte[][] labelBytes = new byte[1024][];
+   private int[] labelIds = new int[1024];
+   private int[] labelHashes = new int[1024];
+   private int numLabels;
+   private byte[] scratch = new byte[64];
+   private int vocabularyLimit = Integer.MAX_VALUE;
+
+   // Edge arrays reused between files, Lattice copies them into its own layout
+   private int[] sources = new int[256];
+   private int[] targets = new int[256];
+   private int[] words = new int[256];
+   private int[] amScores = new int[256];
+   private int[] lmScores = new int[256];
+
+   /*
+   *  Refuses, as a LatticeFormatException, labels that would have to be added to a
+   *   Vocabulary already holding maxWords words. Words added concurrently by other
+   *   threads can take it a few words past the limit.
+   */
+   public void setVocabularyLimit(int maxWords) {
+      this.vocabularyLimit = maxWords;
+   }
+
+   /*
+   *  Parses with a fresh parser and reports any problem the way the rest of the
+   *   program does, with a message on stderr and exit status 1.
+   */
+   static Lattice load(String latticeFilename) {
+      try {
+         return new LatticeParser().parse(latticeFilename);
+      }
+      catch (LatticeFormatException e) {
+         System.err.println("Error: Not able to parse file " + e.getMessage());
+      }
+      catch (IOException e) {
+         System.err.println("Error: Unable to open file " + latticeFilename);
+      }
+      System.exit(1);
+      return null;
+   }
+
+   public Lattice parse(String latticeFilename) throws IOException {
+      try (FileChannel channel = FileChannel.open(Paths.get(latticeFilename), StandardOpenOption.READ)) {
+         long size = channel.size();
+         if (size > Integer.MAX_VALUE) {
+            throw new LatticeFormatException(latticeFilename, 1, 1, "file is larger than 2GB");
+         }
+         this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+         this.filename = latticeFilename;
+         this.pos = 0;
+         this.limit = (int) size;
+         this.lineNumber = 1;
+         this.lineStart = 0;
+         return parseLattice();
+      }
+      finally {
+         this.buffer = null;
+      }
+   }
+
+   /*
+   *  Parses a lattice held in memory, such as one sent over the network. sourceName
+   *   stands in for the filename in error messages.
+   */
+   public Lattice parse(byte[] text, String sourceName) throws LatticeFormatException {
+      try {
+         this.buffer = ByteBuffer.wrap(text);
+         this.filename = sourceName;
+         this.pos = 0;
+         this.limit = text.length;
+         this.lineNumber = 1;
+         this.lineStart = 0;
+         return parseLattice();
+      }
+      finally {
+         this.buffer = null;
+      }
+   }
+
+   /*
+   *  Header first (id, start, end, numNodes, numEdges, one per line and in that order),
+   *   then numNodes "node" lines and any number of "edge" lines. Blank lines are skipped.
+   */
+   private Lattice parseLattice() throws LatticeFormatException {
+      int[] header = new int[HEADER_KEYS.length];
+      String utteranceID = null;
+
+      for (int k = 0; k < HEADER_KEYS.length; k++) {
+         skipBlankLines();
+         expectKeyword(HEADER_KEYS[k]);
+         if (k == 0) {
+            utteranceID = readToken();
+         }
+         else {
+            header[k] = readInt();
+         }
+         endLine();
+      }
+
+      int startIdx = header[1], endIdx = header[2], numNodes = header[3], numEdges = header[4];
+      if (numNodes <= 0) {
+         throw error("numNodes must be positive");
+      }
+      if (startIdx < 0 || startIdx >= numNodes || endIdx < 0 || endIdx >= numNodes) {
+         throw error("start and end must be nodes of the lattice");
+      }
+      if (numEdges < 0) {
+         throw error("numEdges must not be negative");
+      }
+      // Checked before anything is sized by the header: a node line takes at least
+      // "node 0 0" and an edge line "edge 0 0 w 0 0", each with a newline but the last
+      if ((long) numNodes * 9 + (long) numEdges * 15 - 1 > limit - pos) {
+         throw error("numNodes " + numNodes + " and numEdges " + numEdges + " do not fit in the rest of the input");
+      }
+
+      double[] nodeTimes = new double[numNodes];
+      for (int i = 0; i < numNodes; i++) {
+         skipBlankLines();
+         expectKeyword("node");
+         int node = readNode(numNodes);
+         nodeTimes[node] = readDouble();
+         endLine();
+      }
+
+      int count = 0;
+      ensureEdgeCapacity(numEdges);
+      while (skipBlankLines()) {
+         expectKeyword("edge");
+         if (count == sources.length) {
+            ensureEdgeCapacity(count * 2);
+         }
+         sources[count] = readNode(numNodes);
+         targets[count] = readNode(numNodes);
+         words[count] = readLabel();
+         amScores[count] = readInt();
+         lmScores[count] = readInt();
+         endLine();
+         count++;
+      }
+
+      return new Lattice(utteranceID, startIdx, endIdx, numEdges, nodeTimes,
+                         sources, targets, words, amScores, lmScores, count);
+   }
+
+   private void ensureEdgeCapacity(int capacity) {
+      if (capacity > sources.length) {
+         sources = Arrays.copyOf(sources, capacity);
+         targets = Arrays.copyOf(targets, capacity);
+         words = Arrays.copyOf(words, capacity);
+         amScores = Arrays.copyOf(amScores, capacity);
+         lmScores = Arrays.copyOf(lmScores, capacity);
+      }
+   }
+
+   // Moves to the first non-blank line, returns false at end of input.
+   private boolean skipBlankLines() {
+      while (pos < limit) {
+         byte b = buffer.get(pos);
+         if (b == '\n') {
+            pos++;
+            lineNumber++;
+            lineStart = pos;
+         }
+         else if (b == ' ' || b == '\t' || b == '\r') {
+            pos++;
+         }
+         else {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private void skipSpaces() {
+      while (pos < limit && (buffer.get(pos) == ' ' || buffer.get(pos) == '\t')) {
+         pos++;
+      }
+   }
+
+   private boolean atTokenEnd() {
+      if (pos >= limit) {
+         return true;
+      }
+      byte b = buffer.get(pos);
+      return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+   }
+
+   private void expectKeyword(String keyword) throws LatticeFormatException {
+      int start = pos;
+      for (int i = 0; i < keyword.length(); i++) {
+         if (pos >= limit || buffer.get(pos) != keyword.charAt(i)) {
+            pos = start;
+            throw error("expected '" + keyword + "'");
+         }
+         pos++;
+      }
+      if (!atTokenEnd()) {
+         pos = start;
+         throw error("expected '" + keyword + "'");
+      }
+   }
+
+   // Only trailing spaces may follow the last field of a line.
+   private void endLine() throws LatticeFormatException {
+      skipSpaces();
+      if (pos < limit && buffer.get(pos) == '\r') {
+         pos++;
+      }
+      if (pos < limit) {
+         if (buffer.get(pos) != '\n') {
+            throw error("unexpected text at end of line");
+         }
+         pos++;
+         lineNumber++;
+         lineStart = pos;
+      }
+   }
+
+   private int readNode(int numNodes) throws LatticeFormatException {
+      int start = pos;
+      int node = readInt();
+      if (node < 0 || node >= numNodes) {
+         pos = start;
+         skipSpaces();
+         throw error("node " + node + " is outside 0.." + (numNodes - 1));
+      }
+      return node;
+   }
+
+   private int readInt() throws LatticeFormatException {
+      skipSpaces();
+      int start = pos;
+      boolean negative = false;
+      long value = 0;
+
+      if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+         negative = buffer.get(pos) == '-';
+         pos++;
+      }
+      int digitsStart = pos;
+      while (pos < limit) {
+         int digit = buffer.get(pos) - '0';
+         if (digit < 0 || digit > 9) {
+            break;
+         }
+         value = value * 10 + digit;
+         if (value > (long) Integer.MAX_VALUE + 1) {
+            pos = start;
+            throw error("integer out of range");
+         }
+         pos++;
+      }
+      if (pos == digitsStart || !atTokenEnd()) {
+         pos = start;
+         throw error("expected an integer");
+      }
+      value = negative ? -value : value;
+      if (value > Integer.MAX_VALUE) {
+         pos = start;
+         throw error("integer out of range");
+      }
+      return (int) value;
+   }
+
+   /*
+   *  Decimal mantissa and exponent are collected as integers. When the mantissa fits in
+   *   53 bits and the power of ten is exactly representable, one multiply or divide gives
+   *   the correctly rounded double; anything longer falls back to Double.parseDouble.
+   */
+   private double readDouble() throws LatticeFormatException {
+      skipSpaces();
+      int start = pos;
+      boolean negative = false;
+      long mantissa = 0;
+      int digits = 0, scale = 0, exponent = 0;
+      boolean exact = true;
+
+      if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+         negative = buffer.get(pos) == '-';
+         pos++;
+      }
+      boolean fraction = false;
+      while (pos < limit) {
+         byte b = buffer.get(pos);
+         if (b >= '0' && b <= '9') {
+            if (mantissa < (1L << 53) / 10) {
+               mantissa = mantissa * 10 + (b - '0');
+               if (fraction) {
+                  scale++;
+               }
+            }
+            else {
+               exact = false;
+            }
+            digits++;
+         }
+         else if (b == '.' && !fraction) {
+            fraction = true;
+         }
+         else {
+            break;
+         }
+         pos++;
+      }
+      if (digits == 0) {
+         pos = start;
+         throw error("expected a number");
+      }
+      if (pos < limit && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+         pos++;
+         exponent = readExponent(start);
+      }
+      if (!atTokenEnd()) {
+         pos = start;
+         throw error("expected a number");
+      }
+
+      int power = exponent - scale;
+      if (exact && power >= -22 && power <= 22) {
+         double value = power < 0 ? mantissa / POWERS_OF_TEN[-power] : mantissa * POWERS_OF_TEN[power];
+         return negative ? -value : value;
+      }
+      return Double.parseDouble(new String(copyBytes(start, pos), 0, pos - start, StandardCharsets.US_ASCII));
+   }
+
+   private int readExponent(int numberStart) throws LatticeFormatException {
+      boolean negative = false;
+      int value = 0, digits = 0;
+
+      if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+         negative = buffer.get(pos) == '-';
+         pos++;
+      }
+      while (pos < limit && buffer.get(pos) >= '0' && buffer.get(pos) <= '9') {
+         value = Math.min(value * 10 + (buffer.get(pos) - '0'), 100000);
+         digits++;
+         pos++;
+      }
+      if (digits == 0) {
+         pos = numberStart;
+         throw error("malformed exponent");
+      }
+      return negative ? -value : value;
+   }
+
+   private String readToken() throws LatticeFormatException {
+      skipSpaces();
+      int start = pos;
+      while (!atTokenEnd()) {
+         pos++;
+      }
+      if (pos == start) {
+         throw error("expected a label");
+      }
+      return new String(copyBytes(start, pos), 0, pos - start, StandardCharsets.UTF_8);
+   }
+
+   /*
+   *  Hashes the token bytes and looks them up in the label table; only a label that has
+   *   not been seen before is decoded into a String and given a Vocabulary id.
+   */
+   private int readLabel() throws LatticeFormatException {
+      skipSpaces();
+      int start = pos;
+      int hash = 0;
+      while (!atTokenEnd()) {
+         hash = 31 * hash + buffer.get(pos);
+         pos++;
+      }
+      int length = pos - start;
+      if (length == 0) {
+         throw error("expected a label");
+      }
+
+      byte[] bytes = copyBytes(start, pos);
+      int mask = labelBytes.length - 1;
+      int slot = hash & mask;
+      while (labelBytes[slot] != null) {
+         if (labelHashes[slot] == hash && Arrays.equals(labelBytes[slot], 0, labelBytes[slot].length, bytes, 0, length)) {
+            return labelIds[slot];
+         }
+         slot = (slot + 1) & mask;
+      }
+
+      String label = new String(bytes, 0, length, StandardCharsets.UTF_8);
+      int wordId = Vocabulary.findId(label);
+      if (wordId < 0) {
+         if (Vocabulary.size() >= vocabularyLimit) {
+            pos = start;
+            throw error("new label '" + label + "' would take the vocabulary past its limit of " + vocabularyLimit + " words");
+         }
+         wordId = Vocabulary.getId(label);
+      }
+      labelBytes[slot] = Arrays.copyOf(bytes, length);
+      labelIds[slot] = wordId;
+      labelHashes[slot] = hash;
+      if (++numLabels * 2 > labelBytes.length) {
+         growLabelTable();
+      }
+      return wordId;
+   }
+
+   private void growLabelTable() {
+      byte[][] oldBytes = labelBytes;
+      int[] oldIds = labelIds;
+      int[] oldHashes = labelHashes;
+      int mask = oldBytes.length * 2 - 1;
+
+      labelBytes = new byte[oldBytes.length * 2][];
+      labelIds = new int[oldBytes.length * 2];
+      labelHashes = new int[oldBytes.length * 2];
+      for (int i = 0; i < oldBytes.length; i++) {
+         if (oldBytes[i] != null) {
+            int slot = oldHashes[i] & mask;
+            while (labelBytes[slot] != null) {
+               slot = (slot + 1) & mask;
+            }
+            labelBytes[slot] = oldBytes[i];
+            labelIds[slot] = oldIds[i];
+            labelHashes[slot] = oldHashes[i];
+         }
+      }
+   }
+
+   // Copies input bytes [from, to) into the scratch array, which is returned.
+   private byte[] copyBytes(int from, int to) {
+      if (to - from > scratch.length) {
+         scratch = new byte[Math.max(to - from, scratch.length * 2)];
+      }
+      buffer.get(from, scratch, 0, to - from);
+      return scratch;
+   }
+
+   private LatticeFormatException error(String message) {
+      return new LatticeFormatException(filename, lineNumber, pos - lineStart + 1, message);
+   }
+}
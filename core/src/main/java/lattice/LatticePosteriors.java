@@ -0,0 +1,202 @@
+/*
+ * LatticePosteriors.java
+ *
+ * Edge and word posteriors of a lattice from one forward-backward pass.
+ *
+ * Edge scores are costs, amScore + lmScale * lmScore as in decode, so a path's log
+ * probability is taken as -posteriorScale times its total cost. alpha[n] is the log sum
+ * over all paths from the start node to n and beta[n] over all paths from n to the end
+ * node; both are accumulated with log-sum-exp over the reverse index in topological order.
+ * The posterior of an edge is then exp(alpha[src] - scale * cost + beta[dst] - alpha[end]).
+ *
+ * Edges that carry the same word between the same two times form a slot, and a slot's
+ * posterior (the word confidence) is the sum of its edges' posteriors.
+ */
+
+package lattice;
+
+import java.util.Arrays;
+
+public class LatticePosteriors {
+   private final Lattice lattice;
+   private final double[] alpha, beta;
+   private final double[] edgePosteriors;
+   private final double totalLogProb;
+
+   private final int[] edgeSlots;           // Slot of each edge
+   private int[] slotEdges;                 // One representative edge per slot
+   private double[] slotPosteriors;
+   private int numSlots;
+
+   public LatticePosteriors(Lattice lattice, double lmScale) {
+      this(lattice, lmScale, 1.0);
+   }
+
+   /*
+   *  posteriorScale flattens (below 1) or sharpens (above 1) the distribution, since raw
+   *   recognizer costs tend to put nearly all of the mass on the best path.
+   */
+   public LatticePosteriors(Lattice lattice, double lmScale, double posteriorScale) {
+      int numNodes = lattice.getNumNodes();
+      int numEdges = lattice.getEdgeCount();
+      int[] topSort = lattice.getTopologicalOrder();
+      int[] inOffsets = lattice.getInOffsets();
+      int[] inEdges = lattice.getInEdges();
+      int[] outOffsets = lattice.getOutOffsets();
+      int[] edgeSources = lattice.getEdgeSources();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      double[] logWeights = new double[numEdges];
+      double inf = Double.POSITIVE_INFINITY;
+
+      this.lattice = lattice;
+      this.alpha = new double[numNodes];
+      this.beta = new double[numNodes];
+      this.edgePosteriors = new double[numEdges];
+      this.edgeSlots = new int[numEdges];
+
+      for (int e = 0; e < numEdges; e++) {
+         logWeights[e] = -posteriorScale * ((lattice.getEdgeLmScores()[e] * lmScale) + lattice.getEdgeAmScores()[e]);
+      }
+
+      Arrays.fill(alpha, -inf);
+      alpha[lattice.getStartIdx()] = 0;
+      for (int i = 0; i < topSort.length; i++) {
+         int node = topSort[i];
+         for (int k = inOffsets[node]; k < inOffsets[node + 1]; k++) {
+            int e = inEdges[k];
+            alpha[node] = logAdd(alpha[node], alpha[edgeSources[e]] + logWeights[e]);
+         }
+      }
+
+      Arrays.fill(beta, -inf);
+      beta[lattice.getEndIdx()] = 0;
+      for (int i = topSort.length - 1; i >= 0; i--) {
+         int node = topSort[i];
+         for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+            beta[node] = logAdd(beta[node], beta[edgeTargets[e]] + logWeights[e]);
+         }
+      }
+
+      this.totalLogProb = alpha[lattice.getEndIdx()];
+      for (int e = 0; e < numEdges; e++) {
+         double logPost = alpha[edgeSources[e]] + logWeights[e] + beta[edgeTargets[e]] - totalLogProb;
+         edgePosteriors[e] = logPost == -inf || Double.isNaN(logPost) ? 0 : Math.exp(logPost);
+      }
+
+      buildSlots();
+   }
+
+   // log(exp(a) + exp(b)) without overflow, -infinity stands for probability zero.
+   static double logAdd(double a, double b) {
+      if (a < b) {
+         double t = a;
+         a = b;
+         b = t;
+      }
+      if (b == Double.NEGATIVE_INFINITY) {
+         return a;
+      }
+      return a + Math.log1p(Math.exp(b - a));
+   }
+
+   /*
+   *  Groups edges by (label, start time, end time) with an open addressing table
+   *   that stores the first edge seen for each slot.
+   */
+   private void buildSlots() {
+      int numEdges = edgePosteriors.length;
+      int capacity = Integer.highestOneBit(Math.max(2 * numEdges, 2)) * 2;
+      int[] table = new int[capacity];
+      int mask = capacity - 1;
+
+      Arrays.fill(table, -1);
+      slotEdges = new int[numEdges];
+      slotPosteriors = new double[numEdges];
+      for (int e = 0; e < numEdges; e++) {
+         int slot = slotHash(e) & mask;
+         while (table[slot] >= 0 && !sameSlot(slotEdges[table[slot]], e)) {
+            slot = (slot + 1) & mask;
+         }
+         if (table[slot] < 0) {
+            table[slot] = numSlots;
+            slotEdges[numSlots++] = e;
+         }
+         edgeSlots[e] = table[slot];
+         slotPosteriors[table[slot]] += edgePosteriors[e];
+      }
+      slotEdges = Arrays.copyOf(slotEdges, numSlots);
+      slotPosteriors = Arrays.copyOf(slotPosteriors, numSlots);
+   }
+
+   private int slotHash(int e) {
+      int hash = lattice.getEdgeWords()[e];
+      hash = 31 * hash + Double.hashCode(lattice.getNodeTime(lattice.getEdgeSources()[e]));
+      hash = 31 * hash + Double.hashCode(lattice.getNodeTime(lattice.getEdgeTargets()[e]));
+      return hash ^ (hash >>> 16);
+   }
+
+   private boolean sameSlot(int a, int b) {
+      return lattice.getEdgeWords()[a] == lattice.getEdgeWords()[b]
+         && lattice.getNodeTime(lattice.getEdgeSources()[a]) == lattice.getNodeTime(lattice.getEdgeSources()[b])
+         && lattice.getNodeTime(lattice.getEdgeTargets()[a]) == lattice.getNodeTime(lattice.getEdgeTargets()[b]);
+   }
+
+   public Lattice getLattice() {
+      return this.lattice;
+   }
+
+   // Log of the summed probability of all paths through the lattice
+   public double getTotalLogProb() {
+      return this.totalLogProb;
+   }
+
+   public double getForwardLogProb(int node) {
+      return this.alpha[node];
+   }
+
+   public double getBackwardLogProb(int node) {
+      return this.beta[node];
+   }
+
+   public double getEdgePosterior(int edge) {
+      return this.edgePosteriors[edge];
+   }
+
+   // Confidence of the word on an edge: the posterior of the slot it belongs to
+   public double getEdgeConfidence(int edge) {
+      return this.slotPosteriors[edgeSlots[edge]];
+   }
+
+   public int getEdgeSlot(int edge) {
+      return this.edgeSlots[edge];
+   }
+
+   public int getNumSlots() {
+      return this.numSlots;
+   }
+
+   public String getSlotWord(int slot) {
+      return Vocabulary.getWord(getSlotWordId(slot));
+   }
+
+   public int getSlotWordId(int slot) {
+      return lattice.getEdgeWords()[slotEdges[slot]];
+   }
+
+   public double getSlotStartTime(int slot) {
+      return lattice.getNodeTime(lattice.getEdgeSources()[slotEdges[slot]]);
+   }
+
+   public double getSlotEndTime(int slot) {
+      return lattice.getNodeTime(lattice.getEdgeTargets()[slotEdges[slot]]);
+   }
+
+   public double getSlotPosterior(int slot) {
+      return this.slotPosteriors[slot];
+   }
+
+   // Shared, not copied, indexed by edge like the lattice's edge arrays.
+   double[] getEdgePosteriors() {
+      return this.edgePosteriors;
+   }
+}
@@ -0,0 +1,164 @@
+/*
+ * LatticePruner.java
+ *
+ * Beam pruning of a lattice around its best path.
+ *
+ * A forward pass over the incoming edges in topological order gives alpha[n], the best
+ * cost from the start node to n (exactly as in decode), and a backward pass over the
+ * outgoing edges gives beta[n], the best cost from n to the end node. The best path
+ * through an edge costs alpha[source] + score + beta[destination]; edges where that is
+ * more than beam above the best path cost are dropped, and so are nodes left without
+ * edges. The edges of the decode path are always kept.
+ *
+ * The surviving nodes are renumbered in their original order, which keeps every tie in
+ * decode going the same way, so the pruned lattice decodes to the same hypothesis with
+ * the same score. Both passes and the rebuild are O(N + E).
+ *
+ * Usage
+ *    java lattice.LatticePruner latticeFilename lmScale beam outputFilename
+ *
+ *   Prunes one lattice file and writes the result in the same text format.
+ */
+
+package lattice;
+
+public class LatticePruner {
+   private final Lattice original;
+   private final Lattice pruned;
+   private final double bestCost;
+
+   public static void main(String[] args) {
+      if (args.length != 4) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      Lattice lattice = new Lattice(args[0]);
+      LatticePruner pruner = new LatticePruner(lattice, Double.parseDouble(args[1]), Double.parseDouble(args[2]));
+      pruner.getLattice().saveAsFile(args[3]);
+      System.out.println(lattice.getUtteranceID() + ": " + pruner);
+   }
+
+   public LatticePruner(Lattice lattice, double lmScale, double beam) {
+      int numNodes = lattice.getNumNodes();
+      int edgeCount = lattice.getEdgeCount();
+      int startIdx = lattice.getStartIdx();
+      int endIdx = lattice.getEndIdx();
+      int[] topSort = lattice.getTopologicalOrder();
+      int[] inOffsets = lattice.getInOffsets();
+      int[] inEdges = lattice.getInEdges();
+      int[] outOffsets = lattice.getOutOffsets();
+      int[] edgeSources = lattice.getEdgeSources();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      int[] edgeAmScores = lattice.getEdgeAmScores();
+      int[] edgeLmScores = lattice.getEdgeLmScores();
+      double inf = Double.POSITIVE_INFINITY;
+      double[] alpha = new double[numNodes];
+      double[] beta = new double[numNodes];
+      int[] parentEdge = new int[numNodes];
+      double score;
+      int node, edge;
+
+      java.util.Arrays.fill(alpha, inf);
+      java.util.Arrays.fill(beta, inf);
+      java.util.Arrays.fill(parentEdge, -1);
+      alpha[startIdx] = 0;
+      for (int i = 0; i < topSort.length; i++) {
+         node = topSort[i];
+         for (int k = inOffsets[node]; k < inOffsets[node + 1]; k++) {
+            edge = inEdges[k];
+            score = ((edgeLmScores[edge] * lmScale) + edgeAmScores[edge]) + alpha[edgeSources[edge]];
+            if (score < alpha[node]) {
+               alpha[node] = score;
+               parentEdge[node] = edge;
+            }
+         }
+      }
+      beta[endIdx] = 0;
+      for (int i = topSort.length - 1; i >= 0; i--) {
+         node = topSort[i];
+         for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+            score = ((edgeLmScores[e] * lmScale) + edgeAmScores[e]) + beta[edgeTargets[e]];
+            if (score < beta[node]) {
+               beta[node] = score;
+            }
+         }
+      }
+
+      // Mark the surviving edges, the decode path first so rounding can never drop it
+      boolean[] keep = new boolean[edgeCount];
+      boolean[] used = new boolean[numNodes];
+      double threshold = alpha[endIdx] + beam;
+      used[startIdx] = true;
+      used[endIdx] = true;
+      if (alpha[endIdx] < inf) {
+         for (node = endIdx; node != startIdx; node = edgeSources[parentEdge[node]]) {
+            keep[parentEdge[node]] = true;
+         }
+      }
+      int keptEdges = 0;
+      for (int e = 0; e < edgeCount; e++) {
+         double through = alpha[edgeSources[e]] + ((edgeLmScores[e] * lmScale) + edgeAmScores[e]) + beta[edgeTargets[e]];
+         if (keep[e] || (through < inf && through <= threshold)) {
+            keep[e] = true;
+            used[edgeSources[e]] = true;
+            used[edgeTargets[e]] = true;
+            keptEdges++;
+         }
+      }
+
+      // Renumber nodes in their original order and copy the edges, which stay in row order
+      int[] newIndex = new int[numNodes];
+      int keptNodes = 0;
+      for (int n = 0; n < numNodes; n++) {
+         newIndex[n] = used[n] ? keptNodes++ : -1;
+      }
+      double[] nodeTimes = new double[keptNodes];
+      for (int n = 0; n < numNodes; n++) {
+         if (used[n]) {
+            nodeTimes[newIndex[n]] = lattice.getNodeTime(n);
+         }
+      }
+      int[] sources = new int[keptEdges], targets = new int[keptEdges], words = new int[keptEdges];
+      int[] amScores = new int[keptEdges], lmScores = new int[keptEdges];
+      int count = 0;
+      for (int e = 0; e < edgeCount; e++) {
+         if (keep[e]) {
+            sources[count] = newIndex[edgeSources[e]];
+            targets[count] = newIndex[edgeTargets[e]];
+            words[count] = lattice.getEdgeWords()[e];
+            amScores[count] = edgeAmScores[e];
+            lmScores[count] = edgeLmScores[e];
+            count++;
+         }
+      }
+
+      this.original = lattice;
+      this.bestCost = alpha[endIdx];
+      this.pruned = new Lattice(lattice.getUtteranceID(), newIndex[startIdx], newIndex[endIdx], keptEdges, nodeTimes,
+                                sources, targets, words, amScores, lmScores, count);
+   }
+
+   // The pruned lattice
+   public Lattice getLattice() {
+      return this.pruned;
+   }
+
+   // Cost of the best path, the same in both lattices
+   public double getBestCost() {
+      return this.bestCost;
+   }
+
+   public int getRemovedNodes() {
+      return original.getNumNodes() - pruned.getNumNodes();
+   }
+
+   public int getRemovedEdges() {
+      return original.getEdgeCount() - pruned.getEdgeCount();
+   }
+
+   public String toString() {
+      return String.format("removed %d of %d nodes and %d of %d edges", getRemovedNodes(), original.getNumNodes(),
+                           getRemovedEdges(), original.getEdgeCount());
+   }
+}
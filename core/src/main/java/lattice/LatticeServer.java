@@ -0,0 +1,541 @@
+/*
+ * LatticeServer.java
+ *
+ * Keeps one JVM, already warmed up, serving decode requests over HTTP on the loopback
+ * interface, so small batches do not pay for JVM startup and a cold JIT every time.
+ *
+ * Requests are handled on a fixed pool of workers. Lattices named by path are kept in
+ * an LRU cache bounded by an estimate of their memory, keyed by path and checked
+ * against the file's size and modification time, so repeated queries skip parsing.
+ * Concurrent requests for a lattice that is not cached yet wait for one parse instead
+ * of each starting their own. The path count and density do not depend on lmScale and
+ * are kept with the cached lattice after the first request, so a repeated query costs
+ * one decode. Several lmScales in one request are decoded in a single
+ * traversal, see Lattice.decode(double[]).
+ *
+ * Memory: the cache holds at most -cacheMB by estimate, counting each lattice's arrays,
+ * its topological order and levels and, once the first request has computed them, its
+ * statistics. Lattice labels become Vocabulary words, which are never freed; lattices
+ * sent in the request body may only add words while the Vocabulary holds fewer than
+ * -maxVocabulary words (1000000 by default), a lattice with a new label past that is
+ * refused with status 400. Lattices read from paths are not limited.
+ *
+ * Endpoints (all answers are JSON)
+ *    GET or POST /decode?lmScale=10&path=/data/utt1.lattice
+ *    POST /decode?lmScale=10          with the lattice text as the request body
+ *       lmScale may list several values, separated by commas.
+ *       {"utteranceID": "utt1", "cached": true, "pathCount": 13, "density": 2.571,
+ *        "results": [{"lmScale": 10.0, "hypothesis": "i never said hello", "score": 1012.0}],
+ *        "micros": 85}
+ *       Errors come back with status 400 (bad request, unreadable lattice, end node not
+ *       reachable), 413 (a body over the limit) or 500 and {"error": "..."}; every request
+ *       gets an answer, even one that ran out of memory.
+ *    GET /stats       request and cache counters, bytes parsed, and the count and latency
+ *                     of the parses (cache misses and bodies) and the decodes
+ *    POST /shutdown   stops the server
+ *
+ * Usage
+ *    java lattice.LatticeServer [-port port] [-workers numWorkers] [-cacheMB megabytes]
+ *                               [-maxBodyMB megabytes] [-maxVocabulary words]
+ *
+ *   Listens on 127.0.0.1, port 7070 by default, with one worker per processor, a
+ *   256 MB cache and lattice bodies of up to 16 MB.
+ *    curl 'http://127.0.0.1:7070/decode?lmScale=10&path=latticeFile1.lattice'
+ *    curl --data-binary @latticeFile1.lattice 'http://127.0.0.1:7070/decode?lmScale=1,10'
+ */
+
+package lattice;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LatticeServer {
+   public static final int DEFAULT_PORT = 7070;
+   public static final long DEFAULT_CACHE_BYTES = 256L << 20;
+   public static final int DEFAULT_MAX_BODY_BYTES = 16 << 20;
+   public static final int DEFAULT_MAX_VOCABULARY = 1000000;
+
+   private final HttpServer server;
+   private final ExecutorService workers;
+   private final LatticeCache cache;
+   private final int maxBodyBytes;
+   private final ThreadLocal<LatticeParser> parsers = ThreadLocal.withInitial(LatticeParser::new);
+   private final ThreadLocal<LatticeParser> bodyParsers;                  // With the vocabulary limit
+   private final AtomicLong requests = new AtomicLong(), failures = new AtomicLong();
+   private final LatticeMetrics metrics = new LatticeMetrics(true);      // Parse and decode times for /stats
+   private final CountDownLatch stopped = new CountDownLatch(1);
+
+   public static void main(String[] args) throws IOException, InterruptedException {
+      int port = DEFAULT_PORT;
+      int numWorkers = Runtime.getRuntime().availableProcessors();
+      long cacheBytes = DEFAULT_CACHE_BYTES;
+      int maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+      int maxVocabulary = DEFAULT_MAX_VOCABULARY;
+
+      for (int argIdx = 0; argIdx < args.length; argIdx += 2) {
+         if (argIdx + 1 >= args.length) {
+            System.err.println("Error: Wrong number of arguments.");
+            System.exit(2);
+         }
+         if (args[argIdx].equals("-port")) {
+            port = Integer.parseInt(args[argIdx + 1]);
+         }
+         else if (args[argIdx].equals("-workers")) {
+            numWorkers = Integer.parseInt(args[argIdx + 1]);
+         }
+         else if (args[argIdx].equals("-cacheMB")) {
+            cacheBytes = Long.parseLong(args[argIdx + 1]) << 20;
+         }
+         else if (args[argIdx].equals("-maxBodyMB")) {
+            maxBodyBytes = (int) Math.min(Integer.MAX_VALUE - 1, Long.parseLong(args[argIdx + 1]) << 20);
+         }
+         else if (args[argIdx].equals("-maxVocabulary")) {
+            maxVocabulary = Integer.parseInt(args[argIdx + 1]);
+         }
+         else {
+            System.err.println("Error: Unknown option " + args[argIdx]);
+            System.exit(2);
+         }
+      }
+      if (numWorkers < 1 || cacheBytes < 0 || maxBodyBytes < 0 || maxVocabulary < 0) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      LatticeServer server = new LatticeServer(port, numWorkers, cacheBytes, maxBodyBytes, maxVocabulary);
+      System.err.println(String.format("Listening on http://127.0.0.1:%d/ (%d workers, %d MB cache)",
+            server.getPort(), numWorkers, cacheBytes >> 20));
+      server.awaitShutdown();
+   }
+
+   /*
+   *  Binds to the loopback address and starts serving. Port 0 picks a free port, see
+   *   getPort().
+   */
+   public LatticeServer(int port, int numWorkers, long cacheBytes) throws IOException {
+      this(port, numWorkers, cacheBytes, DEFAULT_MAX_BODY_BYTES, DEFAULT_MAX_VOCABULARY);
+   }
+
+   public LatticeServer(int port, int numWorkers, long cacheBytes, int maxBodyBytes, int maxVocabulary) throws IOException {
+      this.cache = new LatticeCache(cacheBytes);
+      this.maxBodyBytes = maxBodyBytes;
+      this.bodyParsers = ThreadLocal.withInitial(() -> {
+         LatticeParser parser = new LatticeParser();
+         parser.setVocabularyLimit(maxVocabulary);
+         return parser;
+      });
+      this.workers = Executors.newFixedThreadPool(numWorkers);
+      this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 64);
+      server.setExecutor(workers);
+      server.createContext("/decode", this::handleDecode);
+      server.createContext("/stats", this::handleStats);
+      server.createContext("/shutdown", this::handleShutdown);
+      server.start();
+   }
+
+   public int getPort() {
+      return server.getAddress().getPort();
+   }
+
+   public void awaitShutdown() throws InterruptedException {
+      stopped.await();
+   }
+
+   public void stop() {
+      server.stop(0);
+      workers.shutdown();
+      stopped.countDown();
+   }
+
+   private void handleDecode(HttpExchange exchange) throws IOException {
+      requests.incrementAndGet();
+      long start = System.nanoTime();
+      int status = 200;
+      String answer;
+      LatticeMetrics.Recorder recorder = metrics.begin();
+      try {
+         Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+         double[] lmScales = parseScales(query.get("lmScale"));
+         String path = query.get("path");
+         Lattice lattice;
+         LatticeCache.Entry entry = null;
+         boolean cached = false;
+
+         long phaseStart = recorder.start();
+         if (path != null) {
+            LatticeCache.Lookup lookup = cache.get(path, parsers.get());
+            entry = lookup.entry;
+            lattice = entry.lattice;
+            cached = lookup.cached;
+            if (!cached) {
+               recorder.stop(LatticeMetrics.Phase.PARSE, phaseStart);
+               recorder.add(LatticeMetrics.Counter.BYTES_READ, new File(path).length());
+            }
+         }
+         else if (exchange.getRequestMethod().equals("POST")) {
+            byte[] text = readBody(exchange);
+            if (text.length == 0) {
+               throw new IllegalArgumentException("need a path parameter or the lattice text as the body");
+            }
+            phaseStart = recorder.start();
+            lattice = bodyParsers.get().parse(text, "request");
+            recorder.stop(LatticeMetrics.Phase.PARSE, phaseStart);
+            recorder.add(LatticeMetrics.Counter.BYTES_READ, text.length);
+         }
+         else {
+            throw new IllegalArgumentException("need a path parameter or the lattice text as the body");
+         }
+
+         recorder.add(LatticeMetrics.Counter.NODES, lattice.getNumNodes());
+         recorder.add(LatticeMetrics.Counter.EDGES, lattice.getEdgeCount());
+         phaseStart = recorder.start();
+         LatticeStats stats = entry == null ? null : entry.stats;
+         boolean fresh = stats == null;                // Else of an earlier request, maybe at another lmScale
+         if (fresh) {
+            stats = lattice.computeStats(lmScales[0]);
+            if (entry != null) {
+               cache.setStats(path, entry, stats);
+            }
+         }
+         if (stats.getBestPath() == null) {            // No path at any lmScale, decode would fail
+            throw new IllegalArgumentException("end node " + lattice.getEndIdx() + " not reachable from start node " + lattice.getStartIdx());
+         }
+         Hypothesis[] hypotheses;
+         if (lmScales.length > 1) {
+            hypotheses = lattice.decode(lmScales);
+         }
+         else {
+            hypotheses = new Hypothesis[] { fresh ? stats.getBestPath() : lattice.decode(lmScales[0]) };
+         }
+         recorder.stop(LatticeMetrics.Phase.DECODE, phaseStart);
+         recorder.end(lattice.getUtteranceID());
+         StringBuilder json = new StringBuilder(256);
+         json.append("{\"utteranceID\": ").append(jsonString(lattice.getUtteranceID()))
+             .append(", \"cached\": ").append(cached)
+             .append(", \"pathCount\": ").append(stats.getPathCount())
+             .append(", \"density\": ").append(stats.getDensity())
+             .append(", \"results\": [");
+         for (int s = 0; s < lmScales.length; s++) {
+            json.append(s == 0 ? "" : ", ").append("{\"lmScale\": ").append(lmScales[s])
+                .append(", \"hypothesis\": ").append(jsonString(hypotheses[s].getHypothesisString().trim()))
+                .append(", \"score\": ").append(hypotheses[s].getPathScore()).append('}');
+         }
+         json.append("], \"micros\": ").append((System.nanoTime() - start) / 1000).append('}');
+         answer = json.toString();
+      }
+      catch (BodyTooLargeException e) {
+         status = 413;
+         answer = "{\"error\": " + jsonString(e.getMessage()) + "}";
+      }
+      catch (IllegalArgumentException | LatticeFormatException e) {
+         status = 400;
+         answer = "{\"error\": " + jsonString(e.getMessage()) + "}";
+      }
+      catch (IOException e) {
+         status = 400;
+         answer = "{\"error\": " + jsonString("unable to read " + e.getMessage()) + "}";
+      }
+      catch (Throwable e) {                            // OutOfMemoryError included, the client still gets an answer
+         status = 500;
+         answer = "{\"error\": " + jsonString(e.toString()) + "}";
+      }
+      if (status != 200) {
+         failures.incrementAndGet();
+      }
+      respond(exchange, status, answer);
+   }
+
+   /*
+   *  The request body, refused with BodyTooLargeException once it is known to be over
+   *   maxBodyBytes, from its Content-Length or after reading one byte past the limit.
+   */
+   private byte[] readBody(HttpExchange exchange) throws IOException {
+      String declared = exchange.getRequestHeaders().getFirst("Content-Length");
+      if (declared != null) {
+         try {
+            if (Long.parseLong(declared.trim()) > maxBodyBytes) {
+               throw new BodyTooLargeException(maxBodyBytes);
+            }
+         }
+         catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad Content-Length " + declared);
+         }
+      }
+      byte[] text = exchange.getRequestBody().readNBytes(maxBodyBytes + 1);
+      if (text.length > maxBodyBytes) {
+         throw new BodyTooLargeException(maxBodyBytes);
+      }
+      return text;
+   }
+
+   private static class BodyTooLargeException extends IOException {
+      private static final long serialVersionUID = 1L;
+
+      BodyTooLargeException(int maxBodyBytes) {
+         super("the lattice body is larger than " + maxBodyBytes + " bytes");
+      }
+   }
+
+   private void handleStats(HttpExchange exchange) throws IOException {
+      respond(exchange, 200, String.format("{\"requests\": %d, \"failures\": %d, \"cacheHits\": %d, \"cacheMisses\": %d, "
+            + "\"cachedLattices\": %d, \"cacheBytes\": %d, \"cacheLimitBytes\": %d, \"bytesRead\": %d, \"parse\": %s, \"decode\": %s}",
+            requests.get(), failures.get(), cache.getHits(), cache.getMisses(), cache.size(), cache.getBytes(), cache.getLimit(),
+            metrics.getCounter(LatticeMetrics.Counter.BYTES_READ), phaseJson(LatticeMetrics.Phase.PARSE),
+            phaseJson(LatticeMetrics.Phase.DECODE)));
+   }
+
+   // Count and latencies of one phase over the requests that ran it
+   private String phaseJson(LatticeMetrics.Phase phase) {
+      synchronized (metrics) {
+         LatencyHistogram histogram = metrics.getHistogram(phase);
+         return String.format(Locale.ROOT, "{\"count\": %d, \"meanMicros\": %.1f, \"p50Micros\": %.1f, \"p99Micros\": %.1f, \"maxMicros\": %.1f}",
+               histogram.getCount(), histogram.getMean() / 1e3, histogram.getPercentile(0.5) / 1e3,
+               histogram.getPercentile(0.99) / 1e3, histogram.getMax() / 1e3);
+      }
+   }
+
+   private void handleShutdown(HttpExchange exchange) throws IOException {
+      if (!exchange.getRequestMethod().equals("POST")) {
+         respond(exchange, 405, "{\"error\": \"use POST\"}");
+         return;
+      }
+      respond(exchange, 200, "{\"stopping\": true}");
+      new Thread(this::stop).start();                    // Not from a worker, stop() waits for them
+   }
+
+   private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+      byte[] body = json.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+         out.write(body);
+      }
+   }
+
+   private static Map<String, String> parseQuery(String rawQuery) {
+      Map<String, String> query = new HashMap<String, String>();
+      if (rawQuery == null) {
+         return query;
+      }
+      for (String pair : rawQuery.split("&")) {
+         int equals = pair.indexOf('=');
+         if (equals > 0) {
+            query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                      URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+         }
+      }
+      return query;
+   }
+
+   private static double[] parseScales(String value) {
+      if (value == null || value.isEmpty()) {
+         throw new IllegalArgumentException("missing lmScale");
+      }
+      String[] parts = value.split(",");
+      double[] lmScales = new double[parts.length];
+      for (int s = 0; s < parts.length; s++) {
+         try {
+            lmScales[s] = Double.parseDouble(parts[s].trim());
+         }
+         catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad lmScale " + parts[s]);
+         }
+         if (!(lmScales[s] >= 0) || Double.isInfinite(lmScales[s])) {
+            throw new IllegalArgumentException("lmScale must be a non-negative number");
+         }
+      }
+      return lmScales;
+   }
+
+   static String jsonString(String s) {
+      if (s == null) {
+         return "null";
+      }
+      StringBuilder out = new StringBuilder(s.length() + 2).append('"');
+      for (int i = 0; i < s.length(); i++) {
+         char c = s.charAt(i);
+         if (c == '"' || c == '\\') {
+            out.append('\\').append(c);
+         }
+         else if (c < 0x20) {
+            out.append(String.format("\\u%04x", (int) c));
+         }
+         else {
+            out.append(c);
+         }
+      }
+      return out.append('"').toString();
+   }
+
+   /*
+   *  Parsed lattices by path, least recently used first out, holding at most limit bytes
+   *   by estimate. An entry is only used while the file keeps the size and modification
+   *   time it had when it was parsed.
+   */
+   private static class LatticeCache {
+      private final long limit;
+      private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+      private final ConcurrentHashMap<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<String, CompletableFuture<Entry>>();
+      private long bytes, hits, misses;
+
+      static class Entry {
+         final Lattice lattice;
+         final long length, modified;
+         long bytes;                             // Guarded by the cache
+         volatile LatticeStats stats;            // Of the first request, for its path count and density
+
+         Entry(Lattice lattice, long length, long modified, long bytes) {
+            this.lattice = lattice;
+            this.length = length;
+            this.modified = modified;
+            this.bytes = bytes;
+         }
+      }
+
+      // An entry and whether it came from the cache, or from another request's parse
+      static class Lookup {
+         final Entry entry;
+         final boolean cached;
+
+         Lookup(Entry entry, boolean cached) {
+            this.entry = entry;
+            this.cached = cached;
+         }
+      }
+
+      LatticeCache(long limit) {
+         this.limit = limit;
+      }
+
+      Lookup get(String path, LatticeParser parser) throws IOException {
+         File file = new File(path);
+         long length = file.length(), modified = file.lastModified();
+         synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.length == length && entry.modified == modified) {
+               hits++;
+               return new Lookup(entry, true);
+            }
+         }
+
+         // One parse per path at a time, later requests wait for it
+         CompletableFuture<Entry> mine = new CompletableFuture<Entry>();
+         CompletableFuture<Entry> other = loading.putIfAbsent(path, mine);
+         if (other != null) {
+            try {
+               Entry entry = other.join();
+               synchronized (this) {
+                  hits++;
+               }
+               return new Lookup(entry, true);
+            }
+            catch (CompletionException e) {
+               if (e.getCause() instanceof IOException) {
+                  throw (IOException) e.getCause();
+               }
+               throw e;
+            }
+         }
+         try {
+            Lattice lattice = parser.parse(path);
+            Entry entry = new Entry(lattice, length, modified, estimateBytes(lattice));
+            put(path, entry);
+            mine.complete(entry);
+            return new Lookup(entry, false);
+         }
+         catch (Throwable e) {                         // Errors too, or the requests waiting on mine never return
+            mine.completeExceptionally(e);
+            throw e;
+         }
+         finally {
+            loading.remove(path, mine);
+         }
+      }
+
+      private synchronized void put(String path, Entry entry) {
+         misses++;
+         Entry old = entries.remove(path);
+         if (old != null) {
+            bytes -= old.bytes;
+         }
+         if (entry.bytes > limit) {
+            return;
+         }
+         entries.put(path, entry);
+         bytes += entry.bytes;
+         Iterator<Entry> eldest = entries.values().iterator();
+         while (bytes > limit && eldest.hasNext()) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+         }
+      }
+
+      /*
+      *  Keeps the statistics of the first request with the entry and counts them against
+      *   the limit, evicting as put does. Only the first call for an entry counts.
+      */
+      synchronized void setStats(String path, Entry entry, LatticeStats stats) {
+         if (entry.stats != null) {
+            return;
+         }
+         entry.stats = stats;
+         long extra = estimateBytes(stats);
+         entry.bytes += extra;
+         if (entries.get(path) != entry) {
+            return;                              // Evicted already, or never cached
+         }
+         bytes += extra;
+         Iterator<Entry> eldest = entries.values().iterator();
+         while (bytes > limit && eldest.hasNext()) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+         }
+      }
+
+      /*
+      *  Arrays of the lattice and of the indexes a decode caches on it: node times and
+      *   two offset arrays per node, five attributes and a reverse index entry per edge,
+      *   the topological order and, from ParallelDecoder's threshold on, the topological
+      *   levels, plus object headers. The server builds none of the other lazy indexes
+      *   (word times, word hits).
+      */
+      private static long estimateBytes(Lattice lattice) {
+         long nodes = lattice.getNumNodes(), edges = lattice.getEdgeCount();
+         long levels = edges >= ParallelDecoder.getThreshold() ? nodes * (4 + 4) : 0;
+         return 256 + nodes * (8 + 4 + 4 + 4) + edges * (6 * 4) + levels;
+      }
+
+      // The silence times and best path a LatticeStats holds, plus headers
+      private static long estimateBytes(LatticeStats stats) {
+         Hypothesis best = stats.getBestPath();
+         return 192 + 8L * stats.getSilenceTimes().length + (best == null ? 0 : 4L * best.getNumWords());
+      }
+
+      synchronized long getHits() {
+         return hits;
+      }
+
+      synchronized long getMisses() {
+         return misses;
+      }
+
+      synchronized int size() {
+         return entries.size();
+      }
+
+      synchronized long getBytes() {
+         return bytes;
+      }
+
+      long getLimit() {
+         return limit;
+      }
+   }
+}
@@ -0,0 +1,194 @@
+/*
+ * LatticeStats.java
+ *
+ * Everything Driver reports about a lattice, from one pass over the nodes in the
+ * lattice's cached topological order. Each node's incoming edges are read once and
+ * feed, together, the Viterbi relaxation of decode, the count of paths from the start
+ * node, the non-silence word count for the density and the silence hit times.
+ * Degree statistics come from the row offsets of the same nodes.
+ *
+ * On a lattice Lattice.decode would hand to ParallelDecoder the relaxation is done
+ * there first, level by level, and the pass only reads its costs, so the statistics of a
+ * large lattice are not held to one thread either.
+ *
+ * Path counts are kept in longs with overflow checks; a lattice with more paths than
+ * a long holds has them recounted once with Lattice.countAllPaths's BigInteger fallback.
+ */
+
+package lattice;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+public class LatticeStats {
+   private final Hypothesis bestPath;
+   private final double bestCost;
+   private final BigInteger pathCount;
+   private final double density;
+   private final double[] silenceTimes;     // Midpoints of the -silence- edges, ascending
+   private final int numWordEdges;          // Edges whose word is not -silence-
+   private final int numReachableNodes;
+   private final int maxInDegree, maxOutDegree;
+   private final int numBranchingNodes;     // Nodes with more than one outgoing edge
+
+   public LatticeStats(Lattice lattice, double lmScale) {
+      this(lattice, lmScale, lattice.decodesInParallel() ? ParallelDecoder.common() : null);
+   }
+
+   // decoder does the relaxation first if not null
+   LatticeStats(Lattice lattice, double lmScale, ParallelDecoder decoder) {
+      int numNodes = lattice.getNumNodes();
+      int startIdx = lattice.getStartIdx();
+      int endIdx = lattice.getEndIdx();
+      int[] topSort = lattice.getTopologicalOrder();
+      int[] inOffsets = lattice.getInOffsets();
+      int[] inEdges = lattice.getInEdges();
+      int[] outOffsets = lattice.getOutOffsets();
+      int[] edgeSources = lattice.getEdgeSources();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      int[] edgeWords = lattice.getEdgeWords();
+      int[] edgeAmScores = lattice.getEdgeAmScores();
+      int[] edgeLmScores = lattice.getEdgeLmScores();
+      double[] nodeTimes = lattice.getNodeTimes();
+
+      double[] cost = new double[numNodes];
+      int[] parentEdge = new int[numNodes];
+      long[] paths = new long[numNodes];
+      boolean overflow = false;
+      double[] silence = new double[16];
+      int numSilence = 0, wordEdges = 0, reachable = 0, maxIn = 0, maxOut = 0, branching = 0;
+      double score;
+      int node, edge, source;
+
+      boolean relaxed = decoder != null;
+      if (relaxed) {
+         decoder.relax(lattice, lmScale, cost, parentEdge);
+      }
+      else {
+         Arrays.fill(cost, Double.POSITIVE_INFINITY);
+         Arrays.fill(parentEdge, -1);
+         cost[startIdx] = 0;
+      }
+      paths[startIdx] = 1;
+
+      for (int i = 0; i < topSort.length; i++) {
+         node = topSort[i];
+         for (int k = inOffsets[node]; k < inOffsets[node + 1]; k++) {
+            edge = inEdges[k];
+            source = edgeSources[edge];
+            if (!relaxed) {
+               score = ((edgeLmScores[edge] * lmScale) + edgeAmScores[edge]) + cost[source];
+               if (score < cost[node]) {
+                  cost[node] = score;
+                  parentEdge[node] = edge;
+               }
+            }
+            if (!overflow) {
+               try {
+                  paths[node] = Math.addExact(paths[node], paths[source]);
+               }
+               catch (ArithmeticException e) {
+                  overflow = true;
+               }
+            }
+            if (Vocabulary.isSilence(edgeWords[edge])) {
+               if (numSilence == silence.length) {
+                  silence = Arrays.copyOf(silence, numSilence * 2);
+               }
+               silence[numSilence++] = (nodeTimes[node] + nodeTimes[source]) / 2;
+            }
+            else {
+               wordEdges++;
+            }
+         }
+         if (cost[node] < Double.POSITIVE_INFINITY) {
+            reachable++;
+         }
+         maxIn = Math.max(maxIn, inOffsets[node + 1] - inOffsets[node]);
+         maxOut = Math.max(maxOut, outOffsets[node + 1] - outOffsets[node]);
+         if (outOffsets[node + 1] - outOffsets[node] > 1) {
+            branching++;
+         }
+      }
+
+      this.bestCost = cost[endIdx];
+      this.bestPath = backtrack(lattice, lmScale, parentEdge);
+      this.pathCount = overflow ? lattice.countAllPathsExact() : BigInteger.valueOf(paths[endIdx]);
+      this.density = wordEdges / (nodeTimes[endIdx] - nodeTimes[startIdx]);
+      this.silenceTimes = Arrays.copyOf(silence, numSilence);
+      Arrays.sort(this.silenceTimes);
+      this.numWordEdges = wordEdges;
+      this.numReachableNodes = reachable;
+      this.maxInDegree = maxIn;
+      this.maxOutDegree = maxOut;
+      this.numBranchingNodes = branching;
+   }
+
+   // Same backtrack as decode. Null if the end node cannot be reached.
+   private static Hypothesis backtrack(Lattice lattice, double lmScale, int[] parentEdge) {
+      int[] edgeSources = lattice.getEdgeSources();
+      int[] edgeWords = lattice.getEdgeWords();
+      int[] revOrder = new int[lattice.getNumNodes()];
+      int pathLength = 0;
+      int node = lattice.getEndIdx();
+
+      while (node != lattice.getStartIdx()) {
+         if (parentEdge[node] < 0) {
+            return null;
+         }
+         revOrder[pathLength++] = parentEdge[node];
+         node = edgeSources[parentEdge[node]];
+      }
+
+      Hypothesis hypothesis = new Hypothesis();
+      for (int i = pathLength - 1; i >= 0; i--) {
+         int edge = revOrder[i];
+         hypothesis.addWord(edgeWords[edge], (lattice.getEdgeLmScores()[edge] * lmScale) + lattice.getEdgeAmScores()[edge]);
+      }
+      return hypothesis;
+   }
+
+   // The hypothesis decode(lmScale) returns
+   public Hypothesis getBestPath() {
+      return this.bestPath;
+   }
+
+   public double getBestCost() {
+      return this.bestCost;
+   }
+
+   // The value of countAllPaths()
+   public BigInteger getPathCount() {
+      return this.pathCount;
+   }
+
+   // The value of getLatticeDensity()
+   public double getDensity() {
+      return this.density;
+   }
+
+   // The value of getSortedHits("-silence-")
+   public double[] getSilenceTimes() {
+      return this.silenceTimes.clone();
+   }
+
+   public int getNumWordEdges() {
+      return this.numWordEdges;
+   }
+
+   public int getNumReachableNodes() {
+      return this.numReachableNodes;
+   }
+
+   public int getMaxInDegree() {
+      return this.maxInDegree;
+   }
+
+   public int getMaxOutDegree() {
+      return this.maxOutDegree;
+   }
+
+   public int getNumBranchingNodes() {
+      return this.numBranchingNodes;
+   }
+}
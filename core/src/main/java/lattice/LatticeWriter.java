@@ -0,0 +1,224 @@
+/*
+ * LatticeWriter.java
+ *
+ * Streams a lattice in the text format or as a Graphviz dot graph, or a confusion network
+ * as a dot graph, to any Appendable: a Writer, a StringBuilder, and so on.
+ *
+ * Output is assembled in a char buffer of the writer's own and handed to the Appendable
+ * a buffer at a time, so a file needs no further buffering. Integers are written digit
+ * by digit into the buffer and words are copied from the Vocabulary's Strings. Node
+ * times are rounded to hundredths directly unless they are negative, very large, or so
+ * close to halfway between two hundredths that only the exact decimal expansion decides;
+ * those go through one DecimalFormat("0.00") kept for the life of the writer, which also
+ * supplies the decimal separator. Nothing the size of the lattice is ever built in memory.
+ *
+ * The output is character for character what Lattice.toString and the old writeAsDot
+ * produced. A writer is not thread safe, but may write any number of lattices in turn.
+ *
+ * Usage
+ *    try (Writer file = new OutputStreamWriter(new FileOutputStream(filename))) {
+ *       LatticeWriter writer = new LatticeWriter(file);
+ *       writer.writeLattice(lattice);
+ *       writer.flush();
+ *    }
+ */
+
+package lattice;
+
+import java.io.*;
+import java.nio.CharBuffer;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.FieldPosition;
+
+public class LatticeWriter {
+   private static final int BUFFER_SIZE = 1 << 16;
+
+   private final Appendable out;
+   private final char[] buffer = new char[BUFFER_SIZE];
+   private int length;
+   private final DecimalFormat timeFormat = new DecimalFormat("0.00");
+   private final DecimalFormat posteriorFormat = new DecimalFormat(ConfusionNetwork.POSTERIOR_PATTERN);
+   private final StringBuffer timeText = new StringBuffer(16);
+   private final FieldPosition fieldPosition = new FieldPosition(0);
+   private final char decimalSeparator;
+   private final boolean asciiDigits;
+
+   public LatticeWriter(Appendable out) {
+      this.out = out;
+      DecimalFormatSymbols symbols = timeFormat.getDecimalFormatSymbols();
+      this.decimalSeparator = symbols.getDecimalSeparator();
+      this.asciiDigits = symbols.getZeroDigit() == '0';
+   }
+
+   /*
+   *  The text format: the header lines id, start, end, numNodes and numEdges, one
+   *   "node i time" line per node and one "edge source destination word amScore lmScore"
+   *   line per edge, in row order.
+   */
+   public void writeLattice(Lattice lattice) throws IOException {
+      int numNodes = lattice.getNumNodes();
+      int edgeCount = lattice.getEdgeCount();
+      int[] edgeSources = lattice.getEdgeSources();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      int[] edgeWords = lattice.getEdgeWords();
+      int[] edgeAmScores = lattice.getEdgeAmScores();
+      int[] edgeLmScores = lattice.getEdgeLmScores();
+
+      append("id ").append(lattice.getUtteranceID()).append('\n');
+      append("start ").append(lattice.getStartIdx()).append('\n');
+      append("end ").append(lattice.getEndIdx()).append('\n');
+      append("numNodes ").append(numNodes).append('\n');
+      append("numEdges ").append(lattice.getNumEdges()).append('\n');
+      for (int i = 0; i < numNodes; i++) {
+         append("node ").append(i).append(' ').appendHundredths(lattice.getNodeTime(i)).append('\n');
+      }
+      for (int e = 0; e < edgeCount; e++) {
+         append("edge ").append(edgeSources[e]).append(' ').append(edgeTargets[e]).append(' ')
+               .append(Vocabulary.getWord(edgeWords[e])).append(' ')
+               .append(edgeAmScores[e]).append(' ').append(edgeLmScores[e]).append('\n');
+      }
+   }
+
+   /*
+   *  A dot digraph, left to right, with one arc per edge labelled with its word.
+   */
+   public void writeDot(Lattice lattice) throws IOException {
+      int edgeCount = lattice.getEdgeCount();
+      int[] edgeSources = lattice.getEdgeSources();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      int[] edgeWords = lattice.getEdgeWords();
+
+      append("digraph g {\n\trankdir=\"LR\"\n");
+      for (int e = 0; e < edgeCount; e++) {
+         append("    ").append(edgeSources[e]).append(" -> ").append(edgeTargets[e])
+               .append(" [label = \"").append(Vocabulary.getWord(edgeWords[e])).append("\"]\n");
+      }
+      append("}");
+   }
+
+   /*
+   *  A dot digraph of a ConfusionNetwork, left to right: nodes 0 .. numSlots are the
+   *   slot boundaries and every entry of slot s is an arc from s to s + 1, labelled with
+   *   its word and posterior, formatted as ConfusionNetwork.toString prints it.
+   */
+   public void writeDot(ConfusionNetwork network) throws IOException {
+      append("digraph g {\n\trankdir=\"LR\"\n");
+      for (int s = 0; s < network.getNumSlots(); s++) {
+         for (int k = 0; k < network.getNumEntries(s); k++) {
+            append("    ").append(s).append(" -> ").append(s + 1).append(" [label = \"")
+                  .append(network.getEntryWord(s, k)).append('/').append(posteriorFormat.format(network.getEntryPosterior(s, k))).append("\"]\n");
+         }
+      }
+      append("}");
+   }
+
+   // Hands everything buffered so far to the Appendable, and flushes it if it can be
+   public void flush() throws IOException {
+      drain();
+      if (out instanceof Flushable) {
+         ((Flushable) out).flush();
+      }
+   }
+
+   private void drain() throws IOException {
+      if (length == 0) {
+         return;
+      }
+      if (out instanceof Writer) {
+         ((Writer) out).write(buffer, 0, length);
+      }
+      else {
+         out.append(CharBuffer.wrap(buffer, 0, length));
+      }
+      length = 0;
+   }
+
+   private LatticeWriter append(String s) throws IOException {
+      int n = s.length();
+      if (length + n > buffer.length) {
+         drain();
+         if (n > buffer.length) {
+            out.append(s);
+            return this;
+         }
+      }
+      s.getChars(0, n, buffer, length);
+      length += n;
+      return this;
+   }
+
+   private LatticeWriter append(char c) throws IOException {
+      if (length == buffer.length) {
+         drain();
+      }
+      buffer[length++] = c;
+      return this;
+   }
+
+   // Decimal digits of value, written backwards into place
+   private LatticeWriter append(int value) throws IOException {
+      if (length + 11 > buffer.length) {
+         drain();
+      }
+      if (value == Integer.MIN_VALUE) {
+         return append(Integer.toString(value));
+      }
+      if (value < 0) {
+         buffer[length++] = '-';
+         value = -value;
+      }
+      int end = length + digits(value);
+      for (int i = end - 1; i >= length; i--) {
+         buffer[i] = (char) ('0' + value % 10);
+         value /= 10;
+      }
+      length = end;
+      return this;
+   }
+
+   private static int digits(int value) {
+      int n = 1;
+      while (value >= 10) {
+         value /= 10;
+         n++;
+      }
+      return n;
+   }
+
+   /*
+   *  Rounds to hundredths, half to even as DecimalFormat does. Below 1e7 the product
+   *   time * 100 is within 1e-7 of the exact value, so a fraction further than 1e-6 from
+   *   one half rounds the same way as the exact decimal expansion would.
+   */
+   private LatticeWriter appendHundredths(double time) throws IOException {
+      if (asciiDigits && Double.doubleToRawLongBits(time) >= 0 && time < 1e7) {      // Not negative, not -0.0
+         double scaled = time * 100;
+         long hundredths = (long) scaled;
+         double fraction = scaled - hundredths;
+         if (Math.abs(fraction - 0.5) > 1e-6) {
+            if (fraction > 0.5) {
+               hundredths++;
+            }
+            if (length + 16 > buffer.length) {
+               drain();
+            }
+            append((int) (hundredths / 100));
+            int cents = (int) (hundredths % 100);
+            buffer[length++] = decimalSeparator;
+            buffer[length++] = (char) ('0' + cents / 10);
+            buffer[length++] = (char) ('0' + cents % 10);
+            return this;
+         }
+      }
+      timeText.setLength(0);
+      timeFormat.format(time, timeText, fieldPosition);
+      int n = timeText.length();
+      if (length + n > buffer.length) {
+         drain();
+      }
+      timeText.getChars(0, n, buffer, length);
+      length += n;
+      return this;
+   }
+}
@@ -0,0 +1,333 @@
+/*
+ * LmRescorer.java
+ *
+ * Replaces the language model scores of a lattice with those of an NgramModel.
+ *
+ * An n-gram score depends on the words before an edge, which a lattice node does not
+ * fix, so nodes are split by LM state: a node of the result is a (lattice node, LM state)
+ * pair. Pairs are made only as they are reached, walking the lattice in topological
+ * order from (start, state after <s>); every outgoing edge of a pair is scored from its
+ * state and leads to the pair of its destination and the state after its word. Because
+ * the model's states are the shortest histories it can tell apart, paths whose recent
+ * words agree share a node. All edges into the end node go to a single end node and
+ * also carry the cost of </s>.
+ *
+ * Compound words are scored part by part and -silence- is transparent, exactly as a
+ * Hypothesis shows them. The new lmScore of an edge is its log10 probability times
+ * -scoreScale, rounded; acoustic scores, words and node times are kept.
+ *
+ * The scores of a (state, word) pair are cached for the duration of one rescore() in a
+ * primitive hash table, which most edges hit. The rescorer itself only holds the model
+ * and the scale, so one instance can rescore lattices on any number of threads at once.
+ *
+ * Usage
+ *    java lattice.LmRescorer [-scoreScale s] arpaFilename lmScale latticeFilename ...
+ *
+ *   Loads the model once and prints, for every lattice, the hypothesis before and after
+ *   rescoring at lmScale, the growth in nodes and edges and the cache hit rate.
+ */
+
+package lattice;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class LmRescorer {
+   // Lattice lmScores are costs of about ten per factor of ten in probability
+   public static final double DEFAULT_SCORE_SCALE = 10;
+
+   private final NgramModel model;
+   private final double scoreScale;
+
+   public static void main(String[] args) throws IOException {
+      double scoreScale = DEFAULT_SCORE_SCALE;
+      int argIdx = 0;
+
+      if (args.length > 1 && args[0].equals("-scoreScale")) {
+         scoreScale = Double.parseDouble(args[1]);
+         argIdx = 2;
+      }
+      if (args.length - argIdx < 3) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      long start = System.nanoTime();
+      NgramModel model = null;
+      try {
+         model = NgramModel.load(args[argIdx]);
+      }
+      catch (IOException e) {
+         System.err.println("Error: " + e.getMessage());
+         System.exit(1);
+      }
+      System.out.println(String.format("Loaded %d-gram model, %d n-grams, %.1f MB of tables (%.1f ms)", model.getOrder(),
+            model.size(), model.getTableBytes() / 1e6, (System.nanoTime() - start) / 1e6));
+
+      LmRescorer rescorer = new LmRescorer(model, scoreScale);
+      double lmScale = Double.parseDouble(args[argIdx + 1]);
+      for (int i = argIdx + 2; i < args.length; i++) {
+         Lattice lattice = new Lattice(args[i]);
+         start = System.nanoTime();
+         Result result = rescorer.rescore(lattice, new Result());
+         double millis = (System.nanoTime() - start) / 1e6;
+         Lattice rescored = result.lattice;
+         System.out.println("\nUtterance " + lattice.getUtteranceID());
+         System.out.println("Before: " + lattice.decode(lmScale).getHypothesisString());
+         System.out.println("After: " + rescored.decode(lmScale).getHypothesisString());
+         System.out.println(String.format("nodes %d -> %d, edges %d -> %d, cache hits %d of %d (%.1f ms)",
+               lattice.getNumNodes(), rescored.getNumNodes(), lattice.getEdgeCount(), rescored.getEdgeCount(),
+               result.cacheHits, result.cacheHits + result.cacheMisses, millis));
+      }
+   }
+
+   public LmRescorer(NgramModel model) {
+      this(model, DEFAULT_SCORE_SCALE);
+   }
+
+   public LmRescorer(NgramModel model, double scoreScale) {
+      this.model = model;
+      this.scoreScale = scoreScale;
+   }
+
+   public NgramModel getModel() {
+      return this.model;
+   }
+
+   /*
+   *  A new lattice with the model's scores in place of the lmScores.
+   */
+   public Lattice rescore(Lattice lattice) {
+      return rescore(lattice, new Result()).lattice;
+   }
+
+   /*
+   *  The best path of the rescored lattice at lmScale.
+   */
+   public Hypothesis decode(Lattice lattice, double lmScale) {
+      return rescore(lattice).decode(lmScale);
+   }
+
+   // What one rescore() produced, with its cache statistics
+   private static class Result {
+      Lattice lattice;
+      long cacheHits, cacheMisses;
+   }
+
+   private Result rescore(Lattice lattice, Result result) {
+      int[] topSort = lattice.getTopologicalOrder();
+      int[] outOffsets = lattice.getOutOffsets();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      int[] edgeWords = lattice.getEdgeWords();
+      int[] edgeAmScores = lattice.getEdgeAmScores();
+      int endIdx = lattice.getEndIdx();
+      Expansion expansion = new Expansion(lattice.getNumNodes());
+      ScoreCache cache = new ScoreCache();
+      int endWord = Vocabulary.getId(NgramModel.SENTENCE_END);
+
+      int start = expansion.node(lattice.getStartIdx(), model.getStartState(), lattice.getNodeTime(lattice.getStartIdx()));
+      int end = expansion.node(endIdx, -1, lattice.getNodeTime(endIdx));
+      for (int i = 0; i < topSort.length; i++) {
+         int node = topSort[i];
+         if (node == endIdx) {
+            continue;
+         }
+         for (int x = expansion.first[node]; x >= 0; x = expansion.nextSplit[x]) {
+            int state = expansion.states[x];
+            for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+               long next = score(state, edgeWords[e], cache);
+               float logProb = NgramModel.logProbOf(next);
+               int target = edgeTargets[e], y;
+               if (target == endIdx) {
+                  logProb += NgramModel.logProbOf(score(NgramModel.stateOf(next), endWord, cache));
+                  y = end;
+               }
+               else {
+                  y = expansion.node(target, NgramModel.stateOf(next), lattice.getNodeTime(target));
+               }
+               expansion.edge(x, y, edgeWords[e], edgeAmScores[e], (int) Math.round(-logProb * scoreScale));
+            }
+         }
+      }
+
+      result.cacheHits = cache.hits;
+      result.cacheMisses = cache.misses;
+      result.lattice = new Lattice(lattice.getUtteranceID(), start, end, expansion.numEdges,
+                                   Arrays.copyOf(expansion.nodeTimes, expansion.numNodes), expansion.sources,
+                                   expansion.targets, expansion.words, expansion.amScores, expansion.lmScores,
+                                   expansion.numEdges);
+      return result;
+   }
+
+   /*
+   *  The next state and log10 probability of a lattice word from state, as packed by
+   *   NgramModel.next: the parts of a compound word one after the other, and nothing
+   *   at all for -silence-.
+   */
+   private long score(int state, int word, ScoreCache cache) {
+      long next = cache.get(state, word);
+      if (next != ScoreCache.MISSING) {
+         return next;
+      }
+      int[] parts = Vocabulary.getParts(word);
+      float logProb = 0;
+      int current = state;
+      for (int p = 0; p < parts.length; p++) {
+         long step = model.next(current, parts[p]);
+         logProb += NgramModel.logProbOf(step);
+         current = NgramModel.stateOf(step);
+      }
+      next = ((long) current << 32) | (Float.floatToRawIntBits(logProb) & 0xffffffffL);
+      cache.put(state, word, next);
+      return next;
+   }
+
+   /*
+   *  The rescored lattice as it grows: its nodes, the (lattice node, LM state) pair of
+   *   each in an open-addressing table, the nodes split from each lattice node as a
+   *   linked list (first, nextSplit), and the edges.
+   */
+   private static class Expansion {
+      final int[] first;
+      int[] nextSplit = new int[64], states = new int[64];
+      double[] nodeTimes = new double[64];
+      int numNodes;
+      int[] sources = new int[256], targets = new int[256], words = new int[256];
+      int[] amScores = new int[256], lmScores = new int[256];
+      int numEdges;
+      long[] keys = new long[128];
+      int[] ids = new int[128];
+
+      Expansion(int latticeNodes) {
+         first = new int[latticeNodes];
+         Arrays.fill(first, -1);
+         Arrays.fill(keys, -1L);
+      }
+
+      // The node for (latticeNode, state), added if it is new
+      int node(int latticeNode, int state, double time) {
+         long key = ((long) latticeNode << 32) | (state & 0xffffffffL);
+         int mask = keys.length - 1;
+         int s = slot(key, mask);
+         while (keys[s] != -1L) {
+            if (keys[s] == key) {
+               return ids[s];
+            }
+            s = (s + 1) & mask;
+         }
+
+         int id = numNodes++;
+         if (id == states.length) {
+            nextSplit = Arrays.copyOf(nextSplit, id * 2);
+            states = Arrays.copyOf(states, id * 2);
+            nodeTimes = Arrays.copyOf(nodeTimes, id * 2);
+         }
+         states[id] = state;
+         nodeTimes[id] = time;
+         nextSplit[id] = first[latticeNode];
+         first[latticeNode] = id;
+         keys[s] = key;
+         ids[s] = id;
+         if (numNodes * 2 > keys.length) {
+            grow();
+         }
+         return id;
+      }
+
+      private void grow() {
+         long[] oldKeys = keys;
+         int[] oldIds = ids;
+         keys = new long[oldKeys.length * 2];
+         ids = new int[oldKeys.length * 2];
+         Arrays.fill(keys, -1L);
+         int mask = keys.length - 1;
+         for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != -1L) {
+               int s = slot(oldKeys[i], mask);
+               while (keys[s] != -1L) {
+                  s = (s + 1) & mask;
+               }
+               keys[s] = oldKeys[i];
+               ids[s] = oldIds[i];
+            }
+         }
+      }
+
+      void edge(int source, int target, int word, int amScore, int lmScore) {
+         if (numEdges == sources.length) {
+            int capacity = numEdges * 2;
+            sources = Arrays.copyOf(sources, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+            words = Arrays.copyOf(words, capacity);
+            amScores = Arrays.copyOf(amScores, capacity);
+            lmScores = Arrays.copyOf(lmScores, capacity);
+         }
+         sources[numEdges] = source;
+         targets[numEdges] = target;
+         words[numEdges] = word;
+         amScores[numEdges] = amScore;
+         lmScores[numEdges] = lmScore;
+         numEdges++;
+      }
+   }
+
+   /*
+   *  NgramModel.next results by (state, word), open addressing over two long arrays.
+   *   States and word ids are never negative, so -1 marks an empty slot.
+   */
+   private static class ScoreCache {
+      static final long MISSING = Long.MIN_VALUE;
+
+      long[] keys = new long[256];
+      long[] values = new long[256];
+      int size;
+      long hits, misses;
+
+      ScoreCache() {
+         Arrays.fill(keys, -1L);
+      }
+
+      long get(int state, int word) {
+         long key = ((long) state << 32) | word;
+         int mask = keys.length - 1;
+         for (int s = slot(key, mask); keys[s] != -1L; s = (s + 1) & mask) {
+            if (keys[s] == key) {
+               hits++;
+               return values[s];
+            }
+         }
+         misses++;
+         return MISSING;
+      }
+
+      void put(int state, int word, long value) {
+         if ((size + 1) * 2 > keys.length) {
+            long[] oldKeys = keys, oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2];
+            Arrays.fill(keys, -1L);
+            for (int i = 0; i < oldKeys.length; i++) {
+               if (oldKeys[i] != -1L) {
+                  insert(oldKeys[i], oldValues[i]);
+               }
+            }
+         }
+         insert(((long) state << 32) | word, value);
+         size++;
+      }
+
+      private void insert(long key, long value) {
+         int mask = keys.length - 1;
+         int s = slot(key, mask);
+         while (keys[s] != -1L) {
+            s = (s + 1) & mask;
+         }
+         keys[s] = key;
+         values[s] = value;
+      }
+   }
+
+   private static int slot(long key, int mask) {
+      return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+   }
+}
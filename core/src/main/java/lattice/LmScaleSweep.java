@@ -0,0 +1,179 @@
+/*
+ * LmScaleSweep.java
+ *
+ * Tunes lmScale: every lattice in the list is parsed once and decoded for all candidate
+ * scales in a single traversal (Lattice.decode(double[])), each hypothesis is scored
+ * against its reference with WerScorer, and the corpus word error rate is reported per scale.
+ *
+ * Usage
+ *    java lattice.LmScaleSweep [-workers numWorkers] latticeListFilename lmScales
+ *
+ *   latticeListFilename    same list format as Driver: lattice file, ref file per line
+ *
+ *   lmScales               either a comma separated list (e.g. 1,5,10) or a range
+ *                          min:step:max (e.g. 0:0.5:25), with step > 0 and min <= max;
+ *                          scales are non-negative, bad ones exit with status 2
+ *
+ *   -workers numWorkers    lattices processed at the same time (default: all cores)
+ *
+ */
+
+package lattice;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class LmScaleSweep {
+   // Scales one range may hold, each costs a cost and a parent slot per node
+   static final int MAX_SCALES = 10000;
+
+   public static void main(String[] args) throws InterruptedException {
+      int numWorkers = Runtime.getRuntime().availableProcessors();
+      int argIdx = 0;
+
+      if (args.length == 4 && args[0].equals("-workers")) {
+         numWorkers = Integer.parseInt(args[1]);
+         argIdx = 2;
+      }
+      if (args.length - argIdx != 2 || numWorkers < 1) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      double[] lmScales = readScales(args[argIdx + 1]);
+      List<String[]> entries = readList(args[argIdx]);
+      WerStats[] scaleStats = new WerStats[lmScales.length];
+      long startTime = System.nanoTime();
+
+      for (int s = 0; s < lmScales.length; s++) {
+         scaleStats[s] = new WerStats();
+      }
+
+      // Workers add their counts straight into the per-scale totals, order does not matter here.
+      ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+      List<Future<?>> results = new ArrayList<Future<?>>();
+      for (String[] entry : entries) {
+         results.add(workers.submit(() -> scoreLattice(entry[0], entry[1], lmScales, scaleStats)));
+      }
+      for (Future<?> result : results) {
+         try {
+            result.get();
+         }
+         catch (ExecutionException e) {
+            System.err.println("Error: " + e.getCause());
+            System.exit(1);
+         }
+      }
+      workers.shutdown();
+
+      int best = 0;
+      System.out.println(String.format("%10s  %s", "lmScale", "WER"));
+      for (int s = 0; s < lmScales.length; s++) {
+         System.out.println(String.format("%10.3f  %s", lmScales[s], scaleStats[s]));
+         if (scaleStats[s].getErrors() < scaleStats[best].getErrors()) {
+            best = s;
+         }
+      }
+      System.out.println(String.format("Best lmScale: %.3f WER %s", lmScales[best], scaleStats[best]));
+
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+      System.err.println(String.format("Swept %d scales over %d utterances in %.3f s", lmScales.length, entries.size(), seconds));
+   }
+
+   private static Void scoreLattice(String latticeFilename, String refFilename, double[] lmScales, WerStats[] scaleStats) throws IOException {
+      Lattice lattice = new Lattice(latticeFilename);
+      Hypothesis[] hypotheses = lattice.decode(lmScales);
+      int[] reference = WerScorer.wordIds(Arrays.asList(readReference(refFilename)));
+
+      for (int s = 0; s < lmScales.length; s++) {
+         hypotheses[s].computeErrors(reference, scaleStats[s]);
+      }
+      return null;
+   }
+
+   private static String[] readReference(String refFilename) throws IOException {
+      try (BufferedReader reader = new BufferedReader(new FileReader(refFilename))) {
+         String line = reader.readLine();
+         return line == null || line.trim().isEmpty() ? new String[0] : line.trim().split("\\s+");
+      }
+   }
+
+   private static List<String[]> readList(String latticeListFilename) {
+      List<String[]> entries = new ArrayList<String[]>();
+      try (Scanner input = new Scanner(new File(latticeListFilename))) {
+         while (input.hasNext()) {
+            entries.add(new String[] { input.next(), input.next() });
+         }
+      }
+      catch (FileNotFoundException e) {
+         System.err.println("Error: Unable to open file " + latticeListFilename);
+         System.exit(1);
+      }
+      return entries;
+   }
+
+   private static double[] readScales(String spec) {
+      try {
+         return parseScales(spec);
+      }
+      catch (IllegalArgumentException e) {
+         System.err.println("Error: " + e.getMessage());
+         System.exit(2);
+         return null;
+      }
+   }
+
+   /*
+   *  The scales of a comma separated list or a min:step:max range, with min <= max and
+   *   step > 0. Throws IllegalArgumentException, with the reason, for anything else and
+   *   for negative or non-finite scales.
+   */
+   static double[] parseScales(String spec) {
+      double[] scales;
+      if (spec.contains(":")) {
+         String[] range = spec.split(":", -1);
+         if (range.length != 3) {
+            throw new IllegalArgumentException("lmScale range must be min:step:max, not " + spec);
+         }
+         double min = parseScale(range[0]);
+         double step = parseScale(range[1]);
+         double max = parseScale(range[2]);
+         if (!(step > 0)) {
+            throw new IllegalArgumentException("lmScale step must be greater than 0 in " + spec);
+         }
+         if (min > max) {
+            throw new IllegalArgumentException("lmScale min must not exceed max in " + spec);
+         }
+         double count = Math.floor((max - min) / step + 1e-9) + 1;
+         if (count > MAX_SCALES) {
+            throw new IllegalArgumentException("more than " + MAX_SCALES + " lmScales in " + spec);
+         }
+         scales = new double[(int) count];
+         for (int i = 0; i < scales.length; i++) {
+            scales[i] = min + i * step;
+         }
+         return scales;
+      }
+      String[] parts = spec.split(",", -1);
+      scales = new double[parts.length];
+      for (int i = 0; i < parts.length; i++) {
+         scales[i] = parseScale(parts[i]);
+      }
+      return scales;
+   }
+
+   private static double parseScale(String value) {
+      double scale;
+      try {
+         scale = Double.parseDouble(value.trim());
+      }
+      catch (NumberFormatException e) {
+         throw new IllegalArgumentException("bad lmScale '" + value + "'");
+      }
+      if (!(scale >= 0) || Double.isInfinite(scale)) {
+         throw new IllegalArgumentException("lmScale must be a non-negative number, not " + value);
+      }
+      return scale;
+   }
+}
@@ -0,0 +1,189 @@
+/*
+ * NBestIterator.java
+ *
+ * Yields the paths of a lattice from start to end in order of increasing combined score,
+ * best first, stopping after k paths.
+ *
+ * One backward pass in reverse topological order gives, for every node, the cost of the
+ * best completion to the end node. Partial paths from the start node then sit in a heap
+ * keyed by their cost so far plus that completion cost, which is exact, so whenever a
+ * complete path reaches the top of the heap it is the next best one. Each popped partial
+ * path is a prefix of one of the paths already returned or about to be, so producing k
+ * paths touches O(k * pathLength * outDegree) entries no matter how many paths the
+ * lattice holds in total.
+ */
+
+package lattice;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class NBestIterator implements Iterator<Hypothesis> {
+   private final Lattice lattice;
+   private final double lmScale;
+   private final double[] toEnd;       // Best cost from each node to the end node
+   private int remaining;
+
+   // Partial paths, stored as a tree of back-pointers: path p ends with edge pathEdge[p]
+   // and continues pathPrev[p] (the root path, just the start node, has edge -1).
+   private int[] pathEdge = new int[64];
+   private int[] pathPrev = new int[64];
+   private double[] pathCost = new double[64];
+   private int numPaths;
+
+   // Binary min-heap of path ids, keyed by pathCost + toEnd of the path's last node.
+   // Of equal keys the newest path comes out first.
+   private int[] heap = new int[64];
+   private int heapSize;
+
+   public NBestIterator(Lattice lattice, double lmScale, int k) {
+      this.lattice = lattice;
+      this.lmScale = lmScale;
+      this.remaining = k;
+      this.toEnd = costsToEnd();
+
+      if (k > 0 && toEnd[lattice.getStartIdx()] < Double.POSITIVE_INFINITY) {
+         push(newPath(-1, -1, 0));
+      }
+   }
+
+   public boolean hasNext() {
+      return remaining > 0 && heapSize > 0;
+   }
+
+   /*
+   *  Pops partial paths, extending each one along every edge that can still reach the
+   *   end node, until a path that already ends at the end node comes out on top.
+   */
+   public Hypothesis next() {
+      if (!hasNext()) {
+         throw new NoSuchElementException();
+      }
+      int[] outOffsets = lattice.getOutOffsets();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      int endIdx = lattice.getEndIdx();
+
+      while (true) {
+         int path = pop();
+         int node = lastNode(path);
+         if (node == endIdx) {
+            remaining--;
+            return toHypothesis(path);
+         }
+         for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+            if (toEnd[edgeTargets[e]] < Double.POSITIVE_INFINITY) {
+               push(newPath(e, path, pathCost[path] + edgeScore(e)));
+            }
+         }
+      }
+   }
+
+   private double edgeScore(int edge) {
+      return (lattice.getEdgeLmScores()[edge] * lmScale) + lattice.getEdgeAmScores()[edge];
+   }
+
+   private int lastNode(int path) {
+      return pathEdge[path] < 0 ? lattice.getStartIdx() : lattice.getEdgeTargets()[pathEdge[path]];
+   }
+
+   // Same relaxation as Lattice.decode, run backwards over the out-edges.
+   private double[] costsToEnd() {
+      int[] topSort = lattice.getTopologicalOrder();
+      int[] outOffsets = lattice.getOutOffsets();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      double[] cost = new double[lattice.getNumNodes()];
+      double score;
+
+      Arrays.fill(cost, Double.POSITIVE_INFINITY);
+      cost[lattice.getEndIdx()] = 0;
+      for (int i = topSort.length - 1; i >= 0; i--) {
+         int node = topSort[i];
+         for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+            score = edgeScore(e) + cost[edgeTargets[e]];
+            if (score < cost[node]) {
+               cost[node] = score;
+            }
+         }
+      }
+      return cost;
+   }
+
+   // Walks the back-pointers to recover the edges, then adds their words in path order.
+   private Hypothesis toHypothesis(int path) {
+      Hypothesis hypothesis = new Hypothesis();
+      int[] edgeWords = lattice.getEdgeWords();
+      int length = 0;
+
+      for (int p = path; pathEdge[p] >= 0; p = pathPrev[p]) {
+         length++;
+      }
+      int[] edges = new int[length];
+      for (int p = path; pathEdge[p] >= 0; p = pathPrev[p]) {
+         edges[--length] = pathEdge[p];
+      }
+      for (int i = 0; i < edges.length; i++) {
+         hypothesis.addWord(edgeWords[edges[i]], edgeScore(edges[i]));
+      }
+      return hypothesis;
+   }
+
+   private int newPath(int edge, int prev, double cost) {
+      if (numPaths == pathEdge.length) {
+         pathEdge = Arrays.copyOf(pathEdge, numPaths * 2);
+         pathPrev = Arrays.copyOf(pathPrev, numPaths * 2);
+         pathCost = Arrays.copyOf(pathCost, numPaths * 2);
+      }
+      pathEdge[numPaths] = edge;
+      pathPrev[numPaths] = prev;
+      pathCost[numPaths] = cost;
+      return numPaths++;
+   }
+
+   private double key(int path) {
+      return pathCost[path] + toEnd[lastNode(path)];
+   }
+
+   /*
+   *  Ids grow with insertion, and the newer path wins a tie: the extensions of a popped
+   *   path come out before its tied siblings, so ties are followed depth first and a
+   *   complete path with the minimal key pops as soon as it is pushed. Oldest first would
+   *   expand every tied prefix, 2^n of them on a chain of n tied pairs, before any path
+   *   completes.
+   */
+   private boolean before(int a, int b) {
+      double keyA = key(a), keyB = key(b);
+      return keyA < keyB || (keyA == keyB && a > b);
+   }
+
+   private void push(int path) {
+      if (heapSize == heap.length) {
+         heap = Arrays.copyOf(heap, heapSize * 2);
+      }
+      int i = heapSize++;
+      while (i > 0 && before(path, heap[(i - 1) / 2])) {
+         heap[i] = heap[(i - 1) / 2];
+         i = (i - 1) / 2;
+      }
+      heap[i] = path;
+   }
+
+   private int pop() {
+      int top = heap[0];
+      int last = heap[--heapSize];
+      int i = 0;
+      while (2 * i + 1 < heapSize) {
+         int child = 2 * i + 1;
+         if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+            child++;
+         }
+         if (!before(heap[child], last)) {
+            break;
+         }
+         heap[i] = heap[child];
+         i = child;
+      }
+      heap[i] = last;
+      return top;
+   }
+}
@@ -0,0 +1,313 @@
+/*
+ * NgramModel.java
+ *
+ * A backoff n-gram language model read from an ARPA file.
+ *
+ * Every n-gram gets a dense int id, in file order, with 0 for the empty history. All of
+ * them live in one open-addressing hash table keyed by a single long: the id of the
+ * n-gram's first n - 1 words in the high half and the Vocabulary id of its last word in
+ * the low half. Log probabilities and backoff weights are float arrays indexed by id,
+ * and so is the suffix link of each n-gram, the id of the n-gram without its first word.
+ * There are no objects per n-gram, and a lookup is one multiply and a short probe.
+ *
+ * An LM state is the id of an n-gram that serves as the history: the longest suffix
+ * of the words so far that the model knows, at most order - 1 words long. next() scores
+ * a word from a state with the usual backoff and returns the state after it.
+ *
+ * The model never changes after loading, so one instance can serve any number of
+ * threads.
+ *
+ * Usage
+ *    NgramModel model = NgramModel.load("model.arpa");
+ *    int state = model.getStartState();
+ *    long next = model.next(state, Vocabulary.getId("hello"));
+ *    float log10Prob = NgramModel.logProbOf(next);
+ *    state = NgramModel.stateOf(next);
+ */
+
+package lattice;
+
+import java.io.*;
+
+public class NgramModel {
+   public static final String SENTENCE_START = "<s>";
+   public static final String SENTENCE_END = "</s>";
+   public static final String UNKNOWN_WORD = "<unk>";
+
+   // Log10 probability of a word the model has no unigram for, when it has no <unk>
+   public static final float UNKNOWN_LOG_PROB = -99;
+
+   private static final long EMPTY = -1L;
+
+   private final int order;
+   private final int numNgrams;            // Including the empty history, id 0
+   private final float[] logProbs;         // Log10 probability of each n-gram
+   private final float[] backoffs;         // Log10 backoff weight of each n-gram as a history
+   private final int[] suffixes;           // Id of the n-gram without its first word
+   private final byte[] orders;            // Number of words in each n-gram
+
+   private final long[] keys;              // (history id << 32) | word id, or EMPTY
+   private final int[] values;             // N-gram id of each key
+   private final int mask, shift;
+
+   private final int startState;           // State after <s>
+   private final int endWord;              // Vocabulary id of </s>
+   private final int unknownWord;          // Vocabulary id of <unk>, or -1 without one
+
+   /*
+   *  Reads an ARPA file: a \data\ section with one "ngram n=count" line per order, then
+   *   one \n-grams: section per order with lines "log10Prob w1 .. wn [log10Backoff]",
+   *   and \end\. Words are added to the Vocabulary.
+   *
+   *  Throws LatticeFormatException, with the line number, if the file does not follow
+   *   that layout or an n-gram's first n - 1 words are not in the model.
+   */
+   public static NgramModel load(String arpaFilename) throws IOException {
+      try (BufferedReader reader = new BufferedReader(new FileReader(arpaFilename), 1 << 16)) {
+         return new NgramModel(arpaFilename, reader);
+      }
+   }
+
+   private NgramModel(String filename, BufferedReader reader) throws IOException {
+      String line;
+      int lineNumber = 0;
+
+      // Header: counts per order
+      int[] counts = new int[8];
+      int maxOrder = 0;
+      while ((line = reader.readLine()) != null) {
+         lineNumber++;
+         if (line.trim().equals("\\data\\")) {
+            break;
+         }
+      }
+      if (line == null) {
+         throw new LatticeFormatException(filename, lineNumber, 1, "no \\data\\ section");
+      }
+      while ((line = reader.readLine()) != null) {
+         lineNumber++;
+         line = line.trim();
+         if (line.isEmpty()) {
+            continue;
+         }
+         if (!line.startsWith("ngram ")) {
+            break;
+         }
+         int equals = line.indexOf('=');
+         int n, count;
+         try {
+            n = Integer.parseInt(line.substring(6, equals).trim());
+            count = Integer.parseInt(line.substring(equals + 1).trim());
+         }
+         catch (RuntimeException e) {
+            throw new LatticeFormatException(filename, lineNumber, 1, "expected ngram n=count");
+         }
+         if (n < 1 || n > 127 || count < 0) {
+            throw new LatticeFormatException(filename, lineNumber, 1, "bad ngram count");
+         }
+         if (n >= counts.length) {
+            counts = java.util.Arrays.copyOf(counts, Math.max(n + 1, counts.length * 2));
+         }
+         counts[n] = count;
+         maxOrder = Math.max(maxOrder, n);
+      }
+      if (maxOrder == 0) {
+         throw new LatticeFormatException(filename, lineNumber, 1, "no ngram counts in \\data\\");
+      }
+
+      long total = 1;
+      for (int n = 1; n <= maxOrder; n++) {
+         total += counts[n];
+      }
+      if (total > Integer.MAX_VALUE / 4) {
+         throw new LatticeFormatException(filename, lineNumber, 1, "too many n-grams");
+      }
+      this.order = maxOrder;
+      this.logProbs = new float[(int) total];
+      this.backoffs = new float[(int) total];
+      this.suffixes = new int[(int) total];
+      this.orders = new byte[(int) total];
+      int capacity = Integer.highestOneBit((int) total * 2 - 1) << 1;
+      this.keys = new long[capacity];
+      this.values = new int[capacity];
+      this.mask = capacity - 1;
+      this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+      java.util.Arrays.fill(keys, EMPTY);
+
+      // One section per order, the header line of the first one is already read
+      int numIds = 1;
+      int[] words = new int[maxOrder];
+      for (int n = 1; n <= maxOrder; n++) {
+         while (line != null && line.trim().isEmpty()) {
+            line = reader.readLine();
+            lineNumber++;
+         }
+         if (line == null || !line.trim().equals("\\" + n + "-grams:")) {
+            throw new LatticeFormatException(filename, lineNumber, 1, "expected \\" + n + "-grams:");
+         }
+         for (int i = 0; i < counts[n]; i++) {
+            line = reader.readLine();
+            lineNumber++;
+            if (line == null) {
+               throw new LatticeFormatException(filename, lineNumber, 1, "expected " + counts[n] + " " + n + "-grams");
+            }
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length != n + 1 && fields.length != n + 2) {
+               throw new LatticeFormatException(filename, lineNumber, 1, "expected log10Prob, " + n + " words and an optional backoff");
+            }
+            for (int k = 0; k < n; k++) {
+               words[k] = Vocabulary.getId(fields[k + 1]);
+            }
+            int history = findSequence(words, 0, n - 1);
+            if (history < 0) {
+               throw new LatticeFormatException(filename, lineNumber, 1, "history of " + n + "-gram not in the model");
+            }
+            int id = numIds++;
+            try {
+               logProbs[id] = Float.parseFloat(fields[0]);
+               backoffs[id] = fields.length == n + 2 ? Float.parseFloat(fields[n + 1]) : 0;
+            }
+            catch (NumberFormatException e) {
+               throw new LatticeFormatException(filename, lineNumber, 1, "bad number");
+            }
+            orders[id] = (byte) n;
+            if (!insert(history, words[n - 1], id)) {
+               throw new LatticeFormatException(filename, lineNumber, 1, "duplicate " + n + "-gram");
+            }
+
+            // The longest proper suffix the model has, shorter ones are all in earlier sections
+            int suffix = -1;
+            for (int from = 1; suffix < 0; from++) {
+               suffix = from == n ? 0 : findSequence(words, from, n);
+            }
+            suffixes[id] = suffix;
+         }
+         line = reader.readLine();
+         lineNumber++;
+      }
+      while (line != null && line.trim().isEmpty()) {
+         line = reader.readLine();
+         lineNumber++;
+      }
+      if (line == null || !line.trim().equals("\\end\\")) {
+         throw new LatticeFormatException(filename, lineNumber, 1, "expected \\end\\");
+      }
+      this.numNgrams = numIds;
+
+      int startWordId = find(0, Vocabulary.getId(SENTENCE_START));
+      this.startState = startWordId < 0 ? 0 : nextState(startWordId);
+      this.endWord = Vocabulary.getId(SENTENCE_END);
+      int unknownId = Vocabulary.findId(UNKNOWN_WORD);
+      this.unknownWord = unknownId >= 0 && find(0, unknownId) >= 0 ? unknownId : -1;
+   }
+
+   private int slot(long key) {
+      return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+   }
+
+   private static long key(int history, int word) {
+      return ((long) history << 32) | (word & 0xffffffffL);
+   }
+
+   private boolean insert(int history, int word, int id) {
+      long key = key(history, word);
+      int s = slot(key);
+      while (keys[s] != EMPTY) {
+         if (keys[s] == key) {
+            return false;
+         }
+         s = (s + 1) & mask;
+      }
+      keys[s] = key;
+      values[s] = id;
+      return true;
+   }
+
+   // Id of the n-gram history + word, or -1
+   private int find(int history, int word) {
+      long key = key(history, word);
+      for (int s = slot(key); keys[s] != EMPTY; s = (s + 1) & mask) {
+         if (keys[s] == key) {
+            return values[s];
+         }
+      }
+      return -1;
+   }
+
+   // Id of the n-gram words[from .. to - 1], 0 for none, or -1 if it is not in the model
+   private int findSequence(int[] words, int from, int to) {
+      int id = 0;
+      for (int k = from; k < to && id >= 0; k++) {
+         id = find(id, words[k]);
+      }
+      return id;
+   }
+
+   // The state after the n-gram id: itself, or its suffix if it is a full-order n-gram
+   private int nextState(int id) {
+      return orders[id] < order ? id : suffixes[id];
+   }
+
+   /*
+   *  Scores word after state. Backs off through shorter histories, adding their backoff
+   *   weights, until one has the word. A word without a unigram is scored as <unk> if
+   *   the model has it and as UNKNOWN_LOG_PROB from the empty history otherwise.
+   *
+   *  Returns the log10 probability and the new state packed into a long, see
+   *   logProbOf and stateOf; no allocation.
+   */
+   public long next(int state, int word) {
+      if (unknownWord >= 0 && find(0, word) < 0) {
+         word = unknownWord;
+      }
+      float backoff = 0;
+      int history = state;
+      while (true) {
+         int id = find(history, word);
+         if (id >= 0) {
+            return pack(nextState(id), backoff + logProbs[id]);
+         }
+         if (history == 0) {
+            return pack(0, backoff + UNKNOWN_LOG_PROB);
+         }
+         backoff += backoffs[history];
+         history = suffixes[history];
+      }
+   }
+
+   // Log10 probability of ending the sentence in state
+   public float endLogProb(int state) {
+      return logProbOf(next(state, endWord));
+   }
+
+   private static long pack(int state, float logProb) {
+      return ((long) state << 32) | (Float.floatToRawIntBits(logProb) & 0xffffffffL);
+   }
+
+   public static int stateOf(long next) {
+      return (int) (next >>> 32);
+   }
+
+   public static float logProbOf(long next) {
+      return Float.intBitsToFloat((int) next);
+   }
+
+   // State at the start of a sentence, after <s>
+   public int getStartState() {
+      return this.startState;
+   }
+
+   public int getOrder() {
+      return this.order;
+   }
+
+   // Number of n-grams, not counting the empty history
+   public int size() {
+      return this.numNgrams - 1;
+   }
+
+   // Bytes taken by the tables
+   public long getTableBytes() {
+      return (long) keys.length * 12 + (long) logProbs.length * 13;
+   }
+}
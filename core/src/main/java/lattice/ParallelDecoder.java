@@ -0,0 +1,252 @@
+/*
+ * ParallelDecoder.java
+ *
+ * Decodes one large lattice on several threads. The nodes are grouped into topological
+ * levels, a node's level being one more than the highest level of its sources, so the
+ * sources of every node of a level are all in earlier levels. The nodes of one level are
+ * then independent: each is relaxed over its incoming edges, in the same order and with
+ * the same strict comparison as Lattice.decode, by ForkJoin tasks that split the level
+ * in halves down to a grain of nodes. Levels run one after the other, and a level
+ * narrower than two grains runs on the calling thread.
+ *
+ * Since each node's cost and parent edge are computed by exactly the operations of the
+ * sequential decode, in the same order, ties included, the hypothesis is always the one
+ * Lattice.decode returns. How much faster it is depends on how wide the levels are; a
+ * lattice that is little more than a chain gains nothing.
+ *
+ * Lattice.decode(lmScale) hands lattices with at least getThreshold() edges to a decoder
+ * on the common pool, provided the pool has more than one thread and at least half of
+ * the nodes are in levels wide enough to split, and so does the relaxation of
+ * Lattice.computeStats. The threshold defaults to DEFAULT_THRESHOLD and can be set with
+ * the lattice.parallelDecodeThreshold system property or setThreshold. The levels are
+ * cached on the lattice, like its topological order.
+ *
+ * Usage
+ *    java lattice.ParallelDecoder numThreads lmScale latticeFilename ...
+ *
+ *   Decodes every lattice sequentially and in parallel, checks that the results agree
+ *   and prints both times.
+ */
+
+package lattice;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ParallelDecoder {
+   public static final int DEFAULT_THRESHOLD = 1 << 20;     // Edges
+   private static final int GRAIN = 1024;                   // Nodes a task relaxes without splitting
+
+   private static volatile int threshold = Integer.getInteger("lattice.parallelDecodeThreshold", DEFAULT_THRESHOLD);
+   private static final ParallelDecoder COMMON = new ParallelDecoder(ForkJoinPool.commonPool());
+
+   private final ForkJoinPool pool;
+
+   public static void main(String[] args) {
+      if (args.length < 3) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      ForkJoinPool pool = new ForkJoinPool(Integer.parseInt(args[0]));
+      ParallelDecoder decoder = new ParallelDecoder(pool);
+      double lmScale = Double.parseDouble(args[1]);
+      for (int i = 2; i < args.length; i++) {
+         Lattice lattice = new Lattice(args[i]);
+         Levels levels = lattice.getTopologicalLevels();
+         long start = System.nanoTime();
+         Hypothesis sequential = lattice.decodeSequential(lmScale);
+         double sequentialMillis = (System.nanoTime() - start) / 1e6;
+         start = System.nanoTime();
+         Hypothesis parallel = decoder.decode(lattice, lmScale);
+         double parallelMillis = (System.nanoTime() - start) / 1e6;
+
+         System.out.println("\nUtterance " + lattice.getUtteranceID());
+         System.out.println(String.format("%d nodes, %d edges, %d levels, widest %d", lattice.getNumNodes(),
+               lattice.getEdgeCount(), levels.getNumLevels(), levels.getMaxWidth()));
+         System.out.println(String.format("sequential %.1f ms, parallel %.1f ms on %d threads, %s", sequentialMillis,
+               parallelMillis, pool.getParallelism(), sameHypothesis(sequential, parallel) ? "same hypothesis" : "DIFFERENT HYPOTHESIS"));
+      }
+      pool.shutdown();
+   }
+
+   private static boolean sameHypothesis(Hypothesis a, Hypothesis b) {
+      return a.getHypothesisString().equals(b.getHypothesisString()) && a.getPathScore() == b.getPathScore();
+   }
+
+   public ParallelDecoder(ForkJoinPool pool) {
+      this.pool = pool;
+   }
+
+   // The decoder Lattice.decode uses, on the common pool
+   public static ParallelDecoder common() {
+      return COMMON;
+   }
+
+   // Edge count from which Lattice.decode decodes in parallel
+   public static int getThreshold() {
+      return threshold;
+   }
+
+   public static void setThreshold(int edges) {
+      threshold = edges;
+   }
+
+   // Whether decoding lattice here is worth it rather than decoding it sequentially
+   boolean pays(Lattice lattice) {
+      Levels levels = lattice.getTopologicalLevels();
+      return pool.getParallelism() > 1 && levels.numWideNodes * 2 >= levels.nodes.length;
+   }
+
+   /*
+   *  The hypothesis lattice.decode(lmScale) returns, relaxing the nodes of each
+   *   topological level in parallel.
+   */
+   public Hypothesis decode(Lattice lattice, double lmScale) {
+      double[] cost = new double[lattice.getNumNodes()];
+      int[] parentEdge = new int[lattice.getNumNodes()];
+      relax(lattice, lmScale, cost, parentEdge);
+      return lattice.backtrack(lmScale, parentEdge);
+   }
+
+   /*
+   *  Fills cost and parentEdge, one entry per node, with the best cost from the start
+   *   node and the edge into the node on that path, as the sequential relaxation does;
+   *   unreached nodes keep an infinite cost and parent edge -1.
+   */
+   void relax(Lattice lattice, double lmScale, double[] cost, int[] parentEdge) {
+      Levels levels = lattice.getTopologicalLevels();
+
+      Arrays.fill(cost, Double.POSITIVE_INFINITY);
+      Arrays.fill(parentEdge, -1);
+      cost[lattice.getStartIdx()] = 0;
+
+      for (int l = 0; l < levels.numLevels; l++) {
+         int from = levels.offsets[l], to = levels.offsets[l + 1];
+         Relaxation relaxation = new Relaxation(lattice, lmScale, levels.nodes, cost, parentEdge, from, to);
+         if (to - from < 2 * GRAIN) {
+            relaxation.compute();
+         }
+         else {
+            pool.invoke(relaxation);
+         }
+      }
+   }
+
+   /*
+   *  Relaxes the nodes nodes[from .. to - 1], all of one level, splitting in halves
+   *   while there are more than GRAIN of them. The loop body is that of Lattice.decode.
+   */
+   private static class Relaxation extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final Lattice lattice;
+      private final double lmScale;
+      private final int[] nodes;
+      private final double[] cost;
+      private final int[] parentEdge;
+      private final int from, to;
+
+      Relaxation(Lattice lattice, double lmScale, int[] nodes, double[] cost, int[] parentEdge, int from, int to) {
+         this.lattice = lattice;
+         this.lmScale = lmScale;
+         this.nodes = nodes;
+         this.cost = cost;
+         this.parentEdge = parentEdge;
+         this.from = from;
+         this.to = to;
+      }
+
+      @Override
+      protected void compute() {
+         if (to - from > GRAIN) {
+            int middle = (from + to) >>> 1;
+            invokeAll(new Relaxation(lattice, lmScale, nodes, cost, parentEdge, from, middle),
+                      new Relaxation(lattice, lmScale, nodes, cost, parentEdge, middle, to));
+            return;
+         }
+         int[] inOffsets = lattice.getInOffsets();
+         int[] inEdges = lattice.getInEdges();
+         int[] edgeSources = lattice.getEdgeSources();
+         int[] edgeAmScores = lattice.getEdgeAmScores();
+         int[] edgeLmScores = lattice.getEdgeLmScores();
+         double score;
+         int node, edge;
+
+         for (int i = from; i < to; i++) {
+            node = nodes[i];
+            for (int k = inOffsets[node]; k < inOffsets[node + 1]; k++) {
+               edge = inEdges[k];
+               score = ((edgeLmScores[edge] * lmScale) + edgeAmScores[edge]) + cost[edgeSources[edge]];
+               if (score < cost[node]) {
+                  cost[node] = score;
+                  parentEdge[node] = edge;
+               }
+            }
+         }
+      }
+   }
+
+   /*
+   *  The nodes of the topological order grouped by level: level l is
+   *   nodes[offsets[l] .. offsets[l + 1] - 1], in topological order within the level.
+   *   Nodes on a cycle are left out, as they are from the topological order.
+   */
+   static class Levels {
+      final int[] nodes;
+      final int[] offsets;
+      final int numLevels;
+      final int numWideNodes;      // Nodes in levels of at least 2 * GRAIN, which are split
+
+      Levels(Lattice lattice) {
+         int[] topSort = lattice.getTopologicalOrder();
+         int[] outOffsets = lattice.getOutOffsets();
+         int[] edgeTargets = lattice.getEdgeTargets();
+         int[] level = new int[lattice.getNumNodes()];
+         int maxLevel = -1;
+
+         for (int i = 0; i < topSort.length; i++) {                // Sources come first, so a node's level is final when reached
+            int node = topSort[i];
+            maxLevel = Math.max(maxLevel, level[node]);
+            for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+               level[edgeTargets[e]] = Math.max(level[edgeTargets[e]], level[node] + 1);
+            }
+         }
+
+         numLevels = maxLevel + 1;
+         offsets = new int[numLevels + 1];
+         for (int i = 0; i < topSort.length; i++) {
+            offsets[level[topSort[i]] + 1]++;
+         }
+         for (int l = 0; l < numLevels; l++) {
+            offsets[l + 1] += offsets[l];
+         }
+         int wide = 0;
+         for (int l = 0; l < numLevels; l++) {
+            if (offsets[l + 1] - offsets[l] >= 2 * GRAIN) {
+               wide += offsets[l + 1] - offsets[l];
+            }
+         }
+         numWideNodes = wide;
+         nodes = new int[topSort.length];
+         int[] fill = Arrays.copyOf(offsets, numLevels);
+         for (int i = 0; i < topSort.length; i++) {
+            nodes[fill[level[topSort[i]]]++] = topSort[i];
+         }
+      }
+
+      int getNumLevels() {
+         return numLevels;
+      }
+
+      // Nodes in the widest level
+      int getMaxWidth() {
+         int width = 0;
+         for (int l = 0; l < numLevels; l++) {
+            width = Math.max(width, offsets[l + 1] - offsets[l]);
+         }
+         return width;
+      }
+   }
+}
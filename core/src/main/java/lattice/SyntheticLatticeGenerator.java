@@ -0,0 +1,170 @@
+/*
+ * SyntheticLatticeGenerator.java
+ *
+ * Deterministic random lattices for benchmarks and tests. Nodes form a chain 0 .. numNodes - 1
+ * 0.01 s apart and every node links to the next branchingFactor nodes (fewer near the end),
+ * so the lattice is connected and acyclic. Each edge carries -silence- with probability
+ * silenceRatio and otherwise one of vocabularySize words w0, w1, ..., with acoustic scores
+ * in [0, 500) and language model scores in [0, 50). The same settings always give the same
+ * lattice, whether it is built in memory or written out.
+ *
+ * With a width w above 1 the nodes between the start node 0 and the end node numNodes - 1
+ * form columns of w nodes instead. The start node links to the whole first column, every
+ * other node to branchingFactor nodes of the next column, its own row and the rows after
+ * it, wrapping around, and the nodes with none there to the end node. Every column is
+ * then a topological level w nodes wide, for benchmarks of ParallelDecoder.
+ *
+ * Usage
+ *    java lattice.SyntheticLatticeGenerator [-width w] numNodes branchingFactor vocabularySize silenceRatio seed outputFilename
+ *
+ *   Writes the lattice in the text format.
+ */
+
+package lattice;
+
+import java.io.*;
+import java.util.Random;
+
+public class SyntheticLatticeGenerator {
+   private final int numNodes, branchingFactor, vocabularySize, width;
+   private final double silenceRatio;
+   private final long seed;
+
+   // Filled on first use, in row order
+   private int[] sources, targets, words, amScores, lmScores;
+   private int numEdges;
+
+   public static void main(String[] args) throws IOException {
+      int width = 1, argIdx = 0;
+      if (args.length > 1 && args[0].equals("-width")) {
+         width = Integer.parseInt(args[1]);
+         argIdx = 2;
+      }
+      if (args.length - argIdx != 6) {
+         System.err.println("Error: Wrong number of arguments.");
+         System.exit(2);
+      }
+
+      SyntheticLatticeGenerator generator = new SyntheticLatticeGenerator(Integer.parseInt(args[argIdx]),
+            Integer.parseInt(args[argIdx + 1]), Integer.parseInt(args[argIdx + 2]), Double.parseDouble(args[argIdx + 3]),
+            Long.parseLong(args[argIdx + 4]), width);
+      generator.write(args[argIdx + 5]);
+      System.out.println(String.format("%d nodes, %d edges", generator.getNumNodes(), generator.getNumEdges()));
+   }
+
+   public SyntheticLatticeGenerator(int numNodes, int branchingFactor, int vocabularySize, double silenceRatio, long seed) {
+      this(numNodes, branchingFactor, vocabularySize, silenceRatio, seed, 1);
+   }
+
+   public SyntheticLatticeGenerator(int numNodes, int branchingFactor, int vocabularySize, double silenceRatio, long seed,
+                                    int width) {
+      if (numNodes < 1 || branchingFactor < 1 || vocabularySize < 1 || width < 1 || silenceRatio < 0 || silenceRatio > 1) {
+         throw new IllegalArgumentException("need numNodes, branchingFactor, vocabularySize and width of at least 1 and silenceRatio in [0, 1]");
+      }
+      this.numNodes = numNodes;
+      this.branchingFactor = branchingFactor;
+      this.vocabularySize = vocabularySize;
+      this.silenceRatio = silenceRatio;
+      this.seed = seed;
+      this.width = width;
+   }
+
+   private void generateEdges() {
+      if (sources != null) {
+         return;
+      }
+      Random random = new Random(seed);
+      int capacity = (int) Math.min((long) numNodes * branchingFactor, Integer.MAX_VALUE - 8);
+      int[] wordIds = new int[vocabularySize];
+
+      for (int w = 0; w < vocabularySize; w++) {
+         wordIds[w] = Vocabulary.getId("w" + w);
+      }
+      sources = new int[capacity];
+      targets = new int[capacity];
+      words = new int[capacity];
+      amScores = new int[capacity];
+      lmScores = new int[capacity];
+      if (width == 1) {
+         for (int i = 0; i < numNodes - 1; i++) {
+            int span = Math.min(branchingFactor, numNodes - 1 - i);
+            for (int k = 1; k <= span; k++) {
+               addEdge(i, i + k, random, wordIds);
+            }
+         }
+         return;
+      }
+      int end = numNodes - 1;
+      for (int t = 1; t <= width && t < end; t++) {
+         addEdge(0, t, random, wordIds);
+      }
+      for (int i = 1; i < end; i++) {
+         int next = 1 + ((i - 1) / width + 1) * width;       // First node of the next column
+         int row = (i - 1) % width;
+         int added = 0;
+         for (int k = 0; k < Math.min(branchingFactor, width); k++) {
+            int t = next + (row + k) % width;
+            if (t < end) {
+               addEdge(i, t, random, wordIds);
+               added++;
+            }
+         }
+         if (added == 0) {
+            addEdge(i, end, random, wordIds);
+         }
+      }
+   }
+
+   private void addEdge(int source, int target, Random random, int[] wordIds) {
+      if (numEdges == sources.length) {
+         int capacity = (int) Math.min(numEdges * 2L, Integer.MAX_VALUE - 8);
+         sources = java.util.Arrays.copyOf(sources, capacity);
+         targets = java.util.Arrays.copyOf(targets, capacity);
+         words = java.util.Arrays.copyOf(words, capacity);
+         amScores = java.util.Arrays.copyOf(amScores, capacity);
+         lmScores = java.util.Arrays.copyOf(lmScores, capacity);
+      }
+      sources[numEdges] = source;
+      targets[numEdges] = target;
+      words[numEdges] = random.nextDouble() < silenceRatio ? Vocabulary.SILENCE : wordIds[random.nextInt(vocabularySize)];
+      amScores[numEdges] = random.nextInt(500);
+      lmScores[numEdges] = random.nextInt(50);
+      numEdges++;
+   }
+
+   public int getNumNodes() {
+      return this.numNodes;
+   }
+
+   public int getNumEdges() {
+      generateEdges();
+      return this.numEdges;
+   }
+
+   public Lattice generate() {
+      generateEdges();
+      double[] nodeTimes = new double[numNodes];
+      for (int i = 0; i < numNodes; i++) {
+         nodeTimes[i] = i / 100.0;
+      }
+      return new Lattice("synthetic", 0, numNodes - 1, numEdges, nodeTimes, sources, targets, words, amScores, lmScores, numEdges);
+   }
+
+   /*
+   *  Streams the lattice to a file in the text format, without building it first.
+   */
+   public void write(String filename) throws IOException {
+      generateEdges();
+      java.text.DecimalFormat timeFormat = new java.text.DecimalFormat("0.00");
+      try (Writer writer = new BufferedWriter(new FileWriter(filename), 1 << 16)) {
+         writer.write("id synthetic\nstart 0\nend " + (numNodes - 1) + "\nnumNodes " + numNodes + "\nnumEdges " + numEdges + "\n");
+         for (int i = 0; i < numNodes; i++) {
+            writer.write("node " + i + " " + timeFormat.format(i / 100.0) + "\n");
+         }
+         for (int e = 0; e < numEdges; e++) {
+            writer.write("edge " + sources[e] + " " + targets[e] + " " + Vocabulary.getWord(words[e]) + " "
+                         + amScores[e] + " " + lmScores[e] + "\n");
+         }
+      }
+   }
+}
@@ -0,0 +1,109 @@
+/*
+ * Vocabulary.java
+ *
+ * Process-wide table of words. Every word gets a dense int id the first time it is seen,
+ * and lattices, edges and hypotheses carry those ids instead of Strings. Whether a word
+ * is -silence- and how a compound word such as "a_hat" splits into parts is worked out
+ * once, when the word is added.
+ *
+ * Lookups are lock-free; adding a new word takes a lock. Ids are never reused.
+ */
+
+package lattice;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Vocabulary {
+    public static final String SILENCE_WORD = "-silence-";
+    public static final int SILENCE = 0;                 // Id of SILENCE_WORD
+
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private static volatile String[] words = new String[1024];
+    private static volatile int[][] parts = new int[1024][];   // Ids each word shows as in a hypothesis
+    private static int size;
+
+    static {
+        getId(SILENCE_WORD);
+    }
+
+    private Vocabulary() {
+    }
+
+    // Id of the word, adding it to the vocabulary if it is new
+    public static int getId(String word) {
+        Integer id = ids.get(word);
+        return id != null ? id : add(word);
+    }
+
+    // Id of the word, or -1 if it has never been added
+    public static int findId(String word) {
+        Integer id = ids.get(word);
+        return id != null ? id : -1;
+    }
+
+    public static String getWord(int id) {
+        return words[id];
+    }
+
+    public static boolean isSilence(int id) {
+        return id == SILENCE;
+    }
+
+    public static boolean isCompound(int id) {
+        int[] wordParts = parts[id];
+        return id != SILENCE && (wordParts.length != 1 || wordParts[0] != id);
+    }
+
+    // The ids a hypothesis shows for this word: none for -silence-, the parts of a
+    // compound word, or the word itself. Shared, callers must not modify it.
+    public static int[] getParts(int id) {
+        return parts[id];
+    }
+
+    public static synchronized int size() {
+        return size;
+    }
+
+    /*
+    *  Fills in the word's entries before its id is published through the map, so a
+    *   thread that finds the id also sees the word and its flags.
+    */
+    private static synchronized int add(String word) {
+        Integer existing = ids.get(word);
+        if (existing != null) {
+            return existing;
+        }
+
+        int id = size;
+        if (id == words.length) {
+            parts = java.util.Arrays.copyOf(parts, id * 2);
+            words = java.util.Arrays.copyOf(words, id * 2);
+        }
+
+        int[] wordParts;
+        if (word.equals(SILENCE_WORD)) {
+            wordParts = new int[0];
+        }
+        else if (word.indexOf('_') >= 0) {
+            String[] pieces = word.split("_");
+            wordParts = new int[pieces.length];
+            for (int i = 0; i < pieces.length; i++) {
+                wordParts[i] = getId(pieces[i]);
+            }
+            id = size;                                   // The parts may have taken ids first
+            if (id == words.length) {
+                parts = java.util.Arrays.copyOf(parts, id * 2);
+                words = java.util.Arrays.copyOf(words, id * 2);
+            }
+        }
+        else {
+            wordParts = new int[] { id };
+        }
+
+        parts[id] = wordParts;
+        words[id] = word;
+        size = id + 1;
+        ids.put(word, id);
+        return id;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * WerScorer.java
+ *
+ * Word error rate scoring. Words are compared as Vocabulary ids, and the alignment is a
+ * Levenshtein distance that keeps two rows of the table, each cell carrying its
+ * substitution, insertion and deletion counts so the breakdown needs no backtrace.
+ * Rows grow as needed and are reused, so scoring allocates nothing per utterance.
+ *
+ * A scorer owns its scratch rows and is not thread-safe; forThread() hands out one per
+ * thread.
+ */
+
+package lattice;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+public class WerScorer {
+   private static final ThreadLocal<WerScorer> SCORERS = ThreadLocal.withInitial(WerScorer::new);
+
+   // Scratch rows: edit cost and the substitutions/insertions/deletions behind it
+   private int[] prevCost = new int[64], curCost = new int[64];
+   private int[] prevSub = new int[64], curSub = new int[64];
+   private int[] prevIns = new int[64], curIns = new int[64];
+   private int[] prevDel = new int[64], curDel = new int[64];
+   private int[] hypIds = new int[64], refIds = new int[64];
+
+   public static WerScorer forThread() {
+      return SCORERS.get();
+   }
+
+   // Vocabulary ids of the words, for scoring the same reference many times
+   public static int[] wordIds(List<String> words) {
+      int[] ids = new int[words.size()];
+      for (int i = 0; i < ids.length; i++) {
+         ids[i] = Vocabulary.getId(words.get(i));
+      }
+      return ids;
+   }
+
+   /*
+   *  Scores a hypothesis against a reference and adds the counts to 'into'.
+   */
+   public void score(List<String> hypothesis, List<String> reference, WerStats into) {
+      int hypLength = hypothesis.size();
+      if (hypIds.length < hypLength) {
+         hypIds = new int[hypLength * 2];
+      }
+      for (int i = 0; i < hypLength; i++) {
+         hypIds[i] = Vocabulary.getId(hypothesis.get(i));
+      }
+      score(hypIds, hypLength, reference, into);
+   }
+
+   public void score(int[] hyp, int hypLength, List<String> reference, WerStats into) {
+      int refLength = reference.size();
+      if (refIds.length < refLength) {
+         refIds = new int[refLength * 2];
+      }
+      for (int j = 0; j < refLength; j++) {
+         refIds[j] = Vocabulary.getId(reference.get(j));
+      }
+      score(hyp, hypLength, refIds, refLength, into);
+   }
+
+   public WerStats score(List<String> hypothesis, List<String> reference) {
+      WerStats stats = new WerStats();
+      score(hypothesis, reference, stats);
+      return stats;
+   }
+
+   /*
+   *  Aligns hyp[0 .. hypLength) to ref[0 .. refLength). Rows run along the reference;
+   *   moving down consumes a hypothesis word. On equal cost a diagonal step (match or
+   *   substitution) wins over a deletion, which wins over an insertion.
+   */
+   public void score(int[] hyp, int hypLength, int[] ref, int refLength, WerStats into) {
+      ensureRows(refLength + 1);
+
+      for (int j = 0; j <= refLength; j++) {
+         prevCost[j] = j;
+         prevSub[j] = 0;
+         prevIns[j] = 0;
+         prevDel[j] = j;
+      }
+      for (int i = 1; i <= hypLength; i++) {
+         curCost[0] = i;
+         curSub[0] = 0;
+         curIns[0] = i;
+         curDel[0] = 0;
+         for (int j = 1; j <= refLength; j++) {
+            int mismatch = hyp[i - 1] == ref[j - 1] ? 0 : 1;
+            int diagonal = prevCost[j - 1] + mismatch;
+            int deletion = curCost[j - 1] + 1;
+            int insertion = prevCost[j] + 1;
+
+            if (diagonal <= deletion && diagonal <= insertion) {
+               curCost[j] = diagonal;
+               curSub[j] = prevSub[j - 1] + mismatch;
+               curIns[j] = prevIns[j - 1];
+               curDel[j] = prevDel[j - 1];
+            }
+            else if (deletion <= insertion) {
+               curCost[j] = deletion;
+               curSub[j] = curSub[j - 1];
+               curIns[j] = curIns[j - 1];
+               curDel[j] = curDel[j - 1] + 1;
+            }
+            else {
+               curCost[j] = insertion;
+               curSub[j] = prevSub[j];
+               curIns[j] = prevIns[j] + 1;
+               curDel[j] = prevDel[j];
+            }
+         }
+         swapRows();
+      }
+
+      into.add(prevSub[refLength], prevIns[refLength], prevDel[refLength], refLength);
+   }
+
+   /*
+   *  Scores a whole test set in parallel, hypotheses.get(i) against references.get(i),
+   *   and returns the corpus totals.
+   */
+   public static WerStats scoreCorpus(List<List<String>> hypotheses, List<List<String>> references) {
+      return IntStream.range(0, hypotheses.size()).parallel()
+         .collect(WerStats::new, (stats, i) -> forThread().score(hypotheses.get(i), references.get(i), stats), WerStats::add);
+   }
+
+   private void ensureRows(int length) {
+      if (prevCost.length < length) {
+         int capacity = length * 2;
+         prevCost = new int[capacity];
+         curCost = new int[capacity];
+         prevSub = new int[capacity];
+         curSub = new int[capacity];
+         prevIns = new int[capacity];
+         curIns = new int[capacity];
+         prevDel = new int[capacity];
+         curDel = new int[capacity];
+      }
+   }
+
+   private void swapRows() {
+      int[] t;
+      t = prevCost; prevCost = curCost; curCost = t;
+      t = prevSub; prevSub = curSub; curSub = t;
+      t = prevIns; prevIns = curIns; curIns = t;
+      t = prevDel; prevDel = curDel; curDel = t;
+   }
+}
@@ -0,0 +1,92 @@
+/*
+ * WerStats.java
+ *
+ * Word error counts for one utterance or a whole corpus:
+ *   WER = (substitutions + insertions + deletions) / reference words
+ *
+ * add() is synchronized so that worker threads can fold their counts into one total.
+ */
+
+package lattice;
+
+public class WerStats {
+    private long substitutions, insertions, deletions;
+    private long referenceWords;
+    private long utterances;
+
+    public WerStats() {
+    }
+
+    public WerStats(long substitutions, long insertions, long deletions, long referenceWords) {
+        this.substitutions = substitutions;
+        this.insertions = insertions;
+        this.deletions = deletions;
+        this.referenceWords = referenceWords;
+        this.utterances = 1;
+    }
+
+    // Takes other's counts under its lock, then adds them under this one, so a.add(b) and b.add(a) cannot deadlock
+    public void add(WerStats other) {
+        long otherSubstitutions, otherInsertions, otherDeletions, otherReferenceWords, otherUtterances;
+        synchronized (other) {
+            otherSubstitutions = other.substitutions;
+            otherInsertions = other.insertions;
+            otherDeletions = other.deletions;
+            otherReferenceWords = other.referenceWords;
+            otherUtterances = other.utterances;
+        }
+        synchronized (this) {
+            this.substitutions += otherSubstitutions;
+            this.insertions += otherInsertions;
+            this.deletions += otherDeletions;
+            this.referenceWords += otherReferenceWords;
+            this.utterances += otherUtterances;
+        }
+    }
+
+    // Counts one more utterance, used by WerScorer to avoid allocating per utterance
+    synchronized void add(int substitutions, int insertions, int deletions, int referenceWords) {
+        this.substitutions += substitutions;
+        this.insertions += insertions;
+        this.deletions += deletions;
+        this.referenceWords += referenceWords;
+        this.utterances++;
+    }
+
+    public synchronized long getSubstitutions() {
+        return this.substitutions;
+    }
+
+    public synchronized long getInsertions() {
+        return this.insertions;
+    }
+
+    public synchronized long getDeletions() {
+        return this.deletions;
+    }
+
+    public synchronized long getErrors() {
+        return this.substitutions + this.insertions + this.deletions;
+    }
+
+    public synchronized long getReferenceWords() {
+        return this.referenceWords;
+    }
+
+    public synchronized long getUtterances() {
+        return this.utterances;
+    }
+
+    // An empty reference scores 0 if the hypothesis is empty too, otherwise every word is an error
+    public synchronized double getWER() {
+        if (referenceWords == 0) {
+            return getErrors() == 0 ? 0.0 : 1.0;
+        }
+        return (double) getErrors() / referenceWords;
+    }
+
+    public synchronized String toString() {
+        return String.format("%.2f%% (%d errors: %d sub, %d ins, %d del / %d words)",
+            100 * getWER(), getErrors(), substitutions, insertions, deletions, referenceWords);
+    }
+}
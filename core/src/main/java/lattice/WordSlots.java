@@ -0,0 +1,82 @@
+/*
+ * WordSlots.java
+ *
+ * Numbers the distinct Vocabulary ids met in one lattice 0, 1, 2, ... in order of first
+ * appearance, with open addressing over the ids. It grows with the lattice's own words,
+ * not with the Vocabulary, which a long-running process keeps growing.
+ */
+
+package lattice;
+
+import java.util.Arrays;
+
+final class WordSlots {
+   private int[] words;                     // Slot -> word id
+   private int[] table;                     // Hash position -> slot + 1, 0 if empty
+   private int size;
+
+   WordSlots(int expected) {
+      int capacity = 16;
+      while (capacity < 2 * expected) {
+         capacity <<= 1;
+      }
+      words = new int[capacity / 2];
+      table = new int[capacity];
+   }
+
+   // The slot of wordId, given the next free one if it has none yet
+   int add(int wordId) {
+      int mask = table.length - 1;
+      int h = hash(wordId, mask);
+      while (table[h] != 0) {
+         if (words[table[h] - 1] == wordId) {
+            return table[h] - 1;
+         }
+         h = (h + 1) & mask;
+      }
+      if (size == words.length) {
+         words = Arrays.copyOf(words, size * 2);
+      }
+      words[size] = wordId;
+      table[h] = ++size;
+      if (size * 2 > table.length) {
+         rehash();
+      }
+      return size - 1;
+   }
+
+   // The slot of wordId, -1 if it has none
+   int find(int wordId) {
+      int mask = table.length - 1;
+      for (int h = hash(wordId, mask); table[h] != 0; h = (h + 1) & mask) {
+         if (words[table[h] - 1] == wordId) {
+            return table[h] - 1;
+         }
+      }
+      return -1;
+   }
+
+   int size() {
+      return size;
+   }
+
+   int wordAt(int slot) {
+      return words[slot];
+   }
+
+   private void rehash() {
+      table = new int[table.length * 2];
+      int mask = table.length - 1;
+      for (int i = 0; i < size; i++) {
+         int h = hash(words[i], mask);
+         while (table[h] != 0) {
+            h = (h + 1) & mask;
+         }
+         table[h] = i + 1;
+      }
+   }
+
+   private static int hash(int wordId, int mask) {
+      return (int) ((wordId * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+   }
+}
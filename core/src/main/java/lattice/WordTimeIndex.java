@@ -0,0 +1,215 @@
+/*
+ * WordTimeIndex.java
+ *
+ * Answers "which words span time t" for one lattice. Each edge covers the interval
+ * [nodeTimes[source], nodeTimes[destination]]. Results are arrays of Vocabulary ids
+ * instead of sets of Strings.
+ *
+ * Intervals are sorted by start time and laid out as an implicit balanced search tree
+ * (the middle of every range is its root) with the largest end time of each subtree
+ * stored at its root. A single query skips every subtree that ends too early or starts
+ * too late. A sorted batch of queries is answered by one sweep instead: intervals enter
+ * a min-heap on their end time as the sweep passes their start and leave it once the
+ * sweep passes their end.
+ */
+
+package lattice;
+
+import java.util.Arrays;
+
+public class WordTimeIndex {
+   private final double[] starts, ends;    // Intervals sorted by start time
+   private final int[] slots;              // Word of each interval, numbered within this lattice
+   private final int[] slotWords;          // Vocabulary id of each of those words
+   private final double[] maxEnds;         // Largest end time in the subtree rooted at each position
+   private final int numWords;             // Distinct words in the index
+
+   // Scratch for deduplicating the words of one query, one entry per slot
+   private final int[] stamps;
+   private int stamp;
+
+   public WordTimeIndex(Lattice lattice) {
+      int edgeCount = lattice.getEdgeCount();
+      int[] edgeSources = lattice.getEdgeSources();
+      int[] edgeTargets = lattice.getEdgeTargets();
+      int[] edgeWords = lattice.getEdgeWords();
+      int[] order = new int[edgeCount];
+      double[] edgeStarts = new double[edgeCount];
+      int count = 0;
+
+      // Intervals that end before they start can never match a time and are left out.
+      for (int e = 0; e < edgeCount; e++) {
+         edgeStarts[e] = lattice.getNodeTime(edgeSources[e]);
+         if (edgeStarts[e] <= lattice.getNodeTime(edgeTargets[e])) {
+            order[count++] = e;
+         }
+      }
+      order = Arrays.copyOf(order, count);
+      sortByKey(order, edgeStarts);
+
+      starts = new double[count];
+      ends = new double[count];
+      slots = new int[count];
+      WordSlots words = new WordSlots(Math.min(count, 1024));
+      for (int i = 0; i < count; i++) {
+         int e = order[i];
+         starts[i] = edgeStarts[e];
+         ends[i] = lattice.getNodeTime(edgeTargets[e]);
+         slots[i] = words.add(edgeWords[e]);
+      }
+
+      numWords = words.size();
+      slotWords = new int[numWords];
+      for (int w = 0; w < numWords; w++) {
+         slotWords[w] = words.wordAt(w);
+      }
+      stamps = new int[numWords];
+      maxEnds = new double[count];
+      fillMaxEnds(0, count);
+   }
+
+   private double fillMaxEnds(int lo, int hi) {
+      if (lo >= hi) {
+         return Double.NEGATIVE_INFINITY;
+      }
+      int mid = (lo + hi) >>> 1;
+      maxEnds[mid] = Math.max(ends[mid], Math.max(fillMaxEnds(lo, mid), fillMaxEnds(mid + 1, hi)));
+      return maxEnds[mid];
+   }
+
+   public int getNumWords() {
+      return this.numWords;
+   }
+
+   public String getWord(int wordId) {
+      return Vocabulary.getWord(wordId);
+   }
+
+   /*
+   *  Ids of the distinct words whose edges span the given time, inclusive at both ends.
+   */
+   public synchronized int[] wordsAtTime(double time) {
+      int[] result = new int[Math.max(Math.min(numWords, 16), 1)];
+      int[] count = new int[1];
+
+      nextStamp();
+      result = collect(0, starts.length, time, result, count);
+      return Arrays.copyOf(result, count[0]);
+   }
+
+   private int[] collect(int lo, int hi, double time, int[] result, int[] count) {
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (maxEnds[mid] < time) {
+            return result;
+         }
+         result = collect(lo, mid, time, result, count);
+         if (starts[mid] > time) {
+            return result;
+         }
+         if (ends[mid] >= time && stamps[slots[mid]] != stamp) {
+            stamps[slots[mid]] = stamp;
+            if (count[0] == result.length) {
+               result = Arrays.copyOf(result, result.length * 2);
+            }
+            result[count[0]++] = slotWords[slots[mid]];
+         }
+         lo = mid + 1;
+      }
+      return result;
+   }
+
+   /*
+   *  Answers a whole vector of query times, which must be in ascending order, with one
+   *   sweep over the intervals. Element q of the result holds the word ids for times[q].
+   */
+   public synchronized int[][] wordsAtTimes(double[] times) {
+      int[][] results = new int[times.length][];
+      int[] heap = new int[Math.max(starts.length, 1)];
+      int heapSize = 0;
+      int[] buffer = new int[numWords];
+      int next = 0;
+
+      for (int q = 0; q < times.length; q++) {
+         double time = times[q];
+         if (q > 0 && time < times[q - 1]) {
+            throw new IllegalArgumentException("query times must be sorted");
+         }
+         while (next < starts.length && starts[next] <= time) {
+            heapSize = heapPush(heap, heapSize, next++);
+         }
+         while (heapSize > 0 && ends[heap[0]] < time) {
+            heapSize = heapPop(heap, heapSize);
+         }
+
+         int count = 0;
+         nextStamp();
+         for (int h = 0; h < heapSize; h++) {
+            int slot = slots[heap[h]];
+            if (stamps[slot] != stamp) {
+               stamps[slot] = stamp;
+               buffer[count++] = slotWords[slot];
+            }
+         }
+         results[q] = Arrays.copyOf(buffer, count);
+      }
+      return results;
+   }
+
+   private void nextStamp() {
+      if (++stamp == Integer.MAX_VALUE) {
+         Arrays.fill(stamps, 0);
+         stamp = 1;
+      }
+   }
+
+   private int heapPush(int[] heap, int size, int interval) {
+      int i = size;
+      while (i > 0 && ends[heap[(i - 1) / 2]] > ends[interval]) {
+         heap[i] = heap[(i - 1) / 2];
+         i = (i - 1) / 2;
+      }
+      heap[i] = interval;
+      return size + 1;
+   }
+
+   private int heapPop(int[] heap, int size) {
+      int last = heap[--size];
+      int i = 0;
+      while (2 * i + 1 < size) {
+         int child = 2 * i + 1;
+         if (child + 1 < size && ends[heap[child + 1]] < ends[heap[child]]) {
+            child++;
+         }
+         if (ends[heap[child]] >= ends[last]) {
+            break;
+         }
+         heap[i] = heap[child];
+         i = child;
+      }
+      heap[i] = last;
+      return size;
+   }
+
+   // Stable merge sort of indices by key[index].
+   static void sortByKey(int[] indices, double[] key) {
+      int[] scratch = new int[indices.length];
+      for (int width = 1; width < indices.length; width *= 2) {
+         for (int lo = 0; lo < indices.length; lo += 2 * width) {
+            int mid = Math.min(lo + width, indices.length);
+            int hi = Math.min(lo + 2 * width, indices.length);
+            int i = lo, j = mid, k = lo;
+            while (i < mid && j < hi) {
+               scratch[k++] = key[indices[j]] < key[indices[i]] ? indices[j++] : indices[i++];
+            }
+            while (i < mid) {
+               scratch[k++] = indices[i++];
+            }
+            while (j < hi) {
+               scratch[k++] = indices[j++];
+            }
+         }
+         System.arraycopy(scratch, 0, indices, 0, indices.length);
+      }
+   }
+}
@@ -0,0 +1,48 @@
+/*
+ * AsyncOutputWriterTest.java
+ *
+ * Jobs run in submission order, a job's IOException comes back from close(), and a
+ * closed writer takes no more jobs.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class AsyncOutputWriterTest {
+   @Test
+   void jobsRunInSubmissionOrder() throws IOException {
+      List<Integer> done = new ArrayList<Integer>();
+      try (AsyncOutputWriter output = new AsyncOutputWriter(2)) {
+         for (int i = 0; i < 100; i++) {
+            int job = i;
+            output.submit(() -> done.add(job));
+         }
+      }
+      assertEquals(100, done.size());
+      for (int i = 0; i < 100; i++) {
+         assertEquals(i, done.get(i));
+      }
+   }
+
+   @Test
+   void failureIsRethrownByClose() {
+      AsyncOutputWriter output = new AsyncOutputWriter(4);
+      output.submit(() -> { throw new IOException("disk full"); });
+      IOException e = assertThrows(IOException.class, output::close);
+      assertTrue(e.getMessage().contains("disk full"));
+   }
+
+   @Test
+   void submitAfterCloseIsRefused() throws IOException {
+      AsyncOutputWriter output = new AsyncOutputWriter(4);
+      output.close();
+      assertThrows(IllegalStateException.class, () -> output.submit(() -> { }));
+      output.close();
+   }
+}
@@ -0,0 +1,99 @@
+/*
+ * BinaryLatticeTest.java
+ *
+ * Writes the sample lattices in the binary format, maps them back and compares them
+ * with the text originals.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class BinaryLatticeTest {
+   @TempDir
+   Path directory;
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void mappedFileReadsBackAsTheTextLattice(String latticeFilename) throws Exception {
+      Lattice lattice = new Lattice(latticeFilename);
+      String binaryFilename = directory.resolve(new File(latticeFilename).getName() + ".bin").toString();
+      BinaryLattice.write(lattice, binaryFilename);
+
+      BinaryLattice binary = BinaryLattice.map(binaryFilename);
+      assertEquals(lattice.getUtteranceID(), binary.getUtteranceID());
+      assertEquals(lattice.getNumNodes(), binary.getNumNodes());
+      assertEquals(lattice.getNumEdges(), binary.getNumEdges());
+      assertEquals(lattice.getEdgeCount(), binary.getEdgeCount());
+      assertEquals(lattice.getStartIdx(), binary.getStartIdx());
+      assertEquals(lattice.getEndIdx(), binary.getEndIdx());
+      for (int e = 0; e < lattice.getEdgeCount(); e++) {
+         assertEquals(lattice.getEdgeTarget(e), binary.getEdgeTargets().get(e));
+         assertEquals(lattice.getEdge(e).getLabel(), binary.getLabel(binary.getEdgeLabelIds().get(e)));
+      }
+
+      Lattice loaded = binary.toLattice();
+      assertEquals(lattice.toString(), loaded.toString());
+      for (double lmScale : new double[] { 1.0, 10.0 }) {
+         Hypothesis expected = lattice.decode(lmScale), actual = loaded.decode(lmScale);
+         assertEquals(expected.getHypothesisString(), actual.getHypothesisString());
+         assertEquals(expected.getPathScore(), actual.getPathScore());
+      }
+      assertEquals(lattice.countAllPaths(), loaded.countAllPaths());
+   }
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void encodedBufferWrapsLikeTheFile(String latticeFilename) throws Exception {
+      Lattice lattice = new Lattice(latticeFilename);
+      assertEquals(lattice.toString(), BinaryLattice.wrap(BinaryLattice.encode(lattice), latticeFilename).toLattice().toString());
+   }
+
+   @Test
+   void targetOutsideTheLatticeIsAFormatError() throws Exception {
+      Lattice lattice = new Lattice("latticeFile1.lattice");
+      ByteBuffer buffer = BinaryLattice.encode(lattice);
+      assertEquals(lattice.getEdgeTarget(0), buffer.getInt(targetsPosition(lattice)));
+      buffer.putInt(targetsPosition(lattice), lattice.getNumNodes() + 5);
+      IOException e = assertThrows(IOException.class, () -> BinaryLattice.wrap(buffer, "test").toLattice());
+      assertTrue(e.getMessage().startsWith("test is corrupt"));
+   }
+
+   @Test
+   void decreasingOffsetsAreAFormatError() throws Exception {
+      Lattice lattice = new Lattice("latticeFile1.lattice");
+      ByteBuffer buffer = BinaryLattice.encode(lattice);
+      int offsets = targetsPosition(lattice) - align(4 * (lattice.getNumNodes() + 1));
+      buffer.putInt(offsets + 4, lattice.getEdgeCount() + 1);
+      assertThrows(IOException.class, () -> BinaryLattice.wrap(buffer, "test").toLattice());
+   }
+
+   @Test
+   void labelNumberOutOfRangeIsAFormatError() throws Exception {
+      Lattice lattice = new Lattice("latticeFile1.lattice");
+      ByteBuffer buffer = BinaryLattice.encode(lattice);
+      int labels = targetsPosition(lattice) + align(4 * lattice.getEdgeCount());
+      buffer.putInt(labels, 1 << 20);
+      assertThrows(IOException.class, () -> BinaryLattice.wrap(buffer, "test").toLattice());
+   }
+
+   // Byte position of the edgeTargets section, following the layout in BinaryLattice
+   private static int targetsPosition(Lattice lattice) {
+      int pos = align(32 + 4 + lattice.getUtteranceID().getBytes(java.nio.charset.StandardCharsets.UTF_8).length);
+      pos = align(pos + 8 * lattice.getNumNodes());
+      return align(pos + 4 * (lattice.getNumNodes() + 1));
+   }
+
+   private static int align(int pos) {
+      return (pos + 7) & ~7;
+   }
+}
@@ -0,0 +1,44 @@
+/*
+ * CompactLatticeTest.java
+ *
+ * A CompactLattice must decode, count paths and measure density exactly as the Lattice
+ * it was built from, and give that lattice back.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.stream.Stream;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+class CompactLatticeTest {
+   static Stream<Lattice> lattices() {
+      return Stream.of(new Lattice("latticeFile1.lattice"), new Lattice("latticeFile2.lattice"),
+                       new SyntheticLatticeGenerator(2000, 3, 1000, 0.1, 42).generate(),
+                       new SyntheticLatticeGenerator(2000, 3, 1000, 0.1, 42, 16).generate());
+   }
+
+   @ParameterizedTest
+   @MethodSource("lattices")
+   void sameResultsAsTheLattice(Lattice lattice) {
+      CompactLattice compact = new CompactLattice(lattice);
+      for (double lmScale : new double[] { 1.0, 10.0 }) {
+         Hypothesis expected = lattice.decode(lmScale), actual = compact.decode(lmScale);
+         assertEquals(expected.getHypothesisString(), actual.getHypothesisString());
+         assertEquals(expected.getPathScore(), actual.getPathScore());
+      }
+      assertEquals(lattice.countAllPaths(), compact.countAllPaths());
+      assertEquals(lattice.getLatticeDensity(), compact.getLatticeDensity());
+      assertEquals(lattice.getEdgeCount(), compact.getEdgeCount());
+   }
+
+   @ParameterizedTest
+   @MethodSource("lattices")
+   void givesTheLatticeBack(Lattice lattice) {
+      CompactLattice compact = new CompactLattice(lattice);
+      assertEquals(lattice.toString(), compact.toLattice().toString());
+      assertTrue(compact.getByteSize() < CompactLattice.arrayBytes(lattice));
+   }
+}
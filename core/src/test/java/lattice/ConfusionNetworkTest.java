@@ -0,0 +1,71 @@
+/*
+ * ConfusionNetworkTest.java
+ *
+ * Slots are distributions: their entries never sum to more than 1, also when one path
+ * puts several edges into a slot, and the dot labels show posteriors as toString does.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import org.junit.jupiter.api.Test;
+
+class ConfusionNetworkTest {
+   // The pivot a covers 0 .. 1; the path b c spends both its edges in that one slot
+   private static final String TWO_EDGES_IN_ONE_SLOT = String.join("\n",
+         "id split", "start 0", "end 1", "numNodes 3", "numEdges 3",
+         "node 0 0.00", "node 1 1.00", "node 2 0.50",
+         "edge 0 1 a 10 0", "edge 0 2 b 6 0", "edge 2 1 c 6 0", "");
+
+   @Test
+   void slotWithTwoEdgesOfOnePathIsNormalized() throws Exception {
+      Lattice lattice = new LatticeParser().parse(TWO_EDGES_IN_ONE_SLOT.getBytes(StandardCharsets.UTF_8), "split");
+      ConfusionNetwork network = new ConfusionNetwork(lattice, 1.0, 1.0);
+      assertEquals(1, network.getNumSlots());
+      assertEquals(1.0, slotSum(network, 0), 1e-9);
+      for (int k = 0; k < network.getNumEntries(0); k++) {
+         assertNotEquals(Vocabulary.SILENCE, network.getEntryWordId(0, k));
+      }
+   }
+
+   @Test
+   void slotsOfSampleLatticesSumToAtMostOne() {
+      for (String latticeFilename : new String[] { "latticeFile1.lattice", "latticeFile2.lattice" }) {
+         ConfusionNetwork network = new Lattice(latticeFilename).buildConfusionNetwork(10.0);
+         for (int s = 0; s < network.getNumSlots(); s++) {
+            double sum = slotSum(network, s);
+            assertTrue(sum <= 1 + 1e-9 && sum >= 1 - network.getNumEntries(s) * ConfusionNetwork.MIN_POSTERIOR - 1e-3,
+                       latticeFilename + " slot " + s + " sums to " + sum);
+         }
+      }
+   }
+
+   @Test
+   void dotLabelsUseThePosteriorFormatOfToString() throws Exception {
+      ConfusionNetwork network = new Lattice("latticeFile1.lattice").buildConfusionNetwork(1.0);
+      StringWriter dot = new StringWriter();
+      LatticeWriter writer = new LatticeWriter(dot);
+      writer.writeDot(network);
+      writer.flush();
+      DecimalFormat format = new DecimalFormat(ConfusionNetwork.POSTERIOR_PATTERN);
+      for (int s = 0; s < network.getNumSlots(); s++) {
+         for (int k = 0; k < network.getNumEntries(s); k++) {
+            String label = network.getEntryWord(s, k) + "/" + format.format(network.getEntryPosterior(s, k));
+            assertTrue(dot.toString().contains(label), label);
+            assertTrue(network.toString().contains(network.getEntryWord(s, k) + ":" + format.format(network.getEntryPosterior(s, k))));
+         }
+      }
+   }
+
+   private static double slotSum(ConfusionNetwork network, int slot) {
+      double sum = 0;
+      for (int k = 0; k < network.getNumEntries(slot); k++) {
+         sum += network.getEntryPosterior(slot, k);
+      }
+      return sum;
+   }
+}
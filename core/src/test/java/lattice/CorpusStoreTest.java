@@ -0,0 +1,175 @@
+/*
+ * CorpusStoreTest.java
+ *
+ * Appends small lattices to stores in a temporary directory and reads them back:
+ * lookups by ID, IDs appended again, segments rolling over, reopening and appending
+ * to an existing store, and records left behind by an appender never closed.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CorpusStoreTest {
+   @TempDir
+   Path directory;
+
+   @Test
+   void findsPresentAndAbsentIDs() throws IOException {
+      String corpus = directory.resolve("corpus").toString();
+      try (CorpusStore.Appender appender = CorpusStore.append(corpus)) {
+         appender.add(lattice("b", "bee"), "ref b");
+         appender.add(lattice("a", "ay"), "ref a");
+         appender.add(new Lattice("latticeFile1.lattice"), "file one");
+         appender.add(lattice("c", "see"), "ref c");
+      }
+      CorpusStore store = CorpusStore.open(corpus);
+      assertEquals(4, store.size());
+      assertStorageOrder(store, "b", "a", new Lattice("latticeFile1.lattice").getUtteranceID(), "c");
+
+      assertEquals(1, store.find("a"));
+      assertEquals(0, store.find("b"));
+      assertEquals(3, store.find("c"));
+      assertEquals("ref c", store.getReference("c"));
+      assertEquals("ay", store.getLattice("a").getEdge(0).getLabel());
+      Lattice file = new Lattice("latticeFile1.lattice");
+      assertEquals(file.toString(), store.getLattice(file.getUtteranceID()).toString());
+      assertEquals("file one", store.getReference(2));
+
+      for (String absent : new String[] { "", "0", "aa", "bb", "d", "é" }) {
+         assertEquals(-1, store.find(absent), absent);
+         assertNull(store.getLattice(absent));
+         assertNull(store.getReference(absent));
+      }
+   }
+
+   // The new record of an ID goes to the end; the others keep their order
+   @Test
+   void appendingAnIDAgainReplacesItsRecord() throws IOException {
+      String corpus = directory.resolve("corpus").toString();
+      try (CorpusStore.Appender appender = CorpusStore.append(corpus)) {
+         appender.add(lattice("a", "old"), "old a");
+         appender.add(lattice("b", "old"), "old b");
+         appender.add(lattice("c", "old"), "old c");
+         appender.add(lattice("b", "new"), "new b");
+      }
+      CorpusStore store = CorpusStore.open(corpus);
+      assertStorageOrder(store, "a", "c", "b");
+      assertEquals("new", store.getLattice("b").getEdge(0).getLabel());
+      assertEquals("new b", store.getReference("b"));
+
+      try (CorpusStore.Appender appender = CorpusStore.append(corpus)) {
+         appender.add(lattice("a", "newest"), "newest a");
+      }
+      store = CorpusStore.open(corpus);
+      assertStorageOrder(store, "c", "b", "a");
+      assertEquals("newest", store.getLattice("a").getEdge(0).getLabel());
+      assertEquals("old c", store.getReference("c"));
+   }
+
+   @Test
+   void recordsRollOverIntoNewSegments() throws IOException {
+      String corpus = directory.resolve("corpus").toString();
+      try (CorpusStore.Appender appender = CorpusStore.append(corpus)) {
+         appender.add(lattice("probe", "w"), "");
+      }
+      int recordBytes = CorpusStore.open(corpus).getRecordBytes(0);
+
+      // Room for the segment header and two records, padding included
+      String small = directory.resolve("small").toString();
+      long maxSegmentBytes = 16 + 2 * ((recordBytes + 7) & ~7) + 8;
+      try (CorpusStore.Appender appender = new CorpusStore.Appender(small, maxSegmentBytes)) {
+         for (int i = 0; i < 7; i++) {
+            appender.add(lattice("u" + i, "w"), "");
+         }
+      }
+      assertEquals(4, segmentCount(small));
+      try (CorpusStore.Appender appender = new CorpusStore.Appender(small, maxSegmentBytes)) {
+         appender.add(lattice("u7", "w"), "");
+         appender.add(lattice("u8", "w"), "");
+      }
+      assertEquals(5, segmentCount(small));
+
+      CorpusStore store = CorpusStore.open(small);
+      assertEquals(9, store.size());
+      for (int i = 0; i < 9; i++) {
+         assertEquals(i, store.find("u" + i));
+         assertEquals("u" + i, store.getLattice(i).getUtteranceID());
+      }
+
+      try (CorpusStore.Appender appender = new CorpusStore.Appender(directory.resolve("tiny").toString(), recordBytes)) {
+         assertThrows(IOException.class, () -> appender.add(lattice("big", "w"), ""));
+      }
+   }
+
+   @Test
+   void reopenedStoreKeepsItsRecords() throws IOException {
+      String corpus = directory.resolve("corpus").toString();
+      try (CorpusStore.Appender appender = CorpusStore.append(corpus)) {
+         appender.add(new Lattice("latticeFile1.lattice"), "one");
+      }
+      CorpusStore before = CorpusStore.open(corpus);
+      try (CorpusStore.Appender appender = CorpusStore.append(corpus)) {
+         appender.add(new Lattice("latticeFile2.lattice"), "two");
+      }
+      assertEquals(1, before.size());
+
+      CorpusStore store = CorpusStore.open(corpus);
+      assertEquals(2, store.size());
+      assertEquals(new Lattice("latticeFile1.lattice").toString(), store.getLattice(0).toString());
+      assertEquals(new Lattice("latticeFile2.lattice").toString(), store.getLattice(1).toString());
+      assertEquals("one", store.getReference(0));
+      assertEquals("two", store.getReference(1));
+      assertEquals(before.getRecordBytes(0), store.getRecordBytes(0));
+   }
+
+   @Test
+   void recordsOfAnUnclosedAppenderAreIgnored() throws IOException {
+      String corpus = directory.resolve("corpus").toString();
+      try (CorpusStore.Appender appender = CorpusStore.append(corpus)) {
+         appender.add(lattice("kept", "w"), "kept");
+      }
+      CorpusStore.Appender abandoned = CorpusStore.append(corpus);
+      abandoned.add(lattice("lost", "w"), "lost");
+      abandoned.add(lattice("kept", "replaced"), "replaced");
+
+      CorpusStore store = CorpusStore.open(corpus);
+      assertEquals(1, store.size());
+      assertEquals(-1, store.find("lost"));
+      assertEquals("kept", store.getReference("kept"));
+
+      // A later appender writes past the abandoned bytes
+      try (CorpusStore.Appender appender = CorpusStore.append(corpus)) {
+         appender.add(lattice("later", "w"), "later");
+      }
+      store = CorpusStore.open(corpus);
+      assertStorageOrder(store, "kept", "later");
+      assertEquals("w", store.getLattice("kept").getEdge(0).getLabel());
+      assertEquals("later", store.getReference("later"));
+   }
+
+   private static Lattice lattice(String id, String word) throws LatticeFormatException {
+      return LatticePaths.parse(id, 0, 1, new double[] { 0.0, 0.5 }, "0 1 " + word + " 10 2");
+   }
+
+   private static void assertStorageOrder(CorpusStore store, String... ids) {
+      assertEquals(ids.length, store.size());
+      for (int record = 0; record < ids.length; record++) {
+         assertEquals(ids[record], store.getUtteranceID(record));
+         assertEquals(record, store.find(ids[record]));
+      }
+   }
+
+   private static long segmentCount(String corpus) throws IOException {
+      try (Stream<Path> files = Files.list(Path.of(corpus))) {
+         return files.filter(file -> file.getFileName().toString().startsWith("segment-")).count();
+      }
+   }
+}
@@ -0,0 +1,46 @@
+/*
+ * KeywordIndexTest.java
+ *
+ * Utterance numbers follow the order hits are added in, whatever order they were
+ * built in, and a lattice's own hits answer word queries like the corpus index.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class KeywordIndexTest {
+   @Test
+   void utterancesAreNumberedInOrderOfAddition() {
+      Lattice first = new Lattice("latticeFile1.lattice"), second = new Lattice("latticeFile2.lattice");
+      KeywordIndex.Hits secondHits = new KeywordIndex.Hits(second, second.computePosteriors(10.0));
+      KeywordIndex.Hits firstHits = new KeywordIndex.Hits(first, first.computePosteriors(10.0));
+      KeywordIndex index = new KeywordIndex();
+
+      assertEquals(0, index.add(firstHits));
+      assertEquals(1, index.add(secondHits));
+      assertEquals(first.getUtteranceID(), index.getUtteranceID(0));
+      assertEquals(second.getUtteranceID(), index.getUtteranceID(1));
+      assertArrayEquals(first.getSortedHits("-silence-"), index.getSortedHits("-silence-", 0));
+      assertArrayEquals(second.getSortedHits("-silence-"), index.getSortedHits("-silence-", 1));
+   }
+
+   @Test
+   void hitsAreSortedByTime() {
+      Lattice lattice = new SyntheticLatticeGenerator(2000, 3, 20, 0.1, 42).generate();
+      KeywordIndex index = new KeywordIndex();
+      index.add(lattice, null);
+      for (int e = 0; e < lattice.getEdgeCount(); e++) {
+         String word = lattice.getEdge(e).getLabel();
+         double[] hits = lattice.getSortedHits(word);
+         for (int i = 1; i < hits.length; i++) {
+            assertTrue(hits[i - 1] <= hits[i]);
+         }
+         assertArrayEquals(index.getSortedHits(word, 0), hits);
+         assertEquals(hits.length, index.getCount(word));
+      }
+      assertEquals(0, lattice.getSortedHits("no-such-word-in-any-lattice").length);
+   }
+}
@@ -0,0 +1,113 @@
+/*
+ * LatticeBuilderTest.java
+ *
+ * Replays lattices into a builder one edge at a time. The streamed best path must be
+ * decode's, ties included, at the end and at every frontier on the way.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LatticeBuilderTest {
+   private static final double[] LM_SCALES = { 0.0, 1.0, 10.0 };
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void streamedInTimeOrderEqualsDecode(String latticeFilename) {
+      Lattice lattice = new Lattice(latticeFilename);
+      for (double lmScale : LM_SCALES) {
+         LatticeBuilder builder = replay(lattice, lmScale, timeOrder(lattice), true);
+         assertSameHypothesis(lattice.decode(lmScale), builder.decode(lattice.getEndIdx()));
+      }
+   }
+
+   // Edges in file order arrive before their sources are reached, so improvements are pushed on
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void streamedInFileOrderEqualsDecode(String latticeFilename) {
+      Lattice lattice = new Lattice(latticeFilename);
+      for (double lmScale : LM_SCALES) {
+         LatticeBuilder builder = replay(lattice, lmScale, fileOrder(lattice), false);
+         assertSameHypothesis(lattice.decode(lmScale), builder.decode(lattice.getEndIdx()));
+      }
+   }
+
+   // Every path costs the same at every scale, and edges arrive in file order
+   @Test
+   void tiesGoWhereDecodeSendsThem() throws Exception {
+      Lattice lattice = LatticePaths.parse("ties", 0, 3, new double[] { 0.0, 0.1, 0.2, 0.3 },
+            "1 3 d 10 1", "0 1 a 10 1", "2 3 e 15 -4", "0 2 c 5 6", "0 1 b 10 1", "1 3 f 10 1");
+      for (double lmScale : LM_SCALES) {
+         assertSameHypothesis(lattice.decode(lmScale), replay(lattice, lmScale, fileOrder(lattice), false).decode(3));
+         assertSameHypothesis(lattice.decode(lmScale), replay(lattice, lmScale, timeOrder(lattice), false).decode(3));
+      }
+   }
+
+   @Test
+   void syntheticLatticeEqualsDecode() {
+      // Integer scores over thousands of paths: many partial paths cost the same
+      Lattice lattice = new SyntheticLatticeGenerator(2000, 3, 5, 0.1, 7).generate();
+      for (double lmScale : LM_SCALES) {
+         LatticeBuilder builder = replay(lattice, lmScale, timeOrder(lattice), false);
+         assertSameHypothesis(lattice.decode(lmScale), builder.decode(lattice.getEndIdx()));
+         assertSameHypothesis(lattice.decode(lmScale), builder.toLattice(lattice.getEndIdx()).decode(lmScale));
+      }
+   }
+
+   @Test
+   void unreachedNodeHasNoBestPath() {
+      LatticeBuilder builder = new LatticeBuilder("partial", 0, 1.0);
+      builder.addNode(0.0);
+      builder.addNode(0.1);
+      assertEquals(0, builder.getFrontier());
+      assertThrows(IllegalStateException.class, () -> builder.bestTo(1));
+   }
+
+   /*
+   *  Adds the nodes and then the edges in the given order. With checkFrontier, the best
+   *   path to the frontier after every edge must be what decode finds on the lattice
+   *   built so far.
+   */
+   private static LatticeBuilder replay(Lattice lattice, double lmScale, int[] order, boolean checkFrontier) {
+      LatticeBuilder builder = new LatticeBuilder(lattice.getUtteranceID(), lattice.getStartIdx(), lmScale);
+      for (int node = 0; node < lattice.getNumNodes(); node++) {
+         builder.addNode(lattice.getNodeTime(node));
+      }
+      for (int e : order) {
+         Edge edge = lattice.getEdge(e);
+         builder.addEdge(lattice.getEdgeSource(e), lattice.getEdgeTarget(e), edge.getWordId(), edge.getAmScore(), edge.getLmScore());
+         if (checkFrontier && builder.getFrontier() != lattice.getStartIdx()) {
+            assertSameHypothesis(builder.toLattice(builder.getFrontier()).decode(lmScale), builder.currentBest());
+         }
+      }
+      return builder;
+   }
+
+   private static int[] timeOrder(Lattice lattice) {
+      int[] order = fileOrder(lattice);
+      double[] endTimes = new double[order.length];
+      for (int e = 0; e < order.length; e++) {
+         endTimes[e] = lattice.getNodeTime(lattice.getEdgeTarget(e));
+      }
+      WordTimeIndex.sortByKey(order, endTimes);
+      return order;
+   }
+
+   private static int[] fileOrder(Lattice lattice) {
+      int[] order = new int[lattice.getEdgeCount()];
+      for (int e = 0; e < order.length; e++) {
+         order[e] = e;
+      }
+      return order;
+   }
+
+   private static void assertSameHypothesis(Hypothesis expected, Hypothesis actual) {
+      assertEquals(expected.getHypothesisString(), actual.getHypothesisString());
+      assertEquals(expected.getPathScore(), actual.getPathScore());
+   }
+}
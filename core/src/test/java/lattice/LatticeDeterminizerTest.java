@@ -0,0 +1,99 @@
+/*
+ * LatticeDeterminizerTest.java
+ *
+ * The determinized lattice must hold the same word sequences as the input, each on one
+ * path with the best score any of its input paths had, and decode to the input's best
+ * path. Where several word sequences tie for best, the documented tie-break of the
+ * weights may pick another of them, so only the score has to match.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LatticeDeterminizerTest {
+   private static final double[] LM_SCALES = { 0.0, 1.0, 10.0 };
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void sampleLatticesKeepTheirWordSequences(String latticeFilename) {
+      Lattice lattice = new Lattice(latticeFilename);
+      for (double lmScale : LM_SCALES) {
+         assertEquivalent(lattice, lmScale);
+      }
+   }
+
+   // Words aligned to two nearby boundaries: 10 paths over 4 word sequences
+   @Test
+   void redundantAlignmentsCollapse() throws Exception {
+      Lattice lattice = LatticePaths.parse("aligned", 0, 5, new double[] { 0.0, 0.10, 0.11, 0.20, 0.21, 0.30 },
+            "0 1 a 10 1", "0 2 a 12 1",
+            "1 3 b 20 2", "1 4 b 21 2", "2 3 b 20 2", "2 4 b 22 2",
+            "1 3 c 25 1", "2 4 c 24 1",
+            "3 5 d 5 3", "4 5 d 6 3", "3 5 -silence- 9 0", "4 5 -silence- 8 0");
+      for (double lmScale : LM_SCALES) {
+         LatticeDeterminizer determinizer = new LatticeDeterminizer(lattice, lmScale);
+         assertTrue(determinizer.isComplete());
+         assertEquals(4, determinizer.getLattice().countAllPaths().intValue());
+         assertEquivalent(lattice, lmScale);
+      }
+   }
+
+   @Test
+   void stateLimitLeavesTheLatticeUnchanged() {
+      Lattice lattice = new Lattice("latticeFile2.lattice");
+      LatticeDeterminizer determinizer = new LatticeDeterminizer(lattice, 10.0, 1);
+      assertFalse(determinizer.isComplete());
+      assertSame(lattice, determinizer.getLattice());
+   }
+
+   private static void assertEquivalent(Lattice lattice, double lmScale) {
+      LatticeDeterminizer determinizer = new LatticeDeterminizer(lattice, lmScale);
+      assertTrue(determinizer.isComplete());
+      Lattice result = determinizer.getLattice();
+
+      Map<String, Double> expected = bestBySequence(lattice, lmScale, false);
+      Map<String, Double> actual = bestBySequence(result, lmScale, true);
+      assertEquals(expected.keySet(), actual.keySet());
+      for (String sequence : expected.keySet()) {
+         assertEquals(expected.get(sequence), actual.get(sequence), 1e-9, sequence);
+      }
+
+      Hypothesis before = lattice.decode(lmScale), after = result.decode(lmScale);
+      assertEquals(before.getPathScore(), after.getPathScore(), 1e-9);
+      List<String> bestHypotheses = new ArrayList<String>();
+      for (LatticePaths.Path path : LatticePaths.all(lattice, lmScale)) {
+         if (Math.abs(path.score() - before.getPathScore()) <= 1e-9 && !bestHypotheses.contains(path.words())) {
+            bestHypotheses.add(path.words());
+         }
+      }
+      if (bestHypotheses.size() == 1) {
+         assertEquals(before.getHypothesisString(), after.getHypothesisString());
+      }
+      else {
+         assertTrue(bestHypotheses.contains(after.getHypothesisString()), after.getHypothesisString());
+      }
+   }
+
+   // Best score of every sequence of edge words; with unique, each must have one path
+   private static Map<String, Double> bestBySequence(Lattice lattice, double lmScale, boolean unique) {
+      Map<String, Double> best = new HashMap<String, Double>();
+      for (LatticePaths.Path path : LatticePaths.all(lattice, lmScale)) {
+         StringBuilder sequence = new StringBuilder();
+         for (int e : path.edges) {
+            sequence.append(Vocabulary.getWord(lattice.getEdgeWords()[e])).append(' ');
+         }
+         Double previous = best.put(sequence.toString(), path.score());
+         if (previous != null) {
+            assertFalse(unique, "two paths for " + sequence);
+            best.put(sequence.toString(), Math.min(previous, path.score()));
+         }
+      }
+      return best;
+   }
+}
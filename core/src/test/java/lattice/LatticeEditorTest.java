@@ -0,0 +1,88 @@
+/*
+ * LatticeEditorTest.java
+ *
+ * Random edits through a LatticeEditor, each checked against a full decode and path
+ * count of the edited lattice.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LatticeEditorTest {
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void editsAgreeWithFullDecodeOfSampleLattices(String latticeFilename) {
+      Lattice lattice = new Lattice(latticeFilename);
+      for (double lmScale : new double[] { 1.0, 10.0 }) {
+         checkRandomEdits(lattice, lmScale, 300, 42);
+      }
+   }
+
+   @Test
+   void editsAgreeWithFullDecodeOfSyntheticLattice() {
+      Lattice lattice = new SyntheticLatticeGenerator(300, 3, 50, 0.1, 7, 4).generate();
+      checkRandomEdits(lattice, 10.0, 500, 42);
+   }
+
+   @Test
+   void closingACycleIsRefusedAndLeavesTheEditorUnchanged() {
+      Lattice lattice = new Lattice("latticeFile1.lattice");
+      LatticeEditor editor = new LatticeEditor(lattice, 10.0);
+      Hypothesis before = editor.decode();
+      int end = lattice.getEndIdx(), start = lattice.getStartIdx();
+
+      assertThrows(IllegalArgumentException.class, () -> editor.addEdge(end, start, "loop", 0, 0));
+      assertEquals(lattice.getEdgeCount(), editor.getEdgeCount());
+      assertEquals(before.getHypothesisString(), editor.decode().getHypothesisString());
+      assertEquals(lattice.countAllPaths(), editor.getPathCount());
+   }
+
+   private static void checkRandomEdits(Lattice lattice, double lmScale, int numEdits, long seed) {
+      LatticeEditor editor = new LatticeEditor(lattice, lmScale);
+      Random random = new Random(seed);
+      List<Integer> live = new ArrayList<Integer>();
+      for (int e = 0; e < lattice.getEdgeCount(); e++) {
+         live.add(e);
+      }
+
+      for (int i = 0; i < numEdits; i++) {
+         int choice = random.nextInt(3);
+         try {
+            if (choice == 0 || live.size() < 2) {
+               int source = random.nextInt(editor.getNumNodes()), target = random.nextInt(editor.getNumNodes());
+               live.add(editor.addEdge(source, target, lattice.getEdge(random.nextInt(lattice.getEdgeCount())).getWordId(),
+                                       random.nextInt(500), random.nextInt(50)));
+            }
+            else if (choice == 1) {
+               editor.removeEdge(live.remove(random.nextInt(live.size())));
+            }
+            else {
+               editor.setAmScore(live.get(random.nextInt(live.size())), random.nextInt(500));
+            }
+         }
+         catch (IllegalArgumentException e) {
+            // Would have closed a cycle, the editor is unchanged
+         }
+
+         Lattice edited = editor.toLattice();
+         assertEquals(live.size(), edited.getEdgeCount());
+         assertEquals(edited.countAllPaths(), editor.getPathCount(), "path count after edit " + i);
+         Hypothesis best = editor.decode();
+         if (editor.getCost(editor.toLattice().getEndIdx()) == Double.POSITIVE_INFINITY) {
+            assertNull(best, "edit " + i + " left the end node unreachable");
+            continue;
+         }
+         Hypothesis full = edited.decode(lmScale);
+         assertEquals(full.getHypothesisString(), best.getHypothesisString(), "hypothesis after edit " + i);
+         assertEquals(full.getPathScore(), best.getPathScore(), "score after edit " + i);
+      }
+   }
+}
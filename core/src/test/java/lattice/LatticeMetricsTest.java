@@ -0,0 +1,47 @@
+/*
+ * LatticeMetricsTest.java
+ *
+ * Checks that disabled metrics hand out the shared inactive recorder and that a
+ * CorpusStore scan records its reads and decodes.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LatticeMetricsTest {
+   @TempDir
+   Path directory;
+
+   @Test
+   void disabledMetricsShareOneInactiveRecorder() {
+      LatticeMetrics metrics = new LatticeMetrics(false);
+      LatticeMetrics.Recorder recorder = metrics.begin();
+      assertFalse(recorder.isActive());
+      assertSame(recorder, metrics.begin());
+      assertEquals(0, recorder.start());
+   }
+
+   @Test
+   void scanTimesEveryRecord() throws Exception {
+      String corpus = directory.resolve("corpus").toString();
+      try (CorpusStore.Appender appender = CorpusStore.append(corpus)) {
+         appender.add(new Lattice("latticeFile1.lattice"), "one");
+         appender.add(new Lattice("latticeFile2.lattice"), "two");
+      }
+      CorpusStore store = CorpusStore.open(corpus);
+      LatticeMetrics metrics = new LatticeMetrics(true);
+      store.scan(2, metrics, (record, lattice, reference) -> lattice.decode(10));
+
+      assertEquals(2, metrics.getCounter(LatticeMetrics.Counter.UTTERANCES));
+      assertEquals(2, metrics.getHistogram(LatticeMetrics.Phase.PARSE).getCount());
+      assertEquals(2, metrics.getHistogram(LatticeMetrics.Phase.DECODE).getCount());
+      assertEquals(store.getRecordBytes(0) + store.getRecordBytes(1), metrics.getCounter(LatticeMetrics.Counter.BYTES_READ));
+      assertEquals(new Lattice("latticeFile1.lattice").getEdgeCount() + new Lattice("latticeFile2.lattice").getEdgeCount(),
+            metrics.getCounter(LatticeMetrics.Counter.EDGES));
+   }
+}
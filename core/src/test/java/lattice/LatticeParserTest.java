@@ -0,0 +1,108 @@
+/*
+ * LatticeParserTest.java
+ *
+ * Malformed input must come back as a LatticeFormatException naming the line and
+ * column where parsing stopped, before the header's counts size anything.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class LatticeParserTest {
+   private static final String HEADER = "id test\nstart 0\nend 1\nnumNodes 2\nnumEdges 1\n";
+   private static final String NODES = "node 0 0.00\nnode 1 0.50\n";
+
+   @Test
+   void wellFormedTextParses() throws Exception {
+      Lattice lattice = parse(HEADER + NODES + "edge 0 1 hello 12 3\n");
+      assertEquals("test", lattice.getUtteranceID());
+      assertEquals(2, lattice.getNumNodes());
+      assertEquals(1, lattice.getEdgeCount());
+      assertEquals("hello", lattice.getEdge(0).getLabel());
+      assertEquals(0.5, lattice.getNodeTime(1));
+   }
+
+   @Test
+   void truncatedHeader() {
+      LatticeFormatException e = assertThrows(LatticeFormatException.class, () -> parse("id test\nstart 0\nend 1\n"));
+      assertPosition(e, 4, 1);
+      assertTrue(e.getMessage().contains("expected 'numNodes'"), e.getMessage());
+   }
+
+   @Test
+   void nonNumericScore() {
+      LatticeFormatException e = assertThrows(LatticeFormatException.class, () -> parse(HEADER + NODES + "edge 0 1 hello 1x2 3\n"));
+      assertPosition(e, 8, 16);
+      assertEquals("test:8:16: expected an integer", e.getMessage());
+   }
+
+   @Test
+   void nonNumericNodeTime() {
+      LatticeFormatException e = assertThrows(LatticeFormatException.class, () -> parse(HEADER + "node 0 0.00\nnode 1 half\nedge 0 1 hello 12 3\n"));
+      assertPosition(e, 7, 8);
+      assertTrue(e.getMessage().endsWith("expected a number"), e.getMessage());
+   }
+
+   @Test
+   void edgeOutsideTheNodeRange() {
+      LatticeFormatException e = assertThrows(LatticeFormatException.class, () -> parse(HEADER + NODES + "edge 0 2 hello 12 3\n"));
+      assertPosition(e, 8, 8);
+      assertTrue(e.getMessage().endsWith("node 2 is outside 0..1"), e.getMessage());
+   }
+
+   @Test
+   void startOutsideTheNodeRange() {
+      String header = "id test\nstart 5\nend 1\nnumNodes 2\nnumEdges 1\n";
+      LatticeFormatException e = assertThrows(LatticeFormatException.class, () -> parse(header + NODES + "edge 0 1 a 1 1\n"));
+      assertTrue(e.getMessage().endsWith("start and end must be nodes of the lattice"), e.getMessage());
+   }
+
+   // Two billion nodes cannot be described by the few bytes left; nothing may be allocated for them
+   @Test
+   void impossibleCountsInTheHeader() {
+      String header = "id test\nstart 0\nend 1\nnumNodes 2000000000\nnumEdges 2000000000\n";
+      LatticeFormatException e = assertThrows(LatticeFormatException.class, () -> parse(header + NODES));
+      assertPosition(e, 6, 1);
+      assertTrue(e.getMessage().endsWith("do not fit in the rest of the input"), e.getMessage());
+
+      String negative = "id test\nstart 0\nend 1\nnumNodes 2\nnumEdges -1\n";
+      e = assertThrows(LatticeFormatException.class, () -> parse(negative + NODES));
+      assertTrue(e.getMessage().endsWith("numEdges must not be negative"), e.getMessage());
+   }
+
+   @Test
+   void vocabularyLimit() throws Exception {
+      Vocabulary.getId("known-before-the-limit");
+      LatticeParser parser = new LatticeParser();
+      parser.setVocabularyLimit(Vocabulary.size());
+
+      Lattice known = parser.parse(bytes(HEADER + NODES + "edge 0 1 known-before-the-limit 1 1\n"), "known");
+      assertEquals("known-before-the-limit", known.getEdge(0).getLabel());
+
+      int size = Vocabulary.size();
+      LatticeFormatException e = assertThrows(LatticeFormatException.class,
+            () -> parser.parse(bytes(HEADER + NODES + "edge 0 1 never-seen-by-the-vocabulary 1 1\n"), "limited"));
+      assertEquals("limited", e.getFilename());
+      assertPosition(e, 8, 10);
+      assertTrue(e.getMessage().contains("past its limit"), e.getMessage());
+      assertEquals(size, Vocabulary.size());
+      assertEquals(-1, Vocabulary.findId("never-seen-by-the-vocabulary"));
+   }
+
+   private static void assertPosition(LatticeFormatException e, int line, int column) {
+      assertEquals(line, e.getLine(), e.getMessage());
+      assertEquals(column, e.getColumn(), e.getMessage());
+   }
+
+   private static Lattice parse(String text) throws LatticeFormatException {
+      return new LatticeParser().parse(bytes(text), "test");
+   }
+
+   private static byte[] bytes(String text) {
+      return text.getBytes(StandardCharsets.UTF_8);
+   }
+}
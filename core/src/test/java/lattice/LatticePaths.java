@@ -0,0 +1,78 @@
+/*
+ * LatticePaths.java
+ *
+ * Brute force for the tests: every path from the start node to the end node of a small
+ * lattice, found by depth-first search over the out-edges, with its edges, its words
+ * and its combined score summed in path order as the decoders sum them.
+ */
+
+package lattice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+final class LatticePaths {
+   static final class Path {
+      final int[] edges;
+      final Hypothesis hypothesis;
+
+      Path(int[] edges, Hypothesis hypothesis) {
+         this.edges = edges;
+         this.hypothesis = hypothesis;
+      }
+
+      String words() {
+         return hypothesis.getHypothesisString();
+      }
+
+      double score() {
+         return hypothesis.getPathScore();
+      }
+   }
+
+   private LatticePaths() {
+   }
+
+   static List<Path> all(Lattice lattice, double lmScale) {
+      List<Path> paths = new ArrayList<Path>();
+      visit(lattice, lmScale, lattice.getStartIdx(), new int[lattice.getNumNodes()], 0, paths);
+      return paths;
+   }
+
+   private static void visit(Lattice lattice, double lmScale, int node, int[] edges, int length, List<Path> paths) {
+      if (node == lattice.getEndIdx()) {
+         Hypothesis hypothesis = new Hypothesis();
+         for (int i = 0; i < length; i++) {
+            hypothesis.addWord(lattice.getEdgeWords()[edges[i]], score(lattice, lmScale, edges[i]));
+         }
+         paths.add(new Path(Arrays.copyOf(edges, length), hypothesis));
+         return;
+      }
+      int[] outOffsets = lattice.getOutOffsets();
+      for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+         edges[length] = e;
+         visit(lattice, lmScale, lattice.getEdgeTarget(e), edges, length + 1, paths);
+      }
+   }
+
+   static double score(Lattice lattice, double lmScale, int edge) {
+      return (lattice.getEdgeLmScores()[edge] * lmScale) + lattice.getEdgeAmScores()[edge];
+   }
+
+   // Parses a lattice given by its header, node times and edge lines ("0 1 a 10 1")
+   static Lattice parse(String id, int start, int end, double[] times, String... edges) throws LatticeFormatException {
+      StringBuilder text = new StringBuilder();
+      text.append("id ").append(id).append("\nstart ").append(start).append("\nend ").append(end)
+          .append("\nnumNodes ").append(times.length).append("\nnumEdges ").append(edges.length).append('\n');
+      for (int n = 0; n < times.length; n++) {
+         text.append("node ").append(n).append(' ').append(String.format(Locale.ROOT, "%.2f", times[n])).append('\n');
+      }
+      for (String edge : edges) {
+         text.append("edge ").append(edge).append('\n');
+      }
+      return new LatticeParser().parse(text.toString().getBytes(StandardCharsets.UTF_8), id);
+   }
+}
@@ -0,0 +1,84 @@
+/*
+ * LatticePosteriorsTest.java
+ *
+ * Every path crosses each cut between a prefix of the topological order holding the
+ * start node and the rest exactly once, so the posteriors of the edges across any such
+ * cut sum to 1. The posteriors themselves are checked against a brute-force sum over
+ * all paths.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LatticePosteriorsTest {
+   private static final double[] LM_SCALES = { 0.0, 1.0, 10.0 };
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void everyCutSumsToOne(String latticeFilename) {
+      Lattice lattice = new Lattice(latticeFilename);
+      int[] topSort = lattice.getTopologicalOrder();
+      for (double lmScale : LM_SCALES) {
+         for (double posteriorScale : new double[] { 0.01, 0.1, 1.0 }) {
+            LatticePosteriors posteriors = new LatticePosteriors(lattice, lmScale, posteriorScale);
+            boolean[] inPrefix = new boolean[lattice.getNumNodes()];
+            boolean startSeen = false;
+            for (int i = 0; i < topSort.length && topSort[i] != lattice.getEndIdx(); i++) {
+               inPrefix[topSort[i]] = true;
+               startSeen |= topSort[i] == lattice.getStartIdx();
+               if (!startSeen) {
+                  continue;
+               }
+               double sum = 0;
+               for (int e = 0; e < lattice.getEdgeCount(); e++) {
+                  if (inPrefix[lattice.getEdgeSource(e)] && !inPrefix[lattice.getEdgeTarget(e)]) {
+                     sum += posteriors.getEdgePosterior(e);
+                  }
+               }
+               assertEquals(1.0, sum, 1e-9, "cut after " + (i + 1) + " nodes at lmScale " + lmScale);
+            }
+         }
+      }
+   }
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void posteriorsMatchBruteForce(String latticeFilename) {
+      Lattice lattice = new Lattice(latticeFilename);
+      double posteriorScale = 0.01;
+      for (double lmScale : LM_SCALES) {
+         List<LatticePaths.Path> paths = LatticePaths.all(lattice, lmScale);
+         double best = Double.POSITIVE_INFINITY;
+         for (LatticePaths.Path path : paths) {
+            best = Math.min(best, path.score());
+         }
+
+         // Weights relative to the best path, so nothing underflows
+         double total = 0;
+         double[] edgeMass = new double[lattice.getEdgeCount()];
+         for (LatticePaths.Path path : paths) {
+            double weight = Math.exp(-posteriorScale * (path.score() - best));
+            total += weight;
+            for (int e : path.edges) {
+               edgeMass[e] += weight;
+            }
+         }
+
+         LatticePosteriors posteriors = new LatticePosteriors(lattice, lmScale, posteriorScale);
+         assertEquals(-posteriorScale * best + Math.log(total), posteriors.getTotalLogProb(), 1e-9);
+         double[] slotMass = new double[posteriors.getNumSlots()];
+         for (int e = 0; e < lattice.getEdgeCount(); e++) {
+            assertEquals(edgeMass[e] / total, posteriors.getEdgePosterior(e), 1e-9, "edge " + e + " at lmScale " + lmScale);
+            slotMass[posteriors.getEdgeSlot(e)] += edgeMass[e] / total;
+         }
+         for (int s = 0; s < posteriors.getNumSlots(); s++) {
+            assertEquals(slotMass[s], posteriors.getSlotPosterior(s), 1e-9, "slot " + posteriors.getSlotWord(s));
+         }
+      }
+   }
+}
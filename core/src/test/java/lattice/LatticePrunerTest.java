@@ -0,0 +1,117 @@
+/*
+ * LatticePrunerTest.java
+ *
+ * A pruned lattice keeps the decode path and its score at any beam. Paths within the
+ * beam survive whole, beam 0 leaves only paths as good as the best one, and an
+ * infinite beam drops only the edges that are on no start-to-end path.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LatticePrunerTest {
+   private static final double[] LM_SCALES = { 0.0, 1.0, 10.0 };
+   private static final double[] BEAMS = { 0.0, 10.0, 100.0, 1000.0, Double.POSITIVE_INFINITY };
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void keepsTheDecodePathAndPathsWithinTheBeam(String latticeFilename) {
+      Lattice lattice = new Lattice(latticeFilename);
+      for (double lmScale : LM_SCALES) {
+         Hypothesis best = lattice.decode(lmScale);
+         List<String> all = paths(lattice, lmScale);
+         for (double beam : BEAMS) {
+            LatticePruner pruner = new LatticePruner(lattice, lmScale, beam);
+            Lattice pruned = pruner.getLattice();
+            Hypothesis kept = pruned.decode(lmScale);
+            assertEquals(best.getHypothesisString(), kept.getHypothesisString());
+            assertEquals(best.getPathScore(), kept.getPathScore());
+            assertEquals(best.getPathScore(), pruner.getBestCost(), 1e-9);
+
+            // Pruning only removes paths, and never one within the beam
+            List<String> remaining = paths(pruned, lmScale);
+            assertTrue(all.containsAll(remaining));
+            for (LatticePaths.Path path : LatticePaths.all(lattice, lmScale)) {
+               if (path.score() <= best.getPathScore() + beam) {
+                  assertTrue(remaining.contains(key(path)), "beam " + beam + " dropped " + path.words());
+               }
+            }
+         }
+      }
+   }
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void zeroBeamLeavesOnlyBestScoringPaths(String latticeFilename) {
+      Lattice lattice = new Lattice(latticeFilename);
+      for (double lmScale : LM_SCALES) {
+         double best = lattice.decode(lmScale).getPathScore();
+         for (LatticePaths.Path path : LatticePaths.all(lattice.prune(lmScale, 0), lmScale)) {
+            assertEquals(best, path.score(), 1e-9, path.words());
+         }
+      }
+   }
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void infiniteBeamKeepsEveryEdgeOnAPath(String latticeFilename) {
+      Lattice lattice = new Lattice(latticeFilename);
+      Lattice pruned = lattice.prune(10.0, Double.POSITIVE_INFINITY);
+      assertEquals(paths(lattice, 10.0), paths(pruned, 10.0));
+      assertEquals(edgesOnPaths(lattice), pruned.getEdgeCount());
+   }
+
+   // Node 3 hangs off the lattice and edge 0 -> 4 leads nowhere; neither is on a path
+   @Test
+   void infiniteBeamDropsEdgesOffEveryPath() throws Exception {
+      Lattice lattice = LatticePaths.parse("dangling", 0, 2, new double[] { 0.0, 0.1, 0.2, 0.1, 0.1 },
+            "0 1 a 1 1", "1 2 b 1 1", "3 1 c 1 1", "0 4 d 1 1", "0 2 e 5 5");
+      LatticePruner pruner = new LatticePruner(lattice, 1.0, Double.POSITIVE_INFINITY);
+      assertEquals(3, pruner.getLattice().getEdgeCount());
+      assertEquals(2, pruner.getRemovedNodes());
+      assertEquals(2, pruner.getRemovedEdges());
+      assertEquals(paths(lattice, 1.0), paths(pruner.getLattice(), 1.0));
+   }
+
+   @Test
+   void syntheticLatticeKeepsItsDecode() {
+      Lattice lattice = new SyntheticLatticeGenerator(20000, 3, 1000, 0.1, 42).generate();
+      for (double lmScale : LM_SCALES) {
+         Hypothesis best = lattice.decode(lmScale);
+         for (double beam : BEAMS) {
+            Hypothesis kept = lattice.prune(lmScale, beam).decode(lmScale);
+            assertEquals(best.getHypothesisString(), kept.getHypothesisString());
+            assertEquals(best.getPathScore(), kept.getPathScore());
+         }
+      }
+   }
+
+   private static List<String> paths(Lattice lattice, double lmScale) {
+      List<String> paths = new ArrayList<String>();
+      for (LatticePaths.Path path : LatticePaths.all(lattice, lmScale)) {
+         paths.add(key(path));
+      }
+      Collections.sort(paths);
+      return paths;
+   }
+
+   private static String key(LatticePaths.Path path) {
+      return path.score() + " " + path.words();
+   }
+
+   private static int edgesOnPaths(Lattice lattice) {
+      Set<Integer> edges = new HashSet<Integer>();
+      for (LatticePaths.Path path : LatticePaths.all(lattice, 0.0)) {
+         for (int e : path.edges) {
+            edges.add(e);
+         }
+      }
+      return edges.size();
+   }
+}
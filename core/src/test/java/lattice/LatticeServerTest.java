@@ -0,0 +1,151 @@
+/*
+ * LatticeServerTest.java
+ *
+ * Runs a server on a free port and checks the answers of /decode against the lattices
+ * decoded in place: cache misses and hits, several lmScales, the error statuses, and
+ * the eviction order of the cache.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LatticeServerTest {
+   // Room for two copies of latticeFile1 with their statistics (916 bytes each), not three
+   private static final long TWO_ENTRIES = 2000;
+
+   @TempDir
+   Path directory;
+
+   private final HttpClient client = HttpClient.newHttpClient();
+   private LatticeServer server;
+
+   @AfterEach
+   void stopServer() {
+      if (server != null) {
+         server.stop();
+      }
+   }
+
+   @Test
+   void missThenHitGiveTheDecodedPath() throws Exception {
+      server = new LatticeServer(0, 2, LatticeServer.DEFAULT_CACHE_BYTES);
+      Lattice lattice = new Lattice("latticeFile1.lattice");
+
+      String first = decode("10", "latticeFile1.lattice").body();
+      assertTrue(first.contains("\"cached\": false"), first);
+      assertTrue(first.contains("\"pathCount\": " + lattice.countAllPaths()), first);
+      assertTrue(first.contains(result(10.0, lattice.decode(10))), first);
+
+      String second = decode("1", "latticeFile1.lattice").body();
+      assertTrue(second.contains("\"cached\": true"), second);
+      assertTrue(second.contains(result(1.0, lattice.decode(1))), second);
+
+      String stats = get("/stats").body();
+      assertTrue(stats.contains("\"cacheHits\": 1, \"cacheMisses\": 1"), stats);
+      assertTrue(stats.contains("\"parse\": {\"count\": 1,"), stats);
+      assertTrue(stats.contains("\"decode\": {\"count\": 2,"), stats);
+   }
+
+   @Test
+   void severalLmScalesInOneRequest() throws Exception {
+      server = new LatticeServer(0, 2, LatticeServer.DEFAULT_CACHE_BYTES);
+      Lattice lattice = new Lattice("latticeFile2.lattice");
+      for (String path : new String[] { "latticeFile2.lattice", "latticeFile2.lattice" }) {
+         HttpResponse<String> response = decode("0,1,10", path);
+         assertEquals(200, response.statusCode());
+         for (double lmScale : new double[] { 0.0, 1.0, 10.0 }) {
+            assertTrue(response.body().contains(result(lmScale, lattice.decode(lmScale))), response.body());
+         }
+      }
+      HttpResponse<String> body = post("/decode?lmScale=1,10", Files.readAllBytes(Path.of("latticeFile2.lattice")));
+      assertEquals(200, body.statusCode());
+      assertTrue(body.body().contains(result(10.0, lattice.decode(10))), body.body());
+   }
+
+   @Test
+   void oversizedBodyIs413() throws Exception {
+      server = new LatticeServer(0, 1, LatticeServer.DEFAULT_CACHE_BYTES, 100, LatticeServer.DEFAULT_MAX_VOCABULARY);
+      HttpResponse<String> response = post("/decode?lmScale=10", Files.readAllBytes(Path.of("latticeFile1.lattice")));
+      assertEquals(413, response.statusCode());
+      assertTrue(response.body().startsWith("{\"error\": "), response.body());
+   }
+
+   @Test
+   void badRequestsAre400() throws Exception {
+      server = new LatticeServer(0, 1, LatticeServer.DEFAULT_CACHE_BYTES);
+      assertEquals(400, decode("ten", "latticeFile1.lattice").statusCode());
+      assertEquals(400, decode("-1", "latticeFile1.lattice").statusCode());
+      assertEquals(400, get("/decode?path=latticeFile1.lattice").statusCode());
+      assertEquals(400, decode("10", directory.resolve("missing.lattice").toString()).statusCode());
+      assertEquals(400, post("/decode?lmScale=10", "id x\nstart 0\nend 1\nnumNodes two\n".getBytes(StandardCharsets.UTF_8)).statusCode());
+
+      // Node 2 has no in-edges
+      String unreachable = "id x\nstart 0\nend 2\nnumNodes 3\nnumEdges 1\nnode 0 0.00\nnode 1 0.10\nnode 2 0.20\nedge 0 1 a 1 1\n";
+      HttpResponse<String> response = post("/decode?lmScale=10", unreachable.getBytes(StandardCharsets.UTF_8));
+      assertEquals(400, response.statusCode());
+      assertTrue(response.body().contains("end node 2 not reachable"), response.body());
+
+      String stats = get("/stats").body();
+      assertTrue(stats.contains("\"requests\": 6, \"failures\": 6"), stats);
+   }
+
+   @Test
+   void leastRecentlyUsedLatticeIsEvicted() throws Exception {
+      server = new LatticeServer(0, 1, TWO_ENTRIES);
+      String[] paths = new String[3];
+      for (int i = 0; i < paths.length; i++) {
+         paths[i] = directory.resolve("copy" + i + ".lattice").toString();
+         Files.copy(Path.of("latticeFile1.lattice"), Path.of(paths[i]));
+      }
+      assertCached(false, paths[0]);
+      assertCached(false, paths[1]);
+      assertCached(true, paths[0]);                   // 1 is now the least recently used
+      assertCached(false, paths[2]);                  // and goes
+      assertCached(true, paths[0]);
+      assertCached(true, paths[2]);
+      assertCached(false, paths[1]);
+
+      String stats = get("/stats").body();
+      assertTrue(stats.contains("\"cachedLattices\": 2, \"cacheBytes\": 1832"), stats);
+   }
+
+   private void assertCached(boolean cached, String path) throws Exception {
+      String body = decode("10", path).body();
+      assertTrue(body.contains("\"cached\": " + cached), path + ": " + body);
+   }
+
+   private static String result(double lmScale, Hypothesis hypothesis) {
+      return "{\"lmScale\": " + lmScale + ", \"hypothesis\": " + LatticeServer.jsonString(hypothesis.getHypothesisString().trim())
+            + ", \"score\": " + hypothesis.getPathScore() + "}";
+   }
+
+   private HttpResponse<String> decode(String lmScale, String path) throws Exception {
+      return get("/decode?lmScale=" + URLEncoder.encode(lmScale, StandardCharsets.UTF_8) + "&path=" + URLEncoder.encode(path, StandardCharsets.UTF_8));
+   }
+
+   private HttpResponse<String> get(String target) throws Exception {
+      return client.send(HttpRequest.newBuilder(uri(target)).GET().build(), HttpResponse.BodyHandlers.ofString());
+   }
+
+   private HttpResponse<String> post(String target, byte[] body) throws Exception {
+      return client.send(HttpRequest.newBuilder(uri(target)).POST(HttpRequest.BodyPublishers.ofByteArray(body)).build(),
+                         HttpResponse.BodyHandlers.ofString());
+   }
+
+   private URI uri(String target) {
+      return URI.create("http://127.0.0.1:" + server.getPort() + target);
+   }
+}
@@ -0,0 +1,109 @@
+/*
+ * LatticeStatsTest.java
+ *
+ * Every field of the fused pass must equal what the separate scans report: decode,
+ * countAllPaths, getLatticeDensity, the silence hits, and the degrees counted edge by
+ * edge.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LatticeStatsTest {
+   private static final double[] LM_SCALES = { 0.0, 1.0, 10.0 };
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void sampleLatticesMatchSeparateScans(String latticeFilename) {
+      assertMatchesSeparateScans(new Lattice(latticeFilename));
+   }
+
+   @Test
+   void syntheticLatticeMatchesSeparateScans() {
+      assertMatchesSeparateScans(new SyntheticLatticeGenerator(5000, 3, 1000, 0.1, 42).generate());
+   }
+
+   // 2^70 paths: the long count overflows and is redone in BigInteger
+   @Test
+   void pathCountPastALong() throws Exception {
+      int steps = 70;
+      double[] times = new double[steps + 1];
+      String[] edges = new String[2 * steps];
+      for (int n = 0; n < steps; n++) {
+         times[n + 1] = 0.01 * (n + 1);
+         edges[2 * n] = n + " " + (n + 1) + " a 10 1";
+         edges[2 * n + 1] = n + " " + (n + 1) + " -silence- 10 1";
+      }
+      Lattice lattice = LatticePaths.parse("wide", 0, steps, times, edges);
+      assertEquals(BigInteger.ONE.shiftLeft(steps), lattice.computeStats(1.0).getPathCount());
+      assertMatchesSeparateScans(lattice);
+   }
+
+   @Test
+   void unreachableEndHasNoBestPath() throws Exception {
+      Lattice lattice = LatticePaths.parse("cut", 0, 2, new double[] { 0.0, 0.1, 0.2 }, "0 1 a 1 1");
+      LatticeStats stats = lattice.computeStats(1.0);
+      assertNull(stats.getBestPath());
+      assertEquals(Double.POSITIVE_INFINITY, stats.getBestCost());
+      assertEquals(BigInteger.ZERO, stats.getPathCount());
+      assertEquals(2, stats.getNumReachableNodes());
+   }
+
+   private static void assertMatchesSeparateScans(Lattice lattice) {
+      int[] inOffsets = lattice.getInOffsets(), outOffsets = lattice.getOutOffsets();
+      int wordEdges = 0, maxIn = 0, maxOut = 0, branching = 0;
+      for (int e = 0; e < lattice.getEdgeCount(); e++) {
+         if (lattice.getEdgeWords()[e] != Vocabulary.SILENCE) {
+            wordEdges++;
+         }
+      }
+      for (int node = 0; node < lattice.getNumNodes(); node++) {
+         maxIn = Math.max(maxIn, inOffsets[node + 1] - inOffsets[node]);
+         maxOut = Math.max(maxOut, outOffsets[node + 1] - outOffsets[node]);
+         branching += outOffsets[node + 1] - outOffsets[node] > 1 ? 1 : 0;
+      }
+
+      for (double lmScale : LM_SCALES) {
+         LatticeStats stats = lattice.computeStats(lmScale);
+         Hypothesis decoded = lattice.decode(lmScale);
+         assertEquals(decoded.getHypothesisString(), stats.getBestPath().getHypothesisString());
+         assertEquals(decoded.getPathScore(), stats.getBestPath().getPathScore());
+         assertEquals(decoded.getPathScore(), stats.getBestCost(), 1e-6);
+         assertEquals(lattice.countAllPaths(), stats.getPathCount());
+         assertEquals(lattice.getLatticeDensity(), stats.getDensity());
+         assertArrayEquals(lattice.getSortedHits("-silence-"), stats.getSilenceTimes());
+         assertEquals(wordEdges, stats.getNumWordEdges());
+         assertEquals(reachableNodes(lattice), stats.getNumReachableNodes());
+         assertEquals(maxIn, stats.getMaxInDegree());
+         assertEquals(maxOut, stats.getMaxOutDegree());
+         assertEquals(branching, stats.getNumBranchingNodes());
+      }
+   }
+
+   // Nodes reached from the start node, by depth-first search over the out-edges
+   private static int reachableNodes(Lattice lattice) {
+      boolean[] seen = new boolean[lattice.getNumNodes()];
+      int[] stack = new int[lattice.getNumNodes()];
+      int size = 0, count = 0;
+      stack[size++] = lattice.getStartIdx();
+      seen[lattice.getStartIdx()] = true;
+      while (size > 0) {
+         int node = stack[--size];
+         count++;
+         for (int e = lattice.getOutOffsets()[node]; e < lattice.getOutOffsets()[node + 1]; e++) {
+            int target = lattice.getEdgeTarget(e);
+            if (!seen[target]) {
+               seen[target] = true;
+               stack[size++] = target;
+            }
+         }
+      }
+      return count;
+   }
+}
@@ -0,0 +1,81 @@
+/*
+ * LatticeWriterTest.java
+ *
+ * Checks that the node times the writer rounds itself come out exactly as
+ * DecimalFormat("0.00") formats them: halfway and nearly halfway values, negative
+ * values and -0.0, and values past the 1e7 cutoff.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class LatticeWriterTest {
+   @Test
+   void hardValuesMatchDecimalFormat() throws IOException {
+      assertTimesMatch(new double[] {
+            0.0, -0.0, 0.005, 0.015, 0.125, 0.375, 1.005, 1.115, 2.675, 2.665, 1234.565,
+            -0.004, -0.005, -0.125, -2.675, -1.0,
+            9999999.995, 9999999.994, 1e7, 1e7 + 0.005, 1.23456785e8, 1e15, 1e300,
+            Double.MIN_VALUE, Double.MAX_VALUE });
+   }
+
+   // Every hundredth plus one half, and the doubles a few ulps either side of it
+   @Test
+   void nearlyHalfwayValuesMatchDecimalFormat() throws IOException {
+      List<Double> times = new ArrayList<Double>();
+      for (int cents = 0; cents < 2000; cents++) {
+         double halfway = (cents + 0.5) / 100;
+         double time = halfway;
+         for (int ulps = 0; ulps < 4; ulps++) {
+            time = Math.nextDown(time);
+         }
+         for (int ulps = 0; ulps < 9; ulps++) {
+            times.add(time);
+            time = Math.nextUp(time);
+         }
+      }
+      for (long cents : new long[] { 123456L, 99999999L, 999999999L }) {
+         double halfway = (cents + 0.5) / 100;
+         times.add(Math.nextDown(halfway));
+         times.add(halfway);
+         times.add(Math.nextUp(halfway));
+      }
+      assertTimesMatch(times.stream().mapToDouble(Double::doubleValue).toArray());
+   }
+
+   @Test
+   void randomValuesMatchDecimalFormat() throws IOException {
+      Random random = new Random(19);
+      double[] times = new double[5000];
+      for (int i = 0; i < times.length; i++) {
+         times[i] = (random.nextDouble() - 0.1) * Math.pow(10, random.nextInt(10));
+      }
+      assertTimesMatch(times);
+   }
+
+   private static void assertTimesMatch(double[] times) throws IOException {
+      LatticeBuilder builder = new LatticeBuilder("times", 0, 1);
+      for (double time : times) {
+         builder.addNode(time);
+      }
+      builder.addEdge(0, times.length - 1, "a", 1, 1);
+      StringBuilder text = new StringBuilder();
+      LatticeWriter writer = new LatticeWriter(text);
+      writer.writeLattice(builder.toLattice(times.length - 1));
+      writer.flush();
+
+      DecimalFormat format = new DecimalFormat("0.00");
+      String[] lines = text.toString().split("\n");
+      for (int i = 0; i < times.length; i++) {
+         assertEquals("node " + i + " " + format.format(times[i]), lines[5 + i], "time " + times[i]);
+      }
+   }
+}
@@ -0,0 +1,86 @@
+/*
+ * LmRescorerTest.java
+ *
+ * Rescores latticeFile1 with the bigram model in bigram.arpa. The paths, words and
+ * acoustic scores must survive, all paths must end in one end node, and the best
+ * paths are the ones worked out by hand below.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class LmRescorerTest {
+   private static Lattice lattice, rescored;
+
+   @BeforeAll
+   static void rescore() throws Exception {
+      lattice = new Lattice("latticeFile1.lattice");
+      rescored = lattice.rescore(new LmRescorer(NgramModel.load(NgramModelTest.arpaFilename())));
+   }
+
+   @Test
+   void keepsEveryPathWithItsWordsAndAcousticScores() {
+      // At lmScale 0 a path's score is the sum of its acoustic scores
+      assertEquals(pathsAtScaleZero(lattice), pathsAtScaleZero(rescored));
+      assertEquals(lattice.countAllPaths(), rescored.countAllPaths());
+   }
+
+   @Test
+   void everyPathEndsInOneEndNode() {
+      int[] outOffsets = rescored.getOutOffsets();
+      for (int node = 0; node < rescored.getNumNodes(); node++) {
+         boolean sink = outOffsets[node] == outOffsets[node + 1];
+         assertEquals(node == rescored.getEndIdx(), sink, "node " + node);
+      }
+      assertEquals(lattice.getNodeTime(lattice.getEndIdx()), rescored.getNodeTime(rescored.getEndIdx()));
+      assertEquals(lattice.getNodeTime(lattice.getStartIdx()), rescored.getNodeTime(rescored.getStartIdx()));
+   }
+
+   /*
+   *  lmScores are -10 log10 P, rounded per edge, with </s> on the edges into the end node:
+   *   i bye said               (2 + 20 + 12+7) lm, 250 am
+   *   i never said hello       (2 + 5 + 4 + 3+2) lm, 959 am
+   *   okay said hello          (9 + 5 + 3+2) lm, 1026 am
+   */
+   @Test
+   void bestPathsAsComputedByHand() {
+      Hypothesis atOne = rescored.decode(1.0);
+      assertEquals("i bye said ", atOne.getHypothesisString());
+      assertEquals(250 + 41, atOne.getPathScore());
+
+      Hypothesis atHundred = rescored.decode(100.0);
+      assertEquals("i never said hello ", atHundred.getHypothesisString());
+      assertEquals(959 + 16 * 100, atHundred.getPathScore());
+   }
+
+   // -silence- leaves the state alone and i_said is scored as i then said: both cost 2 + 6+7
+   @Test
+   void silenceIsTransparentAndCompoundsScoreByPart() throws Exception {
+      LmRescorer rescorer = new LmRescorer(NgramModel.load(NgramModelTest.arpaFilename()));
+      Lattice withSilence = LatticePaths.parse("silence", 0, 3, new double[] { 0.0, 0.1, 0.2, 0.3 },
+            "0 1 i 0 0", "1 2 -silence- 0 0", "2 3 said 0 0");
+      Lattice compound = LatticePaths.parse("compound", 0, 1, new double[] { 0.0, 0.3 }, "0 1 i_said 0 0");
+
+      Hypothesis separate = withSilence.rescore(rescorer).decode(1.0), joined = compound.rescore(rescorer).decode(1.0);
+      assertEquals("i said ", separate.getHypothesisString());
+      assertEquals("i said ", joined.getHypothesisString());
+      assertEquals(15, separate.getPathScore());
+      assertEquals(15, joined.getPathScore());
+   }
+
+   private static List<String> pathsAtScaleZero(Lattice lattice) {
+      List<String> paths = new ArrayList<String>();
+      for (LatticePaths.Path path : LatticePaths.all(lattice, 0.0)) {
+         paths.add(path.score() + " " + path.words());
+      }
+      Collections.sort(paths);
+      return paths;
+   }
+}
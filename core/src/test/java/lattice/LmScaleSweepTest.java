@@ -0,0 +1,55 @@
+/*
+ * LmScaleSweepTest.java
+ *
+ * Scale specs are checked before the sweep starts, and the one-traversal decode the
+ * sweep relies on gives exactly the single-scale hypotheses, ties included.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LmScaleSweepTest {
+   @Test
+   void listsAndRanges() {
+      assertArrayEquals(new double[] { 1, 5, 10 }, LmScaleSweep.parseScales("1,5,10"));
+      assertArrayEquals(new double[] { 0, 0.5, 1, 1.5, 2 }, LmScaleSweep.parseScales("0:0.5:2"));
+      assertArrayEquals(new double[] { 3 }, LmScaleSweep.parseScales("3:1:3"));
+      assertArrayEquals(new double[] { 0, 0.1, 0.2, 0.30000000000000004 }, LmScaleSweep.parseScales("0:0.1:0.3"));
+   }
+
+   @ParameterizedTest
+   @ValueSource(strings = { "0:0:5", "0:-1:5", "5:1:0", "-1:1:5", "1:2", "1:2:3:4", "a:1:2", "1,,2", "1,x", "-1", "NaN", "Infinity",
+                            "0:1e-9:1e9" })
+   void badSpecsAreRefused(String spec) {
+      assertThrows(IllegalArgumentException.class, () -> LmScaleSweep.parseScales(spec));
+   }
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void multiScaleDecodeMatchesSingleScaleDecode(String latticeFilename) {
+      assertSameAsSingleScale(new Lattice(latticeFilename), LmScaleSweep.parseScales("0:0.25:30"));
+   }
+
+   // Every path ties at every scale: both decodes must pick the same one
+   @Test
+   void multiScaleDecodeBreaksTiesLikeSingleScaleDecode() throws Exception {
+      Lattice lattice = LatticePaths.parse("ties", 0, 3, new double[] { 0.0, 0.1, 0.2, 0.3 },
+            "0 1 a 10 1", "0 1 b 10 1", "0 2 c 5 6", "1 3 d 10 1", "2 3 e 15 -4", "1 3 f 10 1");
+      assertSameAsSingleScale(lattice, new double[] { 0, 1, 2, 10 });
+   }
+
+   private static void assertSameAsSingleScale(Lattice lattice, double[] lmScales) {
+      Hypothesis[] hypotheses = lattice.decode(lmScales);
+      assertEquals(lmScales.length, hypotheses.length);
+      for (int s = 0; s < lmScales.length; s++) {
+         Hypothesis single = lattice.decode(lmScales[s]);
+         assertEquals(single.getHypothesisString(), hypotheses[s].getHypothesisString(), "lmScale " + lmScales[s]);
+         assertEquals(single.getPathScore(), hypotheses[s].getPathScore(), "lmScale " + lmScales[s]);
+      }
+   }
+}
@@ -0,0 +1,89 @@
+/*
+ * NBestIteratorTest.java
+ *
+ * The k best paths must be the k best of a brute-force enumeration, and ties must not
+ * stop the search from finishing a path before it has expanded every tied prefix.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class NBestIteratorTest {
+   private static final int CHAIN_STEPS = 28;
+
+   // Nodes 0 .. CHAIN_STEPS in a row, each step an a and a b edge with equal scores
+   private static Lattice tiedChain() throws Exception {
+      double[] times = new double[CHAIN_STEPS + 1];
+      String[] edges = new String[2 * CHAIN_STEPS];
+      for (int n = 0; n < CHAIN_STEPS; n++) {
+         times[n + 1] = 0.01 * (n + 1);
+         edges[2 * n] = n + " " + (n + 1) + " a 10 1";
+         edges[2 * n + 1] = n + " " + (n + 1) + " b 10 1";
+      }
+      return LatticePaths.parse("chain", 0, CHAIN_STEPS, times, edges);
+   }
+
+   @Test
+   void tiedPathsCompleteWithoutExpandingEveryPrefix() throws Exception {
+      Lattice lattice = tiedChain();
+      List<Hypothesis> best = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+         List<Hypothesis> hypotheses = new ArrayList<Hypothesis>();
+         lattice.nBest(1.0, 100).forEachRemaining(hypotheses::add);
+         return hypotheses;
+      });
+      assertEquals(100, best.size());
+      Set<String> distinct = new HashSet<String>();
+      for (Hypothesis hypothesis : best) {
+         assertEquals(CHAIN_STEPS * 11.0, hypothesis.getPathScore());
+         assertEquals(CHAIN_STEPS, hypothesis.getNumWords());
+         distinct.add(hypothesis.getHypothesisString());
+      }
+      assertEquals(100, distinct.size());
+      assertEquals(CHAIN_STEPS * 11.0, lattice.nBest(1.0, 1).next().getPathScore());
+   }
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void kBestMatchBruteForce(String latticeFilename) {
+      Lattice lattice = new Lattice(latticeFilename);
+      for (double lmScale : new double[] { 0.0, 1.0, 10.0 }) {
+         List<LatticePaths.Path> all = LatticePaths.all(lattice, lmScale);
+         List<String> expected = new ArrayList<String>();
+         for (LatticePaths.Path path : all) {
+            expected.add(path.score() + " " + path.words());
+         }
+
+         List<String> actual = new ArrayList<String>();
+         double previous = Double.NEGATIVE_INFINITY;
+         for (Iterator<Hypothesis> it = lattice.nBest(lmScale, all.size() + 5); it.hasNext(); ) {
+            Hypothesis hypothesis = it.next();
+            assertTrue(hypothesis.getPathScore() >= previous, "scores must not decrease");
+            previous = hypothesis.getPathScore();
+            actual.add(hypothesis.getPathScore() + " " + hypothesis.getHypothesisString());
+         }
+         assertEquals(lattice.countAllPaths().intValue(), actual.size());
+         assertEquals(lattice.decode(lmScale).getPathScore(), Double.parseDouble(actual.get(0).split(" ")[0]));
+
+         // Every path once; the k best for each k are the k lowest brute-force scores
+         Collections.sort(expected);
+         List<String> sortedActual = new ArrayList<String>(actual);
+         Collections.sort(sortedActual);
+         assertEquals(expected, sortedActual);
+         List<Double> bruteScores = new ArrayList<Double>();
+         for (LatticePaths.Path path : all) {
+            bruteScores.add(path.score());
+         }
+         Collections.sort(bruteScores);
+         for (int k = 0; k < actual.size(); k++) {
+            assertEquals(bruteScores.get(k), Double.parseDouble(actual.get(k).split(" ")[0]));
+         }
+      }
+   }
+}
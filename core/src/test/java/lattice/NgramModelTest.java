@@ -0,0 +1,77 @@
+/*
+ * NgramModelTest.java
+ *
+ * Scores words with the bigram model in bigram.arpa: a bigram the model has, one it
+ * backs off for, an unknown word and the end of the sentence.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NgramModelTest {
+   private static NgramModel model;
+
+   @BeforeAll
+   static void loadModel() throws Exception {
+      model = NgramModel.load(arpaFilename());
+   }
+
+   static String arpaFilename() throws Exception {
+      return Path.of(NgramModelTest.class.getResource("/bigram.arpa").toURI()).toString();
+   }
+
+   @Test
+   void headerAndTables() {
+      assertEquals(2, model.getOrder());
+      assertEquals(19, model.size());
+   }
+
+   @Test
+   void seenBigram() {
+      long next = model.next(model.getStartState(), Vocabulary.getId("i"));
+      assertEquals(-0.2f, NgramModel.logProbOf(next));
+      assertEquals(stateAfter("i"), NgramModel.stateOf(next));
+   }
+
+   @Test
+   void backedOffBigram() {
+      // No "i hello": backoff of i, then the unigram
+      long next = model.next(stateAfter("i"), Vocabulary.getId("hello"));
+      assertEquals(-0.2f + -1.3f, NgramModel.logProbOf(next));
+      assertEquals(stateAfter("hello"), NgramModel.stateOf(next));
+      assertNotEquals(stateAfter("i"), stateAfter("hello"));
+   }
+
+   @Test
+   void unknownWordScoresAsUnk() {
+      long next = model.next(stateAfter("i"), Vocabulary.getId("zebra-not-in-the-model"));
+      assertEquals(-0.2f + -1.5f, NgramModel.logProbOf(next));
+      assertEquals(stateAfter("<unk>"), NgramModel.stateOf(next));
+   }
+
+   @Test
+   void sentenceEnd() {
+      assertEquals(-0.2f, model.endLogProb(stateAfter("hello")));
+      assertEquals(-0.3f + -1.0f, model.endLogProb(stateAfter("never")));
+   }
+
+   @Test
+   void fileWithoutDataSectionIsAFormatError(@TempDir Path directory) throws Exception {
+      Path arpa = directory.resolve("bad.arpa");
+      Files.writeString(arpa, "-1.0 hello\n");
+      LatticeFormatException e = assertThrows(LatticeFormatException.class, () -> NgramModel.load(arpa.toString()));
+      assertTrue(e.getMessage().contains("no \\data\\ section"), e.getMessage());
+   }
+
+   // In a bigram model the state after a word does not depend on what came before it
+   private static int stateAfter(String word) {
+      return NgramModel.stateOf(model.next(0, Vocabulary.getId(word)));
+   }
+}
@@ -0,0 +1,77 @@
+/*
+ * ParallelDecoderTest.java
+ *
+ * The parallel decoder must return the sequential hypothesis, ties included, whether or
+ * not the levels are wide enough to be split.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ParallelDecoderTest {
+   private static ForkJoinPool pool;
+   private static ParallelDecoder decoder;
+
+   @BeforeAll
+   static void startPool() {
+      pool = new ForkJoinPool(4);
+      decoder = new ParallelDecoder(pool);
+   }
+
+   @AfterAll
+   static void stopPool() {
+      pool.shutdown();
+   }
+
+   @ParameterizedTest
+   @ValueSource(ints = { 1, 64, 4096 })
+   void sameHypothesisAsSequentialDecode(int width) {
+      Lattice lattice = new SyntheticLatticeGenerator(40000, 3, 1000, 0.1, 42, width).generate();
+      for (double lmScale : new double[] { 0.0, 1.0, 10.0 }) {
+         assertSameHypothesis(lattice.decodeSequential(lmScale), decoder.decode(lattice, lmScale));
+      }
+   }
+
+   @ParameterizedTest
+   @ValueSource(strings = { "latticeFile1.lattice", "latticeFile2.lattice" })
+   void sameHypothesisOnSampleLattices(String latticeFilename) {
+      Lattice lattice = new Lattice(latticeFilename);
+      for (double lmScale : new double[] { 1.0, 10.0 }) {
+         assertSameHypothesis(lattice.decodeSequential(lmScale), decoder.decode(lattice, lmScale));
+      }
+   }
+
+   @Test
+   void statsFromParallelRelaxationMatchSequentialStats() {
+      Lattice lattice = new SyntheticLatticeGenerator(40000, 3, 1000, 0.1, 42, 4096).generate();
+      LatticeStats sequential = new LatticeStats(lattice, 10.0, null), parallel = new LatticeStats(lattice, 10.0, decoder);
+      assertSameHypothesis(sequential.getBestPath(), parallel.getBestPath());
+      assertEquals(sequential.getBestCost(), parallel.getBestCost());
+      assertEquals(sequential.getPathCount(), parallel.getPathCount());
+      assertEquals(sequential.getNumReachableNodes(), parallel.getNumReachableNodes());
+      assertArrayEquals(sequential.getSilenceTimes(), parallel.getSilenceTimes());
+   }
+
+   @Test
+   void levelsHoldEveryNodeOnce() {
+      Lattice lattice = new SyntheticLatticeGenerator(10000, 3, 1000, 0.1, 42, 4096).generate();
+      ParallelDecoder.Levels levels = lattice.getTopologicalLevels();
+      assertEquals(lattice.getNumNodes(), levels.nodes.length);
+      assertEquals(lattice.getNumNodes(), levels.offsets[levels.getNumLevels()]);
+      assertEquals(4096, levels.getMaxWidth());
+      assertTrue(decoder.pays(lattice));
+   }
+
+   private static void assertSameHypothesis(Hypothesis expected, Hypothesis actual) {
+      assertEquals(expected.getHypothesisString(), actual.getHypothesisString());
+      assertEquals(expected.getPathScore(), actual.getPathScore());
+   }
+}
@@ -0,0 +1,87 @@
+/*
+ * WerStatsTest.java
+ *
+ * Checks that computeWER scores against the first reference line only, that add() sums
+ * every count, and that two WerStats can be added into each other from two threads at
+ * once while both threads add into a shared total.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WerStatsTest {
+   @TempDir
+   Path directory;
+
+   @Test
+   void computeWERReadsOnlyTheFirstLine() throws Exception {
+      Lattice lattice = new Lattice("latticeFile1.lattice");
+      Hypothesis hypothesis = lattice.decode(10);
+      Path reference = directory.resolve("ref.txt");
+      Files.writeString(reference, hypothesis.getHypothesisString().trim() + "\nextra words on a second line\n");
+      assertEquals(0.0, hypothesis.computeWER(reference.toString()));
+   }
+
+   @Test
+   void addSumsEveryCount() {
+      WerStats a = new WerStats(1, 0, 2, 4), b = new WerStats(0, 3, 0, 5);
+      a.add(b);
+      assertCounts(a, 1, 3, 2, 9, 2);
+      b.add(a);
+      assertCounts(b, 1, 6, 2, 14, 3);
+      a.add(new WerStats());
+      assertCounts(a, 1, 3, 2, 9, 2);
+   }
+
+   /*
+   *  The two threads add a and b into each other, taking their locks in opposite orders,
+   *   and each adds a fixed utterance into one shared total. a and b hold no counts, so
+   *   adding them back and forth leaves them empty, and the total comes out exact.
+   */
+   @Test
+   void addingBothWaysDoesNotDeadlock() throws Exception {
+      WerStats a = new WerStats(), b = new WerStats(), total = new WerStats();
+      WerStats first = new WerStats(1, 0, 2, 4), second = new WerStats(0, 3, 0, 5);
+      int n = 100000;
+      ExecutorService threads = Executors.newFixedThreadPool(2);
+      try {
+         Future<?> ab = threads.submit(() -> {
+            for (int i = 0; i < n; i++) {
+               a.add(b);
+               total.add(first);
+            }
+         });
+         Future<?> ba = threads.submit(() -> {
+            for (int i = 0; i < n; i++) {
+               b.add(a);
+               total.add(second);
+            }
+         });
+         ab.get(30, TimeUnit.SECONDS);
+         ba.get(30, TimeUnit.SECONDS);
+      }
+      finally {
+         threads.shutdownNow();
+      }
+      assertCounts(a, 0, 0, 0, 0, 0);
+      assertCounts(b, 0, 0, 0, 0, 0);
+      assertCounts(first, 1, 0, 2, 4, 1);
+      assertCounts(total, n, 3L * n, 2L * n, 9L * n, 2L * n);
+   }
+
+   private static void assertCounts(WerStats stats, long substitutions, long insertions, long deletions,
+                                    long referenceWords, long utterances) {
+      assertEquals(substitutions, stats.getSubstitutions());
+      assertEquals(insertions, stats.getInsertions());
+      assertEquals(deletions, stats.getDeletions());
+      assertEquals(referenceWords, stats.getReferenceWords());
+      assertEquals(utterances, stats.getUtterances());
+   }
+}
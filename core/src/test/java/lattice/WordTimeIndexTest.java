@@ -0,0 +1,61 @@
+/*
+ * WordTimeIndexTest.java
+ *
+ * Single and batched word-at-time queries against a scan of every edge.
+ */
+
+package lattice;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+class WordTimeIndexTest {
+   @Test
+   void queriesMatchAScanOfTheEdges() {
+      Lattice lattice = new SyntheticLatticeGenerator(3000, 3, 200, 0.1, 42).generate();
+      WordTimeIndex index = lattice.getWordTimeIndex();
+      double last = lattice.getNodeTime(lattice.getNumNodes() - 1);
+      double[] times = new double[200];
+      for (int q = 0; q < times.length; q++) {
+         times[q] = last * q / (times.length - 1);
+      }
+
+      int[][] batch = index.wordsAtTimes(times);
+      for (int q = 0; q < times.length; q++) {
+         int[] expected = scan(lattice, times[q]);
+         assertArrayEquals(expected, sorted(index.wordsAtTime(times[q])), "time " + times[q]);
+         assertArrayEquals(expected, sorted(batch[q]), "batched time " + times[q]);
+      }
+   }
+
+   @Test
+   void countsDistinctWords() {
+      Lattice lattice = new Lattice("latticeFile1.lattice");
+      TreeSet<Integer> words = new TreeSet<Integer>();
+      for (int e = 0; e < lattice.getEdgeCount(); e++) {
+         if (lattice.getNodeTime(lattice.getEdgeSource(e)) <= lattice.getNodeTime(lattice.getEdgeTarget(e))) {
+            words.add(lattice.getEdge(e).getWordId());
+         }
+      }
+      assertEquals(words.size(), lattice.getWordTimeIndex().getNumWords());
+   }
+
+   private static int[] scan(Lattice lattice, double time) {
+      TreeSet<Integer> words = new TreeSet<Integer>();
+      for (int e = 0; e < lattice.getEdgeCount(); e++) {
+         if (lattice.getNodeTime(lattice.getEdgeSource(e)) <= time && time <= lattice.getNodeTime(lattice.getEdgeTarget(e))) {
+            words.add(lattice.getEdge(e).getWordId());
+         }
+      }
+      return words.stream().mapToInt(Integer::intValue).toArray();
+   }
+
+   private static int[] sorted(int[] wordIds) {
+      int[] copy = wordIds.clone();
+      Arrays.sort(copy);
+      return copy;
+   }
+}